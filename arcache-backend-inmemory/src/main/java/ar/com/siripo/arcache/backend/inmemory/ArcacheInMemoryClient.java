@@ -1,32 +1,91 @@
 package ar.com.siripo.arcache.backend.inmemory;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.collections4.map.LRUMap;
-
-import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheAsyncBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheMultiKeyBackendClient;
 import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.ListenableFuture;
 import ar.com.siripo.arcache.util.ObjectSerializer;
 
 /**
  * In memory Backend
  * 
+ * By default the entries are kept in an exact LRU behind a single lock. With a
+ * concurrency level the storage is striped and the gets do not take locks, but
+ * the eviction order is an approximation of LRU, see StripedClockStorage.
+ * 
+ * Besides the number of entries, the total weight of the entries can be
+ * limited, usually in bytes. The set of an entry heavier than the maximum
+ * weight fails.
+ * 
+ * With cache isolation the serialized values can be kept off the heap, in the
+ * slabs of an OffHeapSlabAllocator, so a large cache does not add to the
+ * garbage collection pauses. When the allocator is full the entries of the
+ * size class of the new value are evicted, or the entries of one slab when the
+ * class has none, see OffHeapSlabAllocator.evictionCandidates.
+ * 
+ * The expired entries are kept until they are evicted, unless an expiry sweep
+ * is configured. Then every entry is linked in a timing wheel by expiration,
+ * and a background thread removes the expired ones every expirySweepMillis. The
+ * gets do no extra work, and the sweep only visits the entries that expired.
+ * 
  * @author Mariano Santamarina
  *
  */
-public class ArcacheInMemoryClient implements ArcacheBackendClient {
+public class ArcacheInMemoryClient implements ArcacheAsyncBackendClient, ArcacheMultiKeyBackendClient {
 
-	protected LRUMap<String, MemoryObject> storage;
+	protected InMemoryStorage storage;
 	protected ObjectSerializer objectSerializer;
 
 	protected int lruMaxSize = 1000;
 
+	/** 0 for the single lock LRU, otherwise the segments of the striped storage */
+	protected int concurrencyLevel = 0;
+
+	/** 0 when the total weight is not limited */
+	protected long maxWeight = 0;
+	protected InMemoryWeigher weigher;
+
 	/**
 	 * When cache is isolated, all the stored objects are serialized to be stored,
 	 * And deserialized to be retrieved from cache
 	 */
 	protected boolean cacheIsolation;
 
+	/** null to keep the values on the heap */
+	protected OffHeapSlabAllocator offHeapAllocator;
+
+	/** The evictions tried by a set when the allocator is full, before it fails */
+	protected static final int MAX_OFF_HEAP_EVICTION_ROUNDS = 16;
+
+	/** 0 when the expired entries are not swept */
+	protected long expirySweepMillis = 0;
+	protected ExpiryWheel[] expiryWheels;
+	protected ScheduledFuture<?> expirySweep;
+
+	/** Runs the expiry sweeps of all the clients, it has a single thread */
+	protected static final ScheduledExecutorService expirySweeper = new ScheduledThreadPoolExecutor(1,
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "arcache-expiry-sweeper");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
 	public ArcacheInMemoryClient() {
 		this(1000, false);
 	}
@@ -36,16 +95,140 @@ public class ArcacheInMemoryClient implements ArcacheBackendClient {
 	}
 
 	public ArcacheInMemoryClient(int maxSize, boolean cacheIsolation) {
+		this(maxSize, cacheIsolation, 0);
+	}
+
+	/**
+	 * @param maxSize          the maximum number of entries
+	 * @param cacheIsolation   serialize the stored objects
+	 * @param concurrencyLevel 0 to use an exact LRU behind a single lock, or the
+	 *                         expected number of concurrent writers to use a
+	 *                         striped storage with lock free gets
+	 */
+	public ArcacheInMemoryClient(int maxSize, boolean cacheIsolation, int concurrencyLevel) {
+		this(maxSize, cacheIsolation, concurrencyLevel, 0, null);
+	}
+
+	/**
+	 * @param maxSize          the maximum number of entries
+	 * @param cacheIsolation   serialize the stored objects
+	 * @param concurrencyLevel see above
+	 * @param maxWeight        the maximum total weight of the entries, 0 to not
+	 *                         limit it. An entry heavier than it is not stored
+	 * @param weigher          the weight of every entry, when it is null the
+	 *                         length of the serialized value is used. That is
+	 *                         free with cache isolation, otherwise the value is
+	 *                         serialized to measure it
+	 */
+	public ArcacheInMemoryClient(int maxSize, boolean cacheIsolation, int concurrencyLevel, long maxWeight,
+			InMemoryWeigher weigher) {
+		this(maxSize, cacheIsolation, concurrencyLevel, maxWeight, weigher, null);
+	}
+
+	/**
+	 * @param maxSize          the maximum number of entries
+	 * @param cacheIsolation   serialize the stored objects, it is required to
+	 *                         store them off heap
+	 * @param concurrencyLevel see above
+	 * @param maxWeight        see above
+	 * @param weigher          see above
+	 * @param offHeapAllocator where the serialized values are stored, null to
+	 *                         keep them on the heap. It must not be shared with
+	 *                         another client
+	 */
+	public ArcacheInMemoryClient(int maxSize, boolean cacheIsolation, int concurrencyLevel, long maxWeight,
+			InMemoryWeigher weigher, OffHeapSlabAllocator offHeapAllocator) {
+		this(maxSize, cacheIsolation, concurrencyLevel, maxWeight, weigher, offHeapAllocator, 0);
+	}
+
+	/**
+	 * @param maxSize           the maximum number of entries
+	 * @param cacheIsolation    see above
+	 * @param concurrencyLevel  see above
+	 * @param maxWeight         see above
+	 * @param weigher           see above
+	 * @param offHeapAllocator  see above
+	 * @param expirySweepMillis the interval of the removal of the expired
+	 *                          entries, they are removed at most two intervals
+	 *                          after they expire. 0 to keep them until they are
+	 *                          evicted
+	 */
+	public ArcacheInMemoryClient(int maxSize, boolean cacheIsolation, int concurrencyLevel, long maxWeight,
+			InMemoryWeigher weigher, OffHeapSlabAllocator offHeapAllocator, long expirySweepMillis) {
+		this(createStorage(maxSize, concurrencyLevel, maxWeight), cacheIsolation, concurrencyLevel, maxWeight, weigher,
+				offHeapAllocator, expirySweepMillis);
 		this.lruMaxSize = maxSize;
+	}
+
+	/**
+	 * A client over the given storage, usually a partition of a
+	 * StripedClockStorage shared with other clients
+	 * 
+	 * @param storage           it keeps the maximum size and weight of the
+	 *                          entries
+	 * @param cacheIsolation    see above
+	 * @param concurrencyLevel  the expected number of concurrent writers
+	 * @param maxWeight         the entries are weighed when it is not 0, it must
+	 *                          be the maximum weight of the storage
+	 * @param weigher           see above
+	 * @param offHeapAllocator  see above
+	 * @param expirySweepMillis see above
+	 */
+	public ArcacheInMemoryClient(InMemoryStorage storage, boolean cacheIsolation, int concurrencyLevel, long maxWeight,
+			InMemoryWeigher weigher, OffHeapSlabAllocator offHeapAllocator, long expirySweepMillis) {
+		if (concurrencyLevel < 0) {
+			throw new IllegalArgumentException("Invalid concurrency level");
+		}
+		if (maxWeight < 0) {
+			throw new IllegalArgumentException("Invalid max weight");
+		}
+		if ((offHeapAllocator != null) && (!cacheIsolation)) {
+			throw new IllegalArgumentException("Off heap storage requires cache isolation");
+		}
+		if (expirySweepMillis < 0) {
+			throw new IllegalArgumentException("Invalid expiry sweep millis");
+		}
+		this.storage = storage;
 		this.cacheIsolation = cacheIsolation;
+		this.concurrencyLevel = concurrencyLevel;
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		this.offHeapAllocator = offHeapAllocator;
+		this.expirySweepMillis = expirySweepMillis;
 		initialize();
 	}
 
+	protected static InMemoryStorage createStorage(int maxSize, int concurrencyLevel, long maxWeight) {
+		if (concurrencyLevel < 0) {
+			throw new IllegalArgumentException("Invalid concurrency level");
+		}
+		if (maxWeight < 0) {
+			throw new IllegalArgumentException("Invalid max weight");
+		}
+		if (concurrencyLevel > 0) {
+			return new StripedClockStorage(maxSize, concurrencyLevel, maxWeight);
+		}
+		return new LRUMapStorage(maxSize, maxWeight);
+	}
+
 	private void initialize() {
-		storage = new LRUMap<String, MemoryObject>(lruMaxSize);
+		if ((maxWeight > 0) && (weigher == null)) {
+			weigher = new SerializedLengthWeigher();
+		}
 		if (cacheIsolation) {
 			objectSerializer = new ObjectSerializer();
 		}
+		if (expirySweepMillis > 0) {
+			// One wheel per expected writer, so the puts do not contend on it
+			expiryWheels = new ExpiryWheel[Math.max(concurrencyLevel, 1)];
+			for (int i = 0; i < expiryWheels.length; i++) {
+				expiryWheels[i] = new ExpiryWheel(expirySweepMillis, System.currentTimeMillis());
+			}
+			ExpirySweepTask task = new ExpirySweepTask(this);
+			expirySweep = expirySweeper.scheduleAtFixedRate(task, expirySweepMillis, expirySweepMillis,
+					TimeUnit.MILLISECONDS);
+			task.scheduledFuture = expirySweep;
+		}
 	}
 
 	@Override
@@ -58,17 +241,77 @@ public class ArcacheInMemoryClient implements ArcacheBackendClient {
 		return new DummyFuture<Object>(get(key));
 	}
 
+	@Override
+	public ListenableFuture<Boolean> listenableSet(String key, long ttlMillis, Object value) {
+		return new DummyFuture<Boolean>(set(key, ttlMillis, value));
+	}
+
+	@Override
+	public ListenableFuture<Object> listenableGet(String key) {
+		return new DummyFuture<Object>(get(key));
+	}
+
+	@Override
+	public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+		return new DummyFuture<Map<String, Object>>(multiGet(keys));
+	}
+
+	@Override
+	public Future<Map<String, Boolean>> asyncMultiSet(Map<String, Object> values, long ttlMillis) {
+		return new DummyFuture<Map<String, Boolean>>(multiSet(values, ttlMillis));
+	}
+
 	public Object get(String key) {
-		MemoryObject inMemoryObject;
+		MemoryObject inMemoryObject = storage.get(key);
+
+		return restoreMemoryObject(inMemoryObject, System.currentTimeMillis());
+	}
+
+	/**
+	 * Gets many keys with a single lock acquisition, or none with the striped
+	 * storage
+	 * 
+	 * @param keys
+	 * @return the found keys, the missing or expired are not included
+	 */
+	public Map<String, Object> multiGet(Collection<String> keys) {
+		LinkedHashMap<String, MemoryObject> inMemoryObjects = new LinkedHashMap<String, MemoryObject>();
 
-		synchronized (storage) {
-			inMemoryObject = storage.get(key);
+		storage.getAll(keys, inMemoryObjects);
+
+		final long currentTimeMillis = System.currentTimeMillis();
+		LinkedHashMap<String, Object> result = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, MemoryObject> entry : inMemoryObjects.entrySet()) {
+			Object obj = restoreMemoryObject(entry.getValue(), currentTimeMillis);
+			if (obj != null) {
+				result.put(entry.getKey(), obj);
+			}
 		}
+		return result;
+	}
 
+	/**
+	 * Restores an entry got directly from the storage, so a storage shared with
+	 * other clients is probed once and the entry is restored by the client of its
+	 * partition
+	 * 
+	 * @return null when it is missing or expired
+	 */
+	public Object restore(MemoryObject inMemoryObject) {
+		return restoreMemoryObject(inMemoryObject, System.currentTimeMillis());
+	}
+
+	protected Object restoreMemoryObject(MemoryObject inMemoryObject, long currentTimeMillis) {
 		Object obj = null;
 		if (inMemoryObject != null) {
-			if (inMemoryObject.expirationTimeMillis > System.currentTimeMillis()) {
-				if (cacheIsolation) {
+			if (inMemoryObject.expirationTimeMillis > currentTimeMillis) {
+				if (inMemoryObject.offHeapAllocator != null) {
+					// null when it was removed after the get
+					byte[] bytes = inMemoryObject.offHeapAllocator.read((OffHeapChunk) inMemoryObject.data);
+					if (bytes != null) {
+						obj = objectSerializer.deserialize(bytes);
+					}
+				} else if (cacheIsolation) {
 					obj = objectSerializer.deserialize((byte[]) inMemoryObject.data);
 				} else {
 					obj = inMemoryObject.data;
@@ -80,6 +323,56 @@ public class ArcacheInMemoryClient implements ArcacheBackendClient {
 
 	public boolean set(String key, long ttlMillis, Object value) {
 
+		MemoryObject inMemoryObject = createMemoryObject(key, ttlMillis, value);
+
+		if (inMemoryObject == null) {
+			storage.remove(key);
+			return false;
+		}
+		if (!storage.put(key, inMemoryObject)) {
+			inMemoryObject.release();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Sets many keys with a single lock acquisition, or one per key with the
+	 * striped storage. The serialization is done before taking the lock
+	 * 
+	 * @param values
+	 * @param ttlMillis
+	 * @return the result of every key
+	 */
+	public Map<String, Boolean> multiSet(Map<String, Object> values, long ttlMillis) {
+		LinkedHashMap<String, MemoryObject> inMemoryObjects = new LinkedHashMap<String, MemoryObject>();
+		LinkedHashMap<String, Boolean> result = new LinkedHashMap<String, Boolean>();
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			MemoryObject inMemoryObject = createMemoryObject(entry.getKey(), ttlMillis, entry.getValue());
+			if (inMemoryObject != null) {
+				inMemoryObjects.put(entry.getKey(), inMemoryObject);
+			} else {
+				storage.remove(entry.getKey());
+				result.put(entry.getKey(), false);
+			}
+		}
+
+		storage.putAll(inMemoryObjects, result);
+
+		for (Map.Entry<String, MemoryObject> entry : inMemoryObjects.entrySet()) {
+			if (!result.get(entry.getKey())) {
+				entry.getValue().release();
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return null when the value does not fit off heap, it is larger than a slab
+	 *         or there is nothing left to evict
+	 */
+	protected MemoryObject createMemoryObject(String key, long ttlMillis, Object value) {
 		MemoryObject inMemoryObject = new MemoryObject();
 		inMemoryObject.expirationTimeMillis = System.currentTimeMillis() + ttlMillis;
 		if (cacheIsolation) {
@@ -87,23 +380,128 @@ public class ArcacheInMemoryClient implements ArcacheBackendClient {
 		} else {
 			inMemoryObject.data = value;
 		}
-
-		synchronized (storage) {
-			storage.put(key, inMemoryObject);
+		if (maxWeight > 0) {
+			inMemoryObject.weight = weigher.weigh(key, inMemoryObject.data);
+			if (inMemoryObject.weight < 0) {
+				throw new IllegalArgumentException("Negative weight");
+			}
 		}
-
-		return true;
+		// A null value is stored as null
+		if ((offHeapAllocator != null) && (inMemoryObject.data != null)) {
+			byte[] bytes = (byte[]) inMemoryObject.data;
+			inMemoryObject.key = key;
+			OffHeapChunk chunk = offHeapAllocator.allocate(bytes, inMemoryObject);
+			// Only the entries of the size class needed are evicted, or a single slab
+			for (int round = 0; (chunk == null) && (round < MAX_OFF_HEAP_EVICTION_ROUNDS); round++) {
+				List<Object> victims = offHeapAllocator.evictionCandidates(bytes.length);
+				if (victims.isEmpty()) {
+					break;
+				}
+				for (Object victim : victims) {
+					MemoryObject victimObject = (MemoryObject) victim;
+					storage.remove(victimObject.key, victimObject);
+				}
+				chunk = offHeapAllocator.allocate(bytes, inMemoryObject);
+			}
+			if (chunk == null) {
+				return null;
+			}
+			inMemoryObject.data = chunk;
+			inMemoryObject.offHeapAllocator = offHeapAllocator;
+		}
+		// Linked before the put, so an entry dropped by the put is unlinked
+		if (expiryWheels != null) {
+			inMemoryObject.key = key;
+			inMemoryObject.expiryWheel = expiryWheels[(key.hashCode() & Integer.MAX_VALUE) % expiryWheels.length];
+			inMemoryObject.expiryWheel.add(inMemoryObject);
+		}
+		return inMemoryObject;
 	}
 
 	public void remove(String key) {
-		synchronized (storage) {
-			storage.remove(key);
-		}
+		storage.remove(key);
 	}
 
 	public void clear() {
-		synchronized (storage) {
-			storage.clear();
+		storage.clear();
+	}
+
+	/**
+	 * Removes the entries that expired, it is called by the sweeper thread
+	 * 
+	 * @return the number of expired entries found
+	 */
+	public int sweepExpired() {
+		if (expiryWheels == null) {
+			return 0;
+		}
+		final long currentTimeMillis = System.currentTimeMillis();
+		ArrayList<MemoryObject> expired = new ArrayList<MemoryObject>();
+		for (ExpiryWheel expiryWheel : expiryWheels) {
+			expiryWheel.advance(currentTimeMillis, expired);
+		}
+		for (MemoryObject inMemoryObject : expired) {
+			storage.remove(inMemoryObject.key, inMemoryObject);
+		}
+		return expired.size();
+	}
+
+	/** Stops the expiry sweep, the expired entries are kept until evicted */
+	public void shutdown() {
+		if (expirySweep != null) {
+			expirySweep.cancel(false);
+		}
+	}
+
+	public long getExpirySweepMillis() {
+		return expirySweepMillis;
+	}
+
+	public int getConcurrencyLevel() {
+		return concurrencyLevel;
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public InMemoryWeigher getWeigher() {
+		return weigher;
+	}
+
+	public OffHeapSlabAllocator getOffHeapAllocator() {
+		return offHeapAllocator;
+	}
+
+	/** @return the number of stored entries, including the expired ones */
+	public int size() {
+		return storage.size();
+	}
+
+	/** @return the total weight of the stored entries, for monitoring */
+	public long getWeight() {
+		return storage.getWeight();
+	}
+
+	/** It does not keep the client from being collected, then it cancels itself */
+	protected static class ExpirySweepTask implements Runnable {
+		final WeakReference<ArcacheInMemoryClient> client;
+		volatile ScheduledFuture<?> scheduledFuture;
+
+		ExpirySweepTask(ArcacheInMemoryClient client) {
+			this.client = new WeakReference<ArcacheInMemoryClient>(client);
+		}
+
+		@Override
+		public void run() {
+			ArcacheInMemoryClient c = client.get();
+			if (c == null) {
+				if (scheduledFuture != null) {
+					scheduledFuture.cancel(false);
+				}
+				return;
+			}
+			c.sweepExpired();
 		}
 	}
 
@@ -0,0 +1,154 @@
+package ar.com.siripo.arcache.backend.inmemory;
+
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel of the entries by expiration time. Every level
+ * has 64 buckets, a bucket of the first level spans one tick and a bucket of
+ * the next level spans all the buckets of the previous one. An entry is linked
+ * in the level that fits the time left to its expiration, and when the time
+ * reaches its bucket it is moved to a lower level, until it expires.
+ *
+ * Adding and removing an entry is constant time, and advancing the time only
+ * visits the buckets that were reached, so there are no full scans. An entry
+ * expiring later than the span of the wheel waits in the last level, and it is
+ * moved again when its bucket is reached.
+ *
+ * The entries are the MemoryObjects themselves, linked in a list per bucket.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class ExpiryWheel {
+
+	protected static final int BUCKET_BITS = 6;
+	protected static final int BUCKETS = 1 << BUCKET_BITS;
+	protected static final int LEVELS = 5;
+	protected static final long SPAN_TICKS = 1L << (BUCKET_BITS * LEVELS);
+
+	protected final long tickMillis;
+
+	// All guarded by this
+	protected final MemoryObject[][] buckets;
+	protected long currentTick;
+	protected int size = 0;
+
+	/**
+	 * @param tickMillis        the time span of a bucket of the first level
+	 * @param currentTimeMillis the start of the wheel
+	 */
+	public ExpiryWheel(long tickMillis, long currentTimeMillis) {
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.tickMillis = tickMillis;
+		this.currentTick = currentTimeMillis / tickMillis;
+		buckets = new MemoryObject[LEVELS][BUCKETS];
+		for (int level = 0; level < LEVELS; level++) {
+			for (int i = 0; i < BUCKETS; i++) {
+				// The sentinel of a circular list
+				MemoryObject sentinel = new MemoryObject();
+				sentinel.expiryPrev = sentinel;
+				sentinel.expiryNext = sentinel;
+				buckets[level][i] = sentinel;
+			}
+		}
+	}
+
+	public long getTickMillis() {
+		return tickMillis;
+	}
+
+	/** Links the entry, it is unlinked when it expires or by remove */
+	public synchronized void add(final MemoryObject memoryObject) {
+		link(memoryObject);
+		size++;
+	}
+
+	/** Unlinks the entry, if it is still linked */
+	public synchronized void remove(final MemoryObject memoryObject) {
+		if (memoryObject.expiryNext != null) {
+			unlink(memoryObject);
+			size--;
+		}
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Advances the wheel to the time, unlinking the entries that expired
+	 *
+	 * @param currentTimeMillis
+	 * @param expired           the expired entries are added here
+	 */
+	public synchronized void advance(final long currentTimeMillis, final List<MemoryObject> expired) {
+		final long previousTick = currentTick;
+		final long tick = currentTimeMillis / tickMillis;
+		if (tick <= previousTick) {
+			return;
+		}
+		currentTick = tick;
+		for (int level = 0; level < LEVELS; level++) {
+			final int shift = BUCKET_BITS * level;
+			final long previous = previousTick >>> shift;
+			final long current = tick >>> shift;
+			if (current == previous) {
+				break;
+			}
+			// The buckets reached since the previous advance, all of them after a turn
+			long first = Math.max(previous + 1, current - BUCKETS + 1);
+			for (long i = first; i <= current; i++) {
+				expireBucket(buckets[level][(int) (i & (BUCKETS - 1))], currentTimeMillis, expired);
+			}
+		}
+	}
+
+	/** The entries that did not expire yet are linked again in a lower level */
+	protected void expireBucket(final MemoryObject sentinel, final long currentTimeMillis,
+			final List<MemoryObject> expired) {
+		MemoryObject node = sentinel.expiryNext;
+		sentinel.expiryNext = sentinel;
+		sentinel.expiryPrev = sentinel;
+		while (node != sentinel) {
+			MemoryObject next = node.expiryNext;
+			if (node.expirationTimeMillis <= currentTimeMillis) {
+				node.expiryNext = null;
+				node.expiryPrev = null;
+				size--;
+				expired.add(node);
+			} else {
+				link(node);
+			}
+			node = next;
+		}
+	}
+
+	protected void link(final MemoryObject memoryObject) {
+		long tick = memoryObject.expirationTimeMillis / tickMillis;
+		// An entry already expired is taken by the next advance
+		long delta = Math.max(tick - currentTick, 1);
+		if (delta >= SPAN_TICKS) {
+			delta = SPAN_TICKS - 1;
+		}
+		tick = currentTick + delta;
+		int level = 0;
+		while (delta >= (1L << (BUCKET_BITS * (level + 1)))) {
+			level++;
+		}
+		MemoryObject sentinel = buckets[level][(int) ((tick >>> (BUCKET_BITS * level)) & (BUCKETS - 1))];
+		memoryObject.expiryPrev = sentinel.expiryPrev;
+		memoryObject.expiryNext = sentinel;
+		sentinel.expiryPrev.expiryNext = memoryObject;
+		sentinel.expiryPrev = memoryObject;
+	}
+
+	protected void unlink(final MemoryObject memoryObject) {
+		memoryObject.expiryPrev.expiryNext = memoryObject.expiryNext;
+		memoryObject.expiryNext.expiryPrev = memoryObject.expiryPrev;
+		memoryObject.expiryNext = null;
+		memoryObject.expiryPrev = null;
+	}
+
+}
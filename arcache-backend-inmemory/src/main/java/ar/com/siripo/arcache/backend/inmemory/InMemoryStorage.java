@@ -0,0 +1,52 @@
+package ar.com.siripo.arcache.backend.inmemory;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The storage engine of an ArcacheInMemoryClient, it keeps at most a fixed
+ * number of entries evicting the least recently used ones. When a maximum
+ * weight is configured the total weight of the entries is kept under it too.
+ * The implementations are thread safe, and release every entry they drop.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public interface InMemoryStorage {
+
+	/** @return the stored object, null when it is missing */
+	public MemoryObject get(String key);
+
+	/** Puts in the result the stored object of every key, null when it is missing */
+	public void getAll(Collection<String> keys, Map<String, MemoryObject> result);
+
+	/**
+	 * @return false when the entry is heavier than the maximum weight, it is not
+	 *         stored and the previous entry of the key is removed
+	 */
+	public boolean put(String key, MemoryObject memoryObject);
+
+	/** Puts in the result if every entry was stored, see put */
+	public void putAll(Map<String, MemoryObject> memoryObjects, Map<String, Boolean> result);
+
+	public void remove(String key);
+
+	/** Removes the entry only if it is still this one, used to sweep the expired */
+	public void remove(String key, MemoryObject memoryObject);
+
+	/**
+	 * Evicts the entry that would be evicted next by a put
+	 * 
+	 * @return false when it is empty
+	 */
+	public boolean evict();
+
+	public void clear();
+
+	/** @return the number of stored entries, including the expired ones */
+	public int size();
+
+	/** @return the total weight of the stored entries, 0 when it is not limited */
+	public long getWeight();
+
+}
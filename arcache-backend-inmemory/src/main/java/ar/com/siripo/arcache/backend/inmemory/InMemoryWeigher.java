@@ -0,0 +1,22 @@
+package ar.com.siripo.arcache.backend.inmemory;
+
+/**
+ * Calculates the weight of the entries of an ArcacheInMemoryClient with a
+ * maximum weight, usually its size in bytes.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public interface InMemoryWeigher {
+
+	/**
+	 * It is called once when the entry is stored, so it must be fast.
+	 * 
+	 * @param key  the key of the entry
+	 * @param data the stored data, with cache isolation it is the serialized
+	 *             byte array of the value
+	 * @return the weight, it must not be negative
+	 */
+	public long weigh(String key, Object data);
+
+}
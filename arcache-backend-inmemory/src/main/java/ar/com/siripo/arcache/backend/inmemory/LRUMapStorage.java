@@ -0,0 +1,145 @@
+package ar.com.siripo.arcache.backend.inmemory;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.commons.collections4.map.LRUMap;
+
+/**
+ * Exact LRU over a single LRUMap. Every operation takes the same lock, even the
+ * gets because they change the access order, so it does not scale with the
+ * number of threads. See StripedClockStorage.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public class LRUMapStorage implements InMemoryStorage {
+
+	protected final LRUMap<String, MemoryObject> storage;
+
+	/** 0 when the weight is not limited */
+	protected final long maxWeight;
+	protected volatile long weight = 0; // written with the storage lock
+
+	public LRUMapStorage(int maxSize) {
+		this(maxSize, 0);
+	}
+
+	public LRUMapStorage(int maxSize, long maxWeight) {
+		if (maxWeight < 0) {
+			throw new IllegalArgumentException();
+		}
+		storage = new LRUMap<String, MemoryObject>(maxSize);
+		this.maxWeight = maxWeight;
+	}
+
+	@Override
+	public MemoryObject get(String key) {
+		synchronized (storage) {
+			return storage.get(key);
+		}
+	}
+
+	@Override
+	public void getAll(Collection<String> keys, Map<String, MemoryObject> result) {
+		synchronized (storage) {
+			for (String key : keys) {
+				result.put(key, storage.get(key));
+			}
+		}
+	}
+
+	@Override
+	public boolean put(String key, MemoryObject memoryObject) {
+		synchronized (storage) {
+			return putEntry(key, memoryObject);
+		}
+	}
+
+	@Override
+	public void putAll(Map<String, MemoryObject> memoryObjects, Map<String, Boolean> result) {
+		synchronized (storage) {
+			for (Map.Entry<String, MemoryObject> entry : memoryObjects.entrySet()) {
+				result.put(entry.getKey(), putEntry(entry.getKey(), entry.getValue()));
+			}
+		}
+	}
+
+	/**
+	 * The least recently used entries are evicted here, before the put, so the
+	 * weight of every removed entry is known
+	 */
+	protected boolean putEntry(String key, MemoryObject memoryObject) {
+		removeEntry(key);
+		if ((maxWeight > 0) && (memoryObject.weight > maxWeight)) {
+			return false;
+		}
+		while ((!storage.isEmpty()) && (storage.isFull()
+				|| ((maxWeight > 0) && (weight + memoryObject.weight > maxWeight)))) {
+			removeEntry(storage.firstKey());
+		}
+		storage.put(key, memoryObject);
+		weight += memoryObject.weight;
+		return true;
+	}
+
+	protected void removeEntry(String key) {
+		MemoryObject removed = storage.remove(key);
+		if (removed != null) {
+			weight -= removed.weight;
+			removed.release();
+		}
+	}
+
+	@Override
+	public void remove(String key) {
+		synchronized (storage) {
+			removeEntry(key);
+		}
+	}
+
+	/** The LRU order is not changed */
+	@Override
+	public void remove(String key, MemoryObject memoryObject) {
+		synchronized (storage) {
+			if (storage.get(key, false) == memoryObject) {
+				removeEntry(key);
+			}
+		}
+	}
+
+	@Override
+	public boolean evict() {
+		synchronized (storage) {
+			if (storage.isEmpty()) {
+				return false;
+			}
+			removeEntry(storage.firstKey());
+			return true;
+		}
+	}
+
+	@Override
+	public void clear() {
+		synchronized (storage) {
+			for (MemoryObject memoryObject : storage.values()) {
+				memoryObject.release();
+			}
+			storage.clear();
+			weight = 0;
+		}
+	}
+
+	@Override
+	public int size() {
+		synchronized (storage) {
+			return storage.size();
+		}
+	}
+
+	@Override
+	public long getWeight() {
+		return weight;
+	}
+
+}
@@ -4,6 +4,37 @@ public class MemoryObject {
 	// Expiration time expressed in milliseconds
 	long expirationTimeMillis;
 
+	// The value, its serialized bytes with cache isolation, or an OffHeapChunk
 	Object data;
 
+	// 0 when the storage weight is not limited
+	long weight;
+
+	// Set by the storage when it is split in partitions, see StripedClockStorage
+	int partition;
+
+	// Needed to free the off heap chunk
+	OffHeapSlabAllocator offHeapAllocator;
+
+	// The key is set when the entries are swept or stored off heap, the links are guarded by the wheel
+	String key;
+	ExpiryWheel expiryWheel;
+	MemoryObject expiryPrev;
+	MemoryObject expiryNext;
+
+	/** @return the partition of the storage where the entry is stored */
+	public int getPartition() {
+		return partition;
+	}
+
+	/** Called by the storage when the entry is removed, evicted or replaced */
+	void release() {
+		if (offHeapAllocator != null) {
+			offHeapAllocator.free((OffHeapChunk) data);
+		}
+		if (expiryWheel != null) {
+			expiryWheel.remove(this);
+		}
+	}
+
 }
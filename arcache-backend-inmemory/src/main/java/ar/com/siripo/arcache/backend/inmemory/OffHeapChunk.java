@@ -0,0 +1,29 @@
+package ar.com.siripo.arcache.backend.inmemory;
+
+/**
+ * The on heap handle of a payload stored by an OffHeapSlabAllocator
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public class OffHeapChunk {
+
+	final OffHeapSlabAllocator.Slab slab;
+	final int epoch;
+	final int index;
+	final int generation;
+	final int length;
+
+	OffHeapChunk(OffHeapSlabAllocator.Slab slab, int epoch, int index, int generation, int length) {
+		this.slab = slab;
+		this.epoch = epoch;
+		this.index = index;
+		this.generation = generation;
+		this.length = length;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+}
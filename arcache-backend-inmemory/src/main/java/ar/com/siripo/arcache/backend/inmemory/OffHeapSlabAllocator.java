@@ -0,0 +1,373 @@
+package ar.com.siripo.arcache.backend.inmemory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps byte arrays out of the heap, in direct ByteBuffer slabs of a fixed
+ * size. Every slab is assigned to a size class and split in chunks of that
+ * size, a payload is stored in a chunk of the smallest class that fits it. The
+ * size classes grow by a factor of 1.25 so the wasted space is bounded.
+ *
+ * When all the chunks of a slab are free it returns to the pool and it can be
+ * assigned to another class. The slabs are allocated on demand up to the
+ * capacity and they are never released, the native memory is freed when the
+ * allocator is collected.
+ *
+ * When it is full, evictionCandidates chooses the owners to evict for a new
+ * payload. A class with slabs evicts one of its own chunks, chosen by a clock
+ * over its chunks, so a set does not flush other classes. A class without
+ * slabs takes over the slab with the fewest chunks in use, like the slab
+ * reassignment of memcached.
+ *
+ * Only the chunk handles are kept on the heap. A handle of a freed chunk is
+ * detected by a generation stamp, and its read returns null, so the readers do
+ * not need to synchronize with the removals.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class OffHeapSlabAllocator {
+
+	public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+	protected static final int MIN_CHUNK_SIZE = 128;
+
+	protected final int slabSize;
+	protected final long capacity;
+	protected final int maxSlabs;
+
+	protected final int[] chunkSizes;
+	protected final SizeClass[] sizeClasses;
+
+	protected final ArrayList<Slab> freeSlabs = new ArrayList<Slab>(); // guarded by this
+	protected final ArrayList<Slab> slabs = new ArrayList<Slab>(); // All the allocated, guarded by this
+	protected int allocatedSlabs = 0; // guarded by this
+
+	protected final AtomicLong usedBytes = new AtomicLong();
+
+	public OffHeapSlabAllocator(long capacity) {
+		this(capacity, DEFAULT_SLAB_SIZE);
+	}
+
+	/**
+	 * @param capacity the maximum off heap bytes, rounded down to whole slabs
+	 * @param slabSize the size of every slab, it is also the largest payload
+	 */
+	public OffHeapSlabAllocator(long capacity, int slabSize) {
+		if ((slabSize < MIN_CHUNK_SIZE) || (capacity < slabSize)) {
+			throw new IllegalArgumentException();
+		}
+		this.slabSize = slabSize;
+		this.capacity = capacity;
+		this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, capacity / slabSize);
+		this.chunkSizes = createChunkSizes(slabSize);
+		this.sizeClasses = new SizeClass[chunkSizes.length];
+		for (int i = 0; i < chunkSizes.length; i++) {
+			sizeClasses[i] = new SizeClass(chunkSizes[i]);
+		}
+	}
+
+	protected static int[] createChunkSizes(final int slabSize) {
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		int size = MIN_CHUNK_SIZE;
+		while (size < slabSize) {
+			sizes.add(size);
+			size = ((size + size / 4) + 7) & ~7;
+		}
+		sizes.add(slabSize);
+		int[] result = new int[sizes.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = sizes.get(i);
+		}
+		return result;
+	}
+
+	/** @return the smallest class that fits the length, null when it is too large */
+	protected SizeClass sizeClassFor(final int length) {
+		int i = Arrays.binarySearch(chunkSizes, length);
+		if (i < 0) {
+			i = -i - 1;
+		}
+		if (i >= chunkSizes.length) {
+			return null;
+		}
+		return sizeClasses[i];
+	}
+
+	/**
+	 * Copies the payload to a free chunk
+	 *
+	 * @return the handle of the chunk, null when the payload is larger than a
+	 *         slab or there is no free memory for its size class
+	 */
+	public OffHeapChunk allocate(final byte[] payload) {
+		return allocate(payload, null);
+	}
+
+	/**
+	 * Same as allocate, the owner is returned by evictionCandidates while the
+	 * chunk is in use
+	 */
+	public OffHeapChunk allocate(final byte[] payload, final Object owner) {
+		final SizeClass sizeClass = sizeClassFor(payload.length);
+		if (sizeClass == null) {
+			return null;
+		}
+		Slab slab;
+		int index;
+		synchronized (sizeClass) {
+			Iterator<Slab> partialSlabs = sizeClass.partialSlabs.iterator();
+			if (partialSlabs.hasNext()) {
+				slab = partialSlabs.next();
+			} else {
+				slab = takeFreeSlab();
+				if (slab == null) {
+					return null;
+				}
+				slab.assign(sizeClass);
+				sizeClass.partialSlabs.add(slab);
+				sizeClass.slabs.add(slab);
+			}
+			index = slab.freeChunks[--slab.freeChunksCount];
+			if (slab.freeChunksCount == 0) {
+				sizeClass.partialSlabs.remove(slab);
+			}
+		}
+		usedBytes.addAndGet(sizeClass.chunkSize);
+		synchronized (slab) {
+			slab.buffer.position(index * sizeClass.chunkSize);
+			slab.buffer.put(payload);
+			slab.owners[index] = owner;
+			slab.referenced[index] = false;
+			slab.usedChunks++;
+			return new OffHeapChunk(slab, slab.epoch, index, slab.generations[index], payload.length);
+		}
+	}
+
+	/** @return a copy of the payload, null when the chunk was freed */
+	public byte[] read(final OffHeapChunk chunk) {
+		final Slab slab = chunk.slab;
+		synchronized (slab) {
+			if (!slab.holds(chunk)) {
+				return null;
+			}
+			slab.referenced[chunk.index] = true;
+			byte[] payload = new byte[chunk.length];
+			slab.buffer.position(chunk.index * slab.chunkSize);
+			slab.buffer.get(payload);
+			return payload;
+		}
+	}
+
+	/** Frees the chunk, a chunk already freed is ignored */
+	public void free(final OffHeapChunk chunk) {
+		final Slab slab = chunk.slab;
+		final SizeClass sizeClass;
+		synchronized (slab) {
+			if (!slab.holds(chunk)) {
+				return;
+			}
+			slab.generations[chunk.index]++;
+			slab.owners[chunk.index] = null;
+			slab.usedChunks--;
+			sizeClass = slab.sizeClass;
+		}
+		usedBytes.addAndGet(-sizeClass.chunkSize);
+		synchronized (sizeClass) {
+			slab.freeChunks[slab.freeChunksCount++] = chunk.index;
+			if (slab.freeChunksCount == slab.freeChunks.length) {
+				sizeClass.partialSlabs.remove(slab);
+				sizeClass.slabs.remove(slab);
+				returnFreeSlab(slab);
+			} else if (slab.freeChunksCount == 1) {
+				sizeClass.partialSlabs.add(slab);
+			}
+		}
+	}
+
+	protected synchronized Slab takeFreeSlab() {
+		if (!freeSlabs.isEmpty()) {
+			return freeSlabs.remove(freeSlabs.size() - 1);
+		}
+		if (allocatedSlabs >= maxSlabs) {
+			return null;
+		}
+		allocatedSlabs++;
+		Slab slab = new Slab(ByteBuffer.allocateDirect(slabSize));
+		slabs.add(slab);
+		return slab;
+	}
+
+	/**
+	 * The owners to evict so a payload of the length fits, when there is no free
+	 * chunk for it. Once they are freed the allocation can be retried, a
+	 * concurrent allocation may take the space first.
+	 *
+	 * @return one owner of a chunk of the same class when the class has slabs,
+	 *         otherwise the owners of the slab with the fewest chunks in use.
+	 *         Empty when there is nothing to evict or it is too large
+	 */
+	public List<Object> evictionCandidates(final int length) {
+		final SizeClass sizeClass = sizeClassFor(length);
+		if (sizeClass == null) {
+			return Collections.emptyList();
+		}
+		Object victim;
+		synchronized (sizeClass) {
+			victim = sizeClass.nextVictim();
+		}
+		if (victim != null) {
+			return Collections.singletonList(victim);
+		}
+		return reassignmentCandidates(sizeClass);
+	}
+
+	/** @return the owners of the least used slab of another class */
+	protected List<Object> reassignmentCandidates(final SizeClass sizeClass) {
+		ArrayList<Slab> allocated;
+		synchronized (this) {
+			allocated = new ArrayList<Slab>(slabs);
+		}
+		Slab victimSlab = null;
+		int victimUsedChunks = Integer.MAX_VALUE;
+		for (Slab slab : allocated) {
+			synchronized (slab) {
+				if ((slab.sizeClass != sizeClass) && (slab.usedChunks > 0) && (slab.usedChunks < victimUsedChunks)) {
+					victimSlab = slab;
+					victimUsedChunks = slab.usedChunks;
+				}
+			}
+		}
+		if (victimSlab == null) {
+			return Collections.emptyList();
+		}
+		ArrayList<Object> owners = new ArrayList<Object>(victimUsedChunks);
+		synchronized (victimSlab) {
+			for (Object owner : victimSlab.owners) {
+				if (owner != null) {
+					owners.add(owner);
+				}
+			}
+		}
+		return owners;
+	}
+
+	protected synchronized void returnFreeSlab(final Slab slab) {
+		freeSlabs.add(slab);
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public int getSlabSize() {
+		return slabSize;
+	}
+
+	/** @return the bytes of the chunks in use, including the unused tail of every chunk */
+	public long getUsedBytes() {
+		return usedBytes.get();
+	}
+
+	/** @return the off heap bytes allocated so far */
+	public synchronized long getAllocatedBytes() {
+		return (long) allocatedSlabs * slabSize;
+	}
+
+	protected static class SizeClass {
+		final int chunkSize;
+		final LinkedHashSet<Slab> partialSlabs = new LinkedHashSet<Slab>(); // guarded by this
+		final ArrayList<Slab> slabs = new ArrayList<Slab>(); // All the assigned, guarded by this
+		int handSlab = 0; // The clock hand, guarded by this
+		int handChunk = 0;
+
+		SizeClass(int chunkSize) {
+			this.chunkSize = chunkSize;
+		}
+
+		/**
+		 * Called with the lock. The clock skips the chunks read since its previous
+		 * pass, clearing their mark
+		 *
+		 * @return the owner of a chunk not read recently, null when there is none
+		 */
+		Object nextVictim() {
+			if (slabs.isEmpty()) {
+				return null;
+			}
+			int steps = 2 * slabs.size() * slabs.get(0).owners.length;
+			for (int i = 0; i < steps; i++) {
+				if (handSlab >= slabs.size()) {
+					handSlab = 0;
+					handChunk = 0;
+				}
+				Slab slab = slabs.get(handSlab);
+				Object victim = null;
+				synchronized (slab) {
+					if (slab.owners[handChunk] != null) {
+						if (slab.referenced[handChunk]) {
+							slab.referenced[handChunk] = false;
+						} else {
+							victim = slab.owners[handChunk];
+						}
+					}
+				}
+				if (++handChunk >= slab.owners.length) {
+					handChunk = 0;
+					handSlab++;
+				}
+				if (victim != null) {
+					return victim;
+				}
+			}
+			return null;
+		}
+	}
+
+	protected static class Slab {
+		final ByteBuffer buffer;
+		// Changed while the slab is not assigned, guarded by this for the readers
+		SizeClass sizeClass;
+		int chunkSize;
+		int epoch = 0;
+		int[] generations;
+		Object[] owners; // Of the chunks in use
+		boolean[] referenced; // The chunks read since the clock passed them
+		int usedChunks;
+		// Guarded by the size class
+		int[] freeChunks;
+		int freeChunksCount;
+
+		Slab(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		synchronized void assign(final SizeClass sizeClass) {
+			this.sizeClass = sizeClass;
+			this.chunkSize = sizeClass.chunkSize;
+			this.epoch++;
+			int chunks = buffer.capacity() / chunkSize;
+			this.generations = new int[chunks];
+			this.owners = new Object[chunks];
+			this.referenced = new boolean[chunks];
+			this.usedChunks = 0;
+			this.freeChunks = new int[chunks];
+			for (int i = 0; i < chunks; i++) {
+				freeChunks[i] = chunks - 1 - i;
+			}
+			this.freeChunksCount = chunks;
+		}
+
+		/** Called with the lock */
+		boolean holds(final OffHeapChunk chunk) {
+			return (epoch == chunk.epoch) && (generations[chunk.index] == chunk.generation);
+		}
+	}
+
+}
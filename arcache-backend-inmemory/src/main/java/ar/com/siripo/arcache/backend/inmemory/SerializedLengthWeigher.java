@@ -0,0 +1,29 @@
+package ar.com.siripo.arcache.backend.inmemory;
+
+import ar.com.siripo.arcache.util.ObjectSerializer;
+
+/**
+ * The weight is the length of the serialized value. With cache isolation the
+ * stored data is already serialized and the weight is free, otherwise the value
+ * is serialized only to measure it, so a cheaper estimator is preferred for
+ * large objects.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public class SerializedLengthWeigher implements InMemoryWeigher {
+
+	protected final ObjectSerializer objectSerializer = new ObjectSerializer();
+
+	@Override
+	public long weigh(String key, Object data) {
+		if (data == null) {
+			return 0;
+		}
+		if (data instanceof byte[]) {
+			return ((byte[]) data).length;
+		}
+		return objectSerializer.serializeToByteArray(data).length;
+	}
+
+}
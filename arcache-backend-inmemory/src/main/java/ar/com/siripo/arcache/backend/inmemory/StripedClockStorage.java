@@ -0,0 +1,554 @@
+package ar.com.siripo.arcache.backend.inmemory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrent storage split in segments by the hash of the key, every segment
+ * keeps its share of the entries with the CLOCK algorithm, an approximation of
+ * LRU.
+ *
+ * The gets do not take any lock, they read a ConcurrentHashMap and mark the
+ * entry as referenced. The puts and removes lock only the segment of the key.
+ * When a segment is full the clock hand walks its slots clearing the reference
+ * marks, and evicts the first entry that was not referenced since the previous
+ * walk.
+ *
+ * The maximum weight is not split between the segments, every partition keeps
+ * its total weight and only an entry heavier than the whole maximum is not
+ * stored. When a put goes over the maximum the segments are evicted in turns,
+ * without locking more than one segment at a time, until the total fits.
+ *
+ * The storage can be split in partitions, each one with its own maximum size
+ * and weight, and its own clock in every segment. All the partitions share the
+ * map of the keys, so a key is in a single partition and a get finds it in any
+ * of them with one probe. Every partition is used as an InMemoryStorage of its
+ * own, see partition.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class StripedClockStorage implements InMemoryStorage {
+
+	protected final Segment[] segments;
+	protected final int segmentMask;
+	protected final int partitionsCount;
+	protected final long[] maxWeights;
+	protected final AtomicLong[] weights;
+	protected final AtomicInteger nextEvictedSegment = new AtomicInteger();
+
+	/**
+	 * @param maxSize          the maximum number of entries
+	 * @param concurrencyLevel the expected number of threads writing at the same
+	 *                         time, it is rounded up to a power of two and limited
+	 *                         to maxSize
+	 */
+	public StripedClockStorage(int maxSize, int concurrencyLevel) {
+		this(maxSize, concurrencyLevel, 0);
+	}
+
+	/**
+	 * @param maxSize          the maximum number of entries
+	 * @param concurrencyLevel see above
+	 * @param maxWeight        the maximum total weight, 0 to not limit it
+	 */
+	public StripedClockStorage(int maxSize, int concurrencyLevel, long maxWeight) {
+		this(new int[] { maxSize }, concurrencyLevel, new long[] { maxWeight });
+	}
+
+	/**
+	 * @param maxSizes         the maximum number of entries of every partition
+	 * @param concurrencyLevel see above, it is limited to the smallest partition
+	 * @param maxWeights       the maximum total weight of every partition, 0 to not
+	 *                         limit it
+	 */
+	public StripedClockStorage(int[] maxSizes, int concurrencyLevel, long[] maxWeights) {
+		if ((maxSizes.length == 0) || (maxSizes.length != maxWeights.length) || (concurrencyLevel <= 0)) {
+			throw new IllegalArgumentException();
+		}
+		for (int p = 0; p < maxSizes.length; p++) {
+			if ((maxSizes[p] <= 0) || (maxWeights[p] < 0)) {
+				throw new IllegalArgumentException();
+			}
+		}
+		int segmentsCount = 1;
+		while ((segmentsCount < concurrencyLevel) && fitsSegments(segmentsCount * 2, maxSizes)) {
+			segmentsCount *= 2;
+		}
+		partitionsCount = maxSizes.length;
+		this.maxWeights = maxWeights.clone();
+		weights = new AtomicLong[partitionsCount];
+		for (int p = 0; p < partitionsCount; p++) {
+			weights[p] = new AtomicLong();
+		}
+		segments = new Segment[segmentsCount];
+		for (int i = 0; i < segmentsCount; i++) {
+			int[] capacities = new int[partitionsCount];
+			for (int p = 0; p < partitionsCount; p++) {
+				// The remainder is spread over the first segments
+				capacities[p] = maxSizes[p] / segmentsCount + ((i < maxSizes[p] % segmentsCount) ? 1 : 0);
+			}
+			segments[i] = new Segment(capacities, this.maxWeights, weights);
+		}
+		segmentMask = segmentsCount - 1;
+	}
+
+	/** Every segment must have room for an entry of every partition */
+	protected static boolean fitsSegments(int segmentsCount, int[] maxSizes) {
+		for (int p = 0; p < maxSizes.length; p++) {
+			if (segmentsCount > maxSizes[p]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected Segment segmentFor(final String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & segmentMask];
+	}
+
+	@Override
+	public MemoryObject get(String key) {
+		return segmentFor(key).get(key);
+	}
+
+	@Override
+	public void getAll(Collection<String> keys, Map<String, MemoryObject> result) {
+		for (String key : keys) {
+			result.put(key, segmentFor(key).get(key));
+		}
+	}
+
+	@Override
+	public boolean put(String key, MemoryObject memoryObject) {
+		if (!segmentFor(key).put(key, memoryObject)) {
+			return false;
+		}
+		evictOverweight(key, memoryObject);
+		return true;
+	}
+
+	@Override
+	public void putAll(Map<String, MemoryObject> memoryObjects, Map<String, Boolean> result) {
+		for (Map.Entry<String, MemoryObject> entry : memoryObjects.entrySet()) {
+			result.put(entry.getKey(), put(entry.getKey(), entry.getValue()));
+		}
+	}
+
+	/**
+	 * Evicts from the segments in turns until the partition of the put entry fits
+	 * its maximum weight, the entry itself is kept
+	 */
+	protected void evictOverweight(final String key, final MemoryObject memoryObject) {
+		final int partition = memoryObject.partition;
+		if (maxWeights[partition] == 0) {
+			return;
+		}
+		while (weights[partition].get() > maxWeights[partition]) {
+			boolean evicted = false;
+			int first = nextEvictedSegment.getAndIncrement();
+			for (int i = 0; (i < segments.length) && !evicted; i++) {
+				evicted = segments[(first + i) & segmentMask].evictOverweight(partition, key, memoryObject);
+			}
+			if (!evicted) {
+				// Other puts are evicting what is left
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void remove(String key) {
+		segmentFor(key).remove(key);
+	}
+
+	@Override
+	public void remove(String key, MemoryObject memoryObject) {
+		segmentFor(key).remove(key, memoryObject);
+	}
+
+	/** The segments are evicted in turns, the partitions in order */
+	@Override
+	public boolean evict() {
+		int first = nextEvictedSegment.getAndIncrement();
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[(first + i) & segmentMask].evict()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.entries.size();
+		}
+		return size;
+	}
+
+	@Override
+	public long getWeight() {
+		long weight = 0;
+		for (AtomicLong partitionWeight : weights) {
+			weight += partitionWeight.get();
+		}
+		return weight;
+	}
+
+	public int getSegmentsCount() {
+		return segments.length;
+	}
+
+	public int getPartitionsCount() {
+		return partitionsCount;
+	}
+
+	/**
+	 * The view of a partition, its gets only find the entries of the partition
+	 * and its puts replace the entry of the key in any partition. The entries got
+	 * from the whole storage tell their partition, see MemoryObject.getPartition
+	 * 
+	 * @param partition the index of the partition
+	 */
+	public InMemoryStorage partition(int partition) {
+		if ((partition < 0) || (partition >= partitionsCount)) {
+			throw new IllegalArgumentException();
+		}
+		return new Partition(partition);
+	}
+
+	protected class Partition implements InMemoryStorage {
+		final int partition;
+
+		Partition(int partition) {
+			this.partition = partition;
+		}
+
+		@Override
+		public MemoryObject get(String key) {
+			MemoryObject memoryObject = segmentFor(key).get(key);
+			if ((memoryObject == null) || (memoryObject.partition != partition)) {
+				return null;
+			}
+			return memoryObject;
+		}
+
+		@Override
+		public void getAll(Collection<String> keys, Map<String, MemoryObject> result) {
+			for (String key : keys) {
+				result.put(key, get(key));
+			}
+		}
+
+		@Override
+		public boolean put(String key, MemoryObject memoryObject) {
+			memoryObject.partition = partition;
+			return StripedClockStorage.this.put(key, memoryObject);
+		}
+
+		@Override
+		public void putAll(Map<String, MemoryObject> memoryObjects, Map<String, Boolean> result) {
+			for (Map.Entry<String, MemoryObject> entry : memoryObjects.entrySet()) {
+				result.put(entry.getKey(), put(entry.getKey(), entry.getValue()));
+			}
+		}
+
+		/** The entry of the key in other partition is kept */
+		@Override
+		public void remove(String key) {
+			segmentFor(key).removeFromPartition(key, partition);
+		}
+
+		@Override
+		public void remove(String key, MemoryObject memoryObject) {
+			segmentFor(key).remove(key, memoryObject);
+		}
+
+		@Override
+		public boolean evict() {
+			int first = nextEvictedSegment.getAndIncrement();
+			for (int i = 0; i < segments.length; i++) {
+				if (segments[(first + i) & segmentMask].evict(partition)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void clear() {
+			for (Segment segment : segments) {
+				segment.clear(partition);
+			}
+		}
+
+		@Override
+		public int size() {
+			int size = 0;
+			for (Segment segment : segments) {
+				size += segment.clocks[partition].size;
+			}
+			return size;
+		}
+
+		@Override
+		public long getWeight() {
+			return weights[partition].get();
+		}
+	}
+
+	protected static class Node {
+		final String key;
+		final int partition;
+		final int slot;
+		volatile MemoryObject memoryObject;
+		volatile boolean referenced = false;
+
+		Node(String key, int partition, int slot, MemoryObject memoryObject) {
+			this.key = key;
+			this.partition = partition;
+			this.slot = slot;
+			this.memoryObject = memoryObject;
+		}
+	}
+
+	/**
+	 * The slots of a partition in a segment, guarded by the segment. The maximum
+	 * and the total weight are the ones of the whole partition
+	 */
+	protected static class Clock {
+		final Node[] slots;
+		final int[] freeSlots;
+		int freeSlotsCount;
+		int hand = 0;
+		final long maxWeight;
+		final AtomicLong totalWeight;
+		long weight = 0;
+		volatile int size = 0; // written with the lock
+
+		Clock(int capacity, long maxWeight, AtomicLong totalWeight) {
+			this.maxWeight = maxWeight;
+			this.totalWeight = totalWeight;
+			slots = new Node[capacity];
+			freeSlots = new int[capacity];
+			clear();
+		}
+
+		/** The slots are used in order, the first one is the last in the stack */
+		void clear() {
+			Arrays.fill(slots, null);
+			for (int i = 0; i < freeSlots.length; i++) {
+				freeSlots[i] = freeSlots.length - 1 - i;
+			}
+			freeSlotsCount = freeSlots.length;
+			hand = 0;
+			addWeight(-weight);
+			size = 0;
+		}
+
+		void addWeight(final long delta) {
+			weight += delta;
+			totalWeight.addAndGet(delta);
+		}
+
+		boolean isOverweight() {
+			return (maxWeight > 0) && (totalWeight.get() > maxWeight);
+		}
+
+		/**
+		 * There must be an entry other than the kept one
+		 * 
+		 * @return the first not referenced slot, it ends in two turns
+		 */
+		int advanceHand(final Node keep) {
+			while (true) {
+				int slot = hand;
+				hand = (hand + 1) % slots.length;
+				Node node = slots[slot];
+				if ((node == null) || (node == keep)) {
+					continue;
+				}
+				if (!node.referenced) {
+					return slot;
+				}
+				node.referenced = false;
+			}
+		}
+	}
+
+	protected static class Segment {
+		final ConcurrentHashMap<String, Node> entries;
+		final Clock[] clocks; // guarded by this
+
+		Segment(int[] capacities, long[] maxWeights, AtomicLong[] totalWeights) {
+			int capacity = 0;
+			clocks = new Clock[capacities.length];
+			for (int p = 0; p < capacities.length; p++) {
+				clocks[p] = new Clock(capacities[p], maxWeights[p], totalWeights[p]);
+				capacity += capacities[p];
+			}
+			entries = new ConcurrentHashMap<String, Node>(capacity * 4 / 3 + 1);
+		}
+
+		MemoryObject get(final String key) {
+			Node node = entries.get(key);
+			if (node == null) {
+				return null;
+			}
+			// Only written when it changes, to not invalidate the cache line on every hit
+			if (!node.referenced) {
+				node.referenced = true;
+			}
+			return node.memoryObject;
+		}
+
+		synchronized boolean put(final String key, final MemoryObject memoryObject) {
+			final Clock clock = clocks[memoryObject.partition];
+			if ((clock.maxWeight > 0) && (memoryObject.weight > clock.maxWeight)) {
+				remove(key);
+				return false;
+			}
+			Node node = entries.get(key);
+			if ((node != null) && (node.partition != memoryObject.partition)) {
+				// The key moves to the clock of the other partition
+				remove(key);
+				node = null;
+			}
+			if (node != null) {
+				MemoryObject previous = node.memoryObject;
+				clock.addWeight(memoryObject.weight - previous.weight);
+				node.memoryObject = memoryObject;
+				previous.release();
+				node.referenced = true;
+			} else {
+				int slot;
+				if (clock.freeSlotsCount > 0) {
+					slot = clock.freeSlots[--clock.freeSlotsCount];
+				} else {
+					slot = evict(clock, null);
+				}
+				node = new Node(key, memoryObject.partition, slot, memoryObject);
+				clock.slots[slot] = node;
+				entries.put(key, node);
+				clock.addWeight(memoryObject.weight);
+				clock.size++;
+			}
+			return true;
+		}
+
+		/**
+		 * Evicts an entry of the partition while it is over its maximum weight, other
+		 * than the given one
+		 * 
+		 * @return false when it is not over or there is nothing else to evict
+		 */
+		synchronized boolean evictOverweight(final int partition, final String keepKey, final MemoryObject keep) {
+			Clock clock = clocks[partition];
+			if (!clock.isOverweight()) {
+				return false;
+			}
+			Node keepNode = entries.get(keepKey);
+			if ((keepNode != null) && (keepNode.memoryObject != keep)) {
+				keepNode = null;
+			}
+			if (clock.size <= ((keepNode != null) ? 1 : 0)) {
+				return false;
+			}
+			clock.freeSlots[clock.freeSlotsCount++] = evict(clock, keepNode);
+			return true;
+		}
+
+		/** @return the slot of the evicted entry, it is left empty */
+		int evict(final Clock clock, final Node keep) {
+			int slot = clock.advanceHand(keep);
+			Node victim = clock.slots[slot];
+			entries.remove(victim.key);
+			clock.slots[slot] = null;
+			clock.addWeight(-victim.memoryObject.weight);
+			clock.size--;
+			victim.memoryObject.release();
+			return slot;
+		}
+
+		synchronized boolean evict(final int partition) {
+			Clock clock = clocks[partition];
+			if (clock.size == 0) {
+				return false;
+			}
+			clock.freeSlots[clock.freeSlotsCount++] = evict(clock, null);
+			return true;
+		}
+
+		synchronized boolean evict() {
+			for (int p = 0; p < clocks.length; p++) {
+				if (evict(p)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		synchronized void remove(final String key) {
+			Node node = entries.remove(key);
+			if (node != null) {
+				Clock clock = clocks[node.partition];
+				clock.slots[node.slot] = null;
+				clock.freeSlots[clock.freeSlotsCount++] = node.slot;
+				clock.addWeight(-node.memoryObject.weight);
+				clock.size--;
+				node.memoryObject.release();
+			}
+		}
+
+		synchronized void remove(final String key, final MemoryObject memoryObject) {
+			Node node = entries.get(key);
+			if ((node != null) && (node.memoryObject == memoryObject)) {
+				remove(key);
+			}
+		}
+
+		synchronized void removeFromPartition(final String key, final int partition) {
+			Node node = entries.get(key);
+			if ((node != null) && (node.partition == partition)) {
+				remove(key);
+			}
+		}
+
+		synchronized void clear() {
+			for (Node node : entries.values()) {
+				node.memoryObject.release();
+			}
+			entries.clear();
+			for (Clock clock : clocks) {
+				clock.clear();
+			}
+		}
+
+		synchronized void clear(final int partition) {
+			Clock clock = clocks[partition];
+			for (Node node : clock.slots) {
+				if (node != null) {
+					entries.remove(node.key);
+					node.memoryObject.release();
+				}
+			}
+			clock.clear();
+		}
+	}
+
+}
@@ -2,6 +2,7 @@ package ar.com.siripo.arcache.backend.inmemory;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
@@ -9,16 +10,25 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Before;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class ArcacheInMemoryClientTest {
 
@@ -167,4 +177,453 @@ public class ArcacheInMemoryClientTest {
 		assertNull(client.get(key));
 		assertNotNull(client.get("k2"));
 	}
+
+	@Test
+	public void testMultiGetSet() throws Exception {
+		client = new ArcacheInMemoryClient(100, true);
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("k1", "v1");
+		values.put("k2", "v2");
+		values.put("null", null);
+
+		Map<String, Boolean> setResult = client.asyncMultiSet(values, 10000).get(50, TimeUnit.MILLISECONDS);
+		assertEquals(3, setResult.size());
+		assertTrue(setResult.get("k1"));
+		assertEquals("v2", client.get("k2"));
+
+		Map<String, Object> getResult = client.asyncMultiGet(Arrays.asList("k1", "k2", "null", "missing"))
+				.get(50, TimeUnit.MILLISECONDS);
+		assertEquals(2, getResult.size());
+		assertEquals("v1", getResult.get("k1"));
+		assertEquals("v2", getResult.get("k2"));
+		assertFalse(getResult.containsKey("missing"));
+
+		// The expired keys are not included
+		client.storage.get("k1").expirationTimeMillis = System.currentTimeMillis() - 1;
+		getResult = client.multiGet(Arrays.asList("k1", "k2"));
+		assertEquals(1, getResult.size());
+		assertEquals("v2", getResult.get("k2"));
+	}
+
+	@Test
+	public void testListenableGetSet() throws Exception {
+		ListenableFuture<Boolean> setFuture = client.listenableSet("k1", 10000, "v1");
+		assertTrue(setFuture.isDone());
+		assertTrue(setFuture.get());
+
+		ListenableFuture<Object> getFuture = client.listenableGet("k1");
+		final AtomicReference<Object> notified = new AtomicReference<Object>();
+		getFuture.addListener(new FutureListener<Object>() {
+			@Override
+			public void onComplete(ListenableFuture<Object> future) {
+				try {
+					notified.set(future.get());
+				} catch (Exception e) {
+				}
+			}
+		});
+		// The listener is called immediately, the value is already available
+		assertEquals("v1", notified.get());
+		assertNull(client.listenableGet("missing").get());
+	}
+
+	@Test
+	public void testStripedStorage() throws Exception {
+		try {
+			new ArcacheInMemoryClient(100, false, -1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(0, client.getConcurrencyLevel());
+		assertThat(client.storage, instanceOf(LRUMapStorage.class));
+
+		client = new ArcacheInMemoryClient(100, true, 16);
+		assertEquals(16, client.getConcurrencyLevel());
+		assertThat(client.storage, instanceOf(StripedClockStorage.class));
+
+		HashSet<String> hs = new HashSet<String>();
+		hs.add("OTHER");
+		assertTrue(client.set("k1", 10000, hs));
+		assertEquals(hs, client.get("k1"));
+		assertNotSame(hs, client.get("k1"));
+
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("k2", "v2");
+		values.put("k3", "v3");
+		client.multiSet(values, 10000);
+		Map<String, Object> getResult = client.multiGet(Arrays.asList("k1", "k2", "k3", "missing"));
+		assertEquals(3, getResult.size());
+		assertEquals("v3", getResult.get("k3"));
+
+		client.storage.get("k2").expirationTimeMillis = System.currentTimeMillis() - 1;
+		assertNull(client.get("k2"));
+
+		client.remove("k1");
+		assertNull(client.get("k1"));
+		client.clear();
+		assertEquals(0, client.storage.size());
+
+		// The number of entries is bounded
+		for (int i = 0; i < 1000; i++) {
+			client.set("key" + i, 10000, "v");
+		}
+		assertTrue(client.storage.size() <= 100);
+	}
+
+	@Test
+	public void testWeight() throws Exception {
+		try {
+			new ArcacheInMemoryClient(100, false, 0, -1, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(0, client.getMaxWeight());
+		assertNull(client.getWeigher());
+		assertEquals(0, client.getWeight());
+
+		// With isolation the weight is the serialized length
+		client = new ArcacheInMemoryClient(100, true, 0, 1000, null);
+		assertEquals(1000, client.getMaxWeight());
+		assertThat(client.getWeigher(), instanceOf(SerializedLengthWeigher.class));
+		assertTrue(client.set("k1", 10000, "value"));
+		long weight = client.getWeight();
+		assertEquals(((byte[]) client.storage.get("k1").data).length, weight);
+
+		// The least recently used entries are evicted to keep the weight
+		for (int i = 0; i < 100; i++) {
+			assertTrue(client.set("key" + i, 10000, "value" + i));
+			assertTrue(client.getWeight() <= 1000);
+		}
+		assertNull(client.get("key0"));
+		assertEquals("value99", client.get("key99"));
+
+		// A heavier value is not stored
+		assertFalse(client.set("key99", 10000, new byte[2000]));
+		assertNull(client.get("key99"));
+		Map<String, Boolean> result = client.multiSet(Collections.singletonMap("big", (Object) new byte[2000]), 10000);
+		assertFalse(result.get("big"));
+
+		client.clear();
+		assertEquals(0, client.getWeight());
+
+		// A custom weigher over the striped storage
+		InMemoryWeigher lengthWeigher = new InMemoryWeigher() {
+			@Override
+			public long weigh(String key, Object data) {
+				return ((String) data).length();
+			}
+		};
+		client = new ArcacheInMemoryClient(100, false, 4, 40, lengthWeigher);
+		assertTrue(client.set("a", 10000, "1234567890"));
+		assertEquals(10, client.getWeight());
+		client.remove("a");
+		assertEquals(0, client.getWeight());
+
+		InMemoryWeigher negativeWeigher = new InMemoryWeigher() {
+			@Override
+			public long weigh(String key, Object data) {
+				return -1;
+			}
+		};
+		client = new ArcacheInMemoryClient(100, false, 0, 40, negativeWeigher);
+		try {
+			client.set("a", 10000, "a");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testSerializedLengthWeigher() {
+		SerializedLengthWeigher weigher = new SerializedLengthWeigher();
+		assertEquals(0, weigher.weigh("k", null));
+		assertEquals(3, weigher.weigh("k", new byte[3]));
+		HashSet<String> hs = new HashSet<String>();
+		hs.add("OTHER");
+		assertTrue(weigher.weigh("k", hs) > 5);
+	}
+
+	@Test
+	public void testLRUMapStorageWeight() {
+		LRUMapStorage storage = new LRUMapStorage(3, 100);
+		try {
+			new LRUMapStorage(3, -1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		MemoryObject heavy = new MemoryObject();
+		heavy.weight = 60;
+		MemoryObject light = new MemoryObject();
+		light.weight = 10;
+
+		assertTrue(storage.put("a", heavy));
+		assertTrue(storage.put("b", light));
+		assertTrue(storage.put("c", light));
+		assertEquals(80, storage.getWeight());
+
+		// The count limit evicts the least recently used, and its weight
+		assertTrue(storage.get("a") != null);
+		assertTrue(storage.put("d", light));
+		assertNull(storage.get("b"));
+		assertEquals(80, storage.getWeight());
+
+		// The weight limit evicts in LRU order until it fits
+		assertTrue(storage.put("e", heavy));
+		assertNull(storage.get("c"));
+		assertNull(storage.get("a"));
+		assertEquals(70, storage.getWeight());
+
+		// Replacing removes the previous weight
+		assertTrue(storage.put("e", light));
+		assertEquals(20, storage.getWeight());
+		storage.remove("d");
+		assertEquals(10, storage.getWeight());
+	}
+
+	@Test
+	public void testLRUMapStorageEvict() {
+		LRUMapStorage storage = new LRUMapStorage(3, 100);
+		assertFalse(storage.evict());
+		MemoryObject light = new MemoryObject();
+		light.weight = 10;
+		storage.put("a", light);
+		storage.put("b", light);
+		assertTrue(storage.evict());
+		assertNull(storage.get("a"));
+		assertEquals(10, storage.getWeight());
+	}
+
+	@Test
+	public void testOffHeap() throws Exception {
+		assertNull(client.getOffHeapAllocator());
+		try {
+			new ArcacheInMemoryClient(100, false, 0, 0, null, new OffHeapSlabAllocator(1024, 256));
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(2048, 256);
+		client = new ArcacheInMemoryClient(100, true, 0, 0, null, allocator);
+		assertSame(allocator, client.getOffHeapAllocator());
+
+		// Only the handle is kept on the heap
+		assertTrue(client.set("k1", 10000, "value1"));
+		assertThat(client.storage.get("k1").data, instanceOf(OffHeapChunk.class));
+		assertEquals("value1", client.get("k1"));
+		assertNotSame(client.get("k1"), client.get("k1"));
+		assertTrue(allocator.getUsedBytes() > 0);
+
+		// Replacing and removing free the chunks
+		assertTrue(client.set("k1", 10000, "value2"));
+		assertEquals("value2", client.get("k1"));
+		client.remove("k1");
+		assertNull(client.get("k1"));
+		assertEquals(0, allocator.getUsedBytes());
+
+		// A null value is not stored off heap
+		assertTrue(client.set("null", 10000, null));
+		assertNull(client.storage.get("null").data);
+		assertNull(client.get("null"));
+
+		// A removed chunk read by a late get is a miss
+		assertTrue(client.set("k2", 10000, "value2"));
+		MemoryObject late = client.storage.get("k2");
+		client.remove("k2");
+		assertNull(client.restoreMemoryObject(late, System.currentTimeMillis()));
+
+		// When it is full the least recently used entries are evicted to make room
+		for (int i = 0; i < 50; i++) {
+			assertTrue(client.set("key" + i, 10000, "value" + i));
+			assertEquals("value" + i, client.get("key" + i));
+		}
+		assertNull(client.get("key0"));
+		assertTrue(allocator.getUsedBytes() <= 2048);
+
+		// A value larger than a slab is not stored, and the previous one is removed
+		assertFalse(client.set("key49", 10000, new byte[300]));
+		assertNull(client.get("key49"));
+		assertEquals("value48", client.get("key48"));
+
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("m1", "v1");
+		values.put("m2", new byte[300]);
+		Map<String, Boolean> result = client.multiSet(values, 10000);
+		assertTrue(result.get("m1"));
+		assertFalse(result.get("m2"));
+		assertEquals("v1", client.multiGet(Arrays.asList("m1", "m2")).get("m1"));
+
+		client.clear();
+		assertEquals(0, allocator.getUsedBytes());
+
+		// The rejected entries free their chunk too
+		client = new ArcacheInMemoryClient(100, true, 4, 100, null, allocator);
+		assertFalse(client.set("k", 10000, new byte[150]));
+		result = client.multiSet(Collections.singletonMap("k", (Object) new byte[150]), 10000);
+		assertFalse(result.get("k"));
+		assertEquals(0, allocator.getUsedBytes());
+		assertTrue(client.set("k", 10000, "v"));
+		assertEquals("v", client.get("k"));
+		client.clear();
+		assertEquals(0, allocator.getUsedBytes());
+	}
+
+	@Test
+	public void testOffHeapEvictionsPerSet() throws Exception {
+		// 16 slabs of 4KB, the large values take a whole slab and the small ones 32 per slab
+		OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(16 * 4096, 4096);
+		client = new ArcacheInMemoryClient(100000, true, 0, 0, null, allocator);
+		for (int i = 0; i < 12 * 32; i++) {
+			assertTrue(client.set("small" + i, 10000, new byte[50]));
+		}
+		for (int i = 0; i < 4; i++) {
+			assertTrue(client.set("large" + i, 10000, new byte[3000]));
+		}
+		int size = client.size();
+		assertEquals(4 + 12 * 32, size);
+		assertEquals(allocator.getCapacity(), allocator.getAllocatedBytes());
+
+		// A set evicts a single entry of its size class, not the older entries of a whole slab
+		assertTrue(client.set("large", 10000, new byte[3000]));
+		assertEquals(size, client.size());
+		assertNotNull(client.get("small0"));
+		assertNotNull(client.get("large"));
+		assertTrue(client.set("small", 10000, new byte[50]));
+		assertEquals(size, client.size());
+
+		// A class without slabs takes over the least used slab, one large value
+		assertTrue(client.set("medium", 10000, new byte[1000]));
+		assertEquals(size, client.size());
+		assertNotNull(client.get("medium"));
+	}
+
+	private void waitSize(ArcacheInMemoryClient client, int size) throws InterruptedException {
+		for (int i = 0; (i < 200) && (client.size() > size); i++) {
+			Thread.sleep(5);
+		}
+		assertEquals(size, client.size());
+	}
+
+	@Test
+	public void testExpirySweep() throws Exception {
+		try {
+			new ArcacheInMemoryClient(100, false, 0, 0, null, null, -1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(0, client.getExpirySweepMillis());
+		assertEquals(0, client.sweepExpired());
+		client.shutdown();
+
+		// The expired entries are removed in the background
+		client = new ArcacheInMemoryClient(100, false, 0, 0, null, null, 10);
+		assertEquals(10, client.getExpirySweepMillis());
+		assertTrue(client.set("short", 30, "value"));
+		assertTrue(client.set("long", 100000, "value"));
+		assertTrue(client.set("replaced", 30, "value"));
+		assertTrue(client.set("replaced", 100000, "value"));
+		assertEquals(3, client.expiryWheels[0].size());
+		waitSize(client, 2);
+		assertNull(client.storage.get("short"));
+		assertEquals("value", client.get("replaced"));
+		assertEquals(2, client.expiryWheels[0].size());
+
+		// The removed entries leave the wheel
+		client.remove("long");
+		client.clear();
+		assertEquals(0, client.expiryWheels[0].size());
+
+		// Once stopped they are kept until a sweep
+		client.shutdown();
+		assertTrue(client.set("short", 1, "value"));
+		Thread.sleep(50);
+		assertEquals(1, client.storage.size());
+		assertEquals(1, client.sweepExpired());
+		assertEquals(0, client.storage.size());
+
+		// Striped, with an entry set again after it expired
+		client = new ArcacheInMemoryClient(100, false, 4, 0, null, null, 10);
+		assertEquals(4, client.expiryWheels.length);
+		for (int i = 0; i < 20; i++) {
+			assertTrue(client.set("key" + i, 20, "value"));
+		}
+		assertTrue(client.set("key0", 100000, "value"));
+		waitSize(client, 1);
+		assertEquals("value", client.get("key0"));
+		client.shutdown();
+
+		// The off heap chunks are freed
+		OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(2048, 256);
+		client = new ArcacheInMemoryClient(100, true, 0, 0, null, allocator, 10);
+		assertTrue(client.set("short", 20, "value"));
+		assertFalse(client.set("big", 20, new byte[300]));
+		waitSize(client, 0);
+		assertEquals(0, allocator.getUsedBytes());
+		assertEquals(0, client.expiryWheels[0].size());
+		client.shutdown();
+	}
+
+	@Test
+	public void testExpirySweepTask() throws Exception {
+		// The task of a collected client cancels itself
+		ArcacheInMemoryClient.ExpirySweepTask task = new ArcacheInMemoryClient.ExpirySweepTask(null);
+		task.run();
+		task.scheduledFuture = ArcacheInMemoryClient.expirySweeper.scheduleAtFixedRate(task, 100000, 100000,
+				TimeUnit.MILLISECONDS);
+		task.run();
+		assertTrue(task.scheduledFuture.isCancelled());
+	}
+
+	@Test
+	public void testStorageRemoveIfSame() {
+		MemoryObject first = new MemoryObject();
+		MemoryObject second = new MemoryObject();
+		InMemoryStorage[] storages = { new LRUMapStorage(10), new StripedClockStorage(10, 2) };
+		for (InMemoryStorage storage : storages) {
+			storage.put("key", first);
+			storage.put("key", second);
+			storage.remove("key", first);
+			assertSame(second, storage.get("key"));
+			storage.remove("key", second);
+			assertNull(storage.get("key"));
+			storage.remove("key", second);
+		}
+	}
+
+	@Test
+	public void testSharedStorage() throws Exception {
+		StripedClockStorage storage = new StripedClockStorage(new int[] { 10, 10 }, 2, new long[] { 0, 0 });
+		try {
+			new ArcacheInMemoryClient(storage.partition(0), false, -1, 0, null, null, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new ArcacheInMemoryClient(storage.partition(0), false, 2, -1, null, null, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		ArcacheInMemoryClient isolated = new ArcacheInMemoryClient(storage.partition(0), true, 2, 0, null, null, 0);
+		ArcacheInMemoryClient shared = new ArcacheInMemoryClient(storage.partition(1), false, 2, 0, null, null, 0);
+
+		HashSet<String> value = new HashSet<String>();
+		assertTrue(isolated.set("key", 10000, value));
+		assertEquals(value, isolated.get("key"));
+		assertNotSame(value, isolated.get("key"));
+		assertNull(shared.get("key"));
+
+		// The entry got from the storage is restored by the client of its partition
+		MemoryObject memoryObject = storage.get("key");
+		assertEquals(0, memoryObject.getPartition());
+		assertEquals(value, isolated.restore(memoryObject));
+		assertNull(isolated.restore(null));
+
+		// A set in the other client replaces it
+		assertTrue(shared.set("key", 10000, value));
+		assertSame(value, shared.get("key"));
+		assertNull(isolated.get("key"));
+		assertEquals(0, isolated.size());
+		assertEquals(1, shared.size());
+		isolated.remove("key");
+		assertSame(value, shared.restore(storage.get("key")));
+	}
 }
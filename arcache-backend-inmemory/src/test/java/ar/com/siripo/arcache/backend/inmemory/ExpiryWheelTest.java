@@ -0,0 +1,135 @@
+package ar.com.siripo.arcache.backend.inmemory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ExpiryWheelTest {
+
+	private static MemoryObject createMemoryObject(long expirationTimeMillis) {
+		MemoryObject memoryObject = new MemoryObject();
+		memoryObject.expirationTimeMillis = expirationTimeMillis;
+		return memoryObject;
+	}
+
+	@Test
+	public void testConstructor() {
+		try {
+			new ExpiryWheel(0, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(10, new ExpiryWheel(10, 0).getTickMillis());
+	}
+
+	@Test
+	public void testAdvance() {
+		ExpiryWheel wheel = new ExpiryWheel(10, 1000);
+		MemoryObject past = createMemoryObject(500);
+		MemoryObject sameTick = createMemoryObject(1005);
+		MemoryObject nextTicks = createMemoryObject(1025);
+		MemoryObject secondLevel = createMemoryObject(1000 + 10 * 64 * 3 + 7);
+		MemoryObject beyondSpan = createMemoryObject(Long.MAX_VALUE / 2);
+		wheel.add(past);
+		wheel.add(sameTick);
+		wheel.add(nextTicks);
+		wheel.add(secondLevel);
+		wheel.add(beyondSpan);
+		assertEquals(5, wheel.size());
+
+		ArrayList<MemoryObject> expired = new ArrayList<MemoryObject>();
+		// Within the same tick nothing is visited
+		wheel.advance(1009, expired);
+		assertEquals(0, expired.size());
+
+		wheel.advance(1010, expired);
+		assertEquals(2, expired.size());
+		assertTrue(expired.contains(past));
+		assertTrue(expired.contains(sameTick));
+
+		// Visited in its tick before its time, it waits for the next one
+		wheel.advance(1020, expired);
+		assertEquals(2, expired.size());
+		wheel.advance(1025, expired);
+		assertEquals(2, expired.size());
+		wheel.advance(1030, expired);
+		assertEquals(3, expired.size());
+		assertSame(nextTicks, expired.get(2));
+
+		// A later time is never earlier than the current one
+		wheel.advance(500, expired);
+
+		// It is moved to the first level and expires in time
+		wheel.advance(1000 + 10 * 64 * 3, expired);
+		assertEquals(3, expired.size());
+		wheel.advance(1000 + 10 * 64 * 3 + 7, expired);
+		assertEquals(3, expired.size());
+		wheel.advance(1000 + 10 * 64 * 3 + 10, expired);
+		assertEquals(4, expired.size());
+		assertSame(secondLevel, expired.get(3));
+
+		// A jump of many turns
+		wheel.advance(1000L * 3600 * 24 * 365 * 30, expired);
+		assertEquals(4, expired.size());
+		assertEquals(1, wheel.size());
+	}
+
+	@Test
+	public void testRemove() {
+		ExpiryWheel wheel = new ExpiryWheel(10, 0);
+		MemoryObject removed = createMemoryObject(100);
+		MemoryObject kept = createMemoryObject(100);
+		wheel.add(removed);
+		wheel.add(kept);
+		wheel.remove(removed);
+		wheel.remove(removed);
+		assertEquals(1, wheel.size());
+
+		ArrayList<MemoryObject> expired = new ArrayList<MemoryObject>();
+		wheel.advance(100, expired);
+		assertEquals(1, expired.size());
+		assertSame(kept, expired.get(0));
+
+		// Removing an expired entry does nothing
+		wheel.remove(kept);
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testExpiresOnTime() {
+		Random random = new Random(7);
+		ExpiryWheel wheel = new ExpiryWheel(10, 0);
+		HashSet<MemoryObject> pending = new HashSet<MemoryObject>();
+		long now = 0;
+		for (int step = 0; step < 2000; step++) {
+			for (int i = 0; i < 10; i++) {
+				// From the current tick to further than many levels
+				long ttl = (long) Math.pow(10, random.nextDouble() * 7) - 1;
+				MemoryObject memoryObject = createMemoryObject(now + ttl);
+				wheel.add(memoryObject);
+				pending.add(memoryObject);
+			}
+			now += (random.nextInt(3) == 0) ? random.nextInt(50000) : random.nextInt(30);
+
+			ArrayList<MemoryObject> expired = new ArrayList<MemoryObject>();
+			wheel.advance(now, expired);
+			for (MemoryObject memoryObject : expired) {
+				assertTrue(memoryObject.expirationTimeMillis <= now);
+				assertTrue(pending.remove(memoryObject));
+			}
+			// Every entry is returned by the first advance to a later tick
+			for (MemoryObject memoryObject : pending) {
+				assertTrue(memoryObject.expirationTimeMillis / 10 >= now / 10);
+			}
+			assertEquals(pending.size(), wheel.size());
+		}
+	}
+
+}
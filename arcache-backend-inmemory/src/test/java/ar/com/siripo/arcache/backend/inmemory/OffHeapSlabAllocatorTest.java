@@ -0,0 +1,207 @@
+package ar.com.siripo.arcache.backend.inmemory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class OffHeapSlabAllocatorTest {
+
+	private static byte[] createPayload(int length, int seed) {
+		byte[] payload = new byte[length];
+		for (int i = 0; i < length; i++) {
+			payload[i] = (byte) (seed + i);
+		}
+		return payload;
+	}
+
+	@Test
+	public void testConstructor() {
+		try {
+			new OffHeapSlabAllocator(1024, 64);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new OffHeapSlabAllocator(100, 256);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(4 * 1024 * 1024);
+		assertEquals(4 * 1024 * 1024, allocator.getCapacity());
+		assertEquals(OffHeapSlabAllocator.DEFAULT_SLAB_SIZE, allocator.getSlabSize());
+		assertEquals(0, allocator.getAllocatedBytes());
+		assertEquals(0, allocator.getUsedBytes());
+	}
+
+	@Test
+	public void testSizeClasses() {
+		assertArrayEquals(new int[] { 128, 160, 200, 256 }, OffHeapSlabAllocator.createChunkSizes(256));
+
+		int[] sizes = OffHeapSlabAllocator.createChunkSizes(OffHeapSlabAllocator.DEFAULT_SLAB_SIZE);
+		assertEquals(OffHeapSlabAllocator.DEFAULT_SLAB_SIZE, sizes[sizes.length - 1]);
+		for (int i = 1; i < sizes.length; i++) {
+			assertEquals(0, sizes[i] % 8);
+			// The waste of a payload just over the previous size is bounded
+			assertEquals(true, sizes[i] <= sizes[i - 1] * 1.25 + 8);
+		}
+
+		OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(1024, 256);
+		assertEquals(128, allocator.sizeClassFor(0).chunkSize);
+		assertEquals(128, allocator.sizeClassFor(128).chunkSize);
+		assertEquals(160, allocator.sizeClassFor(129).chunkSize);
+		assertEquals(256, allocator.sizeClassFor(256).chunkSize);
+		assertNull(allocator.sizeClassFor(257));
+	}
+
+	@Test
+	public void testAllocateReadFree() {
+		OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(1024, 256);
+		byte[] payload1 = createPayload(100, 1);
+		byte[] payload2 = createPayload(150, 2);
+
+		OffHeapChunk chunk1 = allocator.allocate(payload1);
+		OffHeapChunk chunk2 = allocator.allocate(payload2);
+		assertEquals(100, chunk1.getLength());
+		assertArrayEquals(payload1, allocator.read(chunk1));
+		assertArrayEquals(payload2, allocator.read(chunk2));
+		assertEquals(128 + 160, allocator.getUsedBytes());
+		assertEquals(512, allocator.getAllocatedBytes());
+
+		// The handle of a freed chunk reads null, and it is freed once
+		allocator.free(chunk1);
+		assertNull(allocator.read(chunk1));
+		allocator.free(chunk1);
+		assertEquals(160, allocator.getUsedBytes());
+
+		// The chunk is reused with a new generation
+		OffHeapChunk chunk3 = allocator.allocate(createPayload(10, 3));
+		assertSame(chunk1.slab, chunk3.slab);
+		assertEquals(chunk1.index, chunk3.index);
+		assertNull(allocator.read(chunk1));
+		assertArrayEquals(createPayload(10, 3), allocator.read(chunk3));
+
+		// Larger than a slab
+		assertNull(allocator.allocate(new byte[257]));
+	}
+
+	@Test
+	public void testEvictionCandidates() {
+		OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(1024, 256);
+		assertTrue(allocator.evictionCandidates(100).isEmpty());
+		assertTrue(allocator.evictionCandidates(257).isEmpty());
+
+		// 3 slabs of 2 chunks of 128 and a slab of 256
+		OffHeapChunk[] chunks = new OffHeapChunk[6];
+		for (int i = 0; i < 6; i++) {
+			chunks[i] = allocator.allocate(createPayload(100, i), "o" + i);
+		}
+		allocator.allocate(createPayload(256, 9), "big");
+		assertNull(allocator.allocate(createPayload(100, 6), "o6"));
+
+		// A class with slabs evicts one of its chunks, the chunks read are skipped once
+		allocator.read(chunks[0]);
+		assertEquals(Arrays.asList((Object) "o1"), allocator.evictionCandidates(100));
+		assertEquals(Arrays.asList((Object) "o2"), allocator.evictionCandidates(100));
+
+		// A class without slabs takes over the slab with the fewest chunks in use
+		assertEquals(Arrays.asList((Object) "big"), allocator.evictionCandidates(150));
+		allocator.free(chunks[3]);
+		assertEquals(Arrays.asList((Object) "o2"), allocator.evictionCandidates(150));
+		allocator.free(chunks[2]);
+		assertNotNull(allocator.allocate(createPayload(150, 7), "o7"));
+
+		// The chunks allocated without an owner are never candidates
+		OffHeapSlabAllocator anonymous = new OffHeapSlabAllocator(256, 256);
+		anonymous.allocate(createPayload(100, 0));
+		anonymous.allocate(createPayload(100, 1));
+		assertTrue(anonymous.evictionCandidates(100).isEmpty());
+		assertTrue(anonymous.evictionCandidates(150).isEmpty());
+	}
+
+	@Test
+	public void testCapacity() {
+		OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(1024, 256);
+		ArrayList<OffHeapChunk> chunks = new ArrayList<OffHeapChunk>();
+		// 4 slabs of 2 chunks of 128
+		for (int i = 0; i < 8; i++) {
+			chunks.add(allocator.allocate(createPayload(128, i)));
+		}
+		assertEquals(1024, allocator.getUsedBytes());
+		assertEquals(1024, allocator.getAllocatedBytes());
+		assertNull(allocator.allocate(createPayload(1, 0)));
+		assertNull(allocator.allocate(createPayload(256, 0)));
+
+		// A slab that is partially free is reused by its class only
+		allocator.free(chunks.get(0));
+		assertNull(allocator.allocate(createPayload(256, 0)));
+		chunks.set(0, allocator.allocate(createPayload(128, 0)));
+		assertNotNull(chunks.get(0));
+
+		// A slab that is completely free is reused by another class
+		allocator.free(chunks.get(6));
+		allocator.free(chunks.get(7));
+		OffHeapChunk large = allocator.allocate(createPayload(256, 9));
+		assertNotNull(large);
+		assertEquals(256, large.slab.chunkSize);
+		assertNull(allocator.read(chunks.get(6)));
+		assertArrayEquals(createPayload(256, 9), allocator.read(large));
+		for (int i = 0; i < 6; i++) {
+			assertArrayEquals(createPayload(128, i), allocator.read(chunks.get(i)));
+		}
+		assertEquals(1024, allocator.getAllocatedBytes());
+
+		for (int i = 0; i < 6; i++) {
+			allocator.free(chunks.get(i));
+		}
+		allocator.free(large);
+		assertEquals(0, allocator.getUsedBytes());
+		assertEquals(4, allocator.freeSlabs.size());
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(64 * 1024, 1024);
+		final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int seed = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 2000; i++) {
+							byte[] payload = createPayload(1 + (i * 37 + seed) % 1000, seed + i);
+							OffHeapChunk chunk = allocator.allocate(payload);
+							if (chunk != null) {
+								if (!Arrays.equals(payload, allocator.read(chunk))) {
+									throw new AssertionError("Corrupted payload");
+								}
+								allocator.free(chunk);
+							}
+						}
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, errors.size());
+		assertEquals(0, allocator.getUsedBytes());
+	}
+
+}
@@ -0,0 +1,399 @@
+package ar.com.siripo.arcache.backend.inmemory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class StripedClockStorageTest {
+
+	private static MemoryObject createMemoryObject(Object data) {
+		return createMemoryObject(data, 0);
+	}
+
+	private static MemoryObject createMemoryObject(Object data, long weight) {
+		MemoryObject memoryObject = new MemoryObject();
+		memoryObject.expirationTimeMillis = Long.MAX_VALUE;
+		memoryObject.data = data;
+		memoryObject.weight = weight;
+		return memoryObject;
+	}
+
+	@Test
+	public void testSegments() {
+		try {
+			new StripedClockStorage(0, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new StripedClockStorage(10, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		// Rounded up to a power of two
+		assertEquals(16, new StripedClockStorage(1000, 10).getSegmentsCount());
+		assertEquals(1, new StripedClockStorage(1000, 1).getSegmentsCount());
+
+		// Every segment has at least one entry
+		StripedClockStorage storage = new StripedClockStorage(3, 64);
+		assertEquals(2, storage.getSegmentsCount());
+		assertEquals(2, storage.segments[0].clocks[0].slots.length);
+		assertEquals(1, storage.segments[1].clocks[0].slots.length);
+	}
+
+	@Test
+	public void testGetPutRemove() {
+		StripedClockStorage storage = new StripedClockStorage(100, 4);
+		MemoryObject a = createMemoryObject("a");
+		MemoryObject b = createMemoryObject("b");
+		storage.put("a", a);
+		assertSame(a, storage.get("a"));
+		assertNull(storage.get("missing"));
+
+		// Replacing keeps a single entry
+		storage.put("a", b);
+		assertSame(b, storage.get("a"));
+		assertEquals(1, storage.size());
+
+		LinkedHashMap<String, MemoryObject> values = new LinkedHashMap<String, MemoryObject>();
+		values.put("x", a);
+		values.put("y", b);
+		HashMap<String, Boolean> putResult = new HashMap<String, Boolean>();
+		storage.putAll(values, putResult);
+		assertTrue(putResult.get("x"));
+		assertTrue(putResult.get("y"));
+		HashMap<String, MemoryObject> result = new HashMap<String, MemoryObject>();
+		storage.getAll(Arrays.asList("x", "y", "missing"), result);
+		assertEquals(3, result.size());
+		assertSame(a, result.get("x"));
+		assertSame(b, result.get("y"));
+		assertNull(result.get("missing"));
+
+		storage.remove("x");
+		storage.remove("missing");
+		assertNull(storage.get("x"));
+		assertEquals(2, storage.size());
+
+		storage.clear();
+		assertEquals(0, storage.size());
+		assertNull(storage.get("a"));
+	}
+
+	@Test
+	public void testClockEviction() {
+		StripedClockStorage storage = new StripedClockStorage(3, 1);
+		storage.put("key1", createMemoryObject("1"));
+		storage.put("key2", createMemoryObject("2"));
+		storage.put("key3", createMemoryObject("3"));
+
+		// The not referenced entries are evicted first
+		assertNotNull(storage.get("key1"));
+		assertNotNull(storage.get("key3"));
+		storage.put("key4", createMemoryObject("4"));
+		assertNull(storage.get("key2"));
+		assertEquals(3, storage.size());
+
+		// When every entry was referenced the walk evicts the oldest
+		assertNotNull(storage.get("key4"));
+		storage.put("key5", createMemoryObject("5"));
+		assertEquals(3, storage.size());
+		assertNotNull(storage.get("key5"));
+
+		// The removed slots are used before evicting
+		storage.remove("key5");
+		storage.put("key6", createMemoryObject("6"));
+		assertEquals(3, storage.size());
+		assertNotNull(storage.get("key6"));
+
+		storage.clear();
+		storage.put("key7", createMemoryObject("7"));
+		assertSame(storage.segments[0].clocks[0].slots[0], storage.segments[0].entries.get("key7"));
+	}
+
+	@Test
+	public void testWeight() {
+		try {
+			new StripedClockStorage(10, 1, -1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		// The maximum weight does not limit the segments
+		assertEquals(64, new StripedClockStorage(1000, 64, 3).getSegmentsCount());
+
+		StripedClockStorage storage = new StripedClockStorage(10, 1, 100);
+		assertTrue(storage.put("a", createMemoryObject("a", 40)));
+		assertTrue(storage.put("b", createMemoryObject("b", 40)));
+		assertEquals(80, storage.getWeight());
+
+		// The not referenced entries are evicted until it fits
+		assertNotNull(storage.get("a"));
+		assertTrue(storage.put("c", createMemoryObject("c", 40)));
+		assertNull(storage.get("b"));
+		assertEquals(80, storage.getWeight());
+		assertEquals(2, storage.size());
+
+		// Replacing changes the weight
+		assertTrue(storage.put("c", createMemoryObject("c", 10)));
+		assertEquals(50, storage.getWeight());
+
+		// A heavy entry evicts many, but never itself
+		assertTrue(storage.put("d", createMemoryObject("d", 100)));
+		assertEquals(100, storage.getWeight());
+		assertEquals(1, storage.size());
+		assertNotNull(storage.get("d"));
+
+		// An entry heavier than the maximum is not stored, and removes the previous
+		assertFalse(storage.put("d", createMemoryObject("d", 101)));
+		assertNull(storage.get("d"));
+		assertEquals(0, storage.getWeight());
+
+		// The evicted slots are reused
+		for (int i = 0; i < 30; i++) {
+			assertTrue(storage.put("key" + i, createMemoryObject("v", 30)));
+		}
+		assertEquals(90, storage.getWeight());
+		assertEquals(3, storage.size());
+
+		storage.remove("key29");
+		assertEquals(60, storage.getWeight());
+		storage.clear();
+		assertEquals(0, storage.getWeight());
+
+		// Without a maximum the weight is not limited
+		storage = new StripedClockStorage(10, 1);
+		assertTrue(storage.put("a", createMemoryObject("a", 1000)));
+		assertEquals(1000, storage.getWeight());
+	}
+
+	@Test
+	public void testWeightSharedBySegments() {
+		StripedClockStorage storage = new StripedClockStorage(1000, 64, 64 * 1024);
+		assertEquals(64, storage.getSegmentsCount());
+
+		// Entries heavier than a 64th of the maximum are stored
+		for (int i = 0; i < 100; i++) {
+			assertTrue(storage.put("key" + i, createMemoryObject("v", 2048)));
+			assertNotNull(storage.get("key" + i));
+			assertTrue(storage.getWeight() <= 64 * 1024);
+		}
+		// The other segments are evicted until the total fits
+		assertEquals(32, storage.size());
+		assertEquals(64 * 1024, storage.getWeight());
+
+		// Even a single entry of the whole maximum
+		assertTrue(storage.put("heavy", createMemoryObject("v", 64 * 1024)));
+		assertNotNull(storage.get("heavy"));
+		assertEquals(1, storage.size());
+		assertFalse(storage.put("heavy", createMemoryObject("v", 64 * 1024 + 1)));
+		assertEquals(0, storage.getWeight());
+
+		// Every partition has its own total
+		storage = new StripedClockStorage(new int[] { 100, 100 }, 8, new long[] { 100, 0 });
+		InMemoryStorage first = storage.partition(0);
+		InMemoryStorage second = storage.partition(1);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(first.put("first" + i, createMemoryObject("v", 30)));
+			assertTrue(second.put("second" + i, createMemoryObject("v", 30)));
+		}
+		assertEquals(90, first.getWeight());
+		assertEquals(3, first.size());
+		assertEquals(300, second.getWeight());
+		assertEquals(390, storage.getWeight());
+		second.clear();
+		assertEquals(90, storage.getWeight());
+	}
+
+	@Test
+	public void testEvict() {
+		StripedClockStorage storage = new StripedClockStorage(10, 2);
+		assertFalse(storage.evict());
+		for (int i = 0; i < 4; i++) {
+			storage.put("key" + i, createMemoryObject("v"));
+		}
+		// Every call evicts one entry, from any segment
+		for (int i = 3; i >= 0; i--) {
+			assertTrue(storage.evict());
+			assertEquals(i, storage.size());
+		}
+		assertFalse(storage.evict());
+
+		// The evicted slots are reused
+		for (int i = 0; i < 10; i++) {
+			assertTrue(storage.put("key" + i, createMemoryObject("v")));
+		}
+		assertEquals(10, storage.size());
+	}
+
+	@Test
+	public void testPartitions() {
+		try {
+			new StripedClockStorage(new int[] {}, 1, new long[] {});
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new StripedClockStorage(new int[] { 10, 10 }, 1, new long[] { 0 });
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new StripedClockStorage(new int[] { 10, 0 }, 1, new long[] { 0, 0 });
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new StripedClockStorage(new int[] { 10, 10 }, 1, new long[] { 0, -1 });
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		// The segments are limited by the smallest partition, not by the weights
+		assertEquals(4, new StripedClockStorage(new int[] { 1000, 4 }, 64, new long[] { 0, 0 }).getSegmentsCount());
+		assertEquals(64, new StripedClockStorage(new int[] { 1000, 1000 }, 64, new long[] { 0, 3 }).getSegmentsCount());
+
+		StripedClockStorage storage = new StripedClockStorage(new int[] { 2, 3 }, 1, new long[] { 0, 100 });
+		assertEquals(2, storage.getPartitionsCount());
+		try {
+			storage.partition(2);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		InMemoryStorage first = storage.partition(0);
+		InMemoryStorage second = storage.partition(1);
+
+		MemoryObject a = createMemoryObject("a");
+		assertTrue(first.put("key", a));
+		assertSame(a, storage.get("key"));
+		assertEquals(0, storage.get("key").getPartition());
+		assertSame(a, first.get("key"));
+		assertNull(second.get("key"));
+
+		// A put in other partition moves the key
+		MemoryObject b = createMemoryObject("b", 10);
+		assertTrue(second.put("key", b));
+		assertSame(b, storage.get("key"));
+		assertEquals(1, storage.get("key").getPartition());
+		assertNull(first.get("key"));
+		assertEquals(0, first.size());
+		assertEquals(1, second.size());
+		assertEquals(10, second.getWeight());
+		assertEquals(0, first.getWeight());
+
+		// The removes of a partition only remove its entries
+		first.remove("key");
+		assertSame(b, storage.get("key"));
+		first.remove("key", b);
+		assertNull(storage.get("key"));
+
+		// Every partition evicts its own entries
+		for (int i = 0; i < 10; i++) {
+			assertTrue(first.put("first" + i, createMemoryObject("v")));
+			assertTrue(second.put("second" + i, createMemoryObject("v", 20)));
+		}
+		assertEquals(2, first.size());
+		assertEquals(3, second.size());
+		assertEquals(60, second.getWeight());
+		assertEquals(60, storage.getWeight());
+		assertEquals(5, storage.size());
+		assertFalse(second.put("second9", createMemoryObject("v", 101)));
+		assertEquals(2, second.size());
+
+		LinkedHashMap<String, MemoryObject> memoryObjects = new LinkedHashMap<String, MemoryObject>();
+		memoryObjects.put("first8", createMemoryObject("x"));
+		memoryObjects.put("other", createMemoryObject("y"));
+		HashMap<String, Boolean> putResult = new HashMap<String, Boolean>();
+		first.putAll(memoryObjects, putResult);
+		assertTrue(putResult.get("first8"));
+		assertTrue(putResult.get("other"));
+		HashMap<String, MemoryObject> getResult = new HashMap<String, MemoryObject>();
+		first.getAll(Arrays.asList("first8", "second8"), getResult);
+		assertEquals("x", getResult.get("first8").data);
+		assertNull(getResult.get("second8"));
+		assertTrue(getResult.containsKey("second8"));
+
+		assertTrue(second.evict());
+		assertEquals(1, second.size());
+		assertEquals(2, first.size());
+		second.clear();
+		assertEquals(0, second.size());
+		assertEquals(0, second.getWeight());
+		assertFalse(second.evict());
+		assertEquals(2, first.size());
+		assertNotNull(storage.get("other"));
+
+		// The cleared slots are reused
+		for (int i = 0; i < 3; i++) {
+			assertTrue(second.put("second" + i, createMemoryObject("v")));
+		}
+		assertEquals(3, second.size());
+		assertEquals(5, storage.size());
+		assertTrue(storage.evict());
+		assertEquals(1, first.size());
+		storage.clear();
+		assertEquals(0, first.size());
+		assertEquals(0, second.size());
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final StripedClockStorage storage = new StripedClockStorage(100, 8);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 20000; i++) {
+							String key = "key" + ((i * 7 + thread) % 400);
+							if (i % 3 == 0) {
+								storage.put(key, createMemoryObject(key));
+							} else if (i % 101 == 0) {
+								storage.remove(key);
+							} else {
+								MemoryObject memoryObject = storage.get(key);
+								if ((memoryObject != null) && !key.equals(memoryObject.data)) {
+									throw new IllegalStateException("Wrong value for " + key);
+								}
+							}
+						}
+					} catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(failure.get());
+		assertTrue(storage.size() <= 100);
+
+		// The slots and the entries are consistent
+		for (StripedClockStorage.Segment segment : storage.segments) {
+			int used = 0;
+			for (StripedClockStorage.Node node : segment.clocks[0].slots) {
+				if (node != null) {
+					used++;
+					assertSame(node, segment.entries.get(node.key));
+				}
+			}
+			assertEquals(used, segment.entries.size());
+			assertEquals(segment.clocks[0].slots.length - used, segment.clocks[0].freeSlotsCount);
+		}
+	}
+
+}
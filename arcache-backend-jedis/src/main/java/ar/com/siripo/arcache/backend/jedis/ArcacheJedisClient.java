@@ -1,17 +1,28 @@
 package ar.com.siripo.arcache.backend.jedis;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Future;
 
 import org.apache.commons.codec.binary.Base64;
 
-import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheAsyncBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheMultiKeyBackendClient;
 import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.ListenableFuture;
 import net.spy.memcached.CachedData;
 import net.spy.memcached.transcoders.SerializingTranscoder;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisCommands;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.PipelineBase;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.ShardedJedisPipeline;
 
 /**
  * Adaptador de la interfaz a Redis via Jedis
@@ -19,19 +30,25 @@ import redis.clients.jedis.ShardedJedis;
  * @author Mariano Santamarina
  *
  */
-public class ArcacheJedisClient implements ArcacheBackendClient {
+public class ArcacheJedisClient implements ArcacheAsyncBackendClient, ArcacheMultiKeyBackendClient {
 
 	private JedisCommands jedisCommands;
 
+	/** Only one of them is set, and is used for the multi key operations */
+	private Jedis jedis;
+	private ShardedJedis shardedJedis;
+
 	private SerializingTranscoder serializingTranscoder;
 
 	public ArcacheJedisClient(Jedis jedis) {
 		this.jedisCommands = jedis;
+		this.jedis = jedis;
 		initialize();
 	}
 
 	public ArcacheJedisClient(ShardedJedis shardedJedis) {
 		this.jedisCommands = shardedJedis;
+		this.shardedJedis = shardedJedis;
 		initialize();
 	}
 
@@ -41,6 +58,17 @@ public class ArcacheJedisClient implements ArcacheBackendClient {
 
 	@Override
 	public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+		return listenableSet(key, ttlMillis, value);
+	}
+
+	@Override
+	public Future<Object> asyncGet(String key) {
+		return listenableGet(key);
+	}
+
+	/** Jedis is synchronous, the returned future is already done */
+	@Override
+	public ListenableFuture<Boolean> listenableSet(String key, long ttlMillis, Object value) {
 
 		String vals = convertObjectToRedisString(value);
 		String ret = jedisCommands.setex(key, (int) ((ttlMillis + 999) / 1000), vals);
@@ -50,8 +78,9 @@ public class ArcacheJedisClient implements ArcacheBackendClient {
 		return new DummyFuture<Boolean>(true);
 	}
 
+	/** Jedis is synchronous, the returned future is already done */
 	@Override
-	public Future<Object> asyncGet(String key) {
+	public ListenableFuture<Object> listenableGet(String key) {
 		final String r = jedisCommands.get(key);
 
 		Object o = null;
@@ -62,6 +91,84 @@ public class ArcacheJedisClient implements ArcacheBackendClient {
 		return new DummyFuture<Object>(o);
 	}
 
+	/**
+	 * With Jedis a single MGET is used, with ShardedJedis the gets are pipelined
+	 */
+	@Override
+	public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+		final ArrayList<String> keyList = new ArrayList<String>(keys);
+		final List<String> values;
+
+		if (jedis != null) {
+			values = jedis.mget(keyList.toArray(new String[keyList.size()]));
+		} else {
+			ShardedJedisPipeline pipeline = shardedJedis.pipelined();
+			List<Response<String>> responses = pipelineGets(pipeline, keyList);
+			pipeline.sync();
+			values = new ArrayList<String>(responses.size());
+			for (Response<String> response : responses) {
+				values.add(response.get());
+			}
+		}
+
+		LinkedHashMap<String, Object> result = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < keyList.size(); i++) {
+			final String r = values.get(i);
+			if (r != null) {
+				Object obj = convertRedisStringToObject(r);
+				if (obj != null) {
+					result.put(keyList.get(i), obj);
+				}
+			}
+		}
+
+		return new DummyFuture<Map<String, Object>>(result);
+	}
+
+	/** All the SETEX are sent in one pipeline */
+	@Override
+	public Future<Map<String, Boolean>> asyncMultiSet(Map<String, Object> values, long ttlMillis) {
+		final int ttlSeconds = (int) ((ttlMillis + 999) / 1000);
+		final LinkedHashMap<String, String> redisValues = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			redisValues.put(entry.getKey(), convertObjectToRedisString(entry.getValue()));
+		}
+
+		final LinkedHashMap<String, Response<String>> responses;
+		if (jedis != null) {
+			Pipeline pipeline = jedis.pipelined();
+			responses = pipelineSets(pipeline, redisValues, ttlSeconds);
+			pipeline.sync();
+		} else {
+			ShardedJedisPipeline pipeline = shardedJedis.pipelined();
+			responses = pipelineSets(pipeline, redisValues, ttlSeconds);
+			pipeline.sync();
+		}
+
+		LinkedHashMap<String, Boolean> result = new LinkedHashMap<String, Boolean>();
+		for (Map.Entry<String, Response<String>> entry : responses.entrySet()) {
+			result.put(entry.getKey(), "OK".equals(entry.getValue().get()));
+		}
+		return new DummyFuture<Map<String, Boolean>>(result);
+	}
+
+	protected List<Response<String>> pipelineGets(PipelineBase pipeline, List<String> keys) {
+		ArrayList<Response<String>> responses = new ArrayList<Response<String>>(keys.size());
+		for (String key : keys) {
+			responses.add(pipeline.get(key));
+		}
+		return responses;
+	}
+
+	protected LinkedHashMap<String, Response<String>> pipelineSets(PipelineBase pipeline,
+			Map<String, String> redisValues, int ttlSeconds) {
+		LinkedHashMap<String, Response<String>> responses = new LinkedHashMap<String, Response<String>>();
+		for (Map.Entry<String, String> entry : redisValues.entrySet()) {
+			responses.put(entry.getKey(), pipeline.setex(entry.getKey(), ttlSeconds, entry.getValue()));
+		}
+		return responses;
+	}
+
 	protected String convertObjectToRedisString(final Object vobj) {
 		if (vobj == null) {
 			return null;
@@ -0,0 +1,333 @@
+package ar.com.siripo.arcache.backend.jedis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBus;
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBusListener;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * Invalidation bus over the Redis pub/sub. The backend keys are published in a
+ * channel and received by a daemon thread that keeps the subscriber connection
+ * subscribed, reconnecting after a delay when it fails.
+ *
+ * Redis does not keep the messages published while a subscriber is
+ * disconnected, so after every reconnection the listeners are notified that
+ * the invalidations may have been lost.
+ *
+ * A subscribed Jedis connection can not send other commands, so the publisher
+ * and the subscriber must be different connections.
+ *
+ * The publish calls only queue the backend keys, a daemon thread sends them in
+ * pipelined batches, so the invalidating threads never wait the network. The
+ * publisher connection is bounded by the socket timeout it was created with.
+ * When it fails it is disconnected, and the batch is sent again after the
+ * reconnect delay. When the queue is full the publish throws, and the failures
+ * are counted.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class ArcacheJedisInvalidationBus implements ArcacheInvalidationBus {
+
+	public static final int DEFAULT_MAX_PENDING_PUBLICATIONS = 100000;
+
+	protected final Jedis publisher; // Jedis is not thread safe, only used by the publisher thread
+	protected final Jedis subscriber;
+	protected final String channel;
+
+	protected long reconnectDelayMillis = 1000;
+	protected int maxPublicationBatch = 1000;
+
+	protected final LinkedBlockingQueue<String> pendingPublications;
+	protected Thread publisherThread; // Started with the first publish, guarded by this
+	protected final AtomicLong publishFailures = new AtomicLong();
+	protected final AtomicLong droppedPublications = new AtomicLong();
+
+	protected final CopyOnWriteArrayList<ArcacheInvalidationBusListener> listeners =
+			new CopyOnWriteArrayList<ArcacheInvalidationBusListener>();
+
+	protected final JedisPubSub pubSub;
+	protected Thread subscriberThread; // Started with the first listener, guarded by this
+	protected volatile boolean closed = false;
+	protected volatile boolean subscribedBefore = false;
+
+	public ArcacheJedisInvalidationBus(Jedis publisher, Jedis subscriber, String channel) {
+		this(publisher, subscriber, channel, DEFAULT_MAX_PENDING_PUBLICATIONS);
+	}
+
+	/** @param maxPendingPublications the backend keys queued before the publish starts to fail */
+	public ArcacheJedisInvalidationBus(Jedis publisher, Jedis subscriber, String channel,
+			int maxPendingPublications) {
+		if ((publisher == null) || (subscriber == null) || (channel == null) || (publisher == subscriber)
+				|| (maxPendingPublications <= 0)) {
+			throw new IllegalArgumentException();
+		}
+		this.publisher = publisher;
+		this.subscriber = subscriber;
+		this.channel = channel;
+		this.pendingPublications = new LinkedBlockingQueue<String>(maxPendingPublications);
+		this.pubSub = createPubSub();
+	}
+
+	/** Set the time to wait before subscribing again after a failure */
+	public void setReconnectDelayMillis(long reconnectDelayMillis) {
+		if (reconnectDelayMillis < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.reconnectDelayMillis = reconnectDelayMillis;
+	}
+
+	public long getReconnectDelayMillis() {
+		return reconnectDelayMillis;
+	}
+
+	/** Set the maximum backend keys sent in a single pipeline */
+	public void setMaxPublicationBatch(int maxPublicationBatch) {
+		if (maxPublicationBatch <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.maxPublicationBatch = maxPublicationBatch;
+	}
+
+	public int getMaxPublicationBatch() {
+		return maxPublicationBatch;
+	}
+
+	/** @return the times the publisher connection failed sending a batch */
+	public long getPublishFailures() {
+		return publishFailures.get();
+	}
+
+	/** @return the backend keys that were never published */
+	public long getDroppedPublications() {
+		return droppedPublications.get();
+	}
+
+	/** @return the backend keys queued and not sent yet */
+	public int getPendingPublications() {
+		return pendingPublications.size();
+	}
+
+	/** Only queues the backend key, it throws when the queue is full or the bus is closed */
+	@Override
+	public void publish(final String backendKey) {
+		enqueue(backendKey);
+		startPublisher();
+	}
+
+	/** The backend keys are queued together, so they are likely sent in the same pipeline */
+	@Override
+	public void publish(final Collection<String> backendKeys) {
+		IllegalStateException failure = null;
+		for (String backendKey : backendKeys) {
+			try {
+				enqueue(backendKey);
+			} catch (IllegalStateException e) {
+				failure = e;
+			}
+		}
+		startPublisher();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	protected void enqueue(final String backendKey) {
+		if (closed) {
+			droppedPublications.incrementAndGet();
+			throw new IllegalStateException("The bus is closed");
+		}
+		if (!pendingPublications.offer(backendKey)) {
+			droppedPublications.incrementAndGet();
+			throw new IllegalStateException("The publish queue is full");
+		}
+	}
+
+	protected synchronized void startPublisher() {
+		if ((publisherThread != null) || closed) {
+			return;
+		}
+		publisherThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runPublisher();
+			}
+		}, "arcache-invalidation-publisher-" + channel);
+		publisherThread.setDaemon(true);
+		publisherThread.start();
+	}
+
+	@Override
+	public synchronized void subscribe(final ArcacheInvalidationBusListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException();
+		}
+		if (closed) {
+			throw new IllegalStateException("The bus is closed");
+		}
+		listeners.addIfAbsent(listener);
+		if (subscriberThread == null) {
+			subscriberThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					runSubscriber();
+				}
+			}, "arcache-invalidation-bus-" + channel);
+			subscriberThread.setDaemon(true);
+			subscriberThread.start();
+		}
+	}
+
+	@Override
+	public void unsubscribe(final ArcacheInvalidationBusListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Stops the threads and closes the subscriber connection, the backend keys not
+	 * sent yet are dropped
+	 */
+	public void close() {
+		closed = true;
+		synchronized (this) {
+			if (publisherThread != null) {
+				publisherThread.interrupt();
+			}
+		}
+		try {
+			pubSub.unsubscribe();
+		} catch (RuntimeException e) {
+			// It was not subscribed
+		}
+		try {
+			subscriber.close();
+		} catch (RuntimeException e) {
+			// The connection is discarded anyway
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/** The subscribe call blocks until the connection fails or it is closed */
+	protected void runSubscriber() {
+		while (!closed) {
+			try {
+				subscriber.subscribe(pubSub, channel);
+			} catch (RuntimeException e) {
+				try {
+					subscriber.disconnect();
+				} catch (RuntimeException de) {
+					// The next subscribe connects again
+				}
+			}
+			if (!closed) {
+				try {
+					Thread.sleep(reconnectDelayMillis);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/** Sends the queued backend keys in batches until the bus is closed */
+	protected void runPublisher() {
+		ArrayList<String> batch = new ArrayList<String>();
+		try {
+			while (!closed) {
+				batch.add(pendingPublications.take());
+				pendingPublications.drainTo(batch, maxPublicationBatch - 1);
+				sendBatch(batch);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			// Closed
+		}
+		droppedPublications.addAndGet(batch.size() + pendingPublications.size());
+		pendingPublications.clear();
+	}
+
+	/**
+	 * A connection failure is retried after the reconnect delay, Jedis connects
+	 * again on the next command. Any other failure drops the batch
+	 */
+	protected void sendBatch(final ArrayList<String> batch) throws InterruptedException {
+		while (true) {
+			try {
+				if (batch.size() == 1) {
+					publisher.publish(channel, batch.get(0));
+				} else {
+					Pipeline pipeline = publisher.pipelined();
+					for (String backendKey : batch) {
+						pipeline.publish(channel, backendKey);
+					}
+					pipeline.sync();
+				}
+				return;
+			} catch (JedisConnectionException e) {
+				publishFailures.incrementAndGet();
+				try {
+					publisher.disconnect();
+				} catch (RuntimeException de) {
+					// The next publish connects again
+				}
+				if (closed) {
+					throw new InterruptedException();
+				}
+				Thread.sleep(reconnectDelayMillis);
+			} catch (RuntimeException e) {
+				publishFailures.incrementAndGet();
+				droppedPublications.addAndGet(batch.size());
+				return;
+			}
+		}
+	}
+
+	protected JedisPubSub createPubSub() {
+		return new JedisPubSub() {
+			@Override
+			public void onMessage(String messageChannel, String message) {
+				deliverInvalidation(message);
+			}
+
+			@Override
+			public void onSubscribe(String subscribedChannel, int subscribedChannels) {
+				if (subscribedBefore) {
+					deliverInvalidationsLost();
+				}
+				subscribedBefore = true;
+			}
+		};
+	}
+
+	protected void deliverInvalidation(final String backendKey) {
+		for (ArcacheInvalidationBusListener listener : listeners) {
+			try {
+				listener.onInvalidation(backendKey);
+			} catch (RuntimeException e) {
+				// The listener is responsible of its own failures
+			}
+		}
+	}
+
+	protected void deliverInvalidationsLost() {
+		for (ArcacheInvalidationBusListener listener : listeners) {
+			try {
+				listener.onInvalidationsLost();
+			} catch (RuntimeException e) {
+				// The listener is responsible of its own failures
+			}
+		}
+	}
+
+}
@@ -6,10 +6,14 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -20,6 +24,7 @@ import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import ar.com.siripo.arcache.util.ListenableFuture;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisCommands;
 import redis.clients.jedis.JedisShardInfo;
@@ -82,6 +87,18 @@ public class ArcacheJedisClientTest {
 		assertFalse(retrievedValue == hs);
 	}
 
+	@Test
+	public void testListenableGetSet() throws Exception {
+		ListenableFuture<Boolean> setFuture = client.listenableSet("TESTLISTENABLE", 10000, "V");
+		assertTrue(setFuture.isDone());
+		assertTrue(setFuture.get());
+
+		ListenableFuture<Object> getFuture = client.listenableGet("TESTLISTENABLE");
+		assertTrue(getFuture.isDone());
+		assertEquals("V", getFuture.get());
+		assertNull(client.listenableGet("MISS").get());
+	}
+
 	@Test
 	public void testGetMiss() throws Exception {
 		Future<Object> getFuture = client.asyncGet("MISS");
@@ -125,6 +142,44 @@ public class ArcacheJedisClientTest {
 		assertEquals(retrievedValue, "hello");
 	}
 
+	@Test
+	public void testMultiGetSet() throws Exception {
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("MULTI1", "v1");
+		values.put("MULTI2", "v2");
+		values.put("MULTINULL", null);
+
+		Map<String, Boolean> setResult = client.asyncMultiSet(values, 10000).get(50, TimeUnit.MILLISECONDS);
+		assertTrue(setResult.get("MULTI1"));
+		assertTrue(setResult.get("MULTI2"));
+		assertEquals("v1", client.asyncGet("MULTI1").get(50, TimeUnit.MILLISECONDS));
+
+		Map<String, Object> getResult = client.asyncMultiGet(Arrays.asList("MULTI1", "MULTI2", "MULTINULL", "MISS"))
+				.get(50, TimeUnit.MILLISECONDS);
+		assertEquals(2, getResult.size());
+		assertEquals("v1", getResult.get("MULTI1"));
+		assertEquals("v2", getResult.get("MULTI2"));
+	}
+
+	@Test
+	public void testShardedJedisMultiGetSet() throws Exception {
+		List<JedisShardInfo> jedisShards = new Vector<JedisShardInfo>();
+		jedisShards.add(new JedisShardInfo("localhost"));
+		ArcacheJedisClient clientx = new ArcacheJedisClient(new ShardedJedis(jedisShards));
+
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("SHMULTI1", "v1");
+		values.put("SHMULTI2", "v2");
+		Map<String, Boolean> setResult = clientx.asyncMultiSet(values, 10000).get(50, TimeUnit.MILLISECONDS);
+		assertTrue(setResult.get("SHMULTI1"));
+		assertTrue(setResult.get("SHMULTI2"));
+
+		Map<String, Object> getResult = clientx.asyncMultiGet(Arrays.asList("SHMULTI1", "SHMULTI2", "MISS"))
+				.get(50, TimeUnit.MILLISECONDS);
+		assertEquals(2, getResult.size());
+		assertEquals("v2", getResult.get("SHMULTI2"));
+	}
+
 	@Test
 	public void testSerialization() throws Exception {
 		HashSet<String> hs = new HashSet<String>();
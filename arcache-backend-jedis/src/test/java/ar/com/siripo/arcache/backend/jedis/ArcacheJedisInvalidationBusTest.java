@@ -0,0 +1,401 @@
+package ar.com.siripo.arcache.backend.jedis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBusListener;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * The Redis pub/sub is replaced by a local stand-in, so the connection failures
+ * can be simulated
+ */
+public class ArcacheJedisInvalidationBusTest {
+
+	StandInBroker broker;
+	StandInJedis publisher;
+	StandInJedis subscriber;
+	ArcacheJedisInvalidationBus bus;
+	RecordingListener listener;
+
+	@Before
+	public void setUp() throws Exception {
+		broker = new StandInBroker();
+		publisher = new StandInJedis(broker);
+		subscriber = new StandInJedis(broker);
+		bus = new ArcacheJedisInvalidationBus(publisher, subscriber, "invalidations");
+		bus.setReconnectDelayMillis(1);
+		listener = new RecordingListener();
+	}
+
+	@Test
+	public void testConstructor() {
+		try {
+			new ArcacheJedisInvalidationBus(publisher, publisher, "invalidations");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new ArcacheJedisInvalidationBus(publisher, subscriber, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new ArcacheJedisInvalidationBus(publisher, subscriber, "invalidations", 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			bus.setReconnectDelayMillis(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(1, bus.getReconnectDelayMillis());
+		try {
+			bus.setMaxPublicationBatch(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		bus.setMaxPublicationBatch(10);
+		assertEquals(10, bus.getMaxPublicationBatch());
+	}
+
+	@Test
+	public void testAsyncPublish() throws Exception {
+		bus.subscribe(listener);
+		waitSubscriptions(1);
+
+		// The batch is sent in a pipeline
+		bus.publish(Arrays.asList("key1", "key2", "key3"));
+		waitInvalidations(3);
+		assertEquals(Arrays.asList("key1", "key2", "key3"), listener.invalidations);
+
+		// A connection failure disconnects the publisher and the batch is sent again
+		publisher.failPublishes = 2;
+		bus.publish("key4");
+		waitInvalidations(4);
+		assertEquals(2, bus.getPublishFailures());
+		assertEquals(2, publisher.disconnects);
+		assertEquals(0, bus.getDroppedPublications());
+
+		// Any other failure drops the batch
+		publisher.failWithIllegalState = true;
+		bus.publish("key5");
+		for (int i = 0; (i < 400) && (bus.getDroppedPublications() < 1); i++) {
+			Thread.sleep(5);
+		}
+		assertEquals(1, bus.getDroppedPublications());
+		assertEquals(3, bus.getPublishFailures());
+		publisher.failWithIllegalState = false;
+
+		// A full queue fails the publish without blocking
+		publisher.blocked = new CountDownLatch(1);
+		bus.publish("key6");
+		for (int i = 0; (i < 400) && (bus.getPendingPublications() > 0); i++) {
+			Thread.sleep(5);
+		}
+		StandInBroker otherBroker = new StandInBroker();
+		ArcacheJedisInvalidationBus small = new ArcacheJedisInvalidationBus(new StandInJedis(otherBroker),
+				new StandInJedis(otherBroker), "invalidations", 1);
+		small.pendingPublications.offer("queued");
+		try {
+			small.publish("key7");
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		try {
+			small.publish(Arrays.asList("key8", "key9"));
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(3, small.getDroppedPublications());
+		small.close();
+		publisher.blocked.countDown();
+		waitInvalidations(5);
+
+		// Once closed the pending keys are dropped and the publish fails
+		bus.close();
+		bus.publisherThread.join(1000);
+		assertFalse(bus.publisherThread.isAlive());
+		try {
+			bus.publish("key10");
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(2, bus.getDroppedPublications());
+	}
+
+	@Test
+	public void testCloseWhileReconnecting() throws Exception {
+		bus.setReconnectDelayMillis(100000);
+		publisher.failPublishes = 1;
+		bus.publish("key1");
+		for (int i = 0; (i < 400) && (bus.getPublishFailures() < 1); i++) {
+			Thread.sleep(5);
+		}
+		bus.close();
+		bus.publisherThread.join(1000);
+		assertFalse(bus.publisherThread.isAlive());
+		assertEquals(1, bus.getDroppedPublications());
+
+		// A publisher that fails while closing drops its batch
+		ArcacheJedisInvalidationBus other = new ArcacheJedisInvalidationBus(publisher, subscriber, "invalidations");
+		other.closed = true;
+		publisher.failPublishes = 1;
+		ArrayList<String> batch = new ArrayList<String>(Collections.singletonList("key2"));
+		try {
+			other.sendBatch(batch);
+			fail();
+		} catch (InterruptedException e) {
+		}
+		other.startPublisher();
+		assertEquals(null, other.publisherThread);
+	}
+
+	@Test
+	public void testPublishSubscribe() throws Exception {
+		try {
+			bus.subscribe(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		bus.subscribe(listener);
+		bus.subscribe(new ArcacheInvalidationBusListener() {
+			@Override
+			public void onInvalidation(String backendKey) {
+				throw new IllegalStateException();
+			}
+
+			@Override
+			public void onInvalidationsLost() {
+				throw new IllegalStateException();
+			}
+		});
+		waitSubscriptions(1);
+
+		bus.publish("key1");
+		bus.publish("key2");
+		waitInvalidations(2);
+		assertEquals(2, listener.invalidations.size());
+		assertEquals("key1", listener.invalidations.get(0));
+		assertEquals(0, listener.lost);
+
+		// After a reconnection the messages may have been lost
+		subscriber.failNextSubscribe = true;
+		subscriber.dropConnection();
+		waitSubscriptions(3);
+		assertEquals(1, subscriber.disconnects);
+		waitLost(1);
+
+		bus.publish("key3");
+		waitInvalidations(3);
+
+		bus.unsubscribe(listener);
+		bus.publish("key4");
+		assertEquals(3, listener.invalidations.size());
+
+		assertFalse(bus.isClosed());
+		bus.close();
+		assertTrue(bus.isClosed());
+		bus.subscriberThread.join(1000);
+		assertFalse(bus.subscriberThread.isAlive());
+		try {
+			bus.subscribe(listener);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void testFailures() throws Exception {
+		// A failing disconnect is retried by the next subscribe
+		subscriber.failNextSubscribe = true;
+		subscriber.failDisconnect = true;
+		bus.subscribe(listener);
+		waitSubscriptions(2);
+		assertEquals(0, listener.lost);
+
+		// Closing a bus that is not subscribed does not fail
+		ArcacheJedisInvalidationBus other = new ArcacheJedisInvalidationBus(publisher, new StandInJedis(broker) {
+			@Override
+			public void close() {
+				throw new IllegalStateException();
+			}
+		}, "invalidations");
+		other.close();
+		assertTrue(other.isClosed());
+		bus.close();
+	}
+
+	@Test
+	public void testInterrupted() throws Exception {
+		bus.setReconnectDelayMillis(100000);
+		bus.subscribe(listener);
+		waitSubscriptions(1);
+		subscriber.dropConnection();
+		bus.subscriberThread.interrupt();
+		bus.subscriberThread.join(1000);
+		assertFalse(bus.subscriberThread.isAlive());
+	}
+
+	void waitSubscriptions(int count) throws InterruptedException {
+		for (int i = 0; (i < 400) && (subscriber.subscriptions < count); i++) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, subscriber.subscriptions);
+	}
+
+	void waitInvalidations(int count) throws InterruptedException {
+		for (int i = 0; (i < 400) && (listener.invalidations.size() < count); i++) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, listener.invalidations.size());
+	}
+
+	void waitLost(int count) throws InterruptedException {
+		for (int i = 0; (i < 400) && (listener.lost < count); i++) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, listener.lost);
+	}
+
+	static class RecordingListener implements ArcacheInvalidationBusListener {
+		final List<String> invalidations = Collections.synchronizedList(new ArrayList<String>());
+		volatile int lost = 0;
+
+		@Override
+		public void onInvalidation(String backendKey) {
+			invalidations.add(backendKey);
+		}
+
+		@Override
+		public void onInvalidationsLost() {
+			lost++;
+		}
+	}
+
+	/** Delivers the published messages to the subscribed connections */
+	static class StandInBroker {
+		final CopyOnWriteArrayList<JedisPubSub> subscribed = new CopyOnWriteArrayList<JedisPubSub>();
+
+		void publish(String channel, String message) {
+			for (JedisPubSub pubSub : subscribed) {
+				pubSub.onMessage(channel, message);
+			}
+		}
+	}
+
+	/** A connection to the stand-in broker, subscribe blocks until it is dropped */
+	static class StandInJedis extends Jedis {
+		final StandInBroker broker;
+		volatile CountDownLatch connection = new CountDownLatch(1);
+		volatile boolean failNextSubscribe = false;
+		volatile boolean failDisconnect = false;
+		volatile int subscriptions = 0;
+		volatile int disconnects = 0;
+		volatile int failPublishes = 0;
+		volatile boolean failWithIllegalState = false;
+		volatile CountDownLatch blocked = null;
+
+		StandInJedis(StandInBroker broker) {
+			super("localhost");
+			this.broker = broker;
+		}
+
+		@Override
+		public Long publish(String channel, String message) {
+			if (failPublishes > 0) {
+				failPublishes--;
+				throw new JedisConnectionException("Broken pipe");
+			}
+			if (failWithIllegalState) {
+				throw new IllegalStateException();
+			}
+			CountDownLatch current = blocked;
+			if (current != null) {
+				try {
+					current.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			broker.publish(channel, message);
+			return 1L;
+		}
+
+		@Override
+		public Pipeline pipelined() {
+			final List<String> messages = new ArrayList<String>();
+			return new Pipeline() {
+				@Override
+				public Response<Long> publish(String channel, String message) {
+					messages.add(message);
+					return null;
+				}
+
+				@Override
+				public void sync() {
+					for (String message : messages) {
+						StandInJedis.this.publish("invalidations", message);
+					}
+				}
+			};
+		}
+
+		@Override
+		public void subscribe(JedisPubSub pubSub, String... channels) {
+			subscriptions++;
+			if (failNextSubscribe) {
+				failNextSubscribe = false;
+				throw new JedisConnectionException("Connection refused");
+			}
+			CountDownLatch current = connection;
+			broker.subscribed.add(pubSub);
+			try {
+				pubSub.onSubscribe(channels[0], 1);
+				current.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				broker.subscribed.remove(pubSub);
+			}
+		}
+
+		void dropConnection() {
+			CountDownLatch current = connection;
+			connection = new CountDownLatch(1);
+			current.countDown();
+		}
+
+		@Override
+		public void disconnect() {
+			disconnects++;
+			if (failDisconnect) {
+				throw new JedisConnectionException("Already disconnected");
+			}
+		}
+
+		@Override
+		public void close() {
+			connection.countDown();
+		}
+	}
+
+}
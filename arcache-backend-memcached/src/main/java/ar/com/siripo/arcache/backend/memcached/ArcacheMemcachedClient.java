@@ -1,17 +1,38 @@
 package ar.com.siripo.arcache.backend.memcached;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.Future;
 
-import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheAsyncBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheMultiKeyBackendClient;
+import ar.com.siripo.arcache.backend.MultiKeyBackendOperations;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.ListenableFutures;
+import ar.com.siripo.arcache.util.SettableFuture;
 import net.spy.memcached.MemcachedClientIF;
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.BulkGetCompletionListener;
+import net.spy.memcached.internal.BulkGetFuture;
+import net.spy.memcached.internal.GetCompletionListener;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
 
 /**
  * Adaptador de la interfaz a memcached
  * 
+ * The spymemcached futures notify its completion with listeners, they are
+ * converted to ListenableFuture so no thread waits for the I/O.
+ * 
+ * The async operations return the spymemcached futures themselves. Their timed
+ * get is what counts the operation timeouts that make the memcached client
+ * reconnect, so the synchronous paths must wait on them and not on a wrapper.
+ * 
  * @author Mariano Santamarina
  *
  */
-public class ArcacheMemcachedClient implements ArcacheBackendClient {
+public class ArcacheMemcachedClient implements ArcacheAsyncBackendClient, ArcacheMultiKeyBackendClient {
 
 	private MemcachedClientIF memcachedClient;
 
@@ -21,7 +42,7 @@ public class ArcacheMemcachedClient implements ArcacheBackendClient {
 
 	@Override
 	public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
-		return memcachedClient.set(key, (int) ((ttlMillis + 999) / 1000), value);
+		return memcachedClient.set(key, toExpirationSeconds(ttlMillis), value);
 	}
 
 	@Override
@@ -29,4 +50,72 @@ public class ArcacheMemcachedClient implements ArcacheBackendClient {
 		return memcachedClient.asyncGet(key);
 	}
 
+	@Override
+	public ListenableFuture<Boolean> listenableSet(String key, long ttlMillis, Object value) {
+		final OperationFuture<Boolean> setFuture = memcachedClient.set(key, toExpirationSeconds(ttlMillis), value);
+		final SettableFuture<Boolean> listenable = createListenableFuture(setFuture);
+		setFuture.addListener(new OperationCompletionListener() {
+			@Override
+			public void onComplete(OperationFuture<?> future) {
+				ListenableFutures.transfer(setFuture, listenable);
+			}
+		});
+		return listenable;
+	}
+
+	@Override
+	public ListenableFuture<Object> listenableGet(String key) {
+		final GetFuture<Object> getFuture = memcachedClient.asyncGet(key);
+		final SettableFuture<Object> listenable = createListenableFuture(getFuture);
+		getFuture.addListener(new GetCompletionListener() {
+			@Override
+			public void onComplete(GetFuture<?> future) {
+				ListenableFutures.transfer(getFuture, listenable);
+			}
+		});
+		return listenable;
+	}
+
+	/** Memcached expirations are in seconds, they are rounded up */
+	protected int toExpirationSeconds(long ttlMillis) {
+		return (int) ((ttlMillis + 999) / 1000);
+	}
+
+	/** Uses memcached getBulk, all the keys are retrieved in one request */
+	@Override
+	public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+		final BulkFuture<Map<String, Object>> bulkFuture = memcachedClient.asyncGetBulk(keys);
+		final SettableFuture<Map<String, Object>> listenable = createListenableFuture(bulkFuture);
+		bulkFuture.addListener(new BulkGetCompletionListener() {
+			@Override
+			public void onComplete(BulkGetFuture<?> future) {
+				ListenableFutures.transfer(bulkFuture, listenable);
+			}
+		});
+		return listenable;
+	}
+
+	/**
+	 * Memcached has no multi set, but the spymemcached client pipelines the
+	 * operations issued in a row
+	 */
+	@Override
+	public Future<Map<String, Boolean>> asyncMultiSet(Map<String, Object> values, long ttlMillis) {
+		return MultiKeyBackendOperations.fanOutMultiSet(this, values, ttlMillis);
+	}
+
+	/** The cancellation is propagated to the memcached operation */
+	protected <V> SettableFuture<V> createListenableFuture(final Future<V> memcachedFuture) {
+		return new SettableFuture<V>() {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				if (!super.cancel(mayInterruptIfRunning)) {
+					return false;
+				}
+				memcachedFuture.cancel(mayInterruptIfRunning);
+				return true;
+			}
+		};
+	}
+
 }
@@ -4,11 +4,17 @@ import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -19,7 +25,11 @@ import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.SettableFuture;
 import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.GetFuture;
 import net.spy.memcached.internal.OperationFuture;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
@@ -78,6 +88,9 @@ public class ArcacheMemcachedClientTest {
 		}
 
 		Future<Object> getFuture = client.asyncGet("TESTCLIENT");
+		// The native futures are returned, their timed get counts the timeouts
+		assertThat(setFuture, instanceOf(OperationFuture.class));
+		assertThat(getFuture, instanceOf(GetFuture.class));
 
 		Object retrievedValue = getFuture.get(50, TimeUnit.MILLISECONDS);
 
@@ -90,6 +103,53 @@ public class ArcacheMemcachedClientTest {
 		assertFalse(retrievedValue == hs);
 	}
 
+	@Test
+	public void test003ClientMultiGetSet() throws Exception {
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("TESTMULTI1", "v1");
+		values.put("TESTMULTI2", "v2");
+
+		Map<String, Boolean> setResult = client.asyncMultiSet(values, 10000).get(50, TimeUnit.MILLISECONDS);
+		assertTrue(setResult.get("TESTMULTI1"));
+		assertTrue(setResult.get("TESTMULTI2"));
+
+		Map<String, Object> getResult = client.asyncMultiGet(Arrays.asList("TESTMULTI1", "TESTMULTI2", "TESTMISS"))
+				.get(50, TimeUnit.MILLISECONDS);
+		assertEquals(2, getResult.size());
+		assertEquals("v1", getResult.get("TESTMULTI1"));
+		assertEquals("v2", getResult.get("TESTMULTI2"));
+	}
+
+	@Test
+	public void test004ClientListenableGetSet() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(2);
+		FutureListener<Object> listener = new FutureListener<Object>() {
+			@Override
+			public void onComplete(ListenableFuture<Object> future) {
+				latch.countDown();
+			}
+		};
+
+		assertTrue(client.listenableSet("TESTLISTENABLE", 10000, "V").get(50, TimeUnit.MILLISECONDS));
+
+		ListenableFuture<Object> getFuture = client.listenableGet("TESTLISTENABLE");
+		getFuture.addListener(listener);
+		ListenableFuture<Object> missFuture = client.listenableGet("TESTLISTENABLEMISS");
+		missFuture.addListener(listener);
+
+		// The listeners are called by the memcached client when the response arrives
+		assertTrue(latch.await(50, TimeUnit.MILLISECONDS));
+		assertEquals("V", getFuture.get(0, TimeUnit.MILLISECONDS));
+		assertNull(missFuture.get(0, TimeUnit.MILLISECONDS));
+
+		// The cancellation reaches the memcached operation
+		final GetFuture<Object> pending = memcachedClient.asyncGet("TESTLISTENABLE");
+		SettableFuture<Object> cancellable = client.createListenableFuture(pending);
+		assertTrue(cancellable.cancel(false));
+		assertFalse(cancellable.cancel(false));
+		assertTrue(pending.isDone());
+	}
+
 	private int testVerifyMillisToSecondConversion_exp;
 
 	@Test
@@ -0,0 +1,479 @@
+package ar.com.siripo.arcache.backend.mmap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import ar.com.siripo.arcache.backend.ArcacheAsyncBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheMultiKeyBackendClient;
+import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.ObjectSerializer;
+
+/**
+ * Local persistent Backend
+ *
+ * The entries are appended to memory mapped segment files in a directory, and
+ * an in memory index points to the latest record of every key. When the client
+ * is created again over the same directory, for example after a deploy, the
+ * index is rebuilt reading the segments and the cache is warm at once.
+ *
+ * The disk used is limited to maxSegments of segmentSize bytes. When a new
+ * segment is needed the oldest one is compacted: its live entries are copied to
+ * the new segment, the file is unmapped and deleted. If the live entries would
+ * fill more than half of the new segment they are evicted instead, so the
+ * oldest entries are the first to go.
+ *
+ * The index never forgets a key whose record is still on disk without a later
+ * removal record. When a new segment can not be created, the set or the remove
+ * fails and the previous value is kept, so a restart can not bring back a value
+ * that was already gone.
+ *
+ * The records are written to the mapped memory, they survive a crash of the
+ * process but not of the host unless force is called. A record partially
+ * written by a crash is detected by its checksum and ignored.
+ *
+ * It can be used alone or as the backend of an ArcacheSpeedupClient. Only one
+ * client can use a directory at a time, it is locked until close.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class ArcacheMmapClient implements ArcacheAsyncBackendClient, ArcacheMultiKeyBackendClient, Closeable {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	public static final int DEFAULT_MAX_SEGMENTS = 16;
+	protected static final int MIN_SEGMENT_SIZE = 1024;
+	protected static final String LOCK_FILE_NAME = "arcache.lock";
+
+	protected final File directory;
+	protected final int segmentSize;
+	protected final int maxSegments;
+	protected final ObjectSerializer objectSerializer = new ObjectSerializer();
+
+	// All guarded by this
+	protected final HashMap<String, Location> index = new HashMap<String, Location>();
+	protected final LinkedList<MmapSegment> segments = new LinkedList<MmapSegment>();
+	protected MmapSegment activeSegment;
+	protected boolean closed = false;
+
+	protected RandomAccessFile lockFile;
+
+	public ArcacheMmapClient(File directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+	}
+
+	/**
+	 * Opens the segments found in the directory, or creates it
+	 *
+	 * @param directory   where the segment files are kept
+	 * @param segmentSize the size of every segment file, an entry can use at most
+	 *                    half of it
+	 * @param maxSegments the maximum number of segment files, at least 2
+	 * @throws IOException when the directory can not be used, or it is locked by
+	 *                     another client
+	 */
+	public ArcacheMmapClient(File directory, int segmentSize, int maxSegments) throws IOException {
+		if (segmentSize < MIN_SEGMENT_SIZE) {
+			throw new IllegalArgumentException("Invalid segment size");
+		}
+		if (maxSegments < 2) {
+			throw new IllegalArgumentException("Invalid max segments");
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		directory.mkdirs();
+		if (!directory.isDirectory()) {
+			throw new IOException("Invalid directory " + directory);
+		}
+		lock();
+		try {
+			open();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	protected void lock() throws IOException {
+		lockFile = new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw");
+		FileLock lock = null;
+		try {
+			lock = lockFile.getChannel().tryLock();
+		} catch (OverlappingFileLockException e) {
+		}
+		if (lock == null) {
+			lockFile.close();
+			throw new IOException("The directory is used by another client " + directory);
+		}
+	}
+
+	protected synchronized void open() throws IOException {
+		ArrayList<Long> ids = new ArrayList<Long>();
+		for (String fileName : directory.list()) {
+			long id = MmapSegment.idOf(fileName);
+			if (id >= 0) {
+				ids.add(id);
+			}
+		}
+		Collections.sort(ids);
+
+		final long currentTimeMillis = System.currentTimeMillis();
+		for (long id : ids) {
+			MmapSegment segment = MmapSegment.open(directory, id);
+			segments.add(segment);
+			recover(segment, currentTimeMillis);
+		}
+
+		if (segments.isEmpty()) {
+			activeSegment = MmapSegment.create(directory, 0, segmentSize);
+			segments.add(activeSegment);
+		} else {
+			activeSegment = segments.getLast();
+			// The tail of a partially written record is not overwritten, it could
+			// look valid again
+			if (activeSegment.fits(4) && (activeSegment.buffer.getInt(activeSegment.writePosition) != 0)) {
+				rotate();
+			}
+		}
+	}
+
+	/** Applies the records of the segment to the index, in order */
+	protected void recover(MmapSegment segment, long currentTimeMillis) {
+		int offset = 0;
+		byte[] record;
+		while ((record = segment.readRecord(offset)) != null) {
+			long expirationTimeMillis = MmapSegment.expirationOf(record);
+			String key = MmapSegment.keyOf(record);
+			if (expirationTimeMillis > currentTimeMillis) {
+				replace(key, new Location(segment, offset, record.length, expirationTimeMillis));
+			} else {
+				replace(key, null);
+			}
+			offset += record.length;
+		}
+		segment.writePosition = offset;
+	}
+
+	@Override
+	public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+		return new DummyFuture<Boolean>(set(key, ttlMillis, value));
+	}
+
+	@Override
+	public Future<Object> asyncGet(String key) {
+		return new DummyFuture<Object>(get(key));
+	}
+
+	@Override
+	public ListenableFuture<Boolean> listenableSet(String key, long ttlMillis, Object value) {
+		return new DummyFuture<Boolean>(set(key, ttlMillis, value));
+	}
+
+	@Override
+	public ListenableFuture<Object> listenableGet(String key) {
+		return new DummyFuture<Object>(get(key));
+	}
+
+	@Override
+	public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+		return new DummyFuture<Map<String, Object>>(multiGet(keys));
+	}
+
+	@Override
+	public Future<Map<String, Boolean>> asyncMultiSet(Map<String, Object> values, long ttlMillis) {
+		return new DummyFuture<Map<String, Boolean>>(multiSet(values, ttlMillis));
+	}
+
+	public Object get(String key) {
+		byte[] value;
+		synchronized (this) {
+			value = readValue(key, System.currentTimeMillis());
+		}
+		return deserialize(value);
+	}
+
+	/**
+	 * Gets many keys with a single lock acquisition, the deserialization is done
+	 * after releasing it
+	 *
+	 * @param keys
+	 * @return the found keys, the missing or expired are not included
+	 */
+	public Map<String, Object> multiGet(Collection<String> keys) {
+		LinkedHashMap<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+		synchronized (this) {
+			final long currentTimeMillis = System.currentTimeMillis();
+			for (String key : keys) {
+				values.put(key, readValue(key, currentTimeMillis));
+			}
+		}
+		LinkedHashMap<String, Object> result = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+			Object obj = deserialize(entry.getValue());
+			if (obj != null) {
+				result.put(entry.getKey(), obj);
+			}
+		}
+		return result;
+	}
+
+	/** Called with the lock */
+	protected byte[] readValue(String key, long currentTimeMillis) {
+		checkOpen();
+		Location location = index.get(key);
+		if (location == null) {
+			return null;
+		}
+		if (location.expirationTimeMillis <= currentTimeMillis) {
+			// It is expired on disk too, there is no need to record the removal
+			replace(key, null);
+			return null;
+		}
+		return location.segment.readValue(location.offset, location.length);
+	}
+
+	protected Object deserialize(byte[] value) {
+		if ((value == null) || (value.length == 0)) {
+			return null;
+		}
+		return objectSerializer.deserialize(value);
+	}
+
+	public boolean set(String key, long ttlMillis, Object value) {
+		byte[] record = createRecord(key, ttlMillis, value);
+		synchronized (this) {
+			return write(key, record);
+		}
+	}
+
+	/**
+	 * Sets many keys with a single lock acquisition, the serialization is done
+	 * before taking it
+	 *
+	 * @param values
+	 * @param ttlMillis
+	 * @return the result of every key
+	 */
+	public Map<String, Boolean> multiSet(Map<String, Object> values, long ttlMillis) {
+		LinkedHashMap<String, byte[]> records = new LinkedHashMap<String, byte[]>();
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			records.put(entry.getKey(), createRecord(entry.getKey(), ttlMillis, entry.getValue()));
+		}
+		LinkedHashMap<String, Boolean> result = new LinkedHashMap<String, Boolean>();
+		synchronized (this) {
+			for (Map.Entry<String, byte[]> entry : records.entrySet()) {
+				result.put(entry.getKey(), write(entry.getKey(), entry.getValue()));
+			}
+		}
+		return result;
+	}
+
+	protected byte[] createRecord(String key, long ttlMillis, Object value) {
+		byte[] serialized = objectSerializer.serializeToByteArray(value);
+		if (serialized == null) {
+			serialized = new byte[0];
+		}
+		return MmapSegment.createRecord(encodeKey(key), System.currentTimeMillis() + ttlMillis, serialized);
+	}
+
+	protected static byte[] encodeKey(String key) {
+		if (key == null) {
+			throw new IllegalArgumentException("Invalid key");
+		}
+		byte[] encoded = key.getBytes(MmapSegment.UTF8);
+		if (encoded.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid key");
+		}
+		return encoded;
+	}
+
+	/**
+	 * Called with the lock. A record larger than half a segment is not stored,
+	 * and the previous value is removed. When there is no space the previous
+	 * value is kept, it is still on disk
+	 */
+	protected boolean write(String key, byte[] record) {
+		checkOpen();
+		if (record.length > segmentSize / 2) {
+			remove(key);
+			return false;
+		}
+		if (!ensureSpace(record.length)) {
+			return false;
+		}
+		int offset = activeSegment.append(record);
+		replace(key, new Location(activeSegment, offset, record.length, MmapSegment.expirationOf(record)));
+		return true;
+	}
+
+	/**
+	 * The removal is recorded on disk, so the value does not come back after a
+	 * restart
+	 *
+	 * @return false when the removal record can not be written, the value is kept
+	 */
+	public boolean remove(String key) {
+		byte[] encodedKey = encodeKey(key);
+		synchronized (this) {
+			checkOpen();
+			if (index.containsKey(key)) {
+				byte[] tombstone = MmapSegment.createRecord(encodedKey, 0, new byte[0]);
+				if (!ensureSpace(tombstone.length)) {
+					return false;
+				}
+				activeSegment.append(tombstone);
+				replace(key, null);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Called with the lock, rotates the active segment when the record does not
+	 * fit
+	 *
+	 * @return false when a new segment can not be created
+	 */
+	protected boolean ensureSpace(int recordLength) {
+		if (activeSegment.fits(recordLength)) {
+			return true;
+		}
+		try {
+			rotate();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Called with the lock. A new segment is appended, and the oldest ones are
+	 * compacted until there are maxSegments
+	 */
+	protected void rotate() throws IOException {
+		activeSegment = MmapSegment.create(directory, activeSegment.id + 1, segmentSize);
+		segments.add(activeSegment);
+		while (segments.size() > maxSegments) {
+			compact(segments.removeFirst());
+		}
+	}
+
+	/** Called with the lock, moves or evicts the live entries and deletes it */
+	protected void compact(MmapSegment oldest) {
+		final long currentTimeMillis = System.currentTimeMillis();
+		final boolean move = activeSegment.writePosition + oldest.liveBytes <= activeSegment.capacity() / 2;
+		int offset = 0;
+		while (offset < oldest.writePosition) {
+			byte[] record = oldest.readRecord(offset);
+			String key = MmapSegment.keyOf(record);
+			Location location = index.get(key);
+			if ((location != null) && (location.segment == oldest) && (location.offset == offset)) {
+				if (move && (location.expirationTimeMillis > currentTimeMillis)) {
+					replace(key, new Location(activeSegment, activeSegment.append(record), record.length,
+							location.expirationTimeMillis));
+				} else {
+					replace(key, null);
+				}
+			}
+			offset += record.length;
+		}
+		oldest.delete();
+	}
+
+	/** Called with the lock, keeps the live bytes of the segments */
+	protected void replace(String key, Location location) {
+		Location previous;
+		if (location != null) {
+			previous = index.put(key, location);
+			location.segment.liveBytes += location.length;
+		} else {
+			previous = index.remove(key);
+		}
+		if (previous != null) {
+			previous.segment.liveBytes -= previous.length;
+		}
+	}
+
+	protected void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Closed");
+		}
+	}
+
+	/** Writes the active segment to disk, so it survives a crash of the host */
+	public synchronized void force() {
+		checkOpen();
+		activeSegment.force();
+	}
+
+	/** Writes the segments to disk and releases the directory */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (MmapSegment segment : segments) {
+			segment.force();
+			segment.close();
+		}
+		try {
+			lockFile.close();
+		} catch (IOException e) {
+		}
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/** @return the number of entries, including the expired ones not read yet */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	public synchronized int getSegmentsCount() {
+		return segments.size();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	public int getMaxSegments() {
+		return maxSegments;
+	}
+
+	/** The latest record of a key */
+	protected static class Location {
+		final MmapSegment segment;
+		final int offset;
+		final int length;
+		final long expirationTimeMillis;
+
+		Location(MmapSegment segment, int offset, int length, long expirationTimeMillis) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.expirationTimeMillis = expirationTimeMillis;
+		}
+	}
+
+}
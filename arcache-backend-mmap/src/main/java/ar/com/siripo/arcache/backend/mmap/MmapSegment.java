@@ -0,0 +1,225 @@
+package ar.com.siripo.arcache.backend.mmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * An append only file of records, mapped in memory. The records are never
+ * modified, a newer record of the same key in this or a later segment replaces
+ * it.
+ *
+ * Record layout: int length of the whole record, int CRC32 of the rest, long
+ * expiration time (0 for a removal), short length of the key, the key in UTF-8
+ * and the serialized value.
+ *
+ * The file is created with its final size, the unused tail is zero so the
+ * first record with a zero length or a wrong checksum is the end of the
+ * segment. That is how a record partially written by a crash is discarded.
+ *
+ * Not thread safe, ArcacheMmapClient guards it with its lock.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+class MmapSegment {
+
+	static final int HEADER_SIZE = 4 + 4 + 8 + 2;
+	static final String FILE_PREFIX = "segment-";
+	static final String FILE_SUFFIX = ".arcache";
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	final long id;
+	final File file;
+	final RandomAccessFile randomAccessFile;
+	final MappedByteBuffer buffer;
+
+	int writePosition = 0;
+	/** The bytes of the records that are still referenced by the index */
+	long liveBytes = 0;
+
+	private MmapSegment(long id, File file, RandomAccessFile randomAccessFile, MappedByteBuffer buffer) {
+		this.id = id;
+		this.file = file;
+		this.randomAccessFile = randomAccessFile;
+		this.buffer = buffer;
+	}
+
+	static File fileFor(File directory, long id) {
+		return new File(directory, FILE_PREFIX + String.format("%016d", id) + FILE_SUFFIX);
+	}
+
+	/** @return the id of a segment file, or -1 for other files */
+	static long idOf(String fileName) {
+		if ((!fileName.startsWith(FILE_PREFIX)) || (!fileName.endsWith(FILE_SUFFIX))) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(fileName.substring(FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	static MmapSegment create(File directory, long id, int size) throws IOException {
+		File file = fileFor(directory, id);
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.setLength(size);
+			return map(id, file, randomAccessFile);
+		} catch (IOException e) {
+			randomAccessFile.close();
+			throw e;
+		}
+	}
+
+	static MmapSegment open(File directory, long id) throws IOException {
+		File file = fileFor(directory, id);
+		return map(id, file, new RandomAccessFile(file, "rw"));
+	}
+
+	private static MmapSegment map(long id, File file, RandomAccessFile randomAccessFile) throws IOException {
+		MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+				randomAccessFile.length());
+		return new MmapSegment(id, file, randomAccessFile, buffer);
+	}
+
+	int capacity() {
+		return buffer.capacity();
+	}
+
+	boolean fits(int recordLength) {
+		return writePosition + recordLength <= buffer.capacity();
+	}
+
+	static byte[] createRecord(byte[] key, long expirationTimeMillis, byte[] value) {
+		int length = HEADER_SIZE + key.length + value.length;
+		byte[] record = new byte[length];
+		ByteBuffer bb = ByteBuffer.wrap(record);
+		bb.putInt(length);
+		bb.putInt(0);
+		bb.putLong(expirationTimeMillis);
+		bb.putShort((short) key.length);
+		bb.put(key);
+		bb.put(value);
+		bb.putInt(4, checksum(record, 8, length - 8));
+		return record;
+	}
+
+	static long expirationOf(byte[] record) {
+		return ByteBuffer.wrap(record).getLong(8);
+	}
+
+	static String keyOf(byte[] record) {
+		return new String(record, HEADER_SIZE, ByteBuffer.wrap(record).getShort(16), UTF8);
+	}
+
+	static int checksum(byte[] bytes, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+
+	/** @return the offset of the appended record */
+	int append(byte[] record) {
+		int offset = writePosition;
+		buffer.position(offset);
+		buffer.put(record);
+		writePosition += record.length;
+		return offset;
+	}
+
+	/**
+	 * @return the valid record at the offset, null at the end of the written
+	 *         records
+	 */
+	byte[] readRecord(int offset) {
+		if (offset + HEADER_SIZE > buffer.capacity()) {
+			return null;
+		}
+		int length = buffer.getInt(offset);
+		if ((length < HEADER_SIZE) || (length > buffer.capacity() - offset)) {
+			return null;
+		}
+		byte[] record = new byte[length];
+		buffer.position(offset);
+		buffer.get(record);
+		if (buffer.getInt(offset + 4) != checksum(record, 8, length - 8)) {
+			return null;
+		}
+		int keyLength = buffer.getShort(offset + 16);
+		if ((keyLength < 0) || (HEADER_SIZE + keyLength > length)) {
+			return null;
+		}
+		return record;
+	}
+
+	byte[] readValue(int offset, int length) {
+		int keyLength = buffer.getShort(offset + 16);
+		byte[] value = new byte[length - HEADER_SIZE - keyLength];
+		buffer.position(offset + HEADER_SIZE + keyLength);
+		buffer.get(value);
+		return value;
+	}
+
+	void force() {
+		buffer.force();
+	}
+
+	/** The mapping is released when the buffer is collected */
+	void close() {
+		try {
+			randomAccessFile.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * The mapping is released before the file is deleted, otherwise the disk space
+	 * is kept until the buffer is collected. The buffer must not be used after it
+	 *
+	 * @return false when the mapping could not be released
+	 */
+	boolean delete() {
+		close();
+		boolean unmapped = unmap(buffer);
+		file.delete();
+		return unmapped;
+	}
+
+	/**
+	 * There is no public API to release a mapping. Unsafe.invokeCleaner is used
+	 * since Java 9, and the cleaner of the buffer before
+	 *
+	 * @return false when neither is available
+	 */
+	static boolean unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return true;
+		} catch (Exception e) {
+			// Before Java 9
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			cleaner.getClass().getMethod("clean").invoke(cleaner);
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+}
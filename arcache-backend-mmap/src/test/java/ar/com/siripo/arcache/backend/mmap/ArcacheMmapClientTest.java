@@ -0,0 +1,417 @@
+package ar.com.siripo.arcache.backend.mmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ar.com.siripo.arcache.backend.speedup.ArcacheSpeedupClient;
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+
+public class ArcacheMmapClientTest {
+
+	File directory;
+	ArcacheMmapClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("arcache-mmap", "");
+		directory.delete();
+		client = new ArcacheMmapClient(directory, 4096, 3);
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+		deleteDirectory();
+	}
+
+	void deleteDirectory() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	ArcacheMmapClient reopen() throws IOException {
+		client.close();
+		client = new ArcacheMmapClient(directory, 4096, 3);
+		return client;
+	}
+
+	@Test
+	public void testConstructor() throws Exception {
+		try {
+			new ArcacheMmapClient(directory, 100, 3);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new ArcacheMmapClient(directory, 4096, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		// The directory is locked
+		try {
+			new ArcacheMmapClient(directory, 4096, 3);
+			fail();
+		} catch (IOException e) {
+		}
+		File file = new File(directory, "file");
+		file.createNewFile();
+		try {
+			new ArcacheMmapClient(file);
+			fail();
+		} catch (IOException e) {
+		}
+
+		assertEquals(directory, client.getDirectory());
+		assertEquals(4096, client.getSegmentSize());
+		assertEquals(3, client.getMaxSegments());
+		assertEquals(1, client.getSegmentsCount());
+		assertEquals(0, client.size());
+
+		client.close();
+		assertTrue(client.isClosed());
+		client.close();
+		try {
+			client.get("key");
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		try {
+			client.force();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+
+		// A file that can not be mapped fails the open and releases the lock
+		File broken = MmapSegment.fileFor(directory, 5);
+		broken.mkdir();
+		try {
+			new ArcacheMmapClient(directory, 4096, 3);
+			fail();
+		} catch (IOException e) {
+		}
+		broken.delete();
+		client = new ArcacheMmapClient(directory, 4096, 3);
+
+		ArcacheMmapClient defaults = new ArcacheMmapClient(new File(directory, "defaults"));
+		assertEquals(ArcacheMmapClient.DEFAULT_SEGMENT_SIZE, defaults.getSegmentSize());
+		assertEquals(ArcacheMmapClient.DEFAULT_MAX_SEGMENTS, defaults.getMaxSegments());
+		defaults.close();
+		for (File f : new File(directory, "defaults").listFiles()) {
+			f.delete();
+		}
+		new File(directory, "defaults").delete();
+		file.delete();
+	}
+
+	@Test
+	public void testGetSetRemove() throws Exception {
+		assertNull(client.get("key"));
+		assertTrue(client.set("key", 10000, "value"));
+		assertEquals("value", client.get("key"));
+		assertNotSame(client.get("key"), client.get("key"));
+
+		HashSet<String> hs = new HashSet<String>();
+		hs.add("OTHER");
+		assertTrue(client.asyncSet("hs", 10000, hs).get());
+		assertEquals(hs, client.asyncGet("hs").get());
+
+		assertTrue(client.set("null", 10000, null));
+		assertNull(client.get("null"));
+
+		client.remove("key");
+		assertNull(client.get("key"));
+		client.remove("missing");
+
+		try {
+			client.set("key", 10000, new Object());
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			client.set(null, 10000, "value");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		char[] longKey = new char[Short.MAX_VALUE + 1];
+		Arrays.fill(longKey, 'k');
+		assertNull(client.get(new String(longKey)));
+		try {
+			client.remove(new String(longKey));
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		// A value larger than half a segment is not stored, the previous is removed
+		assertTrue(client.set("big", 10000, "small"));
+		assertFalse(client.set("big", 10000, new byte[2048]));
+		assertNull(client.get("big"));
+	}
+
+	@Test
+	public void testMultiGetSet() throws Exception {
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("k1", "v1");
+		values.put("k2", "v2");
+		values.put("k3", new byte[3000]);
+		Map<String, Boolean> result = client.asyncMultiSet(values, 10000).get();
+		assertTrue(result.get("k1"));
+		assertTrue(result.get("k2"));
+		assertFalse(result.get("k3"));
+
+		Map<String, Object> found = client.asyncMultiGet(Arrays.asList("k1", "k2", "k3", "k4")).get();
+		assertEquals(2, found.size());
+		assertEquals("v1", found.get("k1"));
+		assertEquals("v2", found.get("k2"));
+	}
+
+	@Test
+	public void testListenableGetSet() throws Exception {
+		assertTrue(client.listenableSet("key", 10000, "value").get());
+		final AtomicReference<Object> received = new AtomicReference<Object>();
+		client.listenableGet("key").addListener(new FutureListener<Object>() {
+			@Override
+			public void onComplete(ListenableFuture<Object> future) {
+				try {
+					received.set(future.get());
+				} catch (Exception e) {
+				}
+			}
+		});
+		assertEquals("value", received.get());
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		assertTrue(client.set("key", 50, "value"));
+		assertTrue(client.set("long", 10000, "value"));
+		assertEquals(2, client.size());
+		Thread.sleep(100);
+		assertNull(client.get("key"));
+		assertEquals(1, client.size());
+
+		// A shorter ttl hides the previous value after a restart
+		assertTrue(client.set("long", 50, "short"));
+		Thread.sleep(100);
+		reopen();
+		assertNull(client.get("long"));
+		assertEquals(0, client.size());
+	}
+
+	@Test
+	public void testWarmRestart() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			assertTrue(client.set("key" + i, 10000, "value" + i));
+		}
+		assertTrue(client.set("key0", 10000, "new0"));
+		client.remove("key1");
+		client.force();
+
+		reopen();
+		assertEquals(9, client.size());
+		assertEquals("new0", client.get("key0"));
+		assertNull(client.get("key1"));
+		for (int i = 2; i < 10; i++) {
+			assertEquals("value" + i, client.get("key" + i));
+		}
+
+		// The new records are appended after the recovered ones
+		assertTrue(client.set("key2", 10000, "new2"));
+		reopen();
+		assertEquals("new2", client.get("key2"));
+		assertEquals("value3", client.get("key3"));
+
+		// Other files in the directory are ignored
+		assertTrue(new File(directory, "segment-x.arcache").createNewFile());
+		assertTrue(new File(directory, "other").createNewFile());
+		reopen();
+		assertEquals("value3", client.get("key3"));
+	}
+
+	@Test
+	public void testPartiallyWrittenRecord() throws Exception {
+		assertTrue(client.set("key1", 10000, "value1"));
+		assertTrue(client.set("key2", 10000, "value2"));
+		int secondOffset = client.index.get("key2").offset;
+		client.close();
+
+		// The crash left the second record half written
+		RandomAccessFile file = new RandomAccessFile(MmapSegment.fileFor(directory, 0), "rw");
+		file.seek(secondOffset + MmapSegment.HEADER_SIZE + 2);
+		file.write(0x55);
+		file.close();
+
+		client = new ArcacheMmapClient(directory, 4096, 3);
+		assertEquals("value1", client.get("key1"));
+		assertNull(client.get("key2"));
+		// The damaged segment is not appended to
+		assertEquals(2, client.getSegmentsCount());
+		assertTrue(client.set("key3", 10000, "value3"));
+		reopen();
+		assertEquals("value1", client.get("key1"));
+		assertNull(client.get("key2"));
+		assertEquals("value3", client.get("key3"));
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		// A hot key that is rewritten often, and a cold one written once
+		assertTrue(client.set("cold", 10000, "cold"));
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(client.set("hot", 10000, "hot" + i));
+			assertTrue(client.getSegmentsCount() <= 3);
+		}
+		// The cold entry was copied forward by the compactions
+		assertTrue(client.activeSegment.id > 5);
+		assertEquals("cold", client.get("cold"));
+		assertEquals("hot999", client.get("hot"));
+		assertEquals(3, directory.list().length - 1);
+
+		reopen();
+		assertEquals("cold", client.get("cold"));
+		assertEquals("hot999", client.get("hot"));
+		long liveBytes = 0;
+		for (MmapSegment segment : client.segments) {
+			liveBytes += segment.liveBytes;
+		}
+		assertEquals(client.index.get("cold").length + client.index.get("hot").length, liveBytes);
+
+		// The expired entries are not copied
+		assertTrue(client.set("expiring", 50, "value"));
+		Thread.sleep(100);
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(client.set("hot", 10000, "hot" + i));
+		}
+		assertFalse(client.index.containsKey("expiring"));
+		assertEquals("cold", client.get("cold"));
+
+		// When the live entries fill the segments the oldest are evicted
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(client.set("key" + i, 10000, "value" + i));
+			assertTrue(client.getSegmentsCount() <= 3);
+		}
+		assertNull(client.get("cold"));
+		assertNull(client.get("key0"));
+		assertEquals("value999", client.get("key999"));
+		assertTrue(client.size() < 1000);
+	}
+
+	@Test
+	public void testRotationFailure() throws Exception {
+		assertTrue(client.set("key", 10000, "value"));
+		deleteDirectory();
+		int i = 0;
+		while (client.set("key" + i, 10000, "value" + i)) {
+			i++;
+		}
+		assertNull(client.get("key" + i));
+		assertEquals("value0", client.get("key0"));
+		// The previous value is still on disk, so it is kept
+		assertFalse(client.set("key0", 10000, "new0"));
+		directory.mkdirs();
+	}
+
+	boolean failRotation;
+
+	@Test
+	public void testRotationFailureKeepsTheIndexConsistent() throws Exception {
+		client.close();
+		client = new ArcacheMmapClient(directory, 4096, 3) {
+			@Override
+			protected void rotate() throws IOException {
+				if (failRotation) {
+					throw new IOException("No space left on device");
+				}
+				super.rotate();
+			}
+		};
+		assertTrue(client.set("kept", 10000, "value"));
+		assertTrue(client.set("removed", 10000, "value"));
+		assertTrue(client.remove("removed"));
+		int i = 0;
+		failRotation = true;
+		while (client.activeSegment.capacity() - client.activeSegment.writePosition > 200) {
+			assertTrue(client.set("key" + i, 10000, "value" + i));
+			i++;
+		}
+		assertFalse(client.set("key" + i, 10000, new byte[300]));
+		assertFalse(client.set("kept", 10000, new byte[300]));
+		// The removals are written until the tombstones do not fit
+		int removed = 0;
+		while (client.remove("key" + removed)) {
+			removed++;
+		}
+		assertTrue(removed < i);
+		assertFalse(client.remove("kept"));
+		assertTrue(client.remove("missing"));
+		assertEquals("value", client.get("kept"));
+		assertNull(client.get("removed"));
+		assertNull(client.get("key0"));
+		assertEquals("value" + removed, client.get("key" + removed));
+		int size = client.size();
+
+		// After a restart the same values are found
+		failRotation = false;
+		client.force();
+		reopen();
+		assertEquals(size, client.size());
+		assertEquals("value", client.get("kept"));
+		assertNull(client.get("removed"));
+		assertNull(client.get("key0"));
+		assertEquals("value" + removed, client.get("key" + removed));
+		assertNull(client.get("key" + i));
+	}
+
+	@Test
+	public void testSegmentUnmap() throws Exception {
+		MmapSegment segment = MmapSegment.create(directory, 100, 4096);
+		File file = MmapSegment.fileFor(directory, 100);
+		assertTrue(file.exists());
+		// The mapping is released before the file is deleted
+		assertTrue(segment.delete());
+		assertFalse(file.exists());
+		assertFalse(MmapSegment.unmap(null));
+	}
+
+	@Test
+	public void testSpeedupBackend() throws Exception {
+		ArcacheSpeedupClient speedupClient = new ArcacheSpeedupClient();
+		speedupClient.setBackendClient(client);
+		speedupClient.setObjectsCacheSize(100);
+		speedupClient.setObjectsExpirationMillis(1000);
+		speedupClient.initialize();
+		assertTrue(speedupClient.asyncSet("key", 10000, "value").get());
+
+		// A new process starts with an empty speedup cache over a warm backend
+		reopen();
+		speedupClient = new ArcacheSpeedupClient();
+		speedupClient.setBackendClient(client);
+		speedupClient.setObjectsCacheSize(100);
+		speedupClient.setObjectsExpirationMillis(1000);
+		speedupClient.initialize();
+		assertEquals("value", speedupClient.asyncGet("key").get());
+	}
+
+}
@@ -1,24 +1,54 @@
 package ar.com.siripo.arcache.backend.speedup;
 
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import ar.com.siripo.arcache.CacheInvalidationObjectType;
+import ar.com.siripo.arcache.backend.ArcacheAsyncBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheAsyncBackendClientAdapter;
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBus;
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBusListener;
+import ar.com.siripo.arcache.backend.ArcacheMultiKeyBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheTieredBackendClient;
+import ar.com.siripo.arcache.backend.MultiKeyBackendOperations;
 import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+import ar.com.siripo.arcache.backend.inmemory.InMemoryWeigher;
+import ar.com.siripo.arcache.backend.inmemory.MemoryObject;
+import ar.com.siripo.arcache.backend.inmemory.OffHeapSlabAllocator;
+import ar.com.siripo.arcache.backend.inmemory.StripedClockStorage;
 import ar.com.siripo.arcache.math.AdjustedExponentialProbabilityFunction;
 import ar.com.siripo.arcache.math.ProbabilityFunction;
-import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.ListenableFutures;
+import ar.com.siripo.arcache.util.MultiKeyEntryFuture;
+import ar.com.siripo.arcache.util.MultiKeyFuture;
+import ar.com.siripo.arcache.util.RandomSource;
+import ar.com.siripo.arcache.util.ThreadLocalRandomSource;
 
 /**
  * This is a local memory proxy of another backend. The purpose is speed up the
  * access to a slow backend.
  * 
+ * When an invalidation bus is configured the keys published in it are evicted
+ * from the speedup caches, so the invalidations done in other processes are
+ * seen before the speedup expiration.
+ * 
+ * With unified speedup caches the three caches are partitions of a single
+ * StripedClockStorage, so a key is in one of them at most and a get finds it
+ * with one probe, instead of probing every cache in turn.
+ * 
  * @author Mariano Santamarina
  *
  */
-public class ArcacheSpeedupClient implements ArcacheBackendClient, ArcacheSpeedupConfigurationSetInterface,
-		ArcacheSpeedupConfigurationGetInterface {
+public class ArcacheSpeedupClient implements ArcacheAsyncBackendClient, ArcacheMultiKeyBackendClient,
+		ArcacheTieredBackendClient, ArcacheSpeedupConfigurationSetInterface, ArcacheSpeedupConfigurationGetInterface {
 
 	protected ArcacheBackendClient backendClient;
 
@@ -30,6 +60,10 @@ public class ArcacheSpeedupClient implements ArcacheBackendClient, ArcacheSpeedu
 	protected long objectsExpirationMillis = 0;
 	protected long missesExpirationMillis = 0;
 
+	protected long objectsCacheMaxWeight = 0;
+	protected InMemoryWeigher objectsCacheWeigher = null;
+	protected long objectsCacheOffHeapBytes = 0;
+
 	protected boolean protectAgainstBackendFailures = true;
 	protected long speedupCacheTTLMillis = 365 * 24 * 3600000L;
 	protected ProbabilityFunction expirationProbabilityFunction;
@@ -37,14 +71,36 @@ public class ArcacheSpeedupClient implements ArcacheBackendClient, ArcacheSpeedu
 	protected ArcacheSpeedupTracker tracker = null;
 
 	protected boolean cacheIsolation = false;
+	protected int concurrencyLevel = 0;
+	protected long expirySweepMillis = 0;
+	protected boolean unifiedSpeedupCaches = false;
+
+	protected ArcacheInvalidationBus invalidationBus = null;
+	protected ArcacheInvalidationBusListener invalidationBusListener = null;
+
+	/**
+	 * Counts the bus evictions by stripe of the key, a backend get started before
+	 * an eviction of its stripe does not store its value because it may be older
+	 * than the invalidation. Striping keeps the evictions of unrelated keys from
+	 * contending on one counter and from discarding every get in flight. The
+	 * eviction of all the invalidations counts for every key.
+	 */
+	protected static final int BUS_EVICTION_STRIPES = 64;
+	protected static final int BUS_EVICTION_PADDING = 8; // One stripe per cache line of 64 bytes
+	protected final AtomicLongArray busEvictions = new AtomicLongArray(BUS_EVICTION_STRIPES * BUS_EVICTION_PADDING);
+	protected final AtomicLong allBusEvictions = new AtomicLong();
 
 	protected ArcacheInMemoryClient invalidationKeysCache = null;
 	protected ArcacheInMemoryClient objectsCache = null;
 	protected ArcacheInMemoryClient missesCache = null;
 
+	/** The storage shared by the caches, and the cache of every partition */
+	protected StripedClockStorage unifiedStorage = null;
+	protected ArcacheInMemoryClient[] unifiedCaches = null;
+
 	protected boolean initialized = false;
 
-	protected Random random;
+	protected RandomSource random;
 
 	public ArcacheSpeedupClient() {
 	}
@@ -115,6 +171,17 @@ public class ArcacheSpeedupClient implements ArcacheBackendClient, ArcacheSpeedu
 		return backendClient;
 	}
 
+	@Override
+	public ArcacheBackendClient getRemoteBackendClient() {
+		return backendClient;
+	}
+
+	/** Like a bus eviction, the gets in flight do not store their older value */
+	@Override
+	public void evictLocalCopy(String backendKey) {
+		evict(backendKey);
+	}
+
 	@Override
 	public int getInvalidationKeysCacheSize() {
 		return invalidationKeysCacheSize;
@@ -175,23 +242,143 @@ public class ArcacheSpeedupClient implements ArcacheBackendClient, ArcacheSpeedu
 		this.cacheIsolation = cacheIsolation;
 	}
 
+	@Override
+	public void setRandomSource(RandomSource randomSource) {
+		this.random = randomSource;
+	}
+
+	@Override
+	public RandomSource getRandomSource() {
+		return random;
+	}
+
+	@Override
+	public void setObjectsCacheMaxWeight(long maxWeight) {
+		if (maxWeight < 0) {
+			throw new IllegalArgumentException("Invalid max weight");
+		}
+		this.objectsCacheMaxWeight = maxWeight;
+	}
+
+	@Override
+	public long getObjectsCacheMaxWeight() {
+		return objectsCacheMaxWeight;
+	}
+
+	@Override
+	public void setObjectsCacheWeigher(InMemoryWeigher weigher) {
+		this.objectsCacheWeigher = weigher;
+	}
+
+	@Override
+	public InMemoryWeigher getObjectsCacheWeigher() {
+		return objectsCacheWeigher;
+	}
+
+	@Override
+	public void setObjectsCacheOffHeapBytes(long offHeapBytes) {
+		if (offHeapBytes < 0) {
+			throw new IllegalArgumentException("Invalid off heap bytes");
+		}
+		this.objectsCacheOffHeapBytes = offHeapBytes;
+	}
+
+	@Override
+	public long getObjectsCacheOffHeapBytes() {
+		return objectsCacheOffHeapBytes;
+	}
+
+	/** @return the off heap bytes in use by the objects cache, for monitoring */
+	public long getObjectsCacheOffHeapUsedBytes() {
+		if ((objectsCache == null) || (objectsCache.getOffHeapAllocator() == null)) {
+			return 0;
+		}
+		return objectsCache.getOffHeapAllocator().getUsedBytes();
+	}
+
+	/** @return the total weight of the objects cache, for monitoring */
+	public long getObjectsCacheWeight() {
+		if (objectsCache == null) {
+			return 0;
+		}
+		return objectsCache.getWeight();
+	}
+
+	@Override
+	public void setConcurrencyLevel(int concurrencyLevel) {
+		if (concurrencyLevel < 0) {
+			throw new IllegalArgumentException("Invalid concurrency level");
+		}
+		this.concurrencyLevel = concurrencyLevel;
+	}
+
+	@Override
+	public int getConcurrencyLevel() {
+		return concurrencyLevel;
+	}
+
+	@Override
+	public void setExpirySweepMillis(long expirySweepMillis) {
+		if (expirySweepMillis < 0) {
+			throw new IllegalArgumentException("Invalid expiry sweep millis");
+		}
+		this.expirySweepMillis = expirySweepMillis;
+	}
+
+	@Override
+	public long getExpirySweepMillis() {
+		return expirySweepMillis;
+	}
+
+	@Override
+	public void setUnifiedSpeedupCaches(boolean unifiedSpeedupCaches) {
+		this.unifiedSpeedupCaches = unifiedSpeedupCaches;
+	}
+
+	@Override
+	public boolean getUnifiedSpeedupCaches() {
+		return unifiedSpeedupCaches;
+	}
+
+	@Override
+	public void setInvalidationBus(ArcacheInvalidationBus invalidationBus) {
+		this.invalidationBus = invalidationBus;
+	}
+
+	@Override
+	public ArcacheInvalidationBus getInvalidationBus() {
+		return invalidationBus;
+	}
+
 	public void initialize() {
 		if (initialized) {
 			throw new IllegalStateException("Already Initialized");
 		}
 
+		if (unifiedSpeedupCaches) {
+			unifiedStorage = createUnifiedStorage();
+		}
+
 		if ((invalidationKeysCacheSize != 0) || (invalidationKeysExpirationMillis != 0)) {
 			if ((invalidationKeysCacheSize == 0) || (invalidationKeysExpirationMillis == 0)) {
 				throw new IllegalArgumentException("InvalidationKeys Cache Policy is invalid");
 			}
-			invalidationKeysCache = new ArcacheInMemoryClient(invalidationKeysCacheSize, cacheIsolation);
+			invalidationKeysCache = createSpeedupCache(invalidationKeysCacheSize, cacheIsolation, 0, null, null);
 		}
 
 		if ((objectsCacheSize != 0) || (objectsExpirationMillis != 0)) {
 			if ((objectsCacheSize == 0) || (objectsExpirationMillis == 0)) {
 				throw new IllegalArgumentException("Objects Cache Policy is invalid");
 			}
-			objectsCache = new ArcacheInMemoryClient(objectsCacheSize, cacheIsolation);
+			OffHeapSlabAllocator offHeapAllocator = null;
+			if (objectsCacheOffHeapBytes > 0) {
+				if (!cacheIsolation) {
+					throw new IllegalArgumentException("Off heap objects cache requires cache isolation");
+				}
+				offHeapAllocator = new OffHeapSlabAllocator(objectsCacheOffHeapBytes);
+			}
+			objectsCache = createSpeedupCache(objectsCacheSize, cacheIsolation, objectsCacheMaxWeight,
+					createObjectsCacheWeigher(), offHeapAllocator);
 		}
 
 		if ((missesCacheSize != 0) || (missesExpirationMillis != 0)) {
@@ -199,7 +386,7 @@ public class ArcacheSpeedupClient implements ArcacheBackendClient, ArcacheSpeedu
 				throw new IllegalArgumentException("Misses Cache Policy is invalid");
 			}
 			// The misses cache is never isolated
-			missesCache = new ArcacheInMemoryClient(missesCacheSize, false);
+			missesCache = createSpeedupCache(missesCacheSize, false, 0, null, null);
 		}
 
 		if ((objectsCache == null) && (invalidationKeysCache == null) && (missesCache == null)) {
@@ -214,15 +401,136 @@ public class ArcacheSpeedupClient implements ArcacheBackendClient, ArcacheSpeedu
 		if (expirationProbabilityFunction == null) {
 			expirationProbabilityFunction = new AdjustedExponentialProbabilityFunction(0, 11);
 		}
-		random = new Random();
+		if (random == null) {
+			random = new ThreadLocalRandomSource();
+		}
 
 		if (tracker == null) {
 			tracker = new ArcacheSpeedupBasicTracker();
 		}
 
+		if (invalidationBus != null) {
+			invalidationBusListener = createInvalidationBusListener();
+			invalidationBus.subscribe(invalidationBusListener);
+		}
+
 		initialized = true;
 	}
 
+	/**
+	 * A partition for every cache with a size, in the order of the caches. A
+	 * cache with an invalid policy fails the initialization later
+	 * 
+	 * @return null when there is no cache
+	 */
+	protected StripedClockStorage createUnifiedStorage() {
+		int[] maxSizes = new int[3];
+		long[] maxWeights = new long[3];
+		int partitions = 0;
+		if (invalidationKeysCacheSize != 0) {
+			maxSizes[partitions++] = invalidationKeysCacheSize;
+		}
+		if (objectsCacheSize != 0) {
+			maxWeights[partitions] = objectsCacheMaxWeight;
+			maxSizes[partitions++] = objectsCacheSize;
+		}
+		if (missesCacheSize != 0) {
+			maxSizes[partitions++] = missesCacheSize;
+		}
+		if (partitions == 0) {
+			return null;
+		}
+		unifiedCaches = new ArcacheInMemoryClient[partitions];
+		return new StripedClockStorage(Arrays.copyOf(maxSizes, partitions), Math.max(concurrencyLevel, 1),
+				Arrays.copyOf(maxWeights, partitions));
+	}
+
+	/** With unified speedup caches it takes the next partition */
+	protected ArcacheInMemoryClient createSpeedupCache(int cacheSize, boolean isolation, long maxWeight,
+			InMemoryWeigher weigher, OffHeapSlabAllocator offHeapAllocator) {
+		if (unifiedStorage == null) {
+			return new ArcacheInMemoryClient(cacheSize, isolation, concurrencyLevel, maxWeight, weigher,
+					offHeapAllocator, expirySweepMillis);
+		}
+		int partition = 0;
+		while (unifiedCaches[partition] != null) {
+			partition++;
+		}
+		unifiedCaches[partition] = new ArcacheInMemoryClient(unifiedStorage.partition(partition), isolation,
+				concurrencyLevel, maxWeight, weigher, offHeapAllocator, expirySweepMillis);
+		return unifiedCaches[partition];
+	}
+
+	/** Stops receiving the invalidation bus messages */
+	public void close() {
+		if ((invalidationBus != null) && (invalidationBusListener != null)) {
+			invalidationBus.unsubscribe(invalidationBusListener);
+			invalidationBusListener = null;
+		}
+	}
+
+	protected ArcacheInvalidationBusListener createInvalidationBusListener() {
+		return new ArcacheInvalidationBusListener() {
+			@Override
+			public void onInvalidation(String backendKey) {
+				evict(backendKey);
+			}
+
+			@Override
+			public void onInvalidationsLost() {
+				evictAllInvalidations();
+			}
+		};
+	}
+
+	/**
+	 * Removes the key from every speedup cache. The key is removed from the misses
+	 * cache too because the never invalidated keys are stored there.
+	 */
+	protected void evict(String key) {
+		busEvictions.incrementAndGet(busEvictionCell(key));
+		if (unifiedStorage != null) {
+			unifiedStorage.remove(key);
+			return;
+		}
+		if (invalidationKeysCache != null) {
+			invalidationKeysCache.remove(key);
+		}
+		if (objectsCache != null) {
+			objectsCache.remove(key);
+		}
+		if (missesCache != null) {
+			missesCache.remove(key);
+		}
+	}
+
+	/** The invalidation keys may be stale, but the objects are still valid */
+	protected void evictAllInvalidations() {
+		allBusEvictions.incrementAndGet();
+		if (invalidationKeysCache != null) {
+			invalidationKeysCache.clear();
+		}
+		if (missesCache != null) {
+			missesCache.clear();
+		}
+	}
+
+	/** The weigher receives the cached objects, not the speedup wrappers */
+	protected InMemoryWeigher createObjectsCacheWeigher() {
+		if (objectsCacheWeigher == null) {
+			return null;
+		}
+		return new InMemoryWeigher() {
+			@Override
+			public long weigh(String key, Object data) {
+				if (data instanceof SpeedupCacheObject) {
+					return objectsCacheWeigher.weigh(key, ((SpeedupCacheObject) data).cachedObject);
+				}
+				return objectsCacheWeigher.weigh(key, data);
+			}
+		};
+	}
+
 	public void clear() {
 		if (objectsCache != null) {
 			objectsCache.clear();
@@ -262,6 +570,9 @@ public class ArcacheSpeedupClient implements ArcacheBackendClient, ArcacheSpeedu
 	}
 
 	protected ArcacheInMemoryClient storeSpeedupCache(String key, Object value) {
+		if (unifiedStorage != null) {
+			return storeUnifiedSpeedupCache(key, value);
+		}
 		ArcacheInMemoryClient destination = null;
 		if (value == null) {
 			if (invalidationKeysCache != null) {
@@ -300,6 +611,26 @@ public class ArcacheSpeedupClient implements ArcacheBackendClient, ArcacheSpeedu
 		return (destination);
 	}
 
+	/**
+	 * The set replaces the entry of the key in any of the caches, so the key is
+	 * only removed when it is not stored
+	 */
+	protected ArcacheInMemoryClient storeUnifiedSpeedupCache(String key, Object value) {
+		ArcacheInMemoryClient destination;
+		if (value == null) {
+			destination = missesCache;
+		} else if (value instanceof CacheInvalidationObjectType) {
+			destination = invalidationKeysCache;
+		} else {
+			destination = objectsCache;
+		}
+
+		if ((destination == null) || (!destination.set(key, speedupCacheTTLMillis, createSpeedupCacheObject(value)))) {
+			unifiedStorage.remove(key);
+		}
+		return (destination);
+	}
+
 	protected SpeedupCacheObject createSpeedupCacheObject(Object value) {
 		SpeedupCacheObject sco = new SpeedupCacheObject();
 		sco.storeTimeMillis = System.currentTimeMillis();
@@ -307,11 +638,88 @@ public class ArcacheSpeedupClient implements ArcacheBackendClient, ArcacheSpeedu
 		return sco;
 	}
 
+	/** @return the index of the eviction counter of the key */
+	protected static int busEvictionCell(String key) {
+		int h = (key == null) ? 0 : key.hashCode();
+		return ((h ^ (h >>> 16)) & (BUS_EVICTION_STRIPES - 1)) * BUS_EVICTION_PADDING;
+	}
+
+	/** @return a count that changes with every bus eviction that may affect the key */
+	protected long busEvictionsOf(String key) {
+		return allBusEvictions.get() + busEvictions.get(busEvictionCell(key));
+	}
+
+	/** @return the bus evictions of every stripe */
+	protected long countBusEvictions() {
+		long count = allBusEvictions.get();
+		for (int i = 0; i < BUS_EVICTION_STRIPES; i++) {
+			count += busEvictions.get(i * BUS_EVICTION_PADDING);
+		}
+		return count;
+	}
+
 	@Override
 	public Future<Object> asyncGet(String key) {
 		// First try to restore the value from any cache.
 		// If its found returns the value
+		Future<Object> speedupHit = getFromSpeedupCache(key);
+		if (speedupHit != null) {
+			return speedupHit;
+		}
 
+		// Otherwise create a wrapper to capture the backend value
+		long evictions = busEvictionsOf(key);
+		return wrapBackendGet(backendClient.asyncGet(key), key, evictions);
+	}
+
+	@Override
+	public ListenableFuture<Boolean> listenableSet(String key, long ttlMillis, Object value) {
+		try {
+			storeSpeedupCache(key, value);
+		} catch (Exception e) {
+			tracker.trackException(key, e);
+		}
+		return ArcacheAsyncBackendClientAdapter.lift(backendClient).listenableSet(key, ttlMillis, value);
+	}
+
+	/**
+	 * Same as asyncGet but the backend is accessed through its listenable
+	 * operation, so the speedup caches are filled when the backend completes
+	 * without a thread waiting for it
+	 */
+	@Override
+	public ListenableFuture<Object> listenableGet(String key) {
+		ListenableFuture<Object> speedupHit = getFromSpeedupCache(key);
+		if (speedupHit != null) {
+			return speedupHit;
+		}
+
+		long evictions = busEvictionsOf(key);
+		return ListenableFutures.listen(wrapBackendGet(
+				ArcacheAsyncBackendClientAdapter.lift(backendClient).listenableGet(key), key, evictions));
+	}
+
+	/**
+	 * @param evictions the bus evictions counted before the backend get was
+	 *                  started
+	 */
+	protected Future<Object> wrapBackendGet(Future<Object> backendFuture, String key, long evictions) {
+		try {
+			FutureBackendGetWrapper wrapper = createFutureBackendGetWrapper(backendFuture, key);
+			wrapper.evictionsAtRequest = evictions;
+			return wrapper;
+		} catch (Exception e) {
+			tracker.trackException(key, e);
+		}
+
+		return backendFuture;
+	}
+
+	/**
+	 * Returns a future with the value restored from the speedup caches, or null if
+	 * it is not available
+	 */
+	protected ListenableFuture<Object> getFromSpeedupCache(String key) {
 		try {
 			RestoredSpeedupCacheObject rsco = restoreObjectFromAnySpeedupCache(key);
 			if ((rsco != null) && (!rsco.expired)) {
@@ -324,22 +732,60 @@ public class ArcacheSpeedupClient implements ArcacheBackendClient, ArcacheSpeedu
 				if (rsco.fromCache == missesCache) {
 					tracker.trackMissesCacheHit(key);
 				}
-				return new DummyFuture<Object>(rsco.speedupCacheObject.cachedObject);
+				return new SpeedupCacheHitFuture<Object>(rsco.speedupCacheObject.cachedObject);
 			}
 		} catch (Exception e) {
 			tracker.trackException(key, e);
 		}
+		return null;
+	}
 
-		// Otherwise create a wrapper to capture the backend value
-		Future<Object> backendFuture = backendClient.asyncGet(key);
+	/**
+	 * The keys found in the speedup caches are served locally, all the others are
+	 * requested to the backend in a single multi get
+	 */
+	@Override
+	public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+		LinkedHashMap<String, Future<Object>> futures = new LinkedHashMap<String, Future<Object>>();
+		ArrayList<String> missingKeys = new ArrayList<String>();
+		for (String key : keys) {
+			if (futures.containsKey(key)) {
+				continue;
+			}
+			Future<Object> speedupHit = getFromSpeedupCache(key);
+			futures.put(key, speedupHit);
+			if (speedupHit == null) {
+				missingKeys.add(key);
+			}
+		}
 
-		try {
-			return createFutureBackendGetWrapper(backendFuture, key);
-		} catch (Exception e) {
-			tracker.trackException(key, e);
+		if (!missingKeys.isEmpty()) {
+			long[] evictions = new long[missingKeys.size()];
+			for (int i = 0; i < evictions.length; i++) {
+				evictions[i] = busEvictionsOf(missingKeys.get(i));
+			}
+			Future<Map<String, Object>> backendFuture = MultiKeyBackendOperations.asyncMultiGet(backendClient,
+					missingKeys);
+			for (int i = 0; i < evictions.length; i++) {
+				String key = missingKeys.get(i);
+				futures.put(key,
+						wrapBackendGet(new MultiKeyEntryFuture<Object>(backendFuture, key), key, evictions[i]));
+			}
 		}
 
-		return backendFuture;
+		return new MultiKeyFuture<Object>(futures, true);
+	}
+
+	@Override
+	public Future<Map<String, Boolean>> asyncMultiSet(Map<String, Object> values, long ttlMillis) {
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			try {
+				storeSpeedupCache(entry.getKey(), entry.getValue());
+			} catch (Exception e) {
+				tracker.trackException(entry.getKey(), e);
+			}
+		}
+		return MultiKeyBackendOperations.asyncMultiSet(backendClient, values, ttlMillis);
 	}
 
 	protected FutureBackendGetWrapper createFutureBackendGetWrapper(Future<Object> backendFuture, String key) {
@@ -347,6 +793,9 @@ public class ArcacheSpeedupClient implements ArcacheBackendClient, ArcacheSpeedu
 	}
 
 	protected RestoredSpeedupCacheObject restoreObjectFromAnySpeedupCache(String key) {
+		if (unifiedStorage != null) {
+			return restoreObjectFromUnifiedSpeedupCache(key);
+		}
 		RestoredSpeedupCacheObject rsco = null;
 
 		if (invalidationKeysCache != null) {
@@ -362,10 +811,33 @@ public class ArcacheSpeedupClient implements ArcacheBackendClient, ArcacheSpeedu
 		return rsco;
 	}
 
+	/** The entry is found with one probe, and restored by the cache of its partition */
+	protected RestoredSpeedupCacheObject restoreObjectFromUnifiedSpeedupCache(String key) {
+		MemoryObject memoryObject = unifiedStorage.get(key);
+		if (memoryObject == null) {
+			return null;
+		}
+		ArcacheInMemoryClient speedupCache = unifiedCaches[memoryObject.getPartition()];
+		long timeoutMillis;
+		if (speedupCache == invalidationKeysCache) {
+			timeoutMillis = invalidationKeysExpirationMillis;
+		} else if (speedupCache == objectsCache) {
+			timeoutMillis = objectsExpirationMillis;
+		} else {
+			timeoutMillis = missesExpirationMillis;
+		}
+		return restoreSpeedupCacheObject((SpeedupCacheObject) speedupCache.restore(memoryObject), speedupCache,
+				timeoutMillis);
+	}
+
 	protected RestoredSpeedupCacheObject restoreObjectFromSpeedupCache(String key, ArcacheInMemoryClient speedupCache,
 			long timeoutMillis) {
+		return restoreSpeedupCacheObject((SpeedupCacheObject) speedupCache.get(key), speedupCache, timeoutMillis);
+	}
 
-		SpeedupCacheObject sco = (SpeedupCacheObject) speedupCache.get(key);
+	/** @return null when there is no speedup cache object */
+	protected RestoredSpeedupCacheObject restoreSpeedupCacheObject(SpeedupCacheObject sco,
+			ArcacheInMemoryClient speedupCache, long timeoutMillis) {
 		if (sco == null) {
 			return null;
 		}
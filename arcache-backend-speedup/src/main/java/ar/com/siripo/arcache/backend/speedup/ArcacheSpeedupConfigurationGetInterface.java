@@ -1,7 +1,10 @@
 package ar.com.siripo.arcache.backend.speedup;
 
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBus;
+import ar.com.siripo.arcache.backend.inmemory.InMemoryWeigher;
 import ar.com.siripo.arcache.math.ProbabilityFunction;
+import ar.com.siripo.arcache.util.RandomSource;
 
 public interface ArcacheSpeedupConfigurationGetInterface {
 
@@ -47,4 +50,21 @@ public interface ArcacheSpeedupConfigurationGetInterface {
 	public ArcacheSpeedupTracker getTracker();
 
 	public boolean getCacheIsolation();
+
+	/** Get the source of the random numbers used in expiration evaluation */
+	public RandomSource getRandomSource();
+
+	public long getObjectsCacheMaxWeight();
+
+	public InMemoryWeigher getObjectsCacheWeigher();
+
+	public long getObjectsCacheOffHeapBytes();
+
+	public int getConcurrencyLevel();
+
+	public long getExpirySweepMillis();
+
+	public boolean getUnifiedSpeedupCaches();
+
+	public ArcacheInvalidationBus getInvalidationBus();
 }
@@ -1,7 +1,10 @@
 package ar.com.siripo.arcache.backend.speedup;
 
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBus;
+import ar.com.siripo.arcache.backend.inmemory.InMemoryWeigher;
 import ar.com.siripo.arcache.math.ProbabilityFunction;
+import ar.com.siripo.arcache.util.RandomSource;
 
 public interface ArcacheSpeedupConfigurationSetInterface {
 
@@ -54,4 +57,70 @@ public interface ArcacheSpeedupConfigurationSetInterface {
 	 */
 	public void setCacheIsolation(boolean cacheIsolation);
 
+	/**
+	 * Set the source of the random numbers used in expiration evaluation, by
+	 * default a lock free ThreadLocalRandomSource
+	 */
+	public void setRandomSource(RandomSource randomSource);
+
+	/**
+	 * Set the maximum total weight of the objects cache, usually in bytes. By
+	 * default it is 0 and only the number of objects is limited. The limit is
+	 * shared by all the segments of the cache, so the only objects not cached
+	 * for their weight are the ones heavier than the whole maximum. The
+	 * invalidation keys and misses caches are not weighted, their entries are
+	 * small and of similar size.
+	 */
+	public void setObjectsCacheMaxWeight(long maxWeight);
+
+	/**
+	 * Set the weigher of the objects cache, it receives the cached object or its
+	 * serialized bytes with cache isolation. By default the weight is the length
+	 * of the serialized object, that is free only with cache isolation.
+	 */
+	public void setObjectsCacheWeigher(InMemoryWeigher weigher);
+
+	/**
+	 * Set the off heap bytes of the objects cache. By default it is 0 and the
+	 * objects are kept on the heap. Otherwise their serialized bytes are kept in
+	 * direct memory, and the least recently used objects are evicted when it is
+	 * full. It requires cache isolation, and an object larger than 1MB is not
+	 * kept.
+	 */
+	public void setObjectsCacheOffHeapBytes(long offHeapBytes);
+
+	/**
+	 * Set the concurrency level of the speedup caches. By default it is 0 and
+	 * every cache is an exact LRU behind a single lock. A greater value stripes
+	 * the caches in that number of segments with lock free gets and an
+	 * approximated LRU, use it when many threads share the client.
+	 */
+	public void setConcurrencyLevel(int concurrencyLevel);
+
+	/**
+	 * Set the interval of the removal of the entries that outlived the
+	 * speedupCacheTTLMillis from the speedup caches. By default it is 0 and they
+	 * are kept until they are evicted, taking the place of live entries. It is
+	 * worth it when the speedupCacheTTLMillis is short.
+	 */
+	public void setExpirySweepMillis(long expirySweepMillis);
+
+	/**
+	 * Set if the speedup caches share a single striped map. By default it is
+	 * false and a get probes the invalidation keys, the objects and the misses
+	 * caches in turn. Otherwise every entry is tagged with its cache and a get
+	 * costs one lock free probe, while every cache keeps its own size, weight and
+	 * expiration. The caches are approximated LRUs, even with a concurrency level
+	 * of 0.
+	 */
+	public void setUnifiedSpeedupCaches(boolean unifiedSpeedupCaches);
+
+	/**
+	 * Set the bus where the invalidations are received, the published keys are
+	 * evicted from the speedup caches. By default there is no bus and the
+	 * invalidations done in other processes are seen when the speedup entries
+	 * expire. Use the same bus in the ArcacheClient that invalidates.
+	 */
+	public void setInvalidationBus(ArcacheInvalidationBus invalidationBus);
+
 }
@@ -6,14 +6,18 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.ListenableFutures;
 
-class FutureBackendGetWrapper implements Future<Object> {
+class FutureBackendGetWrapper implements ListenableFuture<Object> {
 
 	protected Future<Object> backendFuture;
 	protected String key;
 	protected ArcacheSpeedupClient speedupClient;
 	protected boolean protectAgainstBackendFailures;
 	protected ArcacheSpeedupTracker tracker;
+	protected long evictionsAtRequest;
 
 	protected FutureBackendGetWrapper(ArcacheSpeedupClient speedupClient, Future<Object> backendFuture, String key,
 			boolean protectAgainstBackendFailures, ArcacheSpeedupTracker tracker) {
@@ -22,6 +26,21 @@ class FutureBackendGetWrapper implements Future<Object> {
 		this.speedupClient = speedupClient;
 		this.protectAgainstBackendFailures = protectAgainstBackendFailures;
 		this.tracker = tracker;
+		this.evictionsAtRequest = speedupClient.busEvictionsOf(key);
+	}
+
+	/**
+	 * The listener is notified when the backend completes, it receives this
+	 * wrapper so the value is stored in the speedup caches when it is read
+	 */
+	@Override
+	public void addListener(final FutureListener<Object> listener) {
+		ListenableFutures.listen(backendFuture).addListener(new FutureListener<Object>() {
+			@Override
+			public void onComplete(ListenableFuture<Object> future) {
+				listener.onComplete(FutureBackendGetWrapper.this);
+			}
+		});
 	}
 
 	@Override
@@ -65,7 +84,15 @@ class FutureBackendGetWrapper implements Future<Object> {
 
 	protected Object wrappGetResult(Object getResult) {
 		try {
+			if (speedupClient.busEvictionsOf(key) != evictionsAtRequest) {
+				// The result may be older than an invalidation received meanwhile
+				return getResult;
+			}
 			ArcacheInMemoryClient dst = speedupClient.storeSpeedupCache(key, getResult);
+			if ((dst != null) && (speedupClient.busEvictionsOf(key) != evictionsAtRequest)) {
+				// An eviction arrived while it was stored
+				dst.remove(key);
+			}
 			// If here we are storing the get result, is because the previous ger was miss
 			if (dst == speedupClient.invalidationKeysCache) {
 				tracker.trackInvalidationKeysCacheMiss(key);
@@ -0,0 +1,24 @@
+package ar.com.siripo.arcache.backend.speedup;
+
+import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.ProvenanceAware;
+
+/**
+ * The future of a value restored from the speedup caches, it reports that the
+ * remote backend was not accessed
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public class SpeedupCacheHitFuture<T> extends DummyFuture<T> implements ProvenanceAware {
+
+	public SpeedupCacheHitFuture(T result) {
+		super(result);
+	}
+
+	@Override
+	public boolean isServedLocally() {
+		return true;
+	}
+
+}
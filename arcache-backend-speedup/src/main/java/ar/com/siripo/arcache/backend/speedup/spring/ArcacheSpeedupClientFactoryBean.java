@@ -5,10 +5,13 @@ import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBus;
+import ar.com.siripo.arcache.backend.inmemory.InMemoryWeigher;
 import ar.com.siripo.arcache.backend.speedup.ArcacheSpeedupClient;
 import ar.com.siripo.arcache.backend.speedup.ArcacheSpeedupConfigurationSetInterface;
 import ar.com.siripo.arcache.backend.speedup.ArcacheSpeedupTracker;
 import ar.com.siripo.arcache.math.ProbabilityFunction;
+import ar.com.siripo.arcache.util.RandomSource;
 
 public class ArcacheSpeedupClientFactoryBean implements FactoryBean<ArcacheSpeedupClient>, InitializingBean,
 		DisposableBean, ArcacheSpeedupConfigurationSetInterface {
@@ -21,6 +24,7 @@ public class ArcacheSpeedupClientFactoryBean implements FactoryBean<ArcacheSpeed
 
 	@Override
 	public void destroy() throws Exception {
+		client.close();
 		client = null;
 	}
 
@@ -104,4 +108,44 @@ public class ArcacheSpeedupClientFactoryBean implements FactoryBean<ArcacheSpeed
 		client.setCacheIsolation(cacheIsolation);
 	}
 
+	@Override
+	public void setRandomSource(RandomSource randomSource) {
+		client.setRandomSource(randomSource);
+	}
+
+	@Override
+	public void setObjectsCacheMaxWeight(long maxWeight) {
+		client.setObjectsCacheMaxWeight(maxWeight);
+	}
+
+	@Override
+	public void setObjectsCacheWeigher(InMemoryWeigher weigher) {
+		client.setObjectsCacheWeigher(weigher);
+	}
+
+	@Override
+	public void setObjectsCacheOffHeapBytes(long offHeapBytes) {
+		client.setObjectsCacheOffHeapBytes(offHeapBytes);
+	}
+
+	@Override
+	public void setConcurrencyLevel(int concurrencyLevel) {
+		client.setConcurrencyLevel(concurrencyLevel);
+	}
+
+	@Override
+	public void setExpirySweepMillis(long expirySweepMillis) {
+		client.setExpirySweepMillis(expirySweepMillis);
+	}
+
+	@Override
+	public void setUnifiedSpeedupCaches(boolean unifiedSpeedupCaches) {
+		client.setUnifiedSpeedupCaches(unifiedSpeedupCaches);
+	}
+
+	@Override
+	public void setInvalidationBus(ArcacheInvalidationBus invalidationBus) {
+		client.setInvalidationBus(invalidationBus);
+	}
+
 }
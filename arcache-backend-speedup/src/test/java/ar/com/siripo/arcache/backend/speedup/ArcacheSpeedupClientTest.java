@@ -6,10 +6,15 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Future;
 
@@ -19,9 +24,16 @@ import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
 import ar.com.siripo.arcache.CacheInvalidationObject;
+import ar.com.siripo.arcache.backend.InProcessInvalidationBus;
 import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+import ar.com.siripo.arcache.backend.inmemory.InMemoryWeigher;
 import ar.com.siripo.arcache.math.AdjustedExponentialProbabilityFunction;
 import ar.com.siripo.arcache.math.ProbabilityFunction;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.ListenableFutures;
+import ar.com.siripo.arcache.util.RandomSource;
+import ar.com.siripo.arcache.util.SeededRandomSource;
+import ar.com.siripo.arcache.util.ThreadLocalRandomSource;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class ArcacheSpeedupClientTest {
@@ -112,9 +124,305 @@ public class ArcacheSpeedupClientTest {
 		assertEquals(6, client.objectsExpirationMillis);
 		assertFalse(client.protectAgainstBackendFailures);
 		assertEquals(7, client.speedupCacheTTLMillis);
+		assertTrue(client.getRandomSource() instanceof ThreadLocalRandomSource);
 
 	}
 
+	@Test
+	public void testConfiguredRandomSource() throws Exception {
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setObjectsCacheSize(5);
+		client.setObjectsExpirationMillis(6);
+		RandomSource randomSource = new SeededRandomSource(1);
+		client.setRandomSource(randomSource);
+		client.initialize();
+		assertSame(randomSource, client.getRandomSource());
+	}
+
+	@Test
+	public void testConcurrencyLevel() throws Exception {
+		assertEquals(0, client.getConcurrencyLevel());
+		assertEquals(0, client.objectsCache.getConcurrencyLevel());
+		try {
+			client.setConcurrencyLevel(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setInvalidationKeysCacheSize(100);
+		client.setInvalidationKeysExpirationMillis(1000);
+		client.setObjectsCacheSize(100);
+		client.setObjectsExpirationMillis(1000);
+		client.setMissesCacheSize(100);
+		client.setMissesExpirationMillis(1000);
+		client.setConcurrencyLevel(8);
+		client.initialize();
+		assertEquals(8, client.getConcurrencyLevel());
+		assertEquals(8, client.invalidationKeysCache.getConcurrencyLevel());
+		assertEquals(8, client.objectsCache.getConcurrencyLevel());
+		assertEquals(8, client.missesCache.getConcurrencyLevel());
+
+		client.asyncSet("obj", 1000, "ABC").get();
+		assertEquals("ABC", client.asyncGet("obj").get());
+	}
+
+	@Test
+	public void testExpirySweep() throws Exception {
+		assertEquals(0, client.getExpirySweepMillis());
+		assertEquals(0, client.objectsCache.getExpirySweepMillis());
+		try {
+			client.setExpirySweepMillis(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setInvalidationKeysCacheSize(100);
+		client.setInvalidationKeysExpirationMillis(1000);
+		client.setObjectsCacheSize(100);
+		client.setObjectsExpirationMillis(1000);
+		client.setMissesCacheSize(100);
+		client.setMissesExpirationMillis(1000);
+		client.setSpeedupCacheTTLMillis(20);
+		client.setExpirySweepMillis(10);
+		client.initialize();
+		assertEquals(10, client.getExpirySweepMillis());
+		assertEquals(10, client.invalidationKeysCache.getExpirySweepMillis());
+		assertEquals(10, client.objectsCache.getExpirySweepMillis());
+		assertEquals(10, client.missesCache.getExpirySweepMillis());
+
+		// The entries that outlived the speedup cache ttl are removed
+		client.asyncSet("obj", 1000, "ABC").get();
+		assertEquals(1, client.objectsCache.size());
+		for (int i = 0; (i < 200) && (client.objectsCache.size() > 0); i++) {
+			Thread.sleep(5);
+		}
+		assertEquals(0, client.objectsCache.size());
+	}
+
+	@Test
+	public void testUnifiedSpeedupCaches() throws Exception {
+		assertFalse(client.getUnifiedSpeedupCaches());
+		assertNull(client.unifiedStorage);
+
+		InProcessInvalidationBus bus = new InProcessInvalidationBus();
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setInvalidationKeysCacheSize(100);
+		client.setInvalidationKeysExpirationMillis(1000);
+		client.setObjectsCacheSize(4);
+		client.setObjectsExpirationMillis(1000);
+		client.setObjectsCacheMaxWeight(1000);
+		client.setMissesCacheSize(100);
+		client.setMissesExpirationMillis(1000);
+		client.setCacheIsolation(true);
+		client.setInvalidationBus(bus);
+		client.setUnifiedSpeedupCaches(true);
+		client.initialize();
+		client.random = new StaticDoubleRandom(1);
+		assertTrue(client.getUnifiedSpeedupCaches());
+		assertEquals(3, client.unifiedStorage.getPartitionsCount());
+		assertEquals(1, client.unifiedStorage.getSegmentsCount());
+		assertSame(client.invalidationKeysCache, client.unifiedCaches[0]);
+		assertSame(client.objectsCache, client.unifiedCaches[1]);
+		assertSame(client.missesCache, client.unifiedCaches[2]);
+
+		// The key moves between the caches, it is always in one of them
+		HashSet<String> value = new HashSet<String>();
+		assertEquals(client.objectsCache, client.storeSpeedupCache("key", value));
+		assertEquals(client.objectsCache, client.restoreObjectFromAnySpeedupCache("key").fromCache);
+		assertEquals(value, client.asyncGet("key").get());
+		assertNotSame(value, client.asyncGet("key").get());
+		assertEquals(client.invalidationKeysCache, client.storeSpeedupCache("key", new CacheInvalidationObject()));
+		assertEquals(client.invalidationKeysCache, client.restoreObjectFromAnySpeedupCache("key").fromCache);
+		assertEquals(client.missesCache, client.storeSpeedupCache("key", null));
+		assertEquals(client.missesCache, client.restoreObjectFromAnySpeedupCache("key").fromCache);
+		assertNull(client.asyncGet("key").get());
+		assertEquals(1, client.unifiedStorage.size());
+		assertNull(client.objectsCache.get("key"));
+		assertNull(client.invalidationKeysCache.get("key"));
+
+		// Every cache keeps its own size
+		for (int i = 0; i < 10; i++) {
+			client.asyncSet("obj" + i, 1000, "value" + i).get();
+		}
+		assertEquals(4, client.objectsCache.size());
+		assertEquals(1, client.missesCache.size());
+		assertNull(client.restoreObjectFromAnySpeedupCache("missing"));
+
+		// The backend values are stored in the cache of their kind
+		backendClient.set("remote", 1000, "R");
+		assertEquals("R", client.asyncGet("remote").get());
+		assertEquals(client.objectsCache, client.restoreObjectFromAnySpeedupCache("remote").fromCache);
+
+		// A value that is not stored removes the previous of any kind
+		assertTrue(client.getObjectsCacheWeight() > 0);
+		client.storeSpeedupCache("key", new CacheInvalidationObject());
+		assertEquals(client.objectsCache, client.storeSpeedupCache("key", new byte[2000]));
+		assertNull(client.restoreObjectFromAnySpeedupCache("key"));
+
+		// The published keys are evicted from any cache
+		client.storeSpeedupCache("key", null);
+		bus.publish("key");
+		bus.publish("remote");
+		assertNull(client.restoreObjectFromAnySpeedupCache("key"));
+		assertNull(client.restoreObjectFromAnySpeedupCache("remote"));
+		client.clear();
+		assertEquals(0, client.unifiedStorage.size());
+		client.close();
+
+		// The partitions are only the configured caches
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setObjectsCacheSize(100);
+		client.setObjectsExpirationMillis(1000);
+		client.setMissesCacheSize(100);
+		client.setMissesExpirationMillis(1000);
+		client.setConcurrencyLevel(4);
+		client.setUnifiedSpeedupCaches(true);
+		client.initialize();
+		assertEquals(2, client.unifiedStorage.getPartitionsCount());
+		assertEquals(4, client.unifiedStorage.getSegmentsCount());
+		assertSame(client.missesCache, client.unifiedCaches[1]);
+		client.storeSpeedupCache("key", "value");
+		assertNull(client.storeSpeedupCache("key", new CacheInvalidationObject()));
+		assertNull(client.restoreObjectFromAnySpeedupCache("key"));
+		client.storeSpeedupCache("key", null);
+		assertEquals(client.missesCache, client.restoreObjectFromAnySpeedupCache("key").fromCache);
+
+		// The policies are validated as usual
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setUnifiedSpeedupCaches(true);
+		try {
+			client.initialize();
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setObjectsCacheSize(100);
+		client.setUnifiedSpeedupCaches(true);
+		try {
+			client.initialize();
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testObjectsCacheWeight() throws Exception {
+		assertEquals(0, client.getObjectsCacheMaxWeight());
+		assertNull(client.getObjectsCacheWeigher());
+		assertEquals(0, client.getObjectsCacheWeight());
+		try {
+			client.setObjectsCacheMaxWeight(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		// The weigher receives the cached objects
+		InMemoryWeigher lengthWeigher = new InMemoryWeigher() {
+			@Override
+			public long weigh(String key, Object data) {
+				return ((String) data).length();
+			}
+		};
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setObjectsCacheSize(100);
+		client.setObjectsExpirationMillis(1000);
+		client.setObjectsCacheMaxWeight(10);
+		client.setObjectsCacheWeigher(lengthWeigher);
+		client.initialize();
+		client.random = new StaticDoubleRandom(1);
+		assertEquals(10, client.getObjectsCacheMaxWeight());
+		assertSame(lengthWeigher, client.getObjectsCacheWeigher());
+
+		client.asyncSet("a", 1000, "123456").get();
+		assertEquals(6, client.getObjectsCacheWeight());
+		client.asyncSet("b", 1000, "1234").get();
+		assertEquals(10, client.getObjectsCacheWeight());
+		assertEquals("1234", client.asyncGet("b").get());
+		client.asyncSet("c", 1000, "12").get();
+		assertNull(client.objectsCache.get("a"));
+		assertEquals(6, client.getObjectsCacheWeight());
+
+		// The objects heavier than the maximum are not kept in the speedup cache
+		client.asyncSet("big", 1000, "12345678901").get();
+		assertNull(client.objectsCache.get("big"));
+		assertEquals("12345678901", client.asyncGet("big").get());
+		assertEquals(6, client.getObjectsCacheWeight());
+
+		// The maximum is not split between the segments
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setObjectsCacheSize(100);
+		client.setObjectsExpirationMillis(1000);
+		client.setObjectsCacheMaxWeight(64);
+		client.setObjectsCacheWeigher(lengthWeigher);
+		client.setConcurrencyLevel(64);
+		client.initialize();
+		for (int i = 0; i < 10; i++) {
+			client.asyncSet("heavy" + i, 1000, "12345678901234567890").get();
+			assertNotNull(client.objectsCache.get("heavy" + i));
+		}
+		assertEquals(60, client.getObjectsCacheWeight());
+
+		// Other types are passed as they are
+		assertEquals(3, client.createObjectsCacheWeigher().weigh("k", "abc"));
+
+		// With isolation and no weigher the serialized length is used
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setObjectsCacheSize(100);
+		client.setObjectsExpirationMillis(1000);
+		client.setObjectsCacheMaxWeight(100000);
+		client.setCacheIsolation(true);
+		client.initialize();
+		assertNull(client.createObjectsCacheWeigher());
+		client.asyncSet("a", 1000, "123456").get();
+		assertTrue(client.getObjectsCacheWeight() > 6);
+	}
+
+	@Test
+	public void testObjectsCacheOffHeap() throws Exception {
+		assertEquals(0, client.getObjectsCacheOffHeapBytes());
+		assertEquals(0, client.getObjectsCacheOffHeapUsedBytes());
+		try {
+			client.setObjectsCacheOffHeapBytes(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		// It requires cache isolation
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setObjectsCacheSize(100);
+		client.setObjectsExpirationMillis(1000);
+		client.setObjectsCacheOffHeapBytes(4 * 1024 * 1024);
+		try {
+			client.initialize();
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(4 * 1024 * 1024, client.getObjectsCacheOffHeapBytes());
+
+		client.setCacheIsolation(true);
+		client.initialize();
+		client.random = new StaticDoubleRandom(1);
+		assertEquals(0, client.getObjectsCacheOffHeapUsedBytes());
+		client.asyncSet("a", 1000, "ABC").get();
+		assertTrue(client.getObjectsCacheOffHeapUsedBytes() > 0);
+		assertEquals("ABC", client.asyncGet("a").get());
+		client.clear();
+		assertEquals(0, client.getObjectsCacheOffHeapUsedBytes());
+	}
+
 	@Test
 	public void testInitializationInvalidationKeys() throws Exception {
 
@@ -697,7 +1005,7 @@ public class ArcacheSpeedupClientTest {
 	}
 
 	@SuppressWarnings("serial")
-	private static class StaticDoubleRandom extends Random {
+	private static class StaticDoubleRandom extends Random implements RandomSource {
 		double rv;
 
 		StaticDoubleRandom(double v) {
@@ -750,4 +1058,221 @@ public class ArcacheSpeedupClientTest {
 
 	}
 
+	@Test
+	public void testMultiGetSet() throws Exception {
+		client.random = new StaticDoubleRandom(1);
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("obj", "ABC");
+		values.put("inv", new CacheInvalidationObject());
+
+		Map<String, Boolean> setResult = client.asyncMultiSet(values, 1234).get();
+		assertTrue(setResult.get("obj"));
+		assertTrue(setResult.get("inv"));
+		assertEquals("ABC", backendClient.get("obj"));
+		assertNotNull(client.objectsCache.get("obj"));
+		assertNotNull(client.invalidationKeysCache.get("inv"));
+
+		// The speedup values are served locally, the others from the backend
+		backendClient.set("obj", 1234, "lala");
+		backendClient.set("remote", 1234, "R");
+		Map<String, Object> getResult = client.asyncMultiGet(Arrays.asList("obj", "inv", "remote", "miss", "obj"))
+				.get();
+		assertEquals(3, getResult.size());
+		assertEquals("ABC", getResult.get("obj"));
+		assertTrue(getResult.get("inv") instanceof CacheInvalidationObject);
+		assertEquals("R", getResult.get("remote"));
+		assertFalse(getResult.containsKey("miss"));
+
+		// The backend results are stored in the speedup caches
+		assertNotNull(client.objectsCache.get("remote"));
+		assertNotNull(client.missesCache.get("miss"));
+		backendClient.set("miss", 1234, "M");
+		assertFalse(client.asyncMultiGet(Arrays.asList("miss")).get().containsKey("miss"));
+
+		// All from speedup, the backend is not accessed
+		client.backendClient = null;
+		Future<Map<String, Object>> local = client.asyncMultiGet(Arrays.asList("obj", "remote"));
+		assertEquals(2, local.get().size());
+		assertTrue(ListenableFutures.isServedLocally(local));
+	}
+
+	@Test
+	public void testMultiGetSetWithFailedSpeedupOperation() throws Exception {
+		client = new ArcacheSpeedupClient() {
+			@Override
+			protected ArcacheInMemoryClient storeSpeedupCache(String key, Object value) {
+				throw new IllegalStateException();
+			}
+
+			@Override
+			protected FutureBackendGetWrapper createFutureBackendGetWrapper(Future<Object> backendFuture,
+					String key) {
+				throw new IllegalStateException();
+			}
+		};
+		client.setBackendClient(backendClient);
+		client.setObjectsCacheSize(1000);
+		client.setObjectsExpirationMillis(1000);
+		client.initialize();
+
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("obj", "ABC");
+		assertTrue(client.asyncMultiSet(values, 1234).get().get("obj"));
+		assertEquals("ABC", backendClient.get("obj"));
+		assertEquals("ABC", client.asyncMultiGet(Arrays.asList("obj")).get().get("obj"));
+	}
+
+	@Test
+	public void testListenableGetSet() throws Exception {
+		client.random = new StaticDoubleRandom(1);
+		assertTrue(client.listenableSet("obj", 1234, "ABC").get());
+		assertEquals("ABC", backendClient.get("obj"));
+		assertNotNull(client.objectsCache.get("obj"));
+
+		// Served from the speedup cache
+		backendClient.set("obj", 1234, "lala");
+		ListenableFuture<Object> hit = client.listenableGet("obj");
+		assertTrue(hit.isDone());
+		assertEquals("ABC", hit.get());
+		assertTrue(ListenableFutures.isServedLocally(hit));
+
+		// Served from the backend and stored in the speedup cache
+		backendClient.set("remote", 1234, "R");
+		ListenableFuture<Object> miss = client.listenableGet("remote");
+		assertTrue(miss instanceof FutureBackendGetWrapper);
+		assertFalse(ListenableFutures.isServedLocally(miss));
+		assertEquals("R", miss.get());
+		assertNotNull(client.objectsCache.get("remote"));
+	}
+
+	@Test
+	public void testListenableGetSetWithFailedSpeedupOperation() throws Exception {
+		client = new ArcacheSpeedupClient() {
+			@Override
+			protected ArcacheInMemoryClient storeSpeedupCache(String key, Object value) {
+				throw new IllegalStateException();
+			}
+
+			@Override
+			protected FutureBackendGetWrapper createFutureBackendGetWrapper(Future<Object> backendFuture,
+					String key) {
+				throw new IllegalStateException();
+			}
+		};
+		client.setBackendClient(backendClient);
+		client.setObjectsCacheSize(1000);
+		client.setObjectsExpirationMillis(1000);
+		client.initialize();
+
+		assertTrue(client.listenableSet("obj", 1234, "ABC").get());
+		assertEquals("ABC", client.listenableGet("obj").get());
+	}
+
+	@Test
+	public void testInvalidationBus() throws Exception {
+		InProcessInvalidationBus bus = new InProcessInvalidationBus();
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setInvalidationKeysCacheSize(1000);
+		client.setInvalidationKeysExpirationMillis(1000);
+		client.setObjectsCacheSize(1000);
+		client.setObjectsExpirationMillis(1000);
+		client.setMissesCacheSize(1000);
+		client.setMissesExpirationMillis(1000);
+		client.setInvalidationBus(bus);
+		assertSame(bus, client.getInvalidationBus());
+		client.initialize();
+		client.random = new StaticDoubleRandom(1);
+		assertEquals(1, bus.getListenersCount());
+
+		// The published keys are evicted from every speedup cache
+		client.asyncSet("inv", 1000, new CacheInvalidationObject()).get();
+		client.asyncSet("obj", 1000, "ABC").get();
+		assertNull(client.asyncGet("missing").get());
+		assertNotNull(client.invalidationKeysCache.get("inv"));
+		assertNotNull(client.missesCache.get("missing"));
+		bus.publish("inv");
+		bus.publish("obj");
+		bus.publish("missing");
+		assertNull(client.invalidationKeysCache.get("inv"));
+		assertNull(client.objectsCache.get("obj"));
+		assertNull(client.missesCache.get("missing"));
+
+		// The lost messages evict the invalidation keys and the misses
+		client.asyncSet("inv", 1000, new CacheInvalidationObject()).get();
+		client.asyncSet("obj", 1000, "ABC").get();
+		assertNull(client.asyncGet("missing").get());
+		client.invalidationBusListener.onInvalidationsLost();
+		assertNull(client.invalidationKeysCache.get("inv"));
+		assertNull(client.missesCache.get("missing"));
+		assertNotNull(client.objectsCache.get("obj"));
+
+		// The gets in flight during an eviction are not stored
+		backendClient.set("remote", 1000, "R");
+		Future<Object> get = client.asyncGet("remote");
+		ListenableFuture<Object> listenableGet = client.listenableGet("remote");
+		Future<Map<String, Object>> multiGet = client.asyncMultiGet(Arrays.asList("remote"));
+		bus.publish("remote");
+		assertEquals("R", get.get());
+		assertEquals("R", listenableGet.get());
+		assertEquals("R", multiGet.get().get("remote"));
+		assertNull(client.objectsCache.get("remote"));
+		assertEquals("R", client.asyncGet("remote").get());
+		assertNotNull(client.objectsCache.get("remote"));
+
+		// The evictions are striped by key, an unrelated key does not discard the gets in flight
+		String unrelated = "other";
+		for (int i = 0; ArcacheSpeedupClient.busEvictionCell(unrelated) == ArcacheSpeedupClient
+				.busEvictionCell("remote"); i++) {
+			unrelated = "other" + i;
+		}
+		client.objectsCache.remove("remote");
+		get = client.asyncGet("remote");
+		bus.publish(unrelated);
+		assertEquals("R", get.get());
+		assertNotNull(client.objectsCache.get("remote"));
+
+		// The lost messages discard every get in flight
+		client.objectsCache.remove("remote");
+		get = client.asyncGet("remote");
+		client.invalidationBusListener.onInvalidationsLost();
+		assertEquals("R", get.get());
+		assertNull(client.objectsCache.get("remote"));
+		assertEquals(0, ArcacheSpeedupClient.busEvictionCell(null));
+
+		client.close();
+		assertEquals(0, bus.getListenersCount());
+		client.close();
+	}
+
+	@Test
+	public void testInvalidationBusPartialCaches() throws Exception {
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setObjectsCacheSize(1000);
+		client.setObjectsExpirationMillis(1000);
+		client.initialize();
+		client.evict("key");
+		client.evictAllInvalidations();
+		assertEquals(2, client.countBusEvictions());
+		// Without a bus there is nothing to close
+		client.close();
+	}
+
+	@Test
+	public void testTieredBackendClient() throws Exception {
+		client = new ArcacheSpeedupClient();
+		client.setBackendClient(backendClient);
+		client.setObjectsCacheSize(1000);
+		client.setObjectsExpirationMillis(1000);
+		client.initialize();
+		assertSame(backendClient, client.getRemoteBackendClient());
+
+		client.asyncSet("key", 1000, "V").get();
+		assertNotNull(client.objectsCache.get("key"));
+		client.evictLocalCopy("key");
+		assertNull(client.objectsCache.get("key"));
+		assertEquals(1, client.countBusEvictions());
+	}
+
 }
@@ -11,12 +11,16 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
 import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.SettableFuture;
 
 public class FutureBackendGetWrapperTest {
 
@@ -344,4 +348,49 @@ public class FutureBackendGetWrapperTest {
 		assertEquals(result, futureBackendGetWrapper.wrappGetResult(result));
 		assertTrue(flag);
 	}
+
+	@Test
+	public void testWrappGetResultAfterEviction() {
+		// An eviction of the key after the request was started discards the result
+		client.evict(key);
+		assertEquals("ret", futureBackendGetWrapper.wrappGetResult("ret"));
+		assertNull(client.objectsCache.get(key));
+
+		futureBackendGetWrapper = new FutureBackendGetWrapper(client, futureGet, key, true, client.tracker);
+		assertEquals("ret", futureBackendGetWrapper.wrappGetResult("ret"));
+		assertNotNull(client.objectsCache.get(key));
+
+		// An eviction that arrives while it is stored removes it
+		client.clear();
+		futureBackendGetWrapper.speedupClient = new ArcacheSpeedupClient() {
+			protected ArcacheInMemoryClient storeSpeedupCache(String tkey, Object value) {
+				ArcacheInMemoryClient dst = client.storeSpeedupCache(tkey, value);
+				evict(key);
+				return dst;
+			};
+		};
+		futureBackendGetWrapper.evictionsAtRequest = 0;
+		assertEquals("ret", futureBackendGetWrapper.wrappGetResult("ret"));
+		assertNull(client.objectsCache.get(key));
+	}
+
+	@Test
+	public void testAddListener() throws Exception {
+		final SettableFuture<Object> backendFuture = new SettableFuture<Object>();
+		futureBackendGetWrapper = new FutureBackendGetWrapper(client, backendFuture, key, true, client.tracker);
+		final AtomicReference<ListenableFuture<Object>> notified = new AtomicReference<ListenableFuture<Object>>();
+		futureBackendGetWrapper.addListener(new FutureListener<Object>() {
+			@Override
+			public void onComplete(ListenableFuture<Object> future) {
+				notified.set(future);
+			}
+		});
+		assertNull(notified.get());
+
+		backendFuture.set("value");
+		// The listener receives the wrapper, reading it fills the speedup cache
+		assertTrue(notified.get() == futureBackendGetWrapper);
+		assertEquals("value", notified.get().get());
+		assertNotNull(client.objectsCache.get(key));
+	}
 }
@@ -8,11 +8,16 @@ import org.junit.Before;
 import org.junit.Test;
 
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.InProcessInvalidationBus;
 import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+import ar.com.siripo.arcache.backend.inmemory.InMemoryWeigher;
+import ar.com.siripo.arcache.backend.inmemory.SerializedLengthWeigher;
 import ar.com.siripo.arcache.backend.speedup.ArcacheSpeedupBasicTracker;
 import ar.com.siripo.arcache.backend.speedup.ArcacheSpeedupClient;
 import ar.com.siripo.arcache.math.LinearProbabilityFunction;
 import ar.com.siripo.arcache.math.ProbabilityFunction;
+import ar.com.siripo.arcache.util.RandomSource;
+import ar.com.siripo.arcache.util.SeededRandomSource;
 
 public class ArcacheSpeedupClientFactoryBeanTest {
 
@@ -141,4 +146,60 @@ public class ArcacheSpeedupClientFactoryBeanTest {
 		factoryBean.setCacheIsolation(false);
 		assertEquals(false, speedupClient.getCacheIsolation());
 	}
+
+	@Test
+	public void testSetRandomSource() {
+		RandomSource randomSource = new SeededRandomSource(1);
+		factoryBean.setRandomSource(randomSource);
+		assertEquals(randomSource, speedupClient.getRandomSource());
+	}
+
+	@Test
+	public void testSetInvalidationBus() throws Exception {
+		InProcessInvalidationBus bus = new InProcessInvalidationBus();
+		factoryBean.setInvalidationBus(bus);
+		assertEquals(bus, speedupClient.getInvalidationBus());
+
+		// The client stops receiving the invalidations when it is destroyed
+		factoryBean.setObjectsCacheSize(10);
+		factoryBean.setObjectsExpirationMillis(10);
+		factoryBean.setBackendClient(new ArcacheInMemoryClient());
+		factoryBean.afterPropertiesSet();
+		assertEquals(1, bus.getListenersCount());
+		factoryBean.destroy();
+		assertEquals(0, bus.getListenersCount());
+	}
+
+	@Test
+	public void testSetConcurrencyLevel() {
+		factoryBean.setConcurrencyLevel(16);
+		assertEquals(16, speedupClient.getConcurrencyLevel());
+	}
+
+	@Test
+	public void testSetExpirySweepMillis() {
+		factoryBean.setExpirySweepMillis(1000);
+		assertEquals(1000, speedupClient.getExpirySweepMillis());
+	}
+
+	@Test
+	public void testSetUnifiedSpeedupCaches() {
+		factoryBean.setUnifiedSpeedupCaches(true);
+		assertTrue(speedupClient.getUnifiedSpeedupCaches());
+	}
+
+	@Test
+	public void testSetObjectsCacheWeight() {
+		InMemoryWeigher weigher = new SerializedLengthWeigher();
+		factoryBean.setObjectsCacheMaxWeight(1024);
+		factoryBean.setObjectsCacheWeigher(weigher);
+		assertEquals(1024, speedupClient.getObjectsCacheMaxWeight());
+		assertEquals(weigher, speedupClient.getObjectsCacheWeigher());
+	}
+
+	@Test
+	public void testSetObjectsCacheOffHeapBytes() {
+		factoryBean.setObjectsCacheOffHeapBytes(1024 * 1024);
+		assertEquals(1024 * 1024, speedupClient.getObjectsCacheOffHeapBytes());
+	}
 }
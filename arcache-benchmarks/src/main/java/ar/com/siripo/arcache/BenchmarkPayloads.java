@@ -0,0 +1,47 @@
+package ar.com.siripo.arcache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The values stored by the benchmarks. A short String, the most common cached
+ * value, and a map with nested values like a cached entity.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class BenchmarkPayloads {
+
+	public static final String STRING = "string";
+	public static final String MAP = "map";
+
+	public static Object create(final String payload) {
+		if (STRING.equals(payload)) {
+			return "The quick brown fox jumps over the lazy dog, 0123456789";
+		}
+		if (MAP.equals(payload)) {
+			HashMap<String, Object> map = new HashMap<String, Object>();
+			for (int i = 0; i < 10; i++) {
+				map.put("field-" + i, "value-" + i);
+			}
+			ArrayList<Long> list = new ArrayList<Long>();
+			for (long i = 0; i < 20; i++) {
+				list.add(i * 1000003);
+			}
+			map.put("list", list);
+			map.put("id", 12345678L);
+			return map;
+		}
+		throw new IllegalArgumentException("Unknown payload " + payload);
+	}
+
+	/** @return count keys named prefix-0 to prefix-(count-1) */
+	public static String[] createKeys(final String prefix, final int count) {
+		String[] keys = new String[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = prefix + "-" + i;
+		}
+		return keys;
+	}
+
+}
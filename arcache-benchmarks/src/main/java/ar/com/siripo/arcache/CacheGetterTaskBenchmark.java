@@ -0,0 +1,114 @@
+package ar.com.siripo.arcache;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+import ar.com.siripo.arcache.util.RandomSource;
+import ar.com.siripo.arcache.util.ThreadLocalRandomSource;
+
+/**
+ * Measures the CacheGetterTask read path against the in memory backend. Run it
+ * with the gc profiler to compare the allocation per operation of the read path
+ * that loads the invalidation objects into a map (mode map, the previous read
+ * path) with the read path indexed by the position of the invalidation keys
+ * (mode array):
+ *
+ * java -jar target/benchmarks.jar CacheGetterTaskBenchmark -prof gc
+ *
+ * @author Mariano Santamarina
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheGetterTaskBenchmark {
+
+	@Param({ "0", "1", "5", "20" })
+	public int invalidationKeys;
+
+	@Param({ "array", "map" })
+	public String mode;
+
+	ArcacheInMemoryClient backendClient;
+	ArcacheClient arcache;
+	RandomSource random;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		backendClient = new ArcacheInMemoryClient();
+		arcache = new ArcacheClient(backendClient);
+		arcache.setTimeMeasurementErrorMillis(0);
+		random = new ThreadLocalRandomSource();
+
+		String[] keys = new String[invalidationKeys];
+		for (int i = 0; i < invalidationKeys; i++) {
+			keys[i] = "invkey-" + i;
+			arcache.invalidateKey(keys[i]);
+		}
+		Thread.sleep(10);
+		arcache.set("hit", "value", keys);
+		Thread.sleep(10);
+	}
+
+	@Benchmark
+	public CacheGetResult hit() throws Exception {
+		return createTask("hit").get();
+	}
+
+	@Benchmark
+	public CacheGetResult miss() throws Exception {
+		return createTask("miss").get();
+	}
+
+	protected CacheGetterTask createTask(final String key) {
+		if ("map".equals(mode)) {
+			return new MapCacheGetterTask(key, backendClient, backendClient, arcache, arcache, random);
+		}
+		return new CacheGetterTask(key, backendClient, backendClient, arcache, arcache, random);
+	}
+
+	/** Loads the invalidation objects into a map like the previous read path */
+	protected static class MapCacheGetterTask extends CacheGetterTask {
+
+		protected MapCacheGetterTask(String key, ArcacheInMemoryClient backendClient,
+				ArcacheInMemoryClient invalidationBackendClient, BackendKeyBuilder keyBuilder,
+				ArcacheConfigurationGetInterface config, RandomSource random) {
+			super(key, backendClient, invalidationBackendClient, keyBuilder, config, random);
+		}
+
+		@Override
+		protected CacheGetResult evaluateRawCachedObject(final Object rawCachedObject) {
+			if (rawCachedObject == null) {
+				return new CacheGetResult(CacheGetResult.Type.MISS);
+			}
+			return super.evaluateRawCachedObject(rawCachedObject);
+		}
+
+		@Override
+		protected CacheGetResult evaluateCachedObject(final ExpirableCacheObject cachedObject,
+				final long startTimeMillis, final long timeoutMillis)
+				throws TimeoutException, InterruptedException, ExecutionException {
+			return evaluateCachedObject(cachedObject, loadInvalidationKeys(cachedObject, startTimeMillis, timeoutMillis),
+					startTimeMillis);
+		}
+	}
+
+}
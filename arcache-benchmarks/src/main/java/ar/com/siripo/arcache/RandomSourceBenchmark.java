@@ -0,0 +1,118 @@
+package ar.com.siripo.arcache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+import ar.com.siripo.arcache.util.RandomSource;
+import ar.com.siripo.arcache.util.SeededRandomSource;
+import ar.com.siripo.arcache.util.ThreadLocalRandomSource;
+
+/**
+ * Throughput of the get path of one ArcacheClient shared by 1, 8 and 64
+ * threads. The seeded source shares one java.util.Random between all the
+ * threads like the previous versions did, the thread local source is the
+ * default. The stored object is inside the probabilistic expiration window, so
+ * every get draws a random number.
+ *
+ * java -jar target/benchmarks.jar RandomSourceBenchmark
+ *
+ * @author Mariano Santamarina
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RandomSourceBenchmark {
+
+	@Param({ "threadLocal", "seeded" })
+	public String randomSource;
+
+	/** The age of the stored object relative to its TTL, the expiration probability is about 0.4% */
+	protected static final double STORED_OBJECT_AGE = 0.75;
+
+	ArcacheClient arcache;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		ArcacheInMemoryClient backendClient = new ArcacheInMemoryClient();
+		arcache = new ArcacheClient(backendClient);
+		arcache.setTimeMeasurementErrorMillis(0);
+		arcache.invalidateKey("invkey");
+		arcache.set("key", "value", new String[] { "invkey" });
+
+		// Backdates the object inside the expiration window, and the invalidation before it
+		String backendKey = arcache.createBackendKey("key");
+		ExpirableCacheObject stored = (ExpirableCacheObject) backendClient.get(backendKey);
+		stored.timestampMillis -= (long) (stored.expirationTTLMillis * STORED_OBJECT_AGE);
+		backendClient.set(backendKey, arcache.getDefaultStoredObjectRemovalTimeMillis(), stored);
+		String invalidationBackendKey = arcache.createInvalidationBackendKey("invkey");
+		CacheInvalidationObject invalidation = (CacheInvalidationObject) backendClient.get(invalidationBackendKey);
+		invalidation.invalidationTimestampMillis = stored.timestampMillis - 1000;
+		backendClient.set(invalidationBackendKey, arcache.getDefaultStoredObjectRemovalTimeMillis(), invalidation);
+
+		CountingRandomSource counting = new CountingRandomSource();
+		arcache.setRandomSource(counting);
+		if (!arcache.getCacheObject("key").isHitOrExpired() || (counting.draws == 0)) {
+			throw new IllegalStateException("The get does not draw random numbers");
+		}
+
+		if ("seeded".equals(randomSource)) {
+			arcache.setRandomSource(new SeededRandomSource(1));
+		} else {
+			arcache.setRandomSource(new ThreadLocalRandomSource());
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public CacheGetResult get1Thread() throws Exception {
+		return arcache.getCacheObject("key");
+	}
+
+	@Benchmark
+	@Threads(8)
+	public CacheGetResult get8Threads() throws Exception {
+		return arcache.getCacheObject("key");
+	}
+
+	@Benchmark
+	@Threads(64)
+	public CacheGetResult get64Threads() throws Exception {
+		return arcache.getCacheObject("key");
+	}
+
+	@Benchmark
+	@Threads(64)
+	public double nextDouble64Threads() {
+		return arcache.getRandomSource().nextDouble();
+	}
+
+	/** Counts the random numbers drawn, only used by the setup */
+	protected static class CountingRandomSource implements RandomSource {
+		protected int draws = 0;
+
+		@Override
+		public double nextDouble() {
+			draws++;
+			return 0.5;
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package ar.com.siripo.arcache.backend.inmemory;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ar.com.siripo.arcache.BenchmarkPayloads;
+
+/**
+ * Throughput of the get and set of one ArcacheInMemoryClient shared by 1, 8
+ * and 64 threads, with and without cache isolation. The keys fit in the
+ * cache, so every get is a hit.
+ *
+ * java -jar target/benchmarks.jar InMemoryClientBenchmark
+ *
+ * @author Mariano Santamarina
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InMemoryClientBenchmark {
+
+	protected static final int KEYS = 1024;
+
+	@Param({ "false", "true" })
+	public boolean cacheIsolation;
+
+	@Param({ BenchmarkPayloads.STRING, BenchmarkPayloads.MAP })
+	public String payload;
+
+	ArcacheInMemoryClient client;
+	String[] keys;
+	Object value;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		client = new ArcacheInMemoryClient(KEYS * 2, cacheIsolation);
+		keys = BenchmarkPayloads.createKeys("key", KEYS);
+		value = BenchmarkPayloads.create(payload);
+		for (String key : keys) {
+			client.set(key, 3600000, value);
+		}
+	}
+
+	/** Each thread walks the keys from its own position */
+	@State(Scope.Thread)
+	public static class KeyCursor {
+		int position;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			position = (int) (Thread.currentThread().getId() * 31);
+		}
+
+		String next(final String[] keys) {
+			position = (position + 1) & (KEYS - 1);
+			return keys[position];
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Object get1Thread(final KeyCursor cursor) {
+		return client.get(cursor.next(keys));
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Object get8Threads(final KeyCursor cursor) {
+		return client.get(cursor.next(keys));
+	}
+
+	@Benchmark
+	@Threads(64)
+	public Object get64Threads(final KeyCursor cursor) {
+		return client.get(cursor.next(keys));
+	}
+
+	@Benchmark
+	@Threads(1)
+	public boolean set1Thread(final KeyCursor cursor) {
+		return client.set(cursor.next(keys), 3600000, value);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public boolean set8Threads(final KeyCursor cursor) {
+		return client.set(cursor.next(keys), 3600000, value);
+	}
+
+	@Benchmark
+	@Threads(64)
+	public boolean set64Threads(final KeyCursor cursor) {
+		return client.set(cursor.next(keys), 3600000, value);
+	}
+
+}
@@ -0,0 +1,128 @@
+package ar.com.siripo.arcache.backend.inmemory;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ar.com.siripo.arcache.BenchmarkPayloads;
+
+/**
+ * Scaling of one ArcacheInMemoryClient shared by 1 to 64 threads, with the
+ * single lock LRU (concurrencyLevel 0) and with the striped storage. Every
+ * operation is a get, and one of every 10 is followed by a set. The keys are
+ * twice the capacity, so there are misses and evictions.
+ *
+ * java -jar target/benchmarks.jar InMemoryStorageScalingBenchmark
+ *
+ * @author Mariano Santamarina
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InMemoryStorageScalingBenchmark {
+
+	protected static final int KEYS = 8192;
+
+	@Param({ "0", "16", "64" })
+	public int concurrencyLevel;
+
+	ArcacheInMemoryClient client;
+	String[] keys;
+	Object value;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		client = new ArcacheInMemoryClient(KEYS / 2, false, concurrencyLevel);
+		keys = BenchmarkPayloads.createKeys("key", KEYS);
+		value = BenchmarkPayloads.create(BenchmarkPayloads.STRING);
+		for (String key : keys) {
+			client.set(key, 3600000, value);
+		}
+	}
+
+	/** Each thread walks the keys from its own position */
+	@State(Scope.Thread)
+	public static class KeyCursor {
+		int position;
+		int operations;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			position = (int) (Thread.currentThread().getId() * 997);
+		}
+
+		String next(final String[] keys) {
+			position = (position + 7) & (KEYS - 1);
+			return keys[position];
+		}
+	}
+
+	protected Object getAndSometimesSet(final KeyCursor cursor) {
+		String key = cursor.next(keys);
+		Object obj = client.get(key);
+		if (++cursor.operations == 10) {
+			cursor.operations = 0;
+			client.set(key, 3600000, value);
+		}
+		return obj;
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Object mixed1Thread(final KeyCursor cursor) {
+		return getAndSometimesSet(cursor);
+	}
+
+	@Benchmark
+	@Threads(2)
+	public Object mixed2Threads(final KeyCursor cursor) {
+		return getAndSometimesSet(cursor);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public Object mixed4Threads(final KeyCursor cursor) {
+		return getAndSometimesSet(cursor);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Object mixed8Threads(final KeyCursor cursor) {
+		return getAndSometimesSet(cursor);
+	}
+
+	@Benchmark
+	@Threads(16)
+	public Object mixed16Threads(final KeyCursor cursor) {
+		return getAndSometimesSet(cursor);
+	}
+
+	@Benchmark
+	@Threads(32)
+	public Object mixed32Threads(final KeyCursor cursor) {
+		return getAndSometimesSet(cursor);
+	}
+
+	@Benchmark
+	@Threads(64)
+	public Object mixed64Threads(final KeyCursor cursor) {
+		return getAndSometimesSet(cursor);
+	}
+
+}
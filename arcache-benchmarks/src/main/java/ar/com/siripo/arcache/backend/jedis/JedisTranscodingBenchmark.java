@@ -0,0 +1,63 @@
+package ar.com.siripo.arcache.backend.jedis;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ar.com.siripo.arcache.BenchmarkPayloads;
+import redis.clients.jedis.Jedis;
+
+/**
+ * Cost of the conversion of the values to and from the Redis strings. Jedis
+ * connects on the first command, the transcoding never sends one, so no Redis
+ * server is needed.
+ *
+ * java -jar target/benchmarks.jar JedisTranscodingBenchmark -prof gc
+ *
+ * @author Mariano Santamarina
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JedisTranscodingBenchmark {
+
+	@Param({ BenchmarkPayloads.STRING, BenchmarkPayloads.MAP })
+	public String payload;
+
+	ArcacheJedisClient client;
+	Object value;
+	String redisString;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		client = new ArcacheJedisClient(new Jedis("localhost"));
+		value = BenchmarkPayloads.create(payload);
+		redisString = client.convertObjectToRedisString(value);
+	}
+
+	@Benchmark
+	public String convertObjectToRedisString() {
+		return client.convertObjectToRedisString(value);
+	}
+
+	@Benchmark
+	public Object convertRedisStringToObject() {
+		return client.convertRedisStringToObject(redisString);
+	}
+
+}
@@ -0,0 +1,97 @@
+package ar.com.siripo.arcache.backend.speedup;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ar.com.siripo.arcache.BenchmarkPayloads;
+import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+
+/**
+ * Cost of the get paths of ArcacheSpeedupClient. The remote backend is an in
+ * memory client, so the backend paths measure the overhead of the speedup and
+ * not the network.
+ *
+ * objectsCacheHit and missesCacheHit are served by the speedup caches,
+ * backendHit and backendMiss go through the backend because the objects and
+ * misses caches of that client are disabled.
+ *
+ * java -jar target/benchmarks.jar SpeedupClientBenchmark
+ *
+ * @author Mariano Santamarina
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpeedupClientBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean cacheIsolation;
+
+	@Param({ BenchmarkPayloads.STRING, BenchmarkPayloads.MAP })
+	public String payload;
+
+	ArcacheInMemoryClient backendClient;
+	ArcacheSpeedupClient speedup;
+	ArcacheSpeedupClient passthrough;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		backendClient = new ArcacheInMemoryClient(1000, cacheIsolation);
+
+		speedup = new ArcacheSpeedupClient();
+		speedup.setBackendClient(backendClient);
+		speedup.setCacheIsolation(cacheIsolation);
+		speedup.setObjectsCacheSize(1000);
+		speedup.setObjectsExpirationMillis(3600000);
+		speedup.setMissesCacheSize(1000);
+		speedup.setMissesExpirationMillis(3600000);
+		speedup.initialize();
+
+		passthrough = new ArcacheSpeedupClient();
+		passthrough.setBackendClient(backendClient);
+		passthrough.setCacheIsolation(cacheIsolation);
+		passthrough.setInvalidationKeysCacheSize(1000);
+		passthrough.setInvalidationKeysExpirationMillis(3600000);
+		passthrough.initialize();
+
+		speedup.asyncSet("hit", 3600000, BenchmarkPayloads.create(payload)).get();
+		speedup.asyncGet("miss").get();
+	}
+
+	@Benchmark
+	public Object objectsCacheHit() throws Exception {
+		return speedup.asyncGet("hit").get();
+	}
+
+	@Benchmark
+	public Object missesCacheHit() throws Exception {
+		return speedup.asyncGet("miss").get();
+	}
+
+	@Benchmark
+	public Object backendHit() throws Exception {
+		return passthrough.asyncGet("hit").get();
+	}
+
+	@Benchmark
+	public Object backendMiss() throws Exception {
+		return passthrough.asyncGet("miss").get();
+	}
+
+}
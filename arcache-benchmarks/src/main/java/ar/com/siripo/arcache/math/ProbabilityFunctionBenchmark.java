@@ -0,0 +1,71 @@
+package ar.com.siripo.arcache.math;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of one evaluation of the probability functions used by the expiration
+ * and invalidation checks, compared with their tabulated versions. Each
+ * invocation evaluates the whole sequence of x values to keep the JIT from
+ * folding a constant argument.
+ *
+ * java -jar target/benchmarks.jar ProbabilityFunctionBenchmark
+ *
+ * @author Mariano Santamarina
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProbabilityFunctionBenchmark {
+
+	protected static final int POINTS = 1024;
+
+	@Param({ "exponential", "tabulatedExponential", "linear", "tabulatedLinear" })
+	public String function;
+
+	ProbabilityFunction probabilityFunction;
+	double[] xs;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		if (function.endsWith("xponential")) {
+			probabilityFunction = new AdjustedExponentialProbabilityFunction(0.5, 11);
+		} else {
+			probabilityFunction = new LinearProbabilityFunction(0.5);
+		}
+		if (function.startsWith("tabulated")) {
+			probabilityFunction = new TabulatedProbabilityFunction(probabilityFunction);
+		}
+		xs = new double[POINTS];
+		for (int i = 0; i < POINTS; i++) {
+			xs[i] = (double) i / POINTS;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public void getProbability(final Blackhole bh) {
+		for (int i = 0; i < POINTS; i++) {
+			bh.consume(probabilityFunction.getProbability(xs[i]));
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+package ar.com.siripo.arcache.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ar.com.siripo.arcache.BenchmarkPayloads;
+
+/**
+ * Cost of the ObjectSerializer used by the isolated in memory caches.
+ *
+ * java -jar target/benchmarks.jar ObjectSerializerBenchmark -prof gc
+ *
+ * @author Mariano Santamarina
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectSerializerBenchmark {
+
+	@Param({ BenchmarkPayloads.STRING, BenchmarkPayloads.MAP })
+	public String payload;
+
+	ObjectSerializer serializer;
+	Object value;
+	byte[] serialized;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		serializer = new ObjectSerializer();
+		value = BenchmarkPayloads.create(payload);
+		serialized = serializer.serializeToByteArray(value);
+	}
+
+	@Benchmark
+	public byte[] serialize() {
+		return serializer.serializeToByteArray(value);
+	}
+
+	@Benchmark
+	public Object deserialize() {
+		return serializer.deserialize(serialized);
+	}
+
+}
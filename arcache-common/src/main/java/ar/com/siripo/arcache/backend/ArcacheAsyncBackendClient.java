@@ -0,0 +1,22 @@
+package ar.com.siripo.arcache.backend;
+
+import ar.com.siripo.arcache.util.ListenableFuture;
+
+/**
+ * A backend that notifies the completion of its operations, so the callers can
+ * chain the processing of the results instead of waiting for them. The
+ * listenable operations are equivalent to asyncSet and asyncGet, the plain ones
+ * are kept so the existing callers and subclasses are not affected.
+ * 
+ * The existing backends can be lifted with ArcacheAsyncBackendClientAdapter.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public interface ArcacheAsyncBackendClient extends ArcacheBackendClient {
+
+	public ListenableFuture<Boolean> listenableSet(String key, long ttlMillis, Object value);
+
+	public ListenableFuture<Object> listenableGet(String key);
+
+}
@@ -0,0 +1,75 @@
+package ar.com.siripo.arcache.backend;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.ListenableFutures;
+
+/**
+ * Lifts any backend to ArcacheAsyncBackendClient. The futures of the wrapped
+ * backend are converted with ListenableFutures.listen, so the ones that are
+ * still pending are waited by a helper thread. The multi key operations keep
+ * using the native implementation of the wrapped backend if it has one.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public class ArcacheAsyncBackendClientAdapter implements ArcacheAsyncBackendClient, ArcacheMultiKeyBackendClient {
+
+	protected final ArcacheBackendClient backendClient;
+
+	public ArcacheAsyncBackendClientAdapter(ArcacheBackendClient backendClient) {
+		if (backendClient == null) {
+			throw new IllegalArgumentException("Backend Client was not configured");
+		}
+		this.backendClient = backendClient;
+	}
+
+	/**
+	 * @param backendClient
+	 * @return the same backend if it is already async, otherwise an adapter
+	 */
+	public static ArcacheAsyncBackendClient lift(ArcacheBackendClient backendClient) {
+		if (backendClient instanceof ArcacheAsyncBackendClient) {
+			return (ArcacheAsyncBackendClient) backendClient;
+		}
+		return new ArcacheAsyncBackendClientAdapter(backendClient);
+	}
+
+	public ArcacheBackendClient getBackendClient() {
+		return backendClient;
+	}
+
+	@Override
+	public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+		return listenableSet(key, ttlMillis, value);
+	}
+
+	@Override
+	public Future<Object> asyncGet(String key) {
+		return listenableGet(key);
+	}
+
+	@Override
+	public ListenableFuture<Boolean> listenableSet(String key, long ttlMillis, Object value) {
+		return ListenableFutures.listen(backendClient.asyncSet(key, ttlMillis, value));
+	}
+
+	@Override
+	public ListenableFuture<Object> listenableGet(String key) {
+		return ListenableFutures.listen(backendClient.asyncGet(key));
+	}
+
+	@Override
+	public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+		return ListenableFutures.listen(MultiKeyBackendOperations.asyncMultiGet(backendClient, keys));
+	}
+
+	@Override
+	public Future<Map<String, Boolean>> asyncMultiSet(Map<String, Object> values, long ttlMillis) {
+		return ListenableFutures.listen(MultiKeyBackendOperations.asyncMultiSet(backendClient, values, ttlMillis));
+	}
+
+}
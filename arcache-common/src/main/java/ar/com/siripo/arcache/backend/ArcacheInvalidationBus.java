@@ -0,0 +1,41 @@
+package ar.com.siripo.arcache.backend;
+
+import java.util.Collection;
+
+/**
+ * Broadcasts the backend keys of the invalidation objects as soon as they are
+ * stored, so the local caches of every process, like the speedup caches, evict
+ * them right away instead of waiting their expiration.
+ * 
+ * The delivery is best effort. When an implementation can lose messages, for
+ * example while it reconnects, it notifies onInvalidationsLost to the
+ * listeners.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public interface ArcacheInvalidationBus {
+
+	/**
+	 * Publishes that the record stored in the backend key changed. It must not
+	 * block on a slow subscriber nor on the network. When the message can not be
+	 * accepted it throws, so the publisher can report the failure.
+	 * 
+	 * @param backendKey
+	 */
+	public void publish(String backendKey);
+
+	/**
+	 * Publishes many backend keys at once, the implementations can send them in a
+	 * single batch. Like the single publish it must not block, and it throws when
+	 * any of them can not be accepted.
+	 * 
+	 * @param backendKeys
+	 */
+	public void publish(Collection<String> backendKeys);
+
+	public void subscribe(ArcacheInvalidationBusListener listener);
+
+	public void unsubscribe(ArcacheInvalidationBusListener listener);
+
+}
@@ -0,0 +1,18 @@
+package ar.com.siripo.arcache.backend;
+
+/**
+ * Receives the messages of an ArcacheInvalidationBus, it is called from the
+ * thread that delivers them so it must be fast.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public interface ArcacheInvalidationBusListener {
+
+	/** The record stored in the backend key changed, the local copies are stale */
+	public void onInvalidation(String backendKey);
+
+	/** Some messages may have been lost, every local copy may be stale */
+	public void onInvalidationsLost();
+
+}
@@ -0,0 +1,37 @@
+package ar.com.siripo.arcache.backend;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Backends that can operate many keys in a single request implement this
+ * interface. The clients use MultiKeyBackendOperations, so backends that only
+ * implement ArcacheBackendClient are still usable with one request per key.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public interface ArcacheMultiKeyBackendClient extends ArcacheBackendClient {
+
+	/**
+	 * Gets many keys at once.
+	 * 
+	 * @param keys
+	 * @return a Future of a map with the found keys, the missing keys are not
+	 *         included
+	 */
+	public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys);
+
+	/**
+	 * Sets many keys at once, all with the same ttl.
+	 * 
+	 * If some value can not be serialized IllegalArgumentException is thrown.
+	 * 
+	 * @param values    the values to be stored by key
+	 * @param ttlMillis time to live in milli seconds of the stored objects
+	 * @return a Future of a map with the result of every key
+	 */
+	public Future<Map<String, Boolean>> asyncMultiSet(Map<String, Object> values, long ttlMillis);
+
+}
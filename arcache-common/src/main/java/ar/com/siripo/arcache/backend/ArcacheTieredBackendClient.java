@@ -0,0 +1,20 @@
+package ar.com.siripo.arcache.backend;
+
+/**
+ * A backend client that serves local copies of the records of another backend,
+ * like the speedup client. A local copy can be older than the remote record, so
+ * the read modify writes that must not lose the changes of other processes are
+ * done on the remote backend, and then the local copy is evicted.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public interface ArcacheTieredBackendClient extends ArcacheBackendClient {
+
+	/** @return the backend client that holds the shared records */
+	public ArcacheBackendClient getRemoteBackendClient();
+
+	/** Drops the local copy of the backend key, it was written on the remote backend */
+	public void evictLocalCopy(String backendKey);
+
+}
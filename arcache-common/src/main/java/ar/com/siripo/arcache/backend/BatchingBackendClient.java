@@ -0,0 +1,276 @@
+package ar.com.siripo.arcache.backend;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.ListenableFutures;
+import ar.com.siripo.arcache.util.SettableFuture;
+
+/**
+ * Merges the gets issued by many threads into multi gets. The gets are queued
+ * until the window elapses, counted from the first queued get, or until the
+ * batch reaches maxBatchSize keys, then the batch is sent to the backend as one
+ * multi key request and every get is completed with its key.
+ *
+ * The batch is sent by the flusher thread when the window elapses, or by the
+ * caller that fills it. The sets and the multi key operations are sent directly
+ * to the backend.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class BatchingBackendClient implements ArcacheAsyncBackendClient, ArcacheMultiKeyBackendClient {
+
+	protected final ArcacheBackendClient backendClient;
+	protected final long windowMicros;
+	protected final int maxBatchSize;
+	protected final ScheduledExecutorService flusher;
+
+	protected ArrayList<PendingGet> currentBatch;
+
+	protected final AtomicLong batches = new AtomicLong();
+	protected final AtomicLong batchedGets = new AtomicLong();
+	protected final AtomicLong largestBatchSize = new AtomicLong();
+	protected final AtomicLong totalQueueDelayNanos = new AtomicLong();
+	protected final AtomicLong maxQueueDelayNanos = new AtomicLong();
+
+	/**
+	 * @param backendClient
+	 * @param windowMicros  the maximum time a get waits for other gets
+	 * @param maxBatchSize  the batch is sent when it reaches this number of gets
+	 */
+	public BatchingBackendClient(ArcacheBackendClient backendClient, long windowMicros, int maxBatchSize) {
+		if (backendClient == null) {
+			throw new IllegalArgumentException("Backend Client was not configured");
+		}
+		if (windowMicros < 0) {
+			throw new IllegalArgumentException("Invalid window micros");
+		}
+		if (maxBatchSize <= 0) {
+			throw new IllegalArgumentException("Invalid max batch size");
+		}
+		this.backendClient = backendClient;
+		this.windowMicros = windowMicros;
+		this.maxBatchSize = maxBatchSize;
+		this.flusher = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "arcache-batching-flusher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public ArcacheBackendClient getBackendClient() {
+		return backendClient;
+	}
+
+	public long getWindowMicros() {
+		return windowMicros;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/** Stops the flusher thread, the gets queued later are sent right away */
+	public void shutdown() {
+		flusher.shutdown();
+	}
+
+	@Override
+	public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+		return backendClient.asyncSet(key, ttlMillis, value);
+	}
+
+	@Override
+	public Future<Object> asyncGet(String key) {
+		return listenableGet(key);
+	}
+
+	@Override
+	public ListenableFuture<Boolean> listenableSet(String key, long ttlMillis, Object value) {
+		return ListenableFutures.listen(backendClient.asyncSet(key, ttlMillis, value));
+	}
+
+	@Override
+	public ListenableFuture<Object> listenableGet(String key) {
+		final PendingGet pendingGet = new PendingGet(key);
+		ArrayList<PendingGet> batch;
+		boolean firstOfBatch = false;
+		boolean full = false;
+
+		synchronized (this) {
+			if (currentBatch == null) {
+				currentBatch = new ArrayList<PendingGet>();
+				firstOfBatch = true;
+			}
+			batch = currentBatch;
+			batch.add(pendingGet);
+			if (batch.size() >= maxBatchSize) {
+				currentBatch = null;
+				full = true;
+			}
+		}
+
+		if (full) {
+			dispatch(batch);
+		} else if (firstOfBatch) {
+			scheduleFlush(batch);
+		}
+		return pendingGet.future;
+	}
+
+	@Override
+	public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+		return MultiKeyBackendOperations.asyncMultiGet(backendClient, keys);
+	}
+
+	@Override
+	public Future<Map<String, Boolean>> asyncMultiSet(Map<String, Object> values, long ttlMillis) {
+		return MultiKeyBackendOperations.asyncMultiSet(backendClient, values, ttlMillis);
+	}
+
+	protected void scheduleFlush(final ArrayList<PendingGet> batch) {
+		try {
+			flusher.schedule(new Runnable() {
+				@Override
+				public void run() {
+					flush(batch);
+				}
+			}, windowMicros, TimeUnit.MICROSECONDS);
+		} catch (RejectedExecutionException e) {
+			flush(batch);
+		}
+	}
+
+	/** Sends the batch unless it was already sent because it was full */
+	protected void flush(final ArrayList<PendingGet> batch) {
+		synchronized (this) {
+			if (currentBatch != batch) {
+				return;
+			}
+			currentBatch = null;
+		}
+		dispatch(batch);
+	}
+
+	protected void dispatch(final ArrayList<PendingGet> batch) {
+		trackBatch(batch);
+
+		LinkedHashSet<String> keys = new LinkedHashSet<String>();
+		for (PendingGet pendingGet : batch) {
+			keys.add(pendingGet.key);
+		}
+
+		try {
+			ListenableFutures.listen(MultiKeyBackendOperations.asyncMultiGet(backendClient, keys))
+					.addListener(new FutureListener<Map<String, Object>>() {
+						@Override
+						public void onComplete(ListenableFuture<Map<String, Object>> future) {
+							complete(batch, future);
+						}
+					});
+		} catch (Exception e) {
+			for (PendingGet pendingGet : batch) {
+				pendingGet.future.setException(e);
+			}
+		}
+	}
+
+	protected void complete(final ArrayList<PendingGet> batch, final Future<Map<String, Object>> future) {
+		try {
+			Map<String, Object> values = future.get();
+			for (PendingGet pendingGet : batch) {
+				pendingGet.future.set(values.get(pendingGet.key));
+			}
+		} catch (ExecutionException e) {
+			for (PendingGet pendingGet : batch) {
+				pendingGet.future.setException(e.getCause());
+			}
+		} catch (Exception e) {
+			for (PendingGet pendingGet : batch) {
+				pendingGet.future.setException(e);
+			}
+		}
+	}
+
+	protected void trackBatch(final ArrayList<PendingGet> batch) {
+		final long now = System.nanoTime();
+		batches.incrementAndGet();
+		batchedGets.addAndGet(batch.size());
+		updateMax(largestBatchSize, batch.size());
+		for (PendingGet pendingGet : batch) {
+			long delay = now - pendingGet.enqueueNanos;
+			totalQueueDelayNanos.addAndGet(delay);
+			updateMax(maxQueueDelayNanos, delay);
+		}
+	}
+
+	protected static void updateMax(final AtomicLong max, final long value) {
+		long current = max.get();
+		while ((value > current) && (!max.compareAndSet(current, value))) {
+			current = max.get();
+		}
+	}
+
+	/** @return the number of batches sent to the backend */
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+	/** @return the number of gets sent in batches */
+	public long getBatchedGetCount() {
+		return batchedGets.get();
+	}
+
+	public long getLargestBatchSize() {
+		return largestBatchSize.get();
+	}
+
+	public double getAverageBatchSize() {
+		long count = batches.get();
+		if (count == 0) {
+			return 0;
+		}
+		return (double) batchedGets.get() / count;
+	}
+
+	/** @return the average time the gets waited in the queue */
+	public double getAverageQueueDelayMicros() {
+		long count = batchedGets.get();
+		if (count == 0) {
+			return 0;
+		}
+		return totalQueueDelayNanos.get() / 1000d / count;
+	}
+
+	public double getMaxQueueDelayMicros() {
+		return maxQueueDelayNanos.get() / 1000d;
+	}
+
+	protected static class PendingGet {
+		final String key;
+		final long enqueueNanos;
+		final SettableFuture<Object> future = new SettableFuture<Object>();
+
+		PendingGet(String key) {
+			this.key = key;
+			this.enqueueNanos = System.nanoTime();
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+package ar.com.siripo.arcache.backend;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.ListenableFutures;
+import ar.com.siripo.arcache.util.MultiKeyEntryFuture;
+import ar.com.siripo.arcache.util.MultiKeyFuture;
+import ar.com.siripo.arcache.util.SettableFuture;
+
+/**
+ * Coalesces the concurrent gets of the same key. While a get of a key is in
+ * flight, the other gets of that key receive its result instead of sending
+ * another request to the backend. The in flight get is forgotten when it
+ * completes, so the next get reads the backend again.
+ *
+ * Every caller receives its own future, cancelling it does not cancel the
+ * shared request. The sets are sent directly to the backend, and they drop the
+ * get of their keys in flight, so a get issued after a set does not receive a
+ * value read before it. A listenableSet drops it again when it completes. A get
+ * issued while an asyncSet is in flight may still share a read of the previous
+ * value, like any get concurrent with a set.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class CoalescingBackendClient implements ArcacheAsyncBackendClient, ArcacheMultiKeyBackendClient {
+
+	protected final ArcacheBackendClient backendClient;
+	protected final ArcacheAsyncBackendClient asyncBackendClient;
+	protected final ConcurrentHashMap<String, SettableFuture<Object>> inFlightGets;
+
+	public CoalescingBackendClient(ArcacheBackendClient backendClient) {
+		if (backendClient == null) {
+			throw new IllegalArgumentException("Backend Client was not configured");
+		}
+		this.backendClient = backendClient;
+		this.asyncBackendClient = ArcacheAsyncBackendClientAdapter.lift(backendClient);
+		this.inFlightGets = new ConcurrentHashMap<String, SettableFuture<Object>>();
+	}
+
+	public ArcacheBackendClient getBackendClient() {
+		return backendClient;
+	}
+
+	@Override
+	public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+		inFlightGets.remove(key);
+		return backendClient.asyncSet(key, ttlMillis, value);
+	}
+
+	@Override
+	public Future<Object> asyncGet(String key) {
+		return listenableGet(key);
+	}
+
+	@Override
+	public ListenableFuture<Boolean> listenableSet(final String key, long ttlMillis, Object value) {
+		inFlightGets.remove(key);
+		ListenableFuture<Boolean> setFuture = asyncBackendClient.listenableSet(key, ttlMillis, value);
+		setFuture.addListener(new FutureListener<Boolean>() {
+			@Override
+			public void onComplete(ListenableFuture<Boolean> future) {
+				inFlightGets.remove(key);
+			}
+		});
+		return setFuture;
+	}
+
+	@Override
+	public ListenableFuture<Object> listenableGet(String key) {
+		final SettableFuture<Object> fetch = new SettableFuture<Object>();
+		final SettableFuture<Object> inFlightGet = inFlightGets.putIfAbsent(key, fetch);
+		if (inFlightGet != null) {
+			return createCallerFuture(inFlightGet);
+		}
+
+		try {
+			startFetch(key, fetch, asyncBackendClient.listenableGet(key));
+		} catch (Exception e) {
+			inFlightGets.remove(key, fetch);
+			fetch.setException(e);
+		}
+		return createCallerFuture(fetch);
+	}
+
+	/**
+	 * The keys already in flight are shared, the others are requested in a single
+	 * multi get
+	 */
+	@Override
+	public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+		LinkedHashMap<String, Future<Object>> futures = new LinkedHashMap<String, Future<Object>>();
+		LinkedHashMap<String, SettableFuture<Object>> fetches = new LinkedHashMap<String, SettableFuture<Object>>();
+		for (String key : keys) {
+			if (futures.containsKey(key)) {
+				continue;
+			}
+			SettableFuture<Object> fetch = new SettableFuture<Object>();
+			SettableFuture<Object> inFlightGet = inFlightGets.putIfAbsent(key, fetch);
+			if (inFlightGet == null) {
+				fetches.put(key, fetch);
+				inFlightGet = fetch;
+			}
+			futures.put(key, createCallerFuture(inFlightGet));
+		}
+
+		if (!fetches.isEmpty()) {
+			try {
+				Future<Map<String, Object>> multiFuture = MultiKeyBackendOperations.asyncMultiGet(backendClient,
+						new ArrayList<String>(fetches.keySet()));
+				for (Map.Entry<String, SettableFuture<Object>> entry : fetches.entrySet()) {
+					startFetch(entry.getKey(), entry.getValue(),
+							new MultiKeyEntryFuture<Object>(multiFuture, entry.getKey()));
+				}
+			} catch (Exception e) {
+				for (Map.Entry<String, SettableFuture<Object>> entry : fetches.entrySet()) {
+					inFlightGets.remove(entry.getKey(), entry.getValue());
+					entry.getValue().setException(e);
+				}
+			}
+		}
+
+		return new MultiKeyFuture<Object>(futures, true);
+	}
+
+	@Override
+	public Future<Map<String, Boolean>> asyncMultiSet(Map<String, Object> values, long ttlMillis) {
+		for (String key : values.keySet()) {
+			inFlightGets.remove(key);
+		}
+		return MultiKeyBackendOperations.asyncMultiSet(backendClient, values, ttlMillis);
+	}
+
+	/**
+	 * The fetch is removed from the in flight table before it is completed, so the
+	 * gets issued after the completion read the backend again
+	 */
+	protected void startFetch(final String key, final SettableFuture<Object> fetch,
+			final ListenableFuture<Object> backendFuture) {
+		backendFuture.addListener(new FutureListener<Object>() {
+			@Override
+			public void onComplete(ListenableFuture<Object> future) {
+				inFlightGets.remove(key, fetch);
+				ListenableFutures.transfer(future, fetch);
+			}
+		});
+	}
+
+	protected ListenableFuture<Object> createCallerFuture(final SettableFuture<Object> fetch) {
+		final SettableFuture<Object> callerFuture = new SettableFuture<Object>();
+		fetch.addListener(new FutureListener<Object>() {
+			@Override
+			public void onComplete(ListenableFuture<Object> future) {
+				ListenableFutures.transfer(future, callerFuture);
+			}
+		});
+		return callerFuture;
+	}
+
+}
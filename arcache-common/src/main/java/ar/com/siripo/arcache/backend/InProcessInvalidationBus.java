@@ -0,0 +1,57 @@
+package ar.com.siripo.arcache.backend;
+
+import java.util.Collection;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers the messages to the listeners of this process in the publishing
+ * thread. It is useful when many clients share the process, and in tests.
+ * 
+ * A failing listener does not stop the delivery to the others.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public class InProcessInvalidationBus implements ArcacheInvalidationBus {
+
+	protected final CopyOnWriteArrayList<ArcacheInvalidationBusListener> listeners =
+			new CopyOnWriteArrayList<ArcacheInvalidationBusListener>();
+
+	@Override
+	public void publish(final String backendKey) {
+		for (ArcacheInvalidationBusListener listener : listeners) {
+			try {
+				listener.onInvalidation(backendKey);
+			} catch (RuntimeException e) {
+				// The listener is responsible of its own failures
+			}
+		}
+	}
+
+	@Override
+	public void publish(final Collection<String> backendKeys) {
+		for (String backendKey : backendKeys) {
+			publish(backendKey);
+		}
+	}
+
+	@Override
+	public void subscribe(final ArcacheInvalidationBusListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException();
+		}
+		listeners.addIfAbsent(listener);
+	}
+
+	@Override
+	public void unsubscribe(final ArcacheInvalidationBusListener listener) {
+		listeners.remove(listener);
+	}
+
+	/** @return the number of subscribed listeners */
+	public int getListenersCount() {
+		return listeners.size();
+	}
+
+}
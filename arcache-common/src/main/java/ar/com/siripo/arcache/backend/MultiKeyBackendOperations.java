@@ -0,0 +1,67 @@
+package ar.com.siripo.arcache.backend;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import ar.com.siripo.arcache.util.MultiKeyFuture;
+
+/**
+ * Multi key operations over any backend. When the backend implements
+ * ArcacheMultiKeyBackendClient its native operations are used, otherwise the
+ * operation fans out to one single key operation per key.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public class MultiKeyBackendOperations {
+
+	protected MultiKeyBackendOperations() {
+	}
+
+	public static Future<Map<String, Object>> asyncMultiGet(final ArcacheBackendClient backendClient,
+			final Collection<String> keys) {
+		if (backendClient instanceof ArcacheMultiKeyBackendClient) {
+			return ((ArcacheMultiKeyBackendClient) backendClient).asyncMultiGet(keys);
+		}
+		return fanOutMultiGet(backendClient, keys);
+	}
+
+	public static Future<Map<String, Boolean>> asyncMultiSet(final ArcacheBackendClient backendClient,
+			final Map<String, Object> values, final long ttlMillis) {
+		if (backendClient instanceof ArcacheMultiKeyBackendClient) {
+			return ((ArcacheMultiKeyBackendClient) backendClient).asyncMultiSet(values, ttlMillis);
+		}
+		return fanOutMultiSet(backendClient, values, ttlMillis);
+	}
+
+	/** One asyncGet per key, the missing keys are not included in the result */
+	public static Future<Map<String, Object>> fanOutMultiGet(final ArcacheBackendClient backendClient,
+			final Collection<String> keys) {
+		LinkedHashMap<String, Future<Object>> futures = new LinkedHashMap<String, Future<Object>>();
+		for (String key : keys) {
+			if (!futures.containsKey(key)) {
+				futures.put(key, backendClient.asyncGet(key));
+			}
+		}
+		return new MultiKeyFuture<Object>(futures, true);
+	}
+
+	/** One asyncSet per key, a failed set is reported as false */
+	public static Future<Map<String, Boolean>> fanOutMultiSet(final ArcacheBackendClient backendClient,
+			final Map<String, Object> values, final long ttlMillis) {
+		LinkedHashMap<String, Future<Boolean>> futures = new LinkedHashMap<String, Future<Boolean>>();
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			futures.put(entry.getKey(), backendClient.asyncSet(entry.getKey(), ttlMillis, entry.getValue()));
+		}
+		return new MultiKeyFuture<Boolean>(futures, false) {
+			@Override
+			protected Boolean onKeyFailure(String key, ExecutionException cause) {
+				return Boolean.FALSE;
+			}
+		};
+	}
+
+}
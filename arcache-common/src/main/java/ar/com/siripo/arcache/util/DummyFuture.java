@@ -1,11 +1,10 @@
 package ar.com.siripo.arcache.util;
 
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
-public class DummyFuture<T> implements Future<T> {
+public class DummyFuture<T> implements ListenableFuture<T> {
 
 	private final T theresult;
 	private Exception exceptionToThrow = null;
@@ -35,6 +34,12 @@ public class DummyFuture<T> implements Future<T> {
 		return true;
 	}
 
+	/** It is always done, so the listener is called immediately */
+	@Override
+	public void addListener(FutureListener<T> listener) {
+		listener.onComplete(this);
+	}
+
 	@Override
 	public T get() throws InterruptedException, ExecutionException {
 		if (exceptionToThrow != null) {
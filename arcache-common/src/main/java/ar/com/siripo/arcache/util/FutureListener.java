@@ -0,0 +1,14 @@
+package ar.com.siripo.arcache.util;
+
+/**
+ * Callback of a ListenableFuture. It is called once, when the future is done,
+ * so the result can be read from the future without blocking.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public interface FutureListener<V> {
+
+	public void onComplete(ListenableFuture<V> future);
+
+}
@@ -0,0 +1,24 @@
+package ar.com.siripo.arcache.util;
+
+import java.util.concurrent.Future;
+
+/**
+ * A Future that notifies its completion, so the result can be processed
+ * without parking a thread waiting for it.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public interface ListenableFuture<V> extends Future<V> {
+
+	/**
+	 * Registers a listener to be called when the future is done. If it is already
+	 * done the listener is called immediately in the caller thread, otherwise it is
+	 * called in the thread that completes the future, so it must be fast and must
+	 * not block.
+	 * 
+	 * @param listener
+	 */
+	public void addListener(FutureListener<V> listener);
+
+}
@@ -0,0 +1,214 @@
+package ar.com.siripo.arcache.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Utilities to work with ListenableFuture.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public class ListenableFutures {
+
+	protected static final ThreadFactory daemonThreadFactory = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "arcache-listenable");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	/** The helper threads that wait the futures, the others are polled */
+	public static final int MAX_BRIDGE_THREADS = 64;
+
+	/** The interval between the checks of a polled future */
+	public static final long BRIDGE_POLL_MILLIS = 5;
+
+	/**
+	 * Waits the futures that can not notify its completion. The threads are
+	 * created on demand up to MAX_BRIDGE_THREADS and they finish when idle
+	 */
+	protected static final ExecutorService bridgeExecutor = new ThreadPoolExecutor(0, MAX_BRIDGE_THREADS, 60,
+			TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), daemonThreadFactory);
+
+	/** Runs the timeouts, it has a single thread */
+	protected static final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1,
+			daemonThreadFactory);
+
+	protected ListenableFutures() {
+	}
+
+	/**
+	 * Converts any Future in a ListenableFuture. If the future is already
+	 * listenable it is returned, otherwise it is wrapped. When a listener is added
+	 * to a wrapped future that is not done, a helper thread waits for it, or the
+	 * scheduler polls it when all the helper threads are busy. The backends that
+	 * can notify its completions should return ListenableFuture to avoid the
+	 * helper thread.
+	 * 
+	 * @param future
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> ListenableFuture<V> listen(final Future<V> future) {
+		if (future instanceof ListenableFuture) {
+			return (ListenableFuture<V>) future;
+		}
+		return new ListenableFutureBridge<V>(future);
+	}
+
+	/**
+	 * Completes the SettableFuture with the outcome of the other future, it blocks
+	 * if that future is not done
+	 * 
+	 * @param from
+	 * @param to
+	 */
+	public static <V> void transfer(final Future<V> from, final SettableFuture<V> to) {
+		try {
+			to.set(from.get());
+		} catch (ExecutionException ee) {
+			to.setException(ee.getCause());
+		} catch (CancellationException ce) {
+			to.cancel(false);
+		} catch (Exception e) {
+			to.setException(e);
+		}
+	}
+
+	/**
+	 * Runs the task after the delay in a shared daemon thread. The task must be
+	 * fast, it is meant for timeouts
+	 * 
+	 * @param task
+	 * @param delayMillis
+	 * @return a Future to cancel the execution
+	 */
+	public static Future<?> schedule(final Runnable task, final long delayMillis) {
+		return scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Completes the SettableFuture when the other future is done. A helper thread
+	 * waits for it, when all are busy it is polled by the scheduler
+	 */
+	protected static void bridge(final Future<?> future, final SettableFuture<?> completion) {
+		try {
+			bridgeExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						future.get();
+					} catch (Exception e) {
+						// The listeners read the outcome from the future
+					}
+					completion.set(null);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			poll(future, completion);
+		}
+	}
+
+	/**
+	 * Checks the future every BRIDGE_POLL_MILLIS. The listeners run in the
+	 * scheduler thread
+	 */
+	protected static void poll(final Future<?> future, final SettableFuture<?> completion) {
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (future.isDone()) {
+					completion.set(null);
+				} else {
+					poll(future, completion);
+				}
+			}
+		}, BRIDGE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param future
+	 * @return true when the future is ProvenanceAware and reports that its value
+	 *         was served locally
+	 */
+	public static boolean isServedLocally(final Future<?> future) {
+		return (future instanceof ProvenanceAware) && ((ProvenanceAware) future).isServedLocally();
+	}
+
+	/**
+	 * Delegates everything to the wrapped future, only the listeners of a pending
+	 * future need a helper thread
+	 */
+	protected static class ListenableFutureBridge<V> implements ListenableFuture<V> {
+
+		protected final Future<V> future;
+		protected SettableFuture<V> completion;
+
+		protected ListenableFutureBridge(Future<V> future) {
+			this.future = future;
+		}
+
+		@Override
+		public void addListener(final FutureListener<V> listener) {
+			final SettableFuture<V> c;
+			synchronized (this) {
+				if ((completion == null) && (!future.isDone())) {
+					completion = new SettableFuture<V>();
+					bridge(future, completion);
+				}
+				c = completion;
+			}
+
+			if (c == null) {
+				listener.onComplete(this);
+				return;
+			}
+			c.addListener(new FutureListener<V>() {
+				@Override
+				public void onComplete(ListenableFuture<V> f) {
+					listener.onComplete(ListenableFutureBridge.this);
+				}
+			});
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return future.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return future.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return future.isDone();
+		}
+
+		@Override
+		public V get() throws InterruptedException, ExecutionException {
+			return future.get();
+		}
+
+		@Override
+		public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return future.get(timeout, unit);
+		}
+
+	}
+
+}
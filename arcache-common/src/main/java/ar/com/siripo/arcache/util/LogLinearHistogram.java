@@ -0,0 +1,161 @@
+package ar.com.siripo.arcache.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non negative long values, like latencies in nanoseconds, with
+ * a fixed number of buckets. Every power of two is split in 2^subBucketBits
+ * linear buckets, so the relative error of a reported value is below
+ * 1/2^subBucketBits in the whole long range, and the values below
+ * 2^subBucketBits are exact.
+ *
+ * Recording a value is a few bit operations and one atomic increment, it does
+ * not allocate nor lock.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class LogLinearHistogram {
+
+	public static final int DEFAULT_SUB_BUCKET_BITS = 3;
+
+	protected final int subBucketBits;
+	protected final int subBucketCount;
+	protected final AtomicLongArray buckets;
+	protected final StripedCounter sum = new StripedCounter();
+	protected final AtomicLong max = new AtomicLong();
+
+	/** 8 buckets per power of two, the relative error is below 12.5% */
+	public LogLinearHistogram() {
+		this(DEFAULT_SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * @param subBucketBits the log2 of the linear buckets per power of two, between
+	 *                      0 and 10
+	 */
+	public LogLinearHistogram(final int subBucketBits) {
+		if ((subBucketBits < 0) || (subBucketBits > 10)) {
+			throw new IllegalArgumentException("Invalid sub bucket bits, must be between 0 and 10");
+		}
+		this.subBucketBits = subBucketBits;
+		this.subBucketCount = 1 << subBucketBits;
+		this.buckets = new AtomicLongArray((64 - subBucketBits) * subBucketCount);
+	}
+
+	/** Records a value, the negative values are recorded as 0 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(bucketIndex(value));
+		sum.add(value);
+		long currentMax = max.get();
+		while ((value > currentMax) && !max.compareAndSet(currentMax, value)) {
+			currentMax = max.get();
+		}
+	}
+
+	protected int bucketIndex(final long value) {
+		if (value < subBucketCount) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = exponent - subBucketBits;
+		final int subBucket = (int) (value >>> shift) & (subBucketCount - 1);
+		return ((shift + 1) << subBucketBits) + subBucket;
+	}
+
+	/** @return the lowest value recorded in the bucket */
+	protected long bucketLowerBound(final int index) {
+		if (index < subBucketCount) {
+			return index;
+		}
+		final int shift = (index >>> subBucketBits) - 1;
+		final long subBucket = index & (subBucketCount - 1);
+		return (subBucketCount + subBucket) << shift;
+	}
+
+	/** @return the highest value recorded in the bucket */
+	protected long bucketUpperBound(final int index) {
+		if (index + 1 >= buckets.length()) {
+			return Long.MAX_VALUE;
+		}
+		return bucketLowerBound(index + 1) - 1;
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			count += buckets.get(i);
+		}
+		return count;
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+		return (double) getSum() / count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the highest value of the bucket where the percentile falls, it is
+	 *         never above the max recorded value. 0 when it is empty
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		if ((percentile < 0) || (percentile > 100)) {
+			throw new IllegalArgumentException("Invalid percentile, must be between 0 and 100");
+		}
+		final long[] counts = new long[buckets.length()];
+		long count = 0;
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+			count += counts[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long accumulated = 0;
+		int i = 0;
+		for (; i < counts.length - 1; i++) {
+			accumulated += counts[i];
+			if (accumulated >= rank) {
+				break;
+			}
+		}
+		return Math.min(bucketUpperBound(i), getMax());
+	}
+
+	/** Clears the recorded values, it is not atomic with the concurrent records */
+	public void reset() {
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		sum.reset();
+		max.set(0);
+	}
+
+	public int getSubBucketBits() {
+		return subBucketBits;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + " mean=" + getMean() + " p50=" + getValueAtPercentile(50) + " p99="
+				+ getValueAtPercentile(99) + " max=" + getMax();
+	}
+
+}
@@ -0,0 +1,100 @@
+package ar.com.siripo.arcache.util;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A view of a single key of a multi key Future. Many views can share the same
+ * multi key Future, so cancelling a view only cancels that view, the shared
+ * Future keeps running for the others
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public class MultiKeyEntryFuture<V> implements ListenableFuture<V>, ProvenanceAware {
+
+	protected final Future<Map<String, V>> multiKeyFuture;
+	protected final String key;
+	/** Completed only when the view is cancelled */
+	protected final SettableFuture<Object> cancellation = new SettableFuture<Object>();
+
+	public MultiKeyEntryFuture(Future<Map<String, V>> multiKeyFuture, String key) {
+		this.multiKeyFuture = multiKeyFuture;
+		this.key = key;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (multiKeyFuture.isDone()) {
+			return false;
+		}
+		return cancellation.cancel(mayInterruptIfRunning);
+	}
+
+	/** It is cancelled too when the shared Future is */
+	@Override
+	public boolean isCancelled() {
+		return cancellation.isCancelled() || multiKeyFuture.isCancelled();
+	}
+
+	@Override
+	public boolean isDone() {
+		return cancellation.isDone() || multiKeyFuture.isDone();
+	}
+
+	@Override
+	public boolean isServedLocally() {
+		return ListenableFutures.isServedLocally(multiKeyFuture);
+	}
+
+	@Override
+	public void addListener(final FutureListener<V> listener) {
+		// Notified once, by the cancellation or by the shared Future
+		final AtomicBoolean notified = new AtomicBoolean(false);
+		cancellation.addListener(new FutureListener<Object>() {
+			@Override
+			public void onComplete(ListenableFuture<Object> future) {
+				if (notified.compareAndSet(false, true)) {
+					listener.onComplete(MultiKeyEntryFuture.this);
+				}
+			}
+		});
+		ListenableFutures.listen(multiKeyFuture).addListener(new FutureListener<Map<String, V>>() {
+			@Override
+			public void onComplete(ListenableFuture<Map<String, V>> future) {
+				if (notified.compareAndSet(false, true)) {
+					listener.onComplete(MultiKeyEntryFuture.this);
+				}
+			}
+		});
+	}
+
+	@Override
+	public V get() throws InterruptedException, ExecutionException {
+		if (cancellation.isCancelled()) {
+			throw new CancellationException();
+		}
+		return extract(multiKeyFuture.get());
+	}
+
+	@Override
+	public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (cancellation.isCancelled()) {
+			throw new CancellationException();
+		}
+		return extract(multiKeyFuture.get(timeout, unit));
+	}
+
+	protected V extract(Map<String, V> values) {
+		if (values == null) {
+			return null;
+		}
+		return values.get(key);
+	}
+
+}
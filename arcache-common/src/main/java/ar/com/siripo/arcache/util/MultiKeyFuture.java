@@ -0,0 +1,164 @@
+package ar.com.siripo.arcache.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Joins one Future per key in a single Future of a map. The listeners are
+ * notified when all the futures are done.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public class MultiKeyFuture<V> implements ListenableFuture<Map<String, V>>, ProvenanceAware {
+
+	protected final Map<String, Future<V>> futures;
+	protected final boolean skipNullValues;
+	protected volatile boolean cancelled = false;
+	protected volatile Map<String, V> result;
+
+	/**
+	 * @param futures        the future of every key
+	 * @param skipNullValues when true the keys with null value are not included in
+	 *                       the result
+	 */
+	public MultiKeyFuture(Map<String, Future<V>> futures, boolean skipNullValues) {
+		this.futures = futures;
+		this.skipNullValues = skipNullValues;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (cancelled) {
+			return false;
+		}
+		for (Future<V> future : futures.values()) {
+			if (future != null) {
+				future.cancel(mayInterruptIfRunning);
+			}
+		}
+		cancelled = true;
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/** It is served locally when the futures of all the keys are */
+	@Override
+	public boolean isServedLocally() {
+		for (Future<V> future : futures.values()) {
+			if ((future != null) && !ListenableFutures.isServedLocally(future)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isDone() {
+		if (cancelled) {
+			return true;
+		}
+		for (Future<V> future : futures.values()) {
+			if ((future != null) && (!future.isDone())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void addListener(final FutureListener<Map<String, V>> listener) {
+		// One extra count so it is not notified before all the keys are registered
+		final AtomicInteger pending = new AtomicInteger(futures.size() + 1);
+		final FutureListener<V> keyListener = new FutureListener<V>() {
+			@Override
+			public void onComplete(ListenableFuture<V> future) {
+				if (pending.decrementAndGet() == 0) {
+					listener.onComplete(MultiKeyFuture.this);
+				}
+			}
+		};
+		for (Future<V> future : futures.values()) {
+			if (future != null) {
+				ListenableFutures.listen(future).addListener(keyListener);
+			} else {
+				keyListener.onComplete(null);
+			}
+		}
+		keyListener.onComplete(null);
+	}
+
+	@Override
+	public Map<String, V> get() throws InterruptedException, ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (result != null) {
+			return result;
+		}
+		LinkedHashMap<String, V> values = new LinkedHashMap<String, V>();
+		for (Map.Entry<String, Future<V>> entry : futures.entrySet()) {
+			V value;
+			try {
+				value = entry.getValue().get();
+			} catch (ExecutionException ee) {
+				value = onKeyFailure(entry.getKey(), ee);
+			}
+			addValue(values, entry.getKey(), value);
+		}
+		result = values;
+		return values;
+	}
+
+	@Override
+	public Map<String, V> get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (result != null) {
+			return result;
+		}
+		final long timeoutMillis = unit.toMillis(timeout);
+		final long startTimeMillis = System.currentTimeMillis();
+
+		LinkedHashMap<String, V> values = new LinkedHashMap<String, V>();
+		for (Map.Entry<String, Future<V>> entry : futures.entrySet()) {
+			long remainingTimeMillis = Math.max(0, timeoutMillis - (System.currentTimeMillis() - startTimeMillis));
+			V value;
+			try {
+				value = entry.getValue().get(remainingTimeMillis, TimeUnit.MILLISECONDS);
+			} catch (ExecutionException ee) {
+				value = onKeyFailure(entry.getKey(), ee);
+			}
+			addValue(values, entry.getKey(), value);
+		}
+		result = values;
+		return values;
+	}
+
+	protected void addValue(Map<String, V> result, String key, V value) {
+		if ((value != null) || (!skipNullValues)) {
+			result.put(key, value);
+		}
+	}
+
+	/**
+	 * Called when the future of a key fails. By default the whole operation fails,
+	 * it can be overridden to return a value for the key
+	 */
+	protected V onKeyFailure(String key, ExecutionException cause) throws ExecutionException {
+		throw cause;
+	}
+
+}
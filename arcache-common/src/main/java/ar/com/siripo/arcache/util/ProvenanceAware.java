@@ -0,0 +1,19 @@
+package ar.com.siripo.arcache.util;
+
+/**
+ * Implemented by the futures that know where their value comes from. A layer
+ * that serves values locally, like the speedup caches, returns futures that
+ * report it, any other future is assumed to be served by the remote backend.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public interface ProvenanceAware {
+
+	/**
+	 * @return true when the value was served locally, without accessing the remote
+	 *         backend
+	 */
+	public boolean isServedLocally();
+
+}
@@ -0,0 +1,16 @@
+package ar.com.siripo.arcache.util;
+
+/**
+ * The source of the random numbers used to evaluate the expiration and
+ * invalidation probabilities. It is called on every get, so the implementations
+ * must be thread safe and must not block.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public interface RandomSource {
+
+	/** @return a uniformly distributed value between 0 (inclusive) and 1 (exclusive) */
+	public double nextDouble();
+
+}
@@ -0,0 +1,33 @@
+package ar.com.siripo.arcache.util;
+
+import java.util.Random;
+
+/**
+ * Deterministic RandomSource for reproducible simulations and tests. All the
+ * threads share one sequence created from the seed, so the same seed and the
+ * same order of calls produce the same values. It is not meant for production,
+ * the shared sequence is a contention point.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class SeededRandomSource implements RandomSource {
+
+	protected final long seed;
+	protected final Random random;
+
+	public SeededRandomSource(long seed) {
+		this.seed = seed;
+		this.random = new Random(seed);
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	@Override
+	public double nextDouble() {
+		return random.nextDouble();
+	}
+
+}
@@ -0,0 +1,129 @@
+package ar.com.siripo.arcache.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A ListenableFuture completed by whoever produces the value. Only the first
+ * completion takes effect.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public class SettableFuture<V> implements ListenableFuture<V> {
+
+	private static final int PENDING = 0;
+	private static final int SUCCEEDED = 1;
+	private static final int FAILED = 2;
+	private static final int CANCELLED = 3;
+
+	private int state = PENDING;
+	private V value;
+	private Throwable exception;
+	private ArrayList<FutureListener<V>> listeners = new ArrayList<FutureListener<V>>(2);
+
+	/**
+	 * @param value
+	 * @return true if this call completed the future
+	 */
+	public boolean set(V value) {
+		return complete(SUCCEEDED, value, null);
+	}
+
+	/**
+	 * @param exception the cause of the ExecutionException thrown by get
+	 * @return true if this call completed the future
+	 */
+	public boolean setException(Throwable exception) {
+		return complete(FAILED, null, exception);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return complete(CANCELLED, null, null);
+	}
+
+	private boolean complete(int newState, V value, Throwable exception) {
+		ArrayList<FutureListener<V>> toNotify;
+		synchronized (this) {
+			if (state != PENDING) {
+				return false;
+			}
+			this.state = newState;
+			this.value = value;
+			this.exception = exception;
+			toNotify = listeners;
+			listeners = null;
+			notifyAll();
+		}
+		for (FutureListener<V> listener : toNotify) {
+			notifyListener(listener);
+		}
+		return true;
+	}
+
+	@Override
+	public void addListener(FutureListener<V> listener) {
+		synchronized (this) {
+			if (state == PENDING) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		notifyListener(listener);
+	}
+
+	protected void notifyListener(FutureListener<V> listener) {
+		try {
+			listener.onComplete(this);
+		} catch (RuntimeException e) {
+			// A failing listener must not prevent the notification of the others
+		}
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return state == CANCELLED;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return state != PENDING;
+	}
+
+	@Override
+	public synchronized V get() throws InterruptedException, ExecutionException {
+		while (state == PENDING) {
+			wait();
+		}
+		return report();
+	}
+
+	@Override
+	public synchronized V get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		final long deadlineMillis = System.currentTimeMillis() + unit.toMillis(timeout);
+		while (state == PENDING) {
+			long remainingMillis = deadlineMillis - System.currentTimeMillis();
+			if (remainingMillis <= 0) {
+				throw new TimeoutException();
+			}
+			wait(remainingMillis);
+		}
+		return report();
+	}
+
+	private V report() throws ExecutionException {
+		if (state == CANCELLED) {
+			throw new CancellationException();
+		}
+		if (state == FAILED) {
+			throw new ExecutionException(exception);
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,86 @@
+package ar.com.siripo.arcache.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for many threads that add concurrently. Every thread adds to one of
+ * several cells, chosen by the thread id, so the threads rarely contend on the
+ * same cache line. The sum is computed when it is read, it is not an atomic
+ * snapshot while the threads keep adding.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class StripedCounter {
+
+	/** The cells are spread one per cache line of 64 bytes */
+	protected static final int PADDING = 8;
+
+	protected static final int MAX_STRIPES = 64;
+
+	protected final AtomicLongArray cells;
+	protected final int mask;
+
+	/** One stripe per processor, up to 64 */
+	public StripedCounter() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param stripes the number of cells, it is rounded up to a power of two
+	 */
+	public StripedCounter(final int stripes) {
+		if (stripes <= 0) {
+			throw new IllegalArgumentException("Invalid stripes");
+		}
+		int n = 1;
+		while ((n < stripes) && (n < MAX_STRIPES)) {
+			n = n * 2;
+		}
+		this.mask = n - 1;
+		this.cells = new AtomicLongArray(n * PADDING);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public void add(final long x) {
+		cells.getAndAdd(cellIndex(), x);
+	}
+
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i <= mask; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	public void reset() {
+		for (int i = 0; i <= mask; i++) {
+			cells.set(i * PADDING, 0);
+		}
+	}
+
+	/** @return the number of cells */
+	public int getStripes() {
+		return mask + 1;
+	}
+
+	protected int cellIndex() {
+		return (stripe(Thread.currentThread().getId()) & mask) * PADDING;
+	}
+
+	/** Mixes the thread id, the consecutive ids fall in different cells */
+	protected static int stripe(final long threadId) {
+		long h = threadId * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(sum());
+	}
+
+}
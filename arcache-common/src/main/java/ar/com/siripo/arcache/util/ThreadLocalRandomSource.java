@@ -0,0 +1,56 @@
+package ar.com.siripo.arcache.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free RandomSource, every thread has its own generator so the threads do
+ * not compete for a shared seed like they do with java.util.Random. The
+ * generators are xorshift64* with a seed taken from a global sequence mixed with
+ * System.nanoTime.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class ThreadLocalRandomSource implements RandomSource {
+
+	protected static final AtomicLong seedSequence = new AtomicLong(0x9E3779B97F4A7C15L);
+
+	protected final ThreadLocal<Generator> generators = new ThreadLocal<Generator>() {
+		@Override
+		protected Generator initialValue() {
+			return new Generator(createSeed());
+		}
+	};
+
+	@Override
+	public double nextDouble() {
+		return generators.get().nextDouble();
+	}
+
+	protected long createSeed() {
+		return seedSequence.addAndGet(0x9E3779B97F4A7C15L) ^ System.nanoTime();
+	}
+
+	/** xorshift64* generator, it is not thread safe */
+	protected static class Generator {
+		protected long state;
+
+		protected Generator(long seed) {
+			// The state must not be zero
+			state = (seed == 0) ? 0x9E3779B97F4A7C15L : seed;
+		}
+
+		protected long nextLong() {
+			state ^= state >>> 12;
+			state ^= state << 25;
+			state ^= state >>> 27;
+			return state * 0x2545F4914F6CDD1DL;
+		}
+
+		protected double nextDouble() {
+			// The 53 most significant bits
+			return (nextLong() >>> 11) * 0x1.0p-53;
+		}
+	}
+
+}
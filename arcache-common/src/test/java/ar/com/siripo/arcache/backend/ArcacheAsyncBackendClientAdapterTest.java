@@ -0,0 +1,134 @@
+package ar.com.siripo.arcache.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ar.com.siripo.arcache.backend.MultiKeyBackendOperationsTest.MapBackendClient;
+import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+
+public class ArcacheAsyncBackendClientAdapterTest {
+
+	MapBackendClient backendClient;
+	ArcacheAsyncBackendClientAdapter adapter;
+
+	@Before
+	public void setUp() throws Exception {
+		backendClient = new MapBackendClient();
+		adapter = new ArcacheAsyncBackendClientAdapter(backendClient);
+	}
+
+	@Test
+	public void testConstructor() {
+		assertSame(backendClient, adapter.getBackendClient());
+		try {
+			new ArcacheAsyncBackendClientAdapter(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testLift() {
+		ArcacheAsyncBackendClient lifted = ArcacheAsyncBackendClientAdapter.lift(backendClient);
+		assertTrue(lifted instanceof ArcacheAsyncBackendClientAdapter);
+		assertSame(backendClient, ((ArcacheAsyncBackendClientAdapter) lifted).getBackendClient());
+
+		// An async backend is not wrapped
+		assertSame(adapter, ArcacheAsyncBackendClientAdapter.lift(adapter));
+	}
+
+	@Test
+	public void testSetAndGet() throws Exception {
+		assertTrue(adapter.asyncSet("a", 1000, "A").get());
+		assertTrue(adapter.listenableSet("b", 1000, "B").get());
+		assertEquals("A", adapter.asyncGet("a").get());
+		assertEquals("B", adapter.listenableGet("b").get());
+		assertEquals(2, backendClient.gets);
+	}
+
+	@Test
+	public void testListenerOnPlainFuture() throws Exception {
+		final FutureTask<Object> plainFuture = new FutureTask<Object>(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return "V";
+			}
+		});
+		ArcacheAsyncBackendClientAdapter futureAdapter = new ArcacheAsyncBackendClientAdapter(new MapBackendClient() {
+			@Override
+			public Future<Object> asyncGet(String key) {
+				return plainFuture;
+			}
+		});
+
+		final AtomicReference<Object> notified = new AtomicReference<Object>();
+		ListenableFuture<Object> f = futureAdapter.listenableGet("k");
+		f.addListener(new FutureListener<Object>() {
+			@Override
+			public void onComplete(ListenableFuture<Object> future) {
+				try {
+					notified.set(future.get());
+				} catch (Exception e) {
+				}
+			}
+		});
+		assertFalse(f.isDone());
+
+		plainFuture.run();
+		assertEquals("V", f.get(1, TimeUnit.SECONDS));
+		long start = System.currentTimeMillis();
+		while ((notified.get() == null) && (System.currentTimeMillis() - start < 1000)) {
+			Thread.sleep(1);
+		}
+		assertEquals("V", notified.get());
+	}
+
+	@Test
+	public void testMultiKeyOperations() throws Exception {
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("a", "A");
+		values.put("fail", "F");
+		Map<String, Boolean> setResult = adapter.asyncMultiSet(values, 1000).get();
+		assertTrue(setResult.get("a"));
+		assertFalse(setResult.get("fail"));
+
+		Map<String, Object> getResult = adapter.asyncMultiGet(Arrays.asList("a", "x")).get();
+		assertEquals(1, getResult.size());
+		assertEquals("A", getResult.get("a"));
+	}
+
+	@Test
+	public void testNativeMultiKeyOperations() throws Exception {
+		final Map<String, Object> map = new LinkedHashMap<String, Object>();
+		ArcacheAsyncBackendClientAdapter multiKeyAdapter = new ArcacheAsyncBackendClientAdapter(
+				new MultiKeyBackendOperationsTest.MultiKeyMapBackendClient(new DummyFuture<Map<String, Object>>(map),
+						new DummyFuture<Map<String, Boolean>>(null)) {
+					@Override
+					public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+						gets += 100;
+						return super.asyncMultiGet(keys);
+					}
+				});
+		assertSame(map, multiKeyAdapter.asyncMultiGet(Arrays.asList("a")).get());
+		assertEquals(100, ((MapBackendClient) multiKeyAdapter.getBackendClient()).gets);
+	}
+
+}
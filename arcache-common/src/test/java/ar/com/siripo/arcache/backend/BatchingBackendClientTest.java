@@ -0,0 +1,163 @@
+package ar.com.siripo.arcache.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ar.com.siripo.arcache.backend.CoalescingBackendClientTest.PendingBackendClient;
+import ar.com.siripo.arcache.backend.MultiKeyBackendOperationsTest.MapBackendClient;
+
+public class BatchingBackendClientTest {
+
+	PendingBackendClient backendClient;
+	BatchingBackendClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		backendClient = new PendingBackendClient();
+		client = new BatchingBackendClient(backendClient, 60000000, 3);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		client.shutdown();
+	}
+
+	@Test
+	public void testConstructor() {
+		assertSame(backendClient, client.getBackendClient());
+		assertEquals(60000000, client.getWindowMicros());
+		assertEquals(3, client.getMaxBatchSize());
+		assertEquals(0, client.getAverageBatchSize(), 0);
+		assertEquals(0, client.getAverageQueueDelayMicros(), 0);
+
+		try {
+			new BatchingBackendClient(null, 1, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new BatchingBackendClient(backendClient, -1, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new BatchingBackendClient(backendClient, 1, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testFullBatchIsSent() throws Exception {
+		Future<Object> a = client.asyncGet("a");
+		Future<Object> b = client.listenableGet("b");
+		assertNull(backendClient.pendingMultiGet);
+
+		Future<Object> a2 = client.asyncGet("a");
+		assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(backendClient.multiGetKeys));
+		assertEquals(0, backendClient.gets);
+
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("a", "A");
+		backendClient.pendingMultiGet.set(values);
+		assertEquals("A", a.get());
+		assertNull(b.get());
+		assertEquals("A", a2.get());
+
+		assertEquals(1, client.getBatchCount());
+		assertEquals(3, client.getBatchedGetCount());
+		assertEquals(3, client.getLargestBatchSize());
+		assertEquals(3, client.getAverageBatchSize(), 0);
+		assertTrue(client.getAverageQueueDelayMicros() >= 0);
+		assertTrue(client.getMaxQueueDelayMicros() >= client.getAverageQueueDelayMicros());
+	}
+
+	@Test
+	public void testWindowElapsed() throws Exception {
+		client.shutdown();
+		client = new BatchingBackendClient(new MapBackendClient(), 200, 100);
+		client.asyncSet("a", 1000, "A").get();
+		assertEquals("A", client.asyncGet("a").get(1, TimeUnit.SECONDS));
+		assertEquals(1, client.getBatchCount());
+
+		// A flush of a batch that was already sent is ignored
+		ArrayList<BatchingBackendClient.PendingGet> batch = new ArrayList<BatchingBackendClient.PendingGet>();
+		client.flush(batch);
+		assertEquals(1, client.getBatchCount());
+
+		// After the shutdown the gets are sent right away
+		client.shutdown();
+		assertTrue(client.listenableGet("a").isDone());
+	}
+
+	@Test
+	public void testFailures() throws Exception {
+		Future<Object> a = client.asyncGet("a");
+		Future<Object> b = client.asyncGet("b");
+		client.asyncGet("c");
+		backendClient.pendingMultiGet.setException(new IllegalStateException());
+		for (Future<Object> f : Arrays.asList(a, b)) {
+			try {
+				f.get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+		}
+
+		a = client.asyncGet("a");
+		client.asyncGet("b");
+		client.asyncGet("c");
+		backendClient.pendingMultiGet.cancel(false);
+		try {
+			a.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof CancellationException);
+		}
+
+		backendClient.failGets = true;
+		a = client.asyncGet("a");
+		client.asyncGet("b");
+		client.asyncGet("c");
+		try {
+			a.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testPassThroughOperations() throws Exception {
+		assertTrue(client.asyncSet("a", 1000, "A").get());
+		assertTrue(client.listenableSet("b", 1000, "B").get());
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("c", "C");
+		assertTrue(client.asyncMultiSet(values, 1000).get().get("c"));
+		assertEquals(3, backendClient.sets.size());
+
+		Collection<String> keys = Arrays.asList("x");
+		client.asyncMultiGet(keys);
+		assertSame(keys, backendClient.multiGetKeys);
+		assertFalse(backendClient.pendingMultiGet.isDone());
+		assertEquals(0, client.getBatchCount());
+	}
+}
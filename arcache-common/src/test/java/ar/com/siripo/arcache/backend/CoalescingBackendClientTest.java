@@ -0,0 +1,209 @@
+package ar.com.siripo.arcache.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.SettableFuture;
+
+public class CoalescingBackendClientTest {
+
+	PendingBackendClient backendClient;
+	CoalescingBackendClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		backendClient = new PendingBackendClient();
+		client = new CoalescingBackendClient(backendClient);
+	}
+
+	@Test
+	public void testConstructor() {
+		assertSame(backendClient, client.getBackendClient());
+		try {
+			new CoalescingBackendClient(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testConcurrentGetsAreCoalesced() throws Exception {
+		ListenableFuture<Object> f1 = client.listenableGet("a");
+		Future<Object> f2 = client.asyncGet("a");
+		Future<Object> other = client.asyncGet("b");
+		assertEquals(2, backendClient.gets);
+		assertFalse(f1.isDone());
+
+		backendClient.pendingGets.get("a").set("A");
+		assertEquals("A", f1.get());
+		assertEquals("A", f2.get());
+		assertFalse(other.isDone());
+		assertTrue(client.inFlightGets.size() == 1);
+
+		// Once completed the next get reads the backend again
+		client.asyncGet("a");
+		assertEquals(3, backendClient.gets);
+	}
+
+	@Test
+	public void testCancelDoesNotCancelTheSharedGet() throws Exception {
+		Future<Object> f1 = client.asyncGet("a");
+		Future<Object> f2 = client.asyncGet("a");
+		assertTrue(f1.cancel(true));
+		assertFalse(backendClient.pendingGets.get("a").isCancelled());
+
+		backendClient.pendingGets.get("a").set("A");
+		assertEquals("A", f2.get());
+	}
+
+	@Test
+	public void testFailures() throws Exception {
+		Future<Object> f1 = client.asyncGet("a");
+		Future<Object> f2 = client.asyncGet("a");
+		backendClient.pendingGets.get("a").setException(new IllegalStateException());
+		for (Future<Object> f : Arrays.asList(f1, f2)) {
+			try {
+				f.get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+		}
+
+		backendClient.failGets = true;
+		try {
+			client.asyncGet("x").get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		try {
+			client.asyncMultiGet(Arrays.asList("y", "z")).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertTrue(client.inFlightGets.isEmpty());
+	}
+
+	@Test
+	public void testMultiGetSharesTheKeysInFlight() throws Exception {
+		Future<Object> single = client.asyncGet("a");
+		Future<Map<String, Object>> multi = client.asyncMultiGet(Arrays.asList("a", "b", "c", "b"));
+		assertEquals(1, backendClient.gets);
+		assertEquals(Arrays.asList("b", "c"), backendClient.multiGetKeys);
+
+		// A single get joins the multi get in flight
+		Future<Object> joined = client.asyncGet("b");
+		assertEquals(1, backendClient.gets);
+
+		HashMap<String, Object> values = new HashMap<String, Object>();
+		values.put("b", "B");
+		backendClient.pendingMultiGet.set(values);
+		backendClient.pendingGets.get("a").set("A");
+
+		Map<String, Object> r = multi.get();
+		assertEquals(2, r.size());
+		assertEquals("A", r.get("a"));
+		assertEquals("B", r.get("b"));
+		assertFalse(r.containsKey("c"));
+		assertEquals("A", single.get());
+		assertEquals("B", joined.get());
+		assertTrue(client.inFlightGets.isEmpty());
+	}
+
+	@Test
+	public void testSetsGoToTheBackend() throws Exception {
+		assertTrue(client.asyncSet("a", 1000, "A").get());
+		assertTrue(client.listenableSet("b", 1000, "B").get());
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("c", "C");
+		assertTrue(client.asyncMultiSet(values, 1000).get().get("c"));
+		assertEquals(3, backendClient.sets.size());
+	}
+
+	@Test
+	public void testSetsDropTheGetsInFlight() throws Exception {
+		ListenableFuture<Object> before = client.listenableGet("a");
+		assertTrue(client.asyncSet("a", 1000, "A").get());
+		// The get after the set does not join the one before it
+		ListenableFuture<Object> after = client.listenableGet("a");
+		assertEquals(2, backendClient.gets);
+		backendClient.pendingGets.get("a").set("A");
+		assertEquals("A", after.get());
+		assertFalse(before.isDone());
+
+		client.listenableGet("b");
+		assertTrue(client.listenableSet("b", 1000, "B").get());
+		client.listenableGet("c");
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("c", "C");
+		assertTrue(client.asyncMultiSet(values, 1000).get().get("c"));
+		assertTrue(client.inFlightGets.isEmpty());
+	}
+
+	static class PendingBackendClient implements ArcacheMultiKeyBackendClient {
+		final HashMap<String, SettableFuture<Object>> pendingGets = new HashMap<String, SettableFuture<Object>>();
+		final HashMap<String, Object> sets = new HashMap<String, Object>();
+		SettableFuture<Map<String, Object>> pendingMultiGet;
+		Collection<String> multiGetKeys;
+		boolean failGets = false;
+		int gets = 0;
+
+		@Override
+		public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+			sets.put(key, value);
+			SettableFuture<Boolean> f = new SettableFuture<Boolean>();
+			f.set(true);
+			return f;
+		}
+
+		@Override
+		public Future<Object> asyncGet(String key) {
+			if (failGets) {
+				throw new IllegalStateException();
+			}
+			gets++;
+			SettableFuture<Object> f = new SettableFuture<Object>();
+			pendingGets.put(key, f);
+			return f;
+		}
+
+		@Override
+		public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+			if (failGets) {
+				throw new IllegalStateException();
+			}
+			multiGetKeys = keys;
+			pendingMultiGet = new SettableFuture<Map<String, Object>>();
+			return pendingMultiGet;
+		}
+
+		@Override
+		public Future<Map<String, Boolean>> asyncMultiSet(Map<String, Object> values, long ttlMillis) {
+			HashMap<String, Boolean> r = new HashMap<String, Boolean>();
+			for (String key : values.keySet()) {
+				asyncSet(key, ttlMillis, values.get(key));
+				r.put(key, true);
+			}
+			SettableFuture<Map<String, Boolean>> f = new SettableFuture<Map<String, Boolean>>();
+			f.set(r);
+			return f;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package ar.com.siripo.arcache.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class InProcessInvalidationBusTest {
+
+	static class RecordingListener implements ArcacheInvalidationBusListener {
+		final List<String> invalidations = new ArrayList<String>();
+		int lost = 0;
+
+		@Override
+		public void onInvalidation(String backendKey) {
+			invalidations.add(backendKey);
+		}
+
+		@Override
+		public void onInvalidationsLost() {
+			lost++;
+		}
+	}
+
+	@Test
+	public void testPublish() {
+		InProcessInvalidationBus bus = new InProcessInvalidationBus();
+		RecordingListener a = new RecordingListener();
+		RecordingListener b = new RecordingListener();
+		bus.publish("nobody");
+
+		bus.subscribe(a);
+		bus.subscribe(a);
+		bus.subscribe(b);
+		assertEquals(2, bus.getListenersCount());
+		bus.publish("k1");
+		assertEquals(Arrays.asList("k1"), a.invalidations);
+		assertEquals(Arrays.asList("k1"), b.invalidations);
+
+		bus.unsubscribe(a);
+		bus.publish("k2");
+		assertEquals(Arrays.asList("k1"), a.invalidations);
+		assertEquals(Arrays.asList("k1", "k2"), b.invalidations);
+		bus.publish(Arrays.asList("k3", "k4"));
+		assertEquals(Arrays.asList("k1", "k2", "k3", "k4"), b.invalidations);
+		a.onInvalidationsLost();
+		assertEquals(1, a.lost);
+
+		try {
+			bus.subscribe(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testFailingListener() {
+		InProcessInvalidationBus bus = new InProcessInvalidationBus();
+		bus.subscribe(new RecordingListener() {
+			@Override
+			public void onInvalidation(String backendKey) {
+				throw new IllegalStateException();
+			}
+		});
+		RecordingListener b = new RecordingListener();
+		bus.subscribe(b);
+		bus.publish("k1");
+		assertEquals(Arrays.asList("k1"), b.invalidations);
+	}
+
+}
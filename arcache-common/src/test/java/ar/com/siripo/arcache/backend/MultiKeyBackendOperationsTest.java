@@ -0,0 +1,119 @@
+package ar.com.siripo.arcache.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ar.com.siripo.arcache.util.DummyFuture;
+
+public class MultiKeyBackendOperationsTest {
+
+	MapBackendClient backendClient;
+
+	@Before
+	public void setUp() throws Exception {
+		backendClient = new MapBackendClient();
+	}
+
+	@Test
+	public void testConstructor() {
+		new MultiKeyBackendOperations();
+	}
+
+	@Test
+	public void testFanOutMultiGet() throws Exception {
+		backendClient.values.put("a", "A");
+		backendClient.values.put("b", "B");
+
+		Map<String, Object> r = MultiKeyBackendOperations.asyncMultiGet(backendClient, Arrays.asList("a", "x", "b", "a"))
+				.get();
+		assertEquals(2, r.size());
+		assertEquals("A", r.get("a"));
+		assertEquals("B", r.get("b"));
+		assertFalse(r.containsKey("x"));
+
+		// Duplicated keys are requested once
+		assertEquals(3, backendClient.gets);
+	}
+
+	@Test
+	public void testFanOutMultiSet() throws Exception {
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("a", "A");
+		values.put("fail", "F");
+		values.put("n", null);
+
+		Map<String, Boolean> r = MultiKeyBackendOperations.asyncMultiSet(backendClient, values, 1000).get();
+		assertEquals(3, r.size());
+		assertTrue(r.get("a"));
+		assertFalse(r.get("fail"));
+		assertTrue(r.get("n"));
+		assertEquals("A", backendClient.values.get("a"));
+	}
+
+	@Test
+	public void testNativeOperationsAreUsed() throws Exception {
+		final Future<Map<String, Object>> getFuture = new DummyFuture<Map<String, Object>>(
+				new HashMap<String, Object>());
+		final Future<Map<String, Boolean>> setFuture = new DummyFuture<Map<String, Boolean>>(
+				new HashMap<String, Boolean>());
+
+		MapBackendClient multiKeyClient = new MultiKeyMapBackendClient(getFuture, setFuture);
+
+		assertSame(getFuture, MultiKeyBackendOperations.asyncMultiGet(multiKeyClient, Arrays.asList("a")));
+		assertSame(setFuture,
+				MultiKeyBackendOperations.asyncMultiSet(multiKeyClient, new HashMap<String, Object>(), 1000));
+		assertEquals(0, multiKeyClient.gets);
+	}
+
+	static class MapBackendClient implements ArcacheBackendClient {
+		final HashMap<String, Object> values = new HashMap<String, Object>();
+		int gets = 0;
+
+		@Override
+		public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+			if (key.equals("fail")) {
+				return DummyFuture.createWithException(new Exception("fail"));
+			}
+			values.put(key, value);
+			return new DummyFuture<Boolean>(true);
+		}
+
+		@Override
+		public Future<Object> asyncGet(String key) {
+			gets++;
+			return new DummyFuture<Object>(values.get(key));
+		}
+	}
+
+	static class MultiKeyMapBackendClient extends MapBackendClient implements ArcacheMultiKeyBackendClient {
+		final Future<Map<String, Object>> getFuture;
+		final Future<Map<String, Boolean>> setFuture;
+
+		MultiKeyMapBackendClient(Future<Map<String, Object>> getFuture, Future<Map<String, Boolean>> setFuture) {
+			this.getFuture = getFuture;
+			this.setFuture = setFuture;
+		}
+
+		@Override
+		public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+			return getFuture;
+		}
+
+		@Override
+		public Future<Map<String, Boolean>> asyncMultiSet(Map<String, Object> values, long ttlMillis) {
+			return setFuture;
+		}
+	}
+}
@@ -107,4 +107,17 @@ public class DummyFutureTest {
 		assertEquals(df.get(1, TimeUnit.DAYS), true);
 	}
 
+	@Test
+	public void testListenerIsCalledImmediately() throws Exception {
+		final DummyFuture<Boolean> df = new DummyFuture<Boolean>(true);
+		final boolean[] called = new boolean[] { false };
+		df.addListener(new FutureListener<Boolean>() {
+			@Override
+			public void onComplete(ListenableFuture<Boolean> future) {
+				assertTrue(future == df);
+				called[0] = true;
+			}
+		});
+		assertTrue(called[0]);
+	}
 }
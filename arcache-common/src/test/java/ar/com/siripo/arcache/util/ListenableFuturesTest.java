@@ -0,0 +1,210 @@
+package ar.com.siripo.arcache.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ListenableFuturesTest {
+
+	private static FutureTask<String> futureTask(final String value) {
+		return new FutureTask<String>(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				if (value == null) {
+					throw new IllegalStateException();
+				}
+				return value;
+			}
+		});
+	}
+
+	@Test
+	public void testConstructor() {
+		new ListenableFutures();
+	}
+
+	@Test
+	public void testListenableIsReturned() {
+		DummyFuture<String> df = new DummyFuture<String>("v");
+		assertSame(df, ListenableFutures.listen(df));
+	}
+
+	@Test
+	public void testDoneFutureIsWrapped() throws Exception {
+		FutureTask<String> ft = futureTask("v");
+		ft.run();
+		ListenableFuture<String> lf = ListenableFutures.listen(ft);
+		assertTrue(lf.isDone());
+		assertFalse(lf.isCancelled());
+		assertEquals("v", lf.get());
+		assertEquals("v", lf.get(1, TimeUnit.MILLISECONDS));
+
+		// The listener is called now, without helper thread
+		final ArrayList<ListenableFuture<String>> notified = new ArrayList<ListenableFuture<String>>();
+		lf.addListener(new FutureListener<String>() {
+			@Override
+			public void onComplete(ListenableFuture<String> future) {
+				notified.add(future);
+			}
+		});
+		assertEquals(1, notified.size());
+		assertSame(lf, notified.get(0));
+
+		ft = futureTask(null);
+		ft.run();
+		try {
+			ListenableFutures.listen(ft).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testPendingFutureIsBridged() throws Exception {
+		FutureTask<String> ft = futureTask("v");
+		final ListenableFuture<String> lf = ListenableFutures.listen(ft);
+		final CountDownLatch notified = new CountDownLatch(2);
+		FutureListener<String> listener = new FutureListener<String>() {
+			@Override
+			public void onComplete(ListenableFuture<String> future) {
+				assertSame(lf, future);
+				notified.countDown();
+			}
+		};
+		lf.addListener(listener);
+		lf.addListener(listener);
+		assertFalse(lf.isDone());
+		ft.run();
+		assertEquals("v", lf.get(1, TimeUnit.SECONDS));
+		assertTrue(notified.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testBridgeThreadsAreBounded() throws Exception {
+		int nfutures = ListenableFutures.MAX_BRIDGE_THREADS + 10;
+		ArrayList<FutureTask<String>> futures = new ArrayList<FutureTask<String>>();
+		final CountDownLatch notified = new CountDownLatch(nfutures);
+		for (int i = 0; i < nfutures; i++) {
+			FutureTask<String> ft = futureTask("v" + i);
+			futures.add(ft);
+			ListenableFutures.listen(ft).addListener(new FutureListener<String>() {
+				@Override
+				public void onComplete(ListenableFuture<String> future) {
+					notified.countDown();
+				}
+			});
+		}
+		ThreadPoolExecutor bridgeExecutor = (ThreadPoolExecutor) ListenableFutures.bridgeExecutor;
+		assertTrue(bridgeExecutor.getPoolSize() <= ListenableFutures.MAX_BRIDGE_THREADS);
+
+		// The futures beyond the helper threads are polled
+		for (FutureTask<String> ft : futures) {
+			ft.run();
+		}
+		assertTrue(notified.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testPoll() throws Exception {
+		FutureTask<String> ft = futureTask("v");
+		SettableFuture<String> completion = new SettableFuture<String>();
+		ListenableFutures.poll(ft, completion);
+		Thread.sleep(ListenableFutures.BRIDGE_POLL_MILLIS * 3);
+		assertFalse(completion.isDone());
+		ft.run();
+		assertEquals(null, completion.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testCancelIsPropagated() throws Exception {
+		FutureTask<String> ft = futureTask("v");
+		ListenableFuture<String> lf = ListenableFutures.listen(ft);
+		final CountDownLatch notified = new CountDownLatch(1);
+		lf.addListener(new FutureListener<String>() {
+			@Override
+			public void onComplete(ListenableFuture<String> future) {
+				notified.countDown();
+			}
+		});
+		assertTrue(lf.cancel(true));
+		assertTrue(ft.isCancelled());
+		assertTrue(lf.isCancelled());
+		assertFalse(lf.cancel(true));
+		try {
+			lf.get();
+			fail();
+		} catch (CancellationException e) {
+		}
+		assertTrue(notified.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testTransfer() throws Exception {
+		FutureTask<String> ft = futureTask("v");
+		ft.run();
+		SettableFuture<String> sf = new SettableFuture<String>();
+		ListenableFutures.transfer(ft, sf);
+		assertEquals("v", sf.get());
+
+		ft = futureTask(null);
+		ft.run();
+		sf = new SettableFuture<String>();
+		ListenableFutures.transfer(ft, sf);
+		try {
+			sf.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		ft = futureTask("v");
+		ft.cancel(false);
+		sf = new SettableFuture<String>();
+		ListenableFutures.transfer(ft, sf);
+		assertTrue(sf.isCancelled());
+
+		sf = new SettableFuture<String>();
+		ListenableFutures.transfer(DummyFuture.<String>createWithException(new InterruptedException()), sf);
+		try {
+			sf.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof InterruptedException);
+		}
+	}
+
+	@Test
+	public void testSchedule() throws Exception {
+		final CountDownLatch executed = new CountDownLatch(1);
+		ListenableFutures.schedule(new Runnable() {
+			@Override
+			public void run() {
+				executed.countDown();
+			}
+		}, 1);
+		assertTrue(executed.await(1, TimeUnit.SECONDS));
+
+		Future<?> f = ListenableFutures.schedule(new Runnable() {
+			@Override
+			public void run() {
+				fail();
+			}
+		}, 100000);
+		assertTrue(f.cancel(false));
+	}
+}
@@ -0,0 +1,107 @@
+package ar.com.siripo.arcache.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class LogLinearHistogramTest {
+
+	@Test
+	public void testConstructor() {
+		assertEquals(LogLinearHistogram.DEFAULT_SUB_BUCKET_BITS, new LogLinearHistogram().getSubBucketBits());
+		assertEquals(0, new LogLinearHistogram(0).getSubBucketBits());
+		assertEquals(10, new LogLinearHistogram(10).getSubBucketBits());
+
+		try {
+			new LogLinearHistogram(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new LogLinearHistogram(11);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testBuckets() {
+		for (int bits = 0; bits <= 10; bits++) {
+			LogLinearHistogram h = new LogLinearHistogram(bits);
+			int last = -1;
+			for (long v : new long[] { 0, 1, 2, 3, 7, 8, 9, 15, 16, 17, 100, 1000, 123456789, Long.MAX_VALUE / 3,
+					Long.MAX_VALUE }) {
+				int index = h.bucketIndex(v);
+				assertTrue(index >= last);
+				last = index;
+				assertTrue(h.bucketLowerBound(index) <= v);
+				assertTrue(h.bucketUpperBound(index) >= v);
+				// The relative error is below 1 / 2^bits
+				double width = h.bucketUpperBound(index) - h.bucketLowerBound(index);
+				assertTrue(width <= Math.max(0, (double) v / (1 << bits)));
+			}
+			assertEquals(h.buckets.length() - 1, h.bucketIndex(Long.MAX_VALUE));
+			assertEquals(Long.MAX_VALUE, h.bucketUpperBound(h.buckets.length() - 1));
+		}
+
+		// The bounds are contiguous
+		LogLinearHistogram h = new LogLinearHistogram();
+		for (int i = 0; i < h.buckets.length() - 1; i++) {
+			assertEquals(h.bucketUpperBound(i) + 1, h.bucketLowerBound(i + 1));
+			assertEquals(i, h.bucketIndex(h.bucketLowerBound(i)));
+		}
+	}
+
+	@Test
+	public void testRecord() {
+		LogLinearHistogram h = new LogLinearHistogram();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getMean(), 0);
+		assertEquals(0, h.getValueAtPercentile(50));
+
+		for (int i = 1; i <= 100; i++) {
+			h.record(i * 1000);
+		}
+		h.record(-5);
+		assertEquals(101, h.getCount());
+		assertEquals(5050000, h.getSum());
+		assertEquals(100000, h.getMax());
+		assertEquals(5050000.0 / 101, h.getMean(), 0.001);
+
+		assertEquals(0, h.getValueAtPercentile(0));
+		assertEquals(50000, h.getValueAtPercentile(50), 50000 / 8);
+		assertEquals(99000, h.getValueAtPercentile(99), 99000 / 8);
+		assertEquals(100000, h.getValueAtPercentile(100));
+		assertTrue(h.toString().startsWith("count=101 "));
+
+		try {
+			h.getValueAtPercentile(101);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			h.getValueAtPercentile(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		h.reset();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getSum());
+		assertEquals(0, h.getMax());
+	}
+
+	@Test
+	public void testSmallValuesAreExact() {
+		LogLinearHistogram h = new LogLinearHistogram();
+		h.record(0);
+		h.record(1);
+		h.record(5);
+		assertEquals(0, h.getValueAtPercentile(33));
+		assertEquals(1, h.getValueAtPercentile(66));
+		assertEquals(5, h.getValueAtPercentile(100));
+	}
+
+}
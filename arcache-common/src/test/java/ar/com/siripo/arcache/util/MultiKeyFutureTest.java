@@ -0,0 +1,263 @@
+package ar.com.siripo.arcache.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class MultiKeyFutureTest {
+
+	private static FutureTask<String> pendingFuture() {
+		return new FutureTask<String>(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return "pending";
+			}
+		});
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		LinkedHashMap<String, Future<String>> futures = new LinkedHashMap<String, Future<String>>();
+		futures.put("a", new DummyFuture<String>("A"));
+		futures.put("n", new DummyFuture<String>(null));
+
+		MultiKeyFuture<String> skipping = new MultiKeyFuture<String>(futures, true);
+		Map<String, String> r = skipping.get();
+		assertEquals(1, r.size());
+		assertEquals("A", r.get("a"));
+		// The result is memoized
+		assertSame(r, skipping.get());
+		assertSame(r, skipping.get(1, TimeUnit.SECONDS));
+
+		MultiKeyFuture<String> notSkipping = new MultiKeyFuture<String>(futures, false);
+		r = notSkipping.get(1, TimeUnit.SECONDS);
+		assertEquals(2, r.size());
+		assertNull(r.get("n"));
+		assertSame(r, notSkipping.get());
+	}
+
+	@Test
+	public void testFailures() throws Exception {
+		LinkedHashMap<String, Future<String>> futures = new LinkedHashMap<String, Future<String>>();
+		futures.put("a", new DummyFuture<String>("A"));
+		futures.put("e", DummyFuture.<String>createWithException(new Exception()));
+
+		MultiKeyFuture<String> mkf = new MultiKeyFuture<String>(futures, false);
+		try {
+			mkf.get();
+			fail();
+		} catch (ExecutionException e) {
+		}
+		try {
+			mkf.get(1, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+		}
+
+		mkf = new MultiKeyFuture<String>(futures, false) {
+			@Override
+			protected String onKeyFailure(String key, ExecutionException cause) {
+				return "failed";
+			}
+		};
+		assertEquals("failed", mkf.get().get("e"));
+		assertEquals("failed", new MultiKeyFuture<String>(futures, false) {
+			@Override
+			protected String onKeyFailure(String key, ExecutionException cause) {
+				return "failed";
+			}
+		}.get(1, TimeUnit.SECONDS).get("e"));
+
+		futures.put("p", pendingFuture());
+		futures.remove("e");
+		try {
+			new MultiKeyFuture<String>(futures, false).get(5, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (TimeoutException e) {
+		}
+	}
+
+	@Test
+	public void testCancelAndDone() throws Exception {
+		LinkedHashMap<String, Future<String>> futures = new LinkedHashMap<String, Future<String>>();
+		futures.put("a", new DummyFuture<String>("A"));
+		futures.put("null", null);
+
+		MultiKeyFuture<String> mkf = new MultiKeyFuture<String>(futures, true);
+		assertTrue(mkf.isDone());
+		final boolean[] notified = new boolean[] { false };
+		mkf.addListener(new FutureListener<Map<String, String>>() {
+			@Override
+			public void onComplete(ListenableFuture<Map<String, String>> future) {
+				notified[0] = true;
+			}
+		});
+		assertTrue(notified[0]);
+
+		FutureTask<String> pending = pendingFuture();
+		futures.put("p", pending);
+		assertFalse(mkf.isDone());
+		assertFalse(mkf.isCancelled());
+		assertTrue(mkf.cancel(true));
+		assertTrue(mkf.isCancelled());
+		assertTrue(mkf.isDone());
+		assertTrue(pending.isCancelled());
+		assertFalse(mkf.cancel(true));
+		try {
+			mkf.get();
+			fail();
+		} catch (CancellationException e) {
+		}
+		try {
+			mkf.get(1, TimeUnit.SECONDS);
+			fail();
+		} catch (CancellationException e) {
+		}
+	}
+
+	@Test
+	public void testEntryFuture() throws Exception {
+		LinkedHashMap<String, Future<String>> futures = new LinkedHashMap<String, Future<String>>();
+		futures.put("a", new DummyFuture<String>("A"));
+		MultiKeyFuture<String> mkf = new MultiKeyFuture<String>(futures, true);
+
+		MultiKeyEntryFuture<String> a = new MultiKeyEntryFuture<String>(mkf, "a");
+		MultiKeyEntryFuture<String> b = new MultiKeyEntryFuture<String>(mkf, "b");
+		assertTrue(a.isDone());
+		assertEquals("A", a.get());
+		assertEquals("A", a.get(1, TimeUnit.SECONDS));
+		assertNull(b.get());
+
+		assertNull(new MultiKeyEntryFuture<String>(new DummyFuture<Map<String, String>>(null), "a").get());
+
+		// A done view can not be cancelled
+		assertFalse(a.isCancelled());
+		assertFalse(a.cancel(false));
+		assertFalse(a.isCancelled());
+
+		// Cancelling a view does not cancel the shared future nor the other views
+		SettableFuture<String> pending = new SettableFuture<String>();
+		futures.put("p", pending);
+		MultiKeyEntryFuture<String> p = new MultiKeyEntryFuture<String>(mkf, "p");
+		b = new MultiKeyEntryFuture<String>(mkf, "a");
+		final ArrayList<Object> notified = new ArrayList<Object>();
+		p.addListener(new FutureListener<String>() {
+			@Override
+			public void onComplete(ListenableFuture<String> future) {
+				notified.add(future);
+			}
+		});
+		assertFalse(p.isDone());
+		assertTrue(p.cancel(false));
+		assertFalse(p.cancel(false));
+		assertTrue(p.isCancelled());
+		assertTrue(p.isDone());
+		assertEquals(1, notified.size());
+		try {
+			p.get();
+			fail();
+		} catch (CancellationException e) {
+		}
+		try {
+			p.get(1, TimeUnit.SECONDS);
+			fail();
+		} catch (CancellationException e) {
+		}
+		assertFalse(mkf.isCancelled());
+		assertFalse(pending.isCancelled());
+		assertFalse(b.isCancelled());
+
+		// The listener is notified only once
+		pending.set("P");
+		assertEquals(1, notified.size());
+		assertEquals("A", b.get());
+
+		// The views of a cancelled shared future are cancelled
+		futures.put("p", new SettableFuture<String>());
+		assertTrue(mkf.cancel(false));
+		assertTrue(b.isCancelled());
+	}
+
+	@Test
+	public void testServedLocally() {
+		ProvenanceAware local = new ProvenanceAware() {
+			@Override
+			public boolean isServedLocally() {
+				return true;
+			}
+		};
+		assertFalse(ListenableFutures.isServedLocally(new DummyFuture<String>("A")));
+		assertFalse(ListenableFutures.isServedLocally(null));
+		assertTrue(local.isServedLocally());
+
+		LinkedHashMap<String, Future<String>> futures = new LinkedHashMap<String, Future<String>>();
+		futures.put("a", new LocalFuture("A"));
+		futures.put("b", null);
+		MultiKeyFuture<String> mkf = new MultiKeyFuture<String>(futures, true);
+		assertTrue(mkf.isServedLocally());
+		assertTrue(new MultiKeyEntryFuture<String>(mkf, "a").isServedLocally());
+
+		futures.put("c", new DummyFuture<String>("C"));
+		assertFalse(mkf.isServedLocally());
+		assertFalse(new MultiKeyEntryFuture<String>(mkf, "a").isServedLocally());
+		assertFalse(new MultiKeyEntryFuture<String>(new DummyFuture<Map<String, String>>(null), "a").isServedLocally());
+	}
+
+	static class LocalFuture extends DummyFuture<String> implements ProvenanceAware {
+		LocalFuture(String result) {
+			super(result);
+		}
+
+		@Override
+		public boolean isServedLocally() {
+			return true;
+		}
+	}
+
+	@Test
+	public void testListeners() throws Exception {
+		LinkedHashMap<String, Future<String>> futures = new LinkedHashMap<String, Future<String>>();
+		SettableFuture<String> pending = new SettableFuture<String>();
+		futures.put("a", new DummyFuture<String>("A"));
+		futures.put("p", pending);
+		MultiKeyFuture<String> mkf = new MultiKeyFuture<String>(futures, true);
+		MultiKeyEntryFuture<String> entry = new MultiKeyEntryFuture<String>(mkf, "p");
+
+		final ArrayList<Object> notified = new ArrayList<Object>();
+		mkf.addListener(new FutureListener<Map<String, String>>() {
+			@Override
+			public void onComplete(ListenableFuture<Map<String, String>> future) {
+				notified.add(future);
+			}
+		});
+		entry.addListener(new FutureListener<String>() {
+			@Override
+			public void onComplete(ListenableFuture<String> future) {
+				notified.add(future);
+			}
+		});
+		assertEquals(0, notified.size());
+
+		pending.set("P");
+		assertEquals(2, notified.size());
+		assertSame(mkf, notified.get(0));
+		assertSame(entry, notified.get(1));
+		assertEquals("P", entry.get());
+	}
+}
@@ -0,0 +1,27 @@
+package ar.com.siripo.arcache.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SeededRandomSourceTest {
+
+	@Test
+	public void testSameSeedSameSequence() {
+		SeededRandomSource r1 = new SeededRandomSource(1234);
+		SeededRandomSource r2 = new SeededRandomSource(1234);
+		SeededRandomSource other = new SeededRandomSource(4321);
+		assertEquals(1234, r1.getSeed());
+
+		boolean differs = false;
+		for (int i = 0; i < 100; i++) {
+			double v = r1.nextDouble();
+			assertEquals(v, r2.nextDouble(), 0);
+			assertTrue((v >= 0) && (v < 1));
+			differs |= (v != other.nextDouble());
+		}
+		assertTrue(differs);
+	}
+
+}
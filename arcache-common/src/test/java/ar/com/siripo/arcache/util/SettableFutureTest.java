@@ -0,0 +1,145 @@
+package ar.com.siripo.arcache.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class SettableFutureTest {
+
+	static class RecordingListener<V> implements FutureListener<V> {
+		final ArrayList<ListenableFuture<V>> notifications = new ArrayList<ListenableFuture<V>>();
+
+		@Override
+		public void onComplete(ListenableFuture<V> future) {
+			notifications.add(future);
+		}
+	}
+
+	@Test
+	public void testSet() throws Exception {
+		SettableFuture<String> sf = new SettableFuture<String>();
+		RecordingListener<String> before = new RecordingListener<String>();
+		sf.addListener(before);
+		assertFalse(sf.isDone());
+		assertEquals(0, before.notifications.size());
+
+		assertTrue(sf.set("v"));
+		assertTrue(sf.isDone());
+		assertFalse(sf.isCancelled());
+		assertEquals("v", sf.get());
+		assertEquals("v", sf.get(1, TimeUnit.MILLISECONDS));
+		assertEquals(1, before.notifications.size());
+		assertSame(sf, before.notifications.get(0));
+
+		// Only the first completion takes effect
+		assertFalse(sf.set("other"));
+		assertFalse(sf.setException(new Exception()));
+		assertFalse(sf.cancel(true));
+		assertEquals("v", sf.get());
+		assertEquals(1, before.notifications.size());
+
+		// Listeners added after the completion are called immediately
+		RecordingListener<String> after = new RecordingListener<String>();
+		sf.addListener(after);
+		assertEquals(1, after.notifications.size());
+	}
+
+	@Test
+	public void testSetException() throws Exception {
+		SettableFuture<String> sf = new SettableFuture<String>();
+		IllegalStateException cause = new IllegalStateException();
+		assertTrue(sf.setException(cause));
+		try {
+			sf.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertSame(cause, e.getCause());
+		}
+		try {
+			sf.get(1, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertSame(cause, e.getCause());
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		SettableFuture<String> sf = new SettableFuture<String>();
+		RecordingListener<String> listener = new RecordingListener<String>();
+		sf.addListener(listener);
+		assertTrue(sf.cancel(false));
+		assertTrue(sf.isCancelled());
+		assertTrue(sf.isDone());
+		assertEquals(1, listener.notifications.size());
+		try {
+			sf.get();
+			fail();
+		} catch (CancellationException e) {
+		}
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		SettableFuture<String> sf = new SettableFuture<String>();
+		try {
+			sf.get(5, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (TimeoutException e) {
+		}
+	}
+
+	@Test
+	public void testWaitsCompletionFromOtherThread() throws Exception {
+		final SettableFuture<String> sf = new SettableFuture<String>();
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+				}
+				sf.set("v");
+			}
+		}.start();
+		assertEquals("v", sf.get());
+
+		final SettableFuture<String> sf2 = new SettableFuture<String>();
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+				}
+				sf2.set("v2");
+			}
+		}.start();
+		assertEquals("v2", sf2.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testFailingListenerDoesNotBreakOthers() throws Exception {
+		SettableFuture<String> sf = new SettableFuture<String>();
+		sf.addListener(new FutureListener<String>() {
+			@Override
+			public void onComplete(ListenableFuture<String> future) {
+				throw new IllegalStateException();
+			}
+		});
+		RecordingListener<String> listener = new RecordingListener<String>();
+		sf.addListener(listener);
+		assertTrue(sf.set("v"));
+		assertEquals(1, listener.notifications.size());
+	}
+}
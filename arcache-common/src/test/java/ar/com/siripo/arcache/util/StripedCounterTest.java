@@ -0,0 +1,69 @@
+package ar.com.siripo.arcache.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class StripedCounterTest {
+
+	@Test
+	public void testStripes() {
+		assertEquals(1, new StripedCounter(1).getStripes());
+		assertEquals(4, new StripedCounter(3).getStripes());
+		assertEquals(64, new StripedCounter(1000).getStripes());
+		assertEquals(Integer.bitCount(new StripedCounter().getStripes()), 1);
+
+		try {
+			new StripedCounter(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testAddAndReset() {
+		StripedCounter counter = new StripedCounter(4);
+		assertEquals(0, counter.sum());
+		counter.increment();
+		counter.add(10);
+		assertEquals(11, counter.sum());
+		assertEquals("11", counter.toString());
+		counter.reset();
+		assertEquals(0, counter.sum());
+	}
+
+	@Test
+	public void testConcurrentAdds() throws Exception {
+		final StripedCounter counter = new StripedCounter(8);
+		Thread[] threads = new Thread[16];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						counter.increment();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(160000, counter.sum());
+	}
+
+	@Test
+	public void testConsecutiveThreadsSpread() {
+		StripedCounter counter = new StripedCounter(8);
+		boolean[] used = new boolean[8];
+		for (long id = 0; id < 64; id++) {
+			used[StripedCounter.stripe(id) & counter.mask] = true;
+		}
+		for (boolean u : used) {
+			assertEquals(true, u);
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+package ar.com.siripo.arcache.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ThreadLocalRandomSourceTest {
+
+	@Test
+	public void testValuesAreUniform() {
+		ThreadLocalRandomSource randomSource = new ThreadLocalRandomSource();
+		int buckets[] = new int[10];
+		int count = 100000;
+		for (int i = 0; i < count; i++) {
+			double v = randomSource.nextDouble();
+			assertTrue((v >= 0) && (v < 1));
+			buckets[(int) (v * 10)]++;
+		}
+		for (int b : buckets) {
+			assertEquals(count / 10, b, count / 100);
+		}
+	}
+
+	@Test
+	public void testEveryThreadHasItsGenerator() throws Exception {
+		final ThreadLocalRandomSource randomSource = new ThreadLocalRandomSource();
+		randomSource.nextDouble();
+		final ThreadLocalRandomSource.Generator generator = randomSource.generators.get();
+		assertSame(generator, randomSource.generators.get());
+
+		final AtomicReference<ThreadLocalRandomSource.Generator> other = new AtomicReference<ThreadLocalRandomSource.Generator>();
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				randomSource.nextDouble();
+				other.set(randomSource.generators.get());
+			}
+		};
+		t.start();
+		t.join();
+		assertNotSame(generator, other.get());
+	}
+
+	@Test
+	public void testZeroSeed() {
+		ThreadLocalRandomSource randomSource = new ThreadLocalRandomSource() {
+			@Override
+			protected long createSeed() {
+				return 0;
+			}
+		};
+		// A zero state would produce only zeros
+		assertTrue(randomSource.nextDouble() != randomSource.nextDouble());
+	}
+
+}
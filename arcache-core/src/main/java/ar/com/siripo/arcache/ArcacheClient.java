@@ -1,16 +1,35 @@
 package ar.com.siripo.arcache;
 
-import java.util.Random;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import ar.com.siripo.arcache.CacheGetResult.Type;
+import ar.com.siripo.arcache.backend.ArcacheAsyncBackendClientAdapter;
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBus;
+import ar.com.siripo.arcache.backend.CoalescingBackendClient;
 import ar.com.siripo.arcache.math.AdjustedExponentialProbabilityFunction;
 import ar.com.siripo.arcache.math.ProbabilityFunction;
 import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.ListenableFutures;
+import ar.com.siripo.arcache.util.RandomSource;
+import ar.com.siripo.arcache.util.SettableFuture;
+import ar.com.siripo.arcache.util.ThreadLocalRandomSource;
 
 public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder {
 
@@ -22,10 +41,17 @@ public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder
 	protected String keyNamespace = null;
 	protected String keyDelimiter = "|";
 	protected String invalidationKeyPrefix = "InvKey";
+	protected volatile BackendKeyEncoder keyEncoder;
 	protected long defaultExpirationTimeMillis = 3600000;
 	protected long defaultStoredObjectRemovalTimeMillis = 86400000;
 	protected ProbabilityFunction expirationProbabilityFunction;
 	protected ProbabilityFunction invalidationProbabilityFunction;
+	protected boolean staleWhileRevalidate = false;
+	protected Executor refreshExecutor;
+	protected long loadWaitTimeoutMillis = 30000;
+
+	protected static final int DEFAULT_REFRESH_THREADS = 4;
+	protected static final int DEFAULT_REFRESH_QUEUE_SIZE = 1000;
 
 	protected ArcacheBackendClient backendClient;
 	/**
@@ -35,12 +61,60 @@ public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder
 	protected ArcacheBackendClient userConfiguredInvalidationBackendClient;
 	protected ArcacheBackendClient effectiveInvalidationBackendClient;
 
-	protected Random randomGenerator;
+	/**
+	 * The clients used by the getters, the sets and the invalidations. When
+	 * backendRequestCoalescing is enabled they wrap the effective ones to share the
+	 * gets in flight, and the writes drop the gets of their keys in flight
+	 */
+	protected boolean backendRequestCoalescing = false;
+	protected ArcacheBackendClient readBackendClient;
+	protected ArcacheBackendClient readInvalidationBackendClient;
+
+	protected RandomSource randomGenerator;
+
+	/** When it is null the operations are not tracked */
+	protected ArcacheClientTracker tracker;
+
+	/** Rebuilt when the keys or the backend change, null when it is disabled */
+	protected long namespaceInvalidationRefreshMillis = 0;
+	protected volatile NamespaceInvalidation namespaceInvalidation;
+
+	/** When it is 0 every invalidation key is stored in its own record */
+	protected int invalidationKeyBuckets = 0;
+
+	/** When it is null the invalidations are not published */
+	protected ArcacheInvalidationBus invalidationBus;
+
+	/** The loads in progress of getOrLoad, one per key */
+	protected final ConcurrentHashMap<String, SettableFuture<Object>> inFlightLoads =
+			new ConcurrentHashMap<String, SettableFuture<Object>>();
 
 	public ArcacheClient() {
-		randomGenerator = new Random();
+		randomGenerator = new ThreadLocalRandomSource();
 		expirationProbabilityFunction = new AdjustedExponentialProbabilityFunction(0.5, 11);
 		invalidationProbabilityFunction = new AdjustedExponentialProbabilityFunction(0, 11);
+		refreshExecutor = createDefaultRefreshExecutor();
+		updateKeyEncoder();
+	}
+
+	/**
+	 * A bounded pool, the threads are created on demand and they finish when idle.
+	 * When the queue is full the refresh is discarded, the next stale get retries
+	 * it.
+	 */
+	protected static ThreadPoolExecutor createDefaultRefreshExecutor() {
+		final AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_REFRESH_THREADS, DEFAULT_REFRESH_THREADS, 60,
+				TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(DEFAULT_REFRESH_QUEUE_SIZE), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "arcache-refresh-" + threadCount.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
 	}
 
 	protected ArcacheClient(ArcacheBackendClient backendClient) {
@@ -54,6 +128,7 @@ public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder
 		if (this.userConfiguredInvalidationBackendClient == null) {
 			this.effectiveInvalidationBackendClient = backendClient;
 		}
+		updateReadBackendClients();
 	}
 
 	@Override
@@ -69,6 +144,7 @@ public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder
 		} else {
 			this.effectiveInvalidationBackendClient = this.userConfiguredInvalidationBackendClient;
 		}
+		updateReadBackendClients();
 	}
 
 	@Override
@@ -76,6 +152,44 @@ public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder
 		return userConfiguredInvalidationBackendClient;
 	}
 
+	@Override
+	public void setBackendRequestCoalescing(final boolean backendRequestCoalescing) {
+		this.backendRequestCoalescing = backendRequestCoalescing;
+		updateReadBackendClients();
+	}
+
+	@Override
+	public boolean getBackendRequestCoalescing() {
+		return backendRequestCoalescing;
+	}
+
+	/**
+	 * When the invalidation keys are stored in the same backend, the objects and
+	 * the invalidation keys share the same in flight table
+	 */
+	protected void updateReadBackendClients() {
+		if (!backendRequestCoalescing) {
+			readBackendClient = backendClient;
+			readInvalidationBackendClient = effectiveInvalidationBackendClient;
+			updateNamespaceInvalidation();
+			return;
+		}
+		readBackendClient = createCoalescingBackendClient(backendClient);
+		if (effectiveInvalidationBackendClient == backendClient) {
+			readInvalidationBackendClient = readBackendClient;
+		} else {
+			readInvalidationBackendClient = createCoalescingBackendClient(effectiveInvalidationBackendClient);
+		}
+		updateNamespaceInvalidation();
+	}
+
+	protected ArcacheBackendClient createCoalescingBackendClient(final ArcacheBackendClient client) {
+		if (client == null) {
+			return null;
+		}
+		return new CoalescingBackendClient(client);
+	}
+
 	@Override
 	public void setDefaultOperationTimeoutMillis(final long timeoutMillis) {
 		if (timeoutMillis <= 0) {
@@ -141,6 +255,7 @@ public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder
 		if ("".equals(keyNamespace)) {
 			keyNamespace = null;
 		}
+		updateKeyEncoder();
 	}
 
 	@Override
@@ -154,6 +269,7 @@ public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder
 			throw new IllegalArgumentException("The key delimiter must be a non empty String");
 		}
 		this.keyDelimiter = keyDelimiter;
+		updateKeyEncoder();
 	}
 
 	@Override
@@ -203,6 +319,118 @@ public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder
 		return this.invalidationProbabilityFunction;
 	}
 
+	@Override
+	public void setStaleWhileRevalidate(final boolean staleWhileRevalidate) {
+		this.staleWhileRevalidate = staleWhileRevalidate;
+	}
+
+	@Override
+	public boolean getStaleWhileRevalidate() {
+		return staleWhileRevalidate;
+	}
+
+	@Override
+	public void setRefreshExecutor(final Executor refreshExecutor) {
+		if (refreshExecutor == null) {
+			throw new IllegalArgumentException();
+		}
+		this.refreshExecutor = refreshExecutor;
+	}
+
+	@Override
+	public Executor getRefreshExecutor() {
+		return refreshExecutor;
+	}
+
+	@Override
+	public void setLoadWaitTimeoutMillis(final long loadWaitTimeoutMillis) {
+		if (loadWaitTimeoutMillis <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.loadWaitTimeoutMillis = loadWaitTimeoutMillis;
+	}
+
+	@Override
+	public long getLoadWaitTimeoutMillis() {
+		return loadWaitTimeoutMillis;
+	}
+
+	@Override
+	public void setRandomSource(final RandomSource randomSource) {
+		if (randomSource == null) {
+			throw new IllegalArgumentException();
+		}
+		this.randomGenerator = randomSource;
+	}
+
+	@Override
+	public RandomSource getRandomSource() {
+		return randomGenerator;
+	}
+
+	@Override
+	public void setTracker(final ArcacheClientTracker tracker) {
+		this.tracker = tracker;
+	}
+
+	@Override
+	public ArcacheClientTracker getTracker() {
+		return tracker;
+	}
+
+	@Override
+	public void setNamespaceInvalidationRefreshMillis(final long refreshMillis) {
+		if (refreshMillis < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.namespaceInvalidationRefreshMillis = refreshMillis;
+		updateNamespaceInvalidation();
+	}
+
+	@Override
+	public long getNamespaceInvalidationRefreshMillis() {
+		return namespaceInvalidationRefreshMillis;
+	}
+
+	@Override
+	public NamespaceInvalidation getNamespaceInvalidation() {
+		return namespaceInvalidation;
+	}
+
+	@Override
+	public void setInvalidationKeyBuckets(final int buckets) {
+		if (buckets < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.invalidationKeyBuckets = buckets;
+	}
+
+	@Override
+	public int getInvalidationKeyBuckets() {
+		return invalidationKeyBuckets;
+	}
+
+	@Override
+	public void setInvalidationBus(final ArcacheInvalidationBus invalidationBus) {
+		this.invalidationBus = invalidationBus;
+	}
+
+	@Override
+	public ArcacheInvalidationBus getInvalidationBus() {
+		return invalidationBus;
+	}
+
+	/** The cached namespace invalidation object is discarded when its key or backend change */
+	protected void updateNamespaceInvalidation() {
+		if ((namespaceInvalidationRefreshMillis <= 0) || (readInvalidationBackendClient == null)) {
+			namespaceInvalidation = null;
+			return;
+		}
+		namespaceInvalidation = new NamespaceInvalidation(readInvalidationBackendClient,
+				createInvalidationBackendKey(NamespaceInvalidation.INVALIDATION_KEY),
+				namespaceInvalidationRefreshMillis);
+	}
+
 	@Override
 	public Object get(final String key) throws TimeoutException, Exception {
 		return get(key, defaultOperationTimeoutMillis);
@@ -212,12 +440,12 @@ public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder
 	public Object get(final String key, final long timeoutMillis) throws TimeoutException, Exception {
 		final CacheGetResult cacheGetResult = getCacheObject(key, timeoutMillis);
 		if (cacheGetResult != null) {
-			switch (cacheGetResult.type) {
+			switch (cacheGetResult.getType()) {
 			case HIT:
-				return cacheGetResult.value;
+				return cacheGetResult.getValue();
 			case ERROR:
 			case TIMEOUT:
-				throw cacheGetResult.errorCause;
+				throw cacheGetResult.getErrorCause();
 			case MISS:
 			case EXPIRED:
 			case INVALIDATED:
@@ -241,20 +469,8 @@ public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder
 				throw new NullPointerException();
 			}
 			return r;
-		} catch (TimeoutException tx) {
-			CacheGetResult err = new CacheGetResult(Type.TIMEOUT, tx);
-			return err;
-		} catch (ExecutionException ee) {
-			CacheGetResult err;
-			if (ee.getCause() instanceof Exception) {
-				err = new CacheGetResult(Type.ERROR, (Exception) ee.getCause());
-			} else {
-				err = new CacheGetResult(Type.ERROR, ee);
-			}
-			return err;
 		} catch (Exception e) {
-			CacheGetResult err = new CacheGetResult(Type.ERROR, e);
-			return err;
+			return CacheGetResult.createFromException(e);
 		}
 	}
 
@@ -270,11 +486,202 @@ public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder
 		}
 	}
 
+	@Override
+	public ListenableFuture<CacheGetResult> getCacheObjectAsync(final String key) {
+		return getCacheObjectAsync(key, defaultOperationTimeoutMillis);
+	}
+
+	@Override
+	public ListenableFuture<CacheGetResult> getCacheObjectAsync(final String key, final long timeoutMillis) {
+		try {
+			if (key == null || key.equals("")) {
+				throw new IllegalArgumentException();
+			}
+			return buildAsyncCacheGetterTask(key, timeoutMillis);
+		} catch (Exception e) {
+			return new DummyFuture<CacheGetResult>(CacheGetResult.createFromException(e));
+		}
+	}
+
+	protected ListenableFuture<CacheGetResult> buildAsyncCacheGetterTask(final String key, final long timeoutMillis) {
+		return new AsyncCacheGetterTask(key, readBackendClient, readInvalidationBackendClient,
+				(BackendKeyBuilder) this, (ArcacheConfigurationGetInterface) this, this.randomGenerator,
+				timeoutMillis);
+	}
+
 	protected Future<CacheGetResult> buildCacheGetterTask(final String key) {
-		return new CacheGetterTask(key, backendClient, effectiveInvalidationBackendClient, (BackendKeyBuilder) this,
+		return new CacheGetterTask(key, readBackendClient, readInvalidationBackendClient, (BackendKeyBuilder) this,
 				(ArcacheConfigurationGetInterface) this, this.randomGenerator);
 	}
 
+	@Override
+	public Map<String, CacheGetResult> getCacheObjects(final Collection<String> keys) {
+		return getCacheObjects(keys, defaultOperationTimeoutMillis);
+	}
+
+	@Override
+	public Map<String, CacheGetResult> getCacheObjects(final Collection<String> keys, final long timeoutMillis) {
+		try {
+			Future<Map<String, CacheGetResult>> getFuture = asyncGetCacheObjects(keys);
+			Map<String, CacheGetResult> r = getFuture.get(timeoutMillis, TimeUnit.MILLISECONDS);
+			if (r == null) {
+				throw new NullPointerException();
+			}
+			return r;
+		} catch (Exception e) {
+			// The whole batch failed, so every key reports the same failure
+			CacheGetResult err = CacheGetResult.createFromException(e);
+			Map<String, CacheGetResult> r = new LinkedHashMap<String, CacheGetResult>();
+			if (keys == null) {
+				r.put(null, err);
+				return r;
+			}
+			for (String key : keys) {
+				r.put(key, err);
+			}
+			return r;
+		}
+	}
+
+	@Override
+	public Future<Map<String, CacheGetResult>> asyncGetCacheObjects(final Collection<String> keys) {
+		try {
+			if (keys == null) {
+				throw new IllegalArgumentException();
+			}
+			return buildBulkCacheGetterTask(keys);
+		} catch (Exception e) {
+			return DummyFuture.createWithException(e);
+		}
+	}
+
+	protected Future<Map<String, CacheGetResult>> buildBulkCacheGetterTask(final Collection<String> keys) {
+		return new BulkCacheGetterTask(keys, readBackendClient, readInvalidationBackendClient,
+				(BackendKeyBuilder) this, (ArcacheConfigurationGetInterface) this, this.randomGenerator);
+	}
+
+	@Override
+	public Object getOrLoad(final String key, final Callable<?> loader) throws TimeoutException, Exception {
+		return getOrLoad(key, loader, null);
+	}
+
+	@Override
+	public Object getOrLoad(final String key, final Callable<?> loader, final String[] invalidationKeys)
+			throws TimeoutException, Exception {
+		if (loader == null) {
+			throw new IllegalArgumentException();
+		}
+		final CacheGetResult cacheGetResult = getCacheObject(key);
+		switch (cacheGetResult.type) {
+		case HIT:
+			return cacheGetResult.value;
+		case ERROR:
+		case TIMEOUT:
+			throw cacheGetResult.errorCause;
+		case EXPIRED:
+		case INVALIDATED:
+			if (staleWhileRevalidate) {
+				refresh(key, loader, invalidationKeys);
+				return cacheGetResult.value;
+			}
+			return load(key, loader, invalidationKeys);
+		default:
+			return load(key, loader, invalidationKeys);
+		}
+	}
+
+	/**
+	 * The first caller of a key runs the loader, the others wait for its outcome
+	 * up to the loadWaitTimeoutMillis. The in flight load is removed once
+	 * the value is stored, the following callers find it in the cache. A cancelled
+	 * load is discarded and the caller loads.
+	 */
+	protected Object load(final String key, final Callable<?> loader, final String[] invalidationKeys)
+			throws Exception {
+		final SettableFuture<Object> load = new SettableFuture<Object>();
+		final SettableFuture<Object> inFlightLoad = inFlightLoads.putIfAbsent(key, load);
+		if (inFlightLoad != null) {
+			try {
+				return inFlightLoad.get(loadWaitTimeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (CancellationException ce) {
+				inFlightLoads.remove(key, inFlightLoad);
+				return load(key, loader, invalidationKeys);
+			} catch (ExecutionException ee) {
+				if (ee.getCause() instanceof Exception) {
+					throw (Exception) ee.getCause();
+				}
+				throw ee;
+			}
+		}
+		return runLoader(key, load, loader, invalidationKeys);
+	}
+
+	/**
+	 * Runs the loader in the refreshExecutor unless a load of the key is already in
+	 * flight. The callers that get a MISS meanwhile wait for this refresh.
+	 */
+	protected void refresh(final String key, final Callable<?> loader, final String[] invalidationKeys) {
+		final SettableFuture<Object> load = new SettableFuture<Object>();
+		if (inFlightLoads.putIfAbsent(key, load) != null) {
+			return;
+		}
+		try {
+			refreshExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						runLoader(key, load, loader, invalidationKeys);
+					} catch (Exception e) {
+						// The stale value was already served, the next stale get retries
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The callers waiting for it load by themselves
+			inFlightLoads.remove(key, load);
+			load.cancel(false);
+		}
+	}
+
+	/**
+	 * The waiters receive the value as soon as it is loaded, but the load stays in
+	 * flight until it is stored, so a get meanwhile does not load it again. A set
+	 * that does not complete keeps it up to the defaultOperationTimeoutMillis.
+	 */
+	protected Object runLoader(final String key, final SettableFuture<Object> load, final Callable<?> loader,
+			final String[] invalidationKeys) throws Exception {
+		final Object value;
+		try {
+			value = loader.call();
+		} catch (Exception e) {
+			inFlightLoads.remove(key, load);
+			load.setException(e);
+			throw e;
+		} catch (Error e) {
+			inFlightLoads.remove(key, load);
+			load.setException(e);
+			throw e;
+		}
+		load.set(value);
+		final Runnable removal = new Runnable() {
+			@Override
+			public void run() {
+				inFlightLoads.remove(key, load);
+			}
+		};
+		final ListenableFuture<Boolean> setFuture = ListenableFutures.listen(asyncSet(key, value, invalidationKeys));
+		if (!setFuture.isDone()) {
+			ListenableFutures.schedule(removal, defaultOperationTimeoutMillis);
+		}
+		setFuture.addListener(new FutureListener<Boolean>() {
+			@Override
+			public void onComplete(ListenableFuture<Boolean> future) {
+				removal.run();
+			}
+		});
+		return value;
+	}
+
 	@Override
 	public void set(final String key, final Object value) throws TimeoutException, Exception {
 		set(key, value, null);
@@ -311,13 +718,35 @@ public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder
 			expObj.invalidationKeys = invalidationKeys;
 			expObj.expirationTTLMillis = defaultExpirationTimeMillis;
 			String backendKey = createBackendKey(key);
-			return backendClient.asyncSet(backendKey, defaultStoredObjectRemovalTimeMillis, expObj);
+			if (tracker == null) {
+				return readBackendClient.asyncSet(backendKey, defaultStoredObjectRemovalTimeMillis, expObj);
+			}
+			return trackSet(key, ArcacheAsyncBackendClientAdapter.lift(readBackendClient).listenableSet(backendKey,
+					defaultStoredObjectRemovalTimeMillis, expObj));
 
 		} catch (Exception e) {
 			return DummyFuture.createWithException(e);
 		}
 	}
 
+	/** The set is tracked when the backend completes it */
+	protected ListenableFuture<Boolean> trackSet(final String key, final ListenableFuture<Boolean> setFuture) {
+		final ArcacheClientTracker setTracker = tracker;
+		final long startNanos = System.nanoTime();
+		setFuture.addListener(new FutureListener<Boolean>() {
+			@Override
+			public void onComplete(ListenableFuture<Boolean> future) {
+				boolean stored = false;
+				try {
+					stored = Boolean.TRUE.equals(future.get());
+				} catch (Exception e) {
+				}
+				setTracker.trackSet(key, System.nanoTime() - startNanos, stored);
+			}
+		});
+		return setFuture;
+	}
+
 	@Override
 	public void invalidateKey(final String key) throws TimeoutException, Exception {
 		invalidateKey(key, defaultInvalidationWindowMillis);
@@ -367,19 +796,101 @@ public class ArcacheClient implements ArcacheClientInterface, BackendKeyBuilder
 	protected Future<Boolean> buildInvalidateKeyTask(final String key, final boolean hardInvalidation,
 			final long invalidationWindowMillis) {
 		return new InvalidateKeyTask(key, hardInvalidation, invalidationWindowMillis,
-				effectiveInvalidationBackendClient, (BackendKeyBuilder) this, (ArcacheConfigurationGetInterface) this);
+				readInvalidationBackendClient, (BackendKeyBuilder) this, (ArcacheConfigurationGetInterface) this);
+	}
+
+	@Override
+	public void invalidateNamespace(final boolean hardInvalidation, final long invalidationWindowMillis)
+			throws TimeoutException, Exception {
+		Future<Boolean> future = asyncInvalidateNamespace(hardInvalidation, invalidationWindowMillis);
+		try {
+			future.get(defaultOperationTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof Exception) {
+				throw (Exception) ee.getCause();
+			}
+			throw ee;
+		}
+	}
+
+	@Override
+	public Future<Boolean> asyncInvalidateNamespace(final boolean hardInvalidation,
+			final long invalidationWindowMillis) {
+		try {
+			if (invalidationWindowMillis < 0) {
+				throw new IllegalArgumentException();
+			}
+			return buildInvalidateKeyTask(NamespaceInvalidation.INVALIDATION_KEY, hardInvalidation,
+					invalidationWindowMillis);
+		} catch (Exception e) {
+			return DummyFuture.createWithException(e);
+		}
+	}
+
+	@Override
+	public Map<String, Boolean> invalidateKeys(final Collection<String> keys, final boolean hardInvalidation,
+			final long invalidationWindowMillis) throws TimeoutException, Exception {
+		Future<Map<String, Boolean>> future = asyncInvalidateKeys(keys, hardInvalidation, invalidationWindowMillis);
+		try {
+			return future.get(defaultOperationTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof Exception) {
+				throw (Exception) ee.getCause();
+			}
+			throw ee;
+		}
+	}
+
+	@Override
+	public Future<Map<String, Boolean>> asyncInvalidateKeys(final Collection<String> keys,
+			final boolean hardInvalidation, final long invalidationWindowMillis) {
+		try {
+			if (invalidationWindowMillis < 0) {
+				throw new IllegalArgumentException();
+			}
+			if (keys == null) {
+				throw new IllegalArgumentException();
+			}
+			for (String key : keys) {
+				if (key == null || key.equals("")) {
+					throw new IllegalArgumentException();
+				}
+			}
+			return buildBulkInvalidateKeysTask(keys, hardInvalidation, invalidationWindowMillis);
+		} catch (Exception e) {
+			return DummyFuture.createWithException(e);
+		}
+	}
+
+	protected Future<Map<String, Boolean>> buildBulkInvalidateKeysTask(final Collection<String> keys,
+			final boolean hardInvalidation, final long invalidationWindowMillis) {
+		return new BulkInvalidateKeysTask(keys, hardInvalidation, invalidationWindowMillis,
+				readInvalidationBackendClient, (BackendKeyBuilder) this, (ArcacheConfigurationGetInterface) this);
+	}
+
+	/** Rebuilds the key encoder when the namespace or the delimiter change */
+	protected void updateKeyEncoder() {
+		keyEncoder = new BackendKeyEncoder(keyNamespace, keyDelimiter, invalidationKeyPrefix,
+				BackendKeyEncoder.DEFAULT_MAX_CACHED_INVALIDATION_KEYS);
+		updateNamespaceInvalidation();
+	}
+
+	/** The encoder of the backend keys, it also builds the keys as bytes */
+	public BackendKeyEncoder getKeyEncoder() {
+		return keyEncoder;
 	}
 
 	/** Create the key to be used in the backend client */
 	public String createBackendKey(final String userKey) {
-		if (keyNamespace == null) {
-			return userKey;
-		}
-		return keyNamespace + keyDelimiter + userKey;
+		return keyEncoder.createBackendKey(userKey);
 	}
 
 	public String createInvalidationBackendKey(final String invalidationKey) {
-		return createBackendKey(invalidationKeyPrefix + keyDelimiter + invalidationKey);
+		return keyEncoder.createInvalidationBackendKey(invalidationKey);
+	}
+
+	public String createInvalidationBucketBackendKey(final int bucket) {
+		return keyEncoder.createInvalidationBucketBackendKey(bucket);
 	}
 
 }
@@ -0,0 +1,195 @@
+package ar.com.siripo.arcache;
+
+import java.util.Collection;
+
+import ar.com.siripo.arcache.CacheGetResult.Type;
+import ar.com.siripo.arcache.util.LogLinearHistogram;
+import ar.com.siripo.arcache.util.StripedCounter;
+
+/**
+ * Aggregates the operations of an ArcacheClient in memory: the gets by result
+ * type, the latency histograms of gets, sets and invalidations in nanoseconds,
+ * the number of invalidation keys fetched by every get, and the breakdown of
+ * the gets reported by the CacheGetResult diagnostics, and the invalidations
+ * the bus failed to publish. The counters are
+ * striped and the histograms have fixed log linear buckets, so tracking does
+ * not lock nor allocate.
+ *
+ * Read it periodically and publish it to the monitoring system of choice.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class ArcacheClientMetricsTracker implements ArcacheClientTracker {
+
+	protected final StripedCounter[] getCounts;
+	protected final LogLinearHistogram getLatencyNanos = new LogLinearHistogram();
+	protected final LogLinearHistogram invalidationKeysFanOut = new LogLinearHistogram();
+	protected final LogLinearHistogram mainFetchNanos = new LogLinearHistogram();
+	protected final LogLinearHistogram invalidationFetchNanos = new LogLinearHistogram();
+	protected final StripedCounter relaxedTimeoutCount = new StripedCounter();
+	protected final StripedCounter servedLocallyCount = new StripedCounter();
+
+	protected final StripedCounter setCount = new StripedCounter();
+	protected final StripedCounter setFailureCount = new StripedCounter();
+	protected final LogLinearHistogram setLatencyNanos = new LogLinearHistogram();
+
+	protected final StripedCounter hardInvalidationCount = new StripedCounter();
+	protected final StripedCounter softInvalidationCount = new StripedCounter();
+	protected final StripedCounter invalidationFailureCount = new StripedCounter();
+	protected final LogLinearHistogram invalidationLatencyNanos = new LogLinearHistogram();
+	protected final StripedCounter invalidationPublishFailureCount = new StripedCounter();
+
+	public ArcacheClientMetricsTracker() {
+		getCounts = new StripedCounter[Type.values().length];
+		for (int i = 0; i < getCounts.length; i++) {
+			getCounts[i] = new StripedCounter();
+		}
+	}
+
+	@Override
+	public void trackGet(final String key, final CacheGetResult result, final long elapsedNanos,
+			final int invalidationKeysFetched) {
+		getCounts[result.getType().ordinal()].increment();
+		getLatencyNanos.record(elapsedNanos);
+		invalidationKeysFanOut.record(invalidationKeysFetched);
+		if (result.getMainFetchNanos() > 0) {
+			mainFetchNanos.record(result.getMainFetchNanos());
+		}
+		if (result.getInvalidationFetchNanos() > 0) {
+			invalidationFetchNanos.record(result.getInvalidationFetchNanos());
+		}
+		if (result.isRelaxedTimeoutApplied()) {
+			relaxedTimeoutCount.increment();
+		}
+		if (result.isServedLocally()) {
+			servedLocallyCount.increment();
+		}
+	}
+
+	@Override
+	public void trackSet(final String key, final long elapsedNanos, final boolean stored) {
+		setCount.increment();
+		if (!stored) {
+			setFailureCount.increment();
+		}
+		setLatencyNanos.record(elapsedNanos);
+	}
+
+	@Override
+	public void trackInvalidation(final String key, final boolean hardInvalidation, final long elapsedNanos,
+			final boolean stored) {
+		if (hardInvalidation) {
+			hardInvalidationCount.increment();
+		} else {
+			softInvalidationCount.increment();
+		}
+		if (!stored) {
+			invalidationFailureCount.increment();
+		}
+		invalidationLatencyNanos.record(elapsedNanos);
+	}
+
+	@Override
+	public void trackInvalidationPublishFailure(final Collection<String> backendKeys, final RuntimeException cause) {
+		invalidationPublishFailureCount.add(backendKeys.size());
+	}
+
+	/** @return the gets completed with the result type */
+	public long getGetCount(final Type type) {
+		return getCounts[type.ordinal()].sum();
+	}
+
+	/** @return the gets completed with any result type */
+	public long getGetCount() {
+		long count = 0;
+		for (StripedCounter c : getCounts) {
+			count += c.sum();
+		}
+		return count;
+	}
+
+	public LogLinearHistogram getGetLatencyNanos() {
+		return getLatencyNanos;
+	}
+
+	/** @return the distribution of the invalidation keys fetched by every get */
+	public LogLinearHistogram getInvalidationKeysFanOut() {
+		return invalidationKeysFanOut;
+	}
+
+	/** @return the time until the main object arrived, of the gets that received it */
+	public LogLinearHistogram getMainFetchNanos() {
+		return mainFetchNanos;
+	}
+
+	/** @return the time waiting the invalidation keys, of the gets that fetched them */
+	public LogLinearHistogram getInvalidationFetchNanos() {
+		return invalidationFetchNanos;
+	}
+
+	/** @return the gets that waited longer than the timeout due to the relaxed timeout */
+	public long getRelaxedTimeoutCount() {
+		return relaxedTimeoutCount.sum();
+	}
+
+	/** @return the gets whose main object was served locally */
+	public long getServedLocallyCount() {
+		return servedLocallyCount.sum();
+	}
+
+	public long getSetCount() {
+		return setCount.sum();
+	}
+
+	public long getSetFailureCount() {
+		return setFailureCount.sum();
+	}
+
+	public LogLinearHistogram getSetLatencyNanos() {
+		return setLatencyNanos;
+	}
+
+	public long getHardInvalidationCount() {
+		return hardInvalidationCount.sum();
+	}
+
+	public long getSoftInvalidationCount() {
+		return softInvalidationCount.sum();
+	}
+
+	public long getInvalidationFailureCount() {
+		return invalidationFailureCount.sum();
+	}
+
+	public LogLinearHistogram getInvalidationLatencyNanos() {
+		return invalidationLatencyNanos;
+	}
+
+	/** @return the backend keys of stored invalidations that the bus failed to publish */
+	public long getInvalidationPublishFailureCount() {
+		return invalidationPublishFailureCount.sum();
+	}
+
+	/** Clears all the metrics, it is not atomic with the concurrent operations */
+	public void reset() {
+		for (StripedCounter c : getCounts) {
+			c.reset();
+		}
+		getLatencyNanos.reset();
+		invalidationKeysFanOut.reset();
+		mainFetchNanos.reset();
+		invalidationFetchNanos.reset();
+		relaxedTimeoutCount.reset();
+		servedLocallyCount.reset();
+		setCount.reset();
+		setFailureCount.reset();
+		setLatencyNanos.reset();
+		hardInvalidationCount.reset();
+		softInvalidationCount.reset();
+		invalidationFailureCount.reset();
+		invalidationLatencyNanos.reset();
+		invalidationPublishFailureCount.reset();
+	}
+
+}
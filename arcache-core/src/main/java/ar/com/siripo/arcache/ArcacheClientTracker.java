@@ -0,0 +1,57 @@
+package ar.com.siripo.arcache;
+
+import java.util.Collection;
+
+/**
+ * This interface allow tracking of the ArcacheClient operations.
+ *
+ * The methods are called on the hot paths, in the thread that completes the
+ * operation, so they must be fast, thread safe and must not block. When no
+ * tracker is configured the time is not even measured.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public interface ArcacheClientTracker {
+
+	/**
+	 * A get was completed, also every key of a bulk get
+	 *
+	 * @param key                     the user key
+	 * @param result                  the result returned, the TIMEOUT and ERROR
+	 *                                are reported too
+	 * @param elapsedNanos            since the get was started
+	 * @param invalidationKeysFetched the invalidation keys requested to evaluate
+	 *                                the object, 0 when they were not needed
+	 */
+	public void trackGet(String key, CacheGetResult result, long elapsedNanos, int invalidationKeysFetched);
+
+	/**
+	 * A set was completed by the backend
+	 *
+	 * @param key          the user key
+	 * @param elapsedNanos since the set was started
+	 * @param stored       false when the backend failed or did not store it
+	 */
+	public void trackSet(String key, long elapsedNanos, boolean stored);
+
+	/**
+	 * An invalidation was completed
+	 *
+	 * @param key              the invalidation key
+	 * @param hardInvalidation
+	 * @param elapsedNanos     since the invalidation was started
+	 * @param stored           false when it failed or timed out
+	 */
+	public void trackInvalidation(String key, boolean hardInvalidation, long elapsedNanos, boolean stored);
+
+	/**
+	 * The invalidation bus refused to publish stored invalidations, so the local
+	 * caches of the other processes keep them until they expire
+	 *
+	 * @param backendKeys the backend keys not published
+	 * @param cause       the failure thrown by the bus
+	 */
+	public void trackInvalidationPublishFailure(Collection<String> backendKeys, RuntimeException cause);
+
+}
@@ -1,7 +1,11 @@
 package ar.com.siripo.arcache;
 
+import java.util.concurrent.Executor;
+
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBus;
 import ar.com.siripo.arcache.math.ProbabilityFunction;
+import ar.com.siripo.arcache.util.RandomSource;
 
 public interface ArcacheConfigurationGetInterface {
 
@@ -27,7 +31,28 @@ public interface ArcacheConfigurationGetInterface {
 
 	public ArcacheBackendClient getInvalidationBackendClient();
 
+	public boolean getBackendRequestCoalescing();
+
 	public ProbabilityFunction getExpirationProbabilityFunction();
 
 	public ProbabilityFunction getInvalidationProbabilityFunction();
+
+	public boolean getStaleWhileRevalidate();
+
+	public Executor getRefreshExecutor();
+
+	public long getLoadWaitTimeoutMillis();
+
+	public RandomSource getRandomSource();
+
+	public ArcacheClientTracker getTracker();
+
+	public long getNamespaceInvalidationRefreshMillis();
+
+	/** @return the in process view of the namespace invalidation, null when disabled */
+	public NamespaceInvalidation getNamespaceInvalidation();
+
+	public int getInvalidationKeyBuckets();
+
+	public ArcacheInvalidationBus getInvalidationBus();
 }
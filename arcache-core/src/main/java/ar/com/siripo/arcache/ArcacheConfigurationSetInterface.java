@@ -1,7 +1,11 @@
 package ar.com.siripo.arcache;
 
+import java.util.concurrent.Executor;
+
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBus;
 import ar.com.siripo.arcache.math.ProbabilityFunction;
+import ar.com.siripo.arcache.util.RandomSource;
 
 public interface ArcacheConfigurationSetInterface {
 
@@ -97,6 +101,17 @@ public interface ArcacheConfigurationSetInterface {
 	 */
 	public void setInvalidationBackendClient(ArcacheBackendClient invalidationBackendClient);
 
+	/**
+	 * When it is enabled the concurrent gets of the same backend key, objects or
+	 * invalidation keys, share one backend request while it is in flight. Useful
+	 * when many objects share an invalidation key that is read in parallel. The
+	 * sets and the invalidations drop the get of their key in flight, so the gets
+	 * issued after them read the backend again.
+	 * 
+	 * @param backendRequestCoalescing (default false)
+	 */
+	public void setBackendRequestCoalescing(boolean backendRequestCoalescing);
+
 	/**
 	 * Sets the function to be used to compute the probability of a key has expired
 	 * 
@@ -112,4 +127,94 @@ public interface ArcacheConfigurationSetInterface {
 	 */
 	public void setInvalidationProbabilityFunction(ProbabilityFunction invalidationProbabilityFunction);
 
+	/**
+	 * When it is enabled getOrLoad returns the EXPIRED and soft INVALIDATED values
+	 * right away, and the loader runs in the refresh executor to store the new
+	 * value. The refreshes of a key are deduplicated.
+	 * 
+	 * @param staleWhileRevalidate (default false)
+	 */
+	public void setStaleWhileRevalidate(boolean staleWhileRevalidate);
+
+	/**
+	 * Sets the executor of the stale while revalidate refreshes, it should be
+	 * bounded. The default has 4 threads and a queue of 1000 refreshes, when it is
+	 * full the refresh is discarded.
+	 * 
+	 * @param refreshExecutor
+	 */
+	public void setRefreshExecutor(Executor refreshExecutor);
+
+	/**
+	 * Sets how long the concurrent callers of getOrLoad wait for the load of the
+	 * same key run by another caller, then they throw a TimeoutException. It is
+	 * independent of the defaultOperationTimeoutMillis, so it must cover the
+	 * slowest loader.
+	 * 
+	 * @param loadWaitTimeoutMillis (default 30000)
+	 */
+	public void setLoadWaitTimeoutMillis(long loadWaitTimeoutMillis);
+
+	/**
+	 * Sets the source of the random numbers used to evaluate the expiration and
+	 * invalidation probabilities. The default is a ThreadLocalRandomSource, lock
+	 * free. Use a SeededRandomSource for reproducible simulations.
+	 * 
+	 * @param randomSource
+	 */
+	public void setRandomSource(RandomSource randomSource);
+
+	/**
+	 * Sets the tracker called when every get, set and invalidation is completed.
+	 * ArcacheClientMetricsTracker aggregates counters and latency histograms.
+	 * 
+	 * @param tracker (default null, the operations are not tracked)
+	 */
+	public void setTracker(ArcacheClientTracker tracker);
+
+	/**
+	 * When it is greater than 0 every get also evaluates the namespace
+	 * invalidation, see invalidateNamespace. The namespace invalidation object is
+	 * kept in memory and refreshed in background with this interval, so it does
+	 * not add a fetch per get.
+	 * 
+	 * @param refreshMillis (default 0, the namespace invalidation is not
+	 *                      evaluated)
+	 */
+	public void setNamespaceInvalidationRefreshMillis(long refreshMillis);
+
+	/**
+	 * When it is greater than 0 the invalidation objects are grouped in this
+	 * number of bucket records by the hash of the invalidation key, so a get
+	 * fetches at most one record per distinct bucket instead of one per
+	 * invalidation key. The namespace invalidation is never bucketed.
+	 * 
+	 * Invalidating a key rewrites its whole bucket. The backends have no compare
+	 * and set, so the bucket is read again after the write and the entry is merged
+	 * once more if a concurrent invalidation of the same bucket overwrote it. The
+	 * bucket is always read and written on the remote backend, below the local
+	 * copies of a tiered backend like the speedup client. When the previous bucket
+	 * can not be read the invalidation fails instead of rewriting the bucket
+	 * without the entries of the other keys. Every client of the keys must use the
+	 * same value, the invalidations stored with another value are not seen.
+	 * 
+	 * A bucket keeps at most CacheInvalidationBucket.MAX_ENTRIES keys invalidated
+	 * within the stored object removal time. Beyond that the oldest are folded in
+	 * one invalidation that applies to every key of the bucket, so use enough
+	 * buckets for the keys invalidated in that time.
+	 * 
+	 * @param buckets (default 0, every invalidation key is stored in its own
+	 *                record)
+	 */
+	public void setInvalidationKeyBuckets(int buckets);
+
+	/**
+	 * Sets the bus where the backend key of every stored invalidation is
+	 * published, so the speedup caches subscribed to it evict the key right away.
+	 * A failure publishing does not fail the invalidation.
+	 * 
+	 * @param invalidationBus (default null, the invalidations are not published)
+	 */
+	public void setInvalidationBus(ArcacheInvalidationBus invalidationBus);
+
 }
@@ -1,5 +1,7 @@
 package ar.com.siripo.arcache;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 
@@ -33,4 +35,41 @@ public interface ArcacheInvalidationInterface {
 
 	public Future<Boolean> asyncInvalidateKey(String key, boolean hardInvalidation, long invalidationWindowMillis);
 
+	/**
+	 * Invalidates everything stored in the namespace before now, without touching
+	 * the stored objects. It is evaluated by the clients with
+	 * namespaceInvalidationRefreshMillis enabled, the other processes see it
+	 * within that refresh interval, this client once it is stored.
+	 * 
+	 * @param hardInvalidation
+	 * @param invalidationWindowMillis
+	 * @throws TimeoutException when the operation exceeds the
+	 *                          DefaultOperationTimeout
+	 * @throws Exception        when there is a problem with the backend operation
+	 */
+	public void invalidateNamespace(boolean hardInvalidation, long invalidationWindowMillis)
+			throws TimeoutException, Exception;
+
+	public Future<Boolean> asyncInvalidateNamespace(boolean hardInvalidation, long invalidationWindowMillis);
+
+	/**
+	 * Invalidates many keys at once. All the previous invalidation objects are
+	 * read in one multi get and the new ones are written in one multi set, instead
+	 * of two round trips per key
+	 * 
+	 * @param keys
+	 * @param hardInvalidation
+	 * @param invalidationWindowMillis
+	 * @return a map with one entry per distinct key, in the keys order, false when
+	 *         that key could not be stored
+	 * @throws TimeoutException when the operation exceeds the
+	 *                          DefaultOperationTimeout
+	 * @throws Exception        when there is a problem with the backend operation
+	 */
+	public Map<String, Boolean> invalidateKeys(Collection<String> keys, boolean hardInvalidation,
+			long invalidationWindowMillis) throws TimeoutException, Exception;
+
+	public Future<Map<String, Boolean>> asyncInvalidateKeys(Collection<String> keys, boolean hardInvalidation,
+			long invalidationWindowMillis);
+
 }
@@ -1,8 +1,13 @@
 package ar.com.siripo.arcache;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 
+import ar.com.siripo.arcache.util.ListenableFuture;
+
 public interface ArcacheReadWriteInterface {
 
 	/**
@@ -49,6 +54,82 @@ public interface ArcacheReadWriteInterface {
 	 */
 	public Future<CacheGetResult> asyncGetCacheObject(String key);
 
+	/**
+	 * @param key
+	 * @return getCacheObjectAsync(key, defaultOperationTimeoutMillis);
+	 */
+	public ListenableFuture<CacheGetResult> getCacheObjectAsync(String key);
+
+	/**
+	 * Non blocking get. The backend fetches and the evaluation are chained as
+	 * callbacks, so no thread waits for the result. Register a listener to process
+	 * it when it arrives.
+	 * 
+	 * The returned future always completes with a result, like getCacheObject the
+	 * errors and the timeout are returned inside it.
+	 * 
+	 * @param key
+	 * @param timeoutMillis
+	 * @return
+	 */
+	public ListenableFuture<CacheGetResult> getCacheObjectAsync(String key, long timeoutMillis);
+
+	/**
+	 * @param keys
+	 * @return getCacheObjects(keys, defaultOperationTimeoutMillis);
+	 */
+	public Map<String, CacheGetResult> getCacheObjects(Collection<String> keys);
+
+	/**
+	 * Gets many keys at once. All the objects are requested in one pass and every
+	 * distinct invalidation key is fetched only once for the whole batch.
+	 * 
+	 * Every key gets the same result that getCacheObject would return, errors are
+	 * returned inside each result. A null collection is reported as an ERROR
+	 * result of the null key.
+	 * 
+	 * @param keys
+	 * @param timeoutMillis
+	 * @return a map with one result per distinct key, in the keys order
+	 */
+	public Map<String, CacheGetResult> getCacheObjects(Collection<String> keys, long timeoutMillis);
+
+	/**
+	 * Allow async bulk get
+	 * 
+	 * @param keys
+	 * @return
+	 */
+	public Future<Map<String, CacheGetResult>> asyncGetCacheObjects(Collection<String> keys);
+
+	/**
+	 * @param key
+	 * @param loader
+	 * @return getOrLoad(key, loader, null);
+	 */
+	public Object getOrLoad(String key, Callable<?> loader) throws TimeoutException, Exception;
+
+	/**
+	 * Read through get. In the cases where get returns null (MISS, which includes
+	 * the hard invalidation, EXPIRED and INVALIDATED) the value is obtained from
+	 * the loader and stored with asyncSet.
+	 * 
+	 * Only one loader per key runs at a time in this client, the concurrent callers
+	 * of the same key wait for that load and get its value or its exception, up
+	 * to the loadWaitTimeoutMillis.
+	 * 
+	 * In case of TIMEOUT or ERROR of the cache throws the Exception like get does.
+	 * 
+	 * @param key
+	 * @param loader
+	 * @param invalidationKeys used to store the loaded value
+	 * @return the cached or the loaded value
+	 * @throws TimeoutException
+	 * @throws Exception
+	 */
+	public Object getOrLoad(String key, Callable<?> loader, String[] invalidationKeys)
+			throws TimeoutException, Exception;
+
 	/**
 	 * Almacena un valor, como timeout utiliza el default, en caso de falla
 	 * retornará una exepcion
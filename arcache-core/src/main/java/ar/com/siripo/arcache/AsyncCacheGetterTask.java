@@ -0,0 +1,218 @@
+package ar.com.siripo.arcache;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ar.com.siripo.arcache.backend.ArcacheAsyncBackendClientAdapter;
+import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.ListenableFutures;
+import ar.com.siripo.arcache.util.RandomSource;
+import ar.com.siripo.arcache.util.SettableFuture;
+
+/**
+ * Non blocking version of CacheGetterTask. The main fetch, the invalidation
+ * keys fetches and the evaluation are chained as callbacks, so no thread is
+ * parked while the backend works. The main object is requested with the
+ * listenable operation of the backend, the plain backends are lifted by
+ * ArcacheAsyncBackendClientAdapter.
+ *
+ * The task always completes with a CacheGetResult, the failures are reported
+ * inside it like getCacheObject does. When the timeout elapses it completes with
+ * a TIMEOUT result. The relaxed timeout is not applied because there is no
+ * waiting thread that can be delayed by a heavy load.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class AsyncCacheGetterTask extends CacheGetterTask implements ListenableFuture<CacheGetResult> {
+
+	protected final SettableFuture<CacheGetResult> result = new SettableFuture<CacheGetResult>();
+	protected final AtomicBoolean completed = new AtomicBoolean(false);
+	protected final long startTimeMillis;
+	protected Future<?> timeoutFuture;
+
+	protected AsyncCacheGetterTask(String key, ArcacheBackendClient backendClient,
+			ArcacheBackendClient invalidationBackendClient, BackendKeyBuilder keyBuilder,
+			ArcacheConfigurationGetInterface config, RandomSource random, long timeoutMillis) {
+		super(key, backendClient, invalidationBackendClient, keyBuilder, config, random, null,
+				ArcacheAsyncBackendClientAdapter.lift(backendClient).listenableGet(keyBuilder.createBackendKey(key)));
+		this.startTimeMillis = System.currentTimeMillis();
+
+		timeoutFuture = ListenableFutures.schedule(new Runnable() {
+			@Override
+			public void run() {
+				complete(CacheGetResult.createFromException(new TimeoutException()));
+			}
+		}, timeoutMillis);
+
+		ListenableFutures.listen(mainFutureGet).addListener(new FutureListener<Object>() {
+			@Override
+			public void onComplete(ListenableFuture<Object> future) {
+				onMainObject(future);
+			}
+		});
+	}
+
+	protected void onMainObject(final ListenableFuture<Object> future) {
+		try {
+			Object rawCachedObject = future.get(0, TimeUnit.MILLISECONDS);
+			measureMainFetch();
+
+			CacheGetResult earlyResult = evaluateRawCachedObject(rawCachedObject);
+			if (earlyResult != null) {
+				complete(earlyResult);
+				return;
+			}
+
+			final ExpirableCacheObject cachedObject = (ExpirableCacheObject) rawCachedObject;
+			final boolean hasInvalidationKeys = (cachedObject.invalidationKeys != null)
+					&& (cachedObject.invalidationKeys.length > 0);
+			if ((!hasInvalidationKeys && (namespaceInvalidation == null))
+					|| isStoredInsideTimeMeasurementError(cachedObject, startTimeMillis)) {
+				complete(createResult(cachedObject, null, NOT_INVALIDATED, startTimeMillis));
+				return;
+			}
+
+			if ((namespaceInvalidation == null) || namespaceInvalidation.isLoaded()) {
+				onCachedObject(cachedObject,
+						(namespaceInvalidation == null) ? null : namespaceInvalidation.get(0));
+				return;
+			}
+
+			// Only the first gets wait the namespace invalidation
+			namespaceInvalidation.load().addListener(new FutureListener<Object>() {
+				@Override
+				public void onComplete(ListenableFuture<Object> f) {
+					try {
+						onCachedObject(cachedObject, NamespaceInvalidation.toInvalidationObject(f.get()));
+					} catch (Exception e) {
+						complete(CacheGetResult.createFromException(e));
+					}
+				}
+			});
+		} catch (Exception e) {
+			complete(CacheGetResult.createFromException(e));
+		}
+	}
+
+	/** Evaluates the namespace invalidation, then requests the invalidation keys */
+	protected void onCachedObject(final ExpirableCacheObject cachedObject,
+			final CacheInvalidationObject namespaceInvalidationObject) {
+		try {
+			final int namespaceInvalidationStatus = getInvalidationStatus(cachedObject, namespaceInvalidationObject);
+			if (namespaceInvalidationStatus != NOT_INVALIDATED) {
+				complete(createResult(cachedObject, NamespaceInvalidation.INVALIDATION_KEY,
+						namespaceInvalidationStatus, startTimeMillis));
+				return;
+			}
+			if ((cachedObject.invalidationKeys == null) || (cachedObject.invalidationKeys.length <= 0)) {
+				complete(createResult(cachedObject, null, NOT_INVALIDATED, startTimeMillis));
+				return;
+			}
+
+			final Future<Object>[] futures;
+			synchronized (this) {
+				requestInvalidationObjects(cachedObject.invalidationKeys);
+				futures = invalidationFutureGets;
+			}
+
+			// The evaluation is done when the last invalidation key arrives
+			final AtomicInteger pending = new AtomicInteger(futures.length);
+			FutureListener<Object> listener = new FutureListener<Object>() {
+				@Override
+				public void onComplete(ListenableFuture<Object> f) {
+					if (pending.decrementAndGet() == 0) {
+						onInvalidationKeys(cachedObject, futures);
+					}
+				}
+			};
+			for (Future<Object> f : futures) {
+				ListenableFutures.listen(f).addListener(listener);
+			}
+		} catch (Exception e) {
+			complete(CacheGetResult.createFromException(e));
+		}
+	}
+
+	/** Evaluates the invalidation objects in the order of the invalidation keys */
+	protected void onInvalidationKeys(final ExpirableCacheObject cachedObject, final Future<Object>[] futures) {
+		try {
+			if (tracker != null) {
+				invalidationFetchNanos = System.nanoTime() - invalidationRequestNanos;
+			}
+			final String[] invalidationKeys = cachedObject.invalidationKeys;
+			for (int i = 0; i < futures.length; i++) {
+				int invalidationStatus = getInvalidationStatus(cachedObject,
+						getsCacheInvalidationObjectFromFuture(futures[i], 0));
+				if (invalidationStatus != NOT_INVALIDATED) {
+					complete(createResult(cachedObject, invalidationKeys[i], invalidationStatus, startTimeMillis));
+					return;
+				}
+			}
+			complete(createResult(cachedObject, null, NOT_INVALIDATED, startTimeMillis));
+		} catch (Exception e) {
+			complete(CacheGetResult.createFromException(e));
+		}
+	}
+
+	/**
+	 * Only the first completion wins. It is described and tracked before it is
+	 * published, so the caller sees the diagnostics and the metrics already updated
+	 */
+	protected void complete(final CacheGetResult cacheGetResult) {
+		if (result.isDone() || !completed.compareAndSet(false, true)) {
+			return;
+		}
+		if (tracker != null) {
+			describeResult(cacheGetResult);
+			trackGet(cacheGetResult);
+		}
+		result.set(cacheGetResult);
+		// The timeout can fire before timeoutFuture is assigned, then it is null
+		if (timeoutFuture != null) {
+			timeoutFuture.cancel(false);
+		}
+	}
+
+	@Override
+	public void addListener(FutureListener<CacheGetResult> listener) {
+		result.addListener(listener);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!result.cancel(mayInterruptIfRunning)) {
+			return false;
+		}
+		timeoutFuture.cancel(false);
+		return super.cancel(mayInterruptIfRunning);
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return result.isCancelled();
+	}
+
+	@Override
+	public boolean isDone() {
+		return result.isDone();
+	}
+
+	@Override
+	public CacheGetResult get() throws InterruptedException, ExecutionException {
+		return result.get();
+	}
+
+	@Override
+	public CacheGetResult get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		return result.get(timeout, unit);
+	}
+
+}
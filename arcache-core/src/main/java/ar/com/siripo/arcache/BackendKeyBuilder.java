@@ -5,4 +5,6 @@ interface BackendKeyBuilder {
 	String createBackendKey(String userKey);
 
 	String createInvalidationBackendKey(String invalidationKey);
+
+	String createInvalidationBucketBackendKey(int bucket);
 }
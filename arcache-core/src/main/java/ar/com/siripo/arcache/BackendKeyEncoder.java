@@ -0,0 +1,136 @@
+package ar.com.siripo.arcache;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the backend keys from prefixes computed once, as String and as UTF-8
+ * bytes for the binary protocol backends. The set of invalidation keys is
+ * usually small and stable, so their backend keys are kept in a bounded cache
+ * that is cleared when it is full.
+ *
+ * The encoder is immutable, when the namespace or the delimiter change a new
+ * one is built. A null key is appended as "null", like a concatenation does.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class BackendKeyEncoder implements BackendKeyBuilder {
+
+	public static final int DEFAULT_MAX_CACHED_INVALIDATION_KEYS = 10000;
+
+	/** Appended to the invalidation key prefix to build the keys of the invalidation buckets */
+	public static final String INVALIDATION_BUCKET_SUFFIX = "Bucket";
+
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	protected final String keyPrefix;
+	protected final byte[] keyPrefixBytes;
+	protected final String invalidationKeyPrefix;
+	protected final byte[] invalidationKeyPrefixBytes;
+	protected final String invalidationBucketKeyPrefix;
+	protected final int maxCachedInvalidationKeys;
+	protected final ConcurrentHashMap<String, String> invalidationBackendKeys;
+
+	/**
+	 * @param keyNamespace              the namespace, null when the keys have no
+	 *                                  namespace
+	 * @param keyDelimiter
+	 * @param invalidationKeyPrefix
+	 * @param maxCachedInvalidationKeys the maximum invalidation backend keys kept
+	 *                                  in the cache, 0 disables the cache
+	 */
+	public BackendKeyEncoder(String keyNamespace, String keyDelimiter, String invalidationKeyPrefix,
+			int maxCachedInvalidationKeys) {
+		if ((keyDelimiter == null) || (invalidationKeyPrefix == null)) {
+			throw new IllegalArgumentException();
+		}
+		if (maxCachedInvalidationKeys < 0) {
+			throw new IllegalArgumentException("Invalid max cached invalidation keys");
+		}
+		this.keyPrefix = (keyNamespace == null) ? "" : keyNamespace + keyDelimiter;
+		this.keyPrefixBytes = keyPrefix.getBytes(UTF8);
+		this.invalidationKeyPrefix = keyPrefix + invalidationKeyPrefix + keyDelimiter;
+		this.invalidationKeyPrefixBytes = this.invalidationKeyPrefix.getBytes(UTF8);
+		this.invalidationBucketKeyPrefix = keyPrefix + invalidationKeyPrefix + INVALIDATION_BUCKET_SUFFIX
+				+ keyDelimiter;
+		this.maxCachedInvalidationKeys = maxCachedInvalidationKeys;
+		this.invalidationBackendKeys = new ConcurrentHashMap<String, String>();
+	}
+
+	@Override
+	public String createBackendKey(final String userKey) {
+		if (keyPrefix.length() == 0) {
+			return userKey;
+		}
+		if (userKey == null) {
+			return keyPrefix + userKey;
+		}
+		return keyPrefix.concat(userKey);
+	}
+
+	@Override
+	public String createInvalidationBackendKey(final String invalidationKey) {
+		if (invalidationKey == null) {
+			// The cache does not accept null keys
+			return invalidationKeyPrefix + invalidationKey;
+		}
+		String backendKey = invalidationBackendKeys.get(invalidationKey);
+		if (backendKey != null) {
+			return backendKey;
+		}
+		backendKey = invalidationKeyPrefix.concat(invalidationKey);
+		if (maxCachedInvalidationKeys > 0) {
+			if (invalidationBackendKeys.size() >= maxCachedInvalidationKeys) {
+				invalidationBackendKeys.clear();
+			}
+			invalidationBackendKeys.put(invalidationKey, backendKey);
+		}
+		return backendKey;
+	}
+
+	@Override
+	public String createInvalidationBucketBackendKey(final int bucket) {
+		return invalidationBucketKeyPrefix.concat(Integer.toString(bucket));
+	}
+
+	/** @return the backend key encoded in UTF-8 */
+	public byte[] createBackendKeyBytes(final String userKey) {
+		return encode(keyPrefixBytes, userKey);
+	}
+
+	/** @return the invalidation backend key encoded in UTF-8 */
+	public byte[] createInvalidationBackendKeyBytes(final String invalidationKey) {
+		return encode(invalidationKeyPrefixBytes, invalidationKey);
+	}
+
+	public int getMaxCachedInvalidationKeys() {
+		return maxCachedInvalidationKeys;
+	}
+
+	/**
+	 * Appends the key to the encoded prefix. The ASCII keys, the usual case, are
+	 * copied in a single array without the intermediate encoding.
+	 */
+	protected static byte[] encode(final byte[] prefix, final String userKey) {
+		final String key = String.valueOf(userKey);
+		final int length = key.length();
+		for (int i = 0; i < length; i++) {
+			if (key.charAt(i) >= 0x80) {
+				byte[] encodedKey = key.getBytes(UTF8);
+				byte[] bytes = new byte[prefix.length + encodedKey.length];
+				System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+				System.arraycopy(encodedKey, 0, bytes, prefix.length, encodedKey.length);
+				return bytes;
+			}
+		}
+
+		byte[] bytes = new byte[prefix.length + length];
+		System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+		for (int i = 0; i < length; i++) {
+			bytes[prefix.length + i] = (byte) key.charAt(i);
+		}
+		return bytes;
+	}
+
+}
@@ -0,0 +1,243 @@
+package ar.com.siripo.arcache;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.MultiKeyBackendOperations;
+import ar.com.siripo.arcache.util.MultiKeyEntryFuture;
+import ar.com.siripo.arcache.util.RandomSource;
+
+/**
+ * Gets many keys sharing the invalidation keys fetches.
+ * 
+ * There is one CacheGetterTask per key, so every result is exactly what a
+ * single get returns. All the tasks share the invalidation futures, then an
+ * invalidation key used by many objects is fetched only once.
+ * 
+ * The work is done in two passes. First all the main objects are retrieved in
+ * one multi get and all the invalidation keys are requested in another one.
+ * Then every task is completed, at that point all the backend operations are
+ * already in flight.
+ * 
+ * All the keys share one deadline. In relaxed mode it is extended once for the
+ * whole bulk, so it never waits more than twice the timeout.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public class BulkCacheGetterTask implements Future<Map<String, CacheGetResult>> {
+
+	protected final LinkedHashMap<String, CacheGetterTask> tasks;
+	protected final HashMap<String, Future<Object>> invalidationKeysFutureGets;
+	protected Future<Map<String, Object>> mainFutureGets; // Shared by the tasks, cancelled with the bulk
+	protected final ArcacheConfigurationGetInterface config;
+	protected boolean relaxOperationTimeoutInHeavyLoadSystem;
+	/** The start of the extended time window, or -1 while it was not extended */
+	protected long relaxedStartTimeMillis = -1;
+	protected boolean cancelled = false;
+	protected boolean done = false;
+	protected Map<String, CacheGetResult> valueToReturn;
+
+	protected BulkCacheGetterTask(Collection<String> keys, ArcacheBackendClient backendClient,
+			ArcacheBackendClient invalidationBackendClient, BackendKeyBuilder keyBuilder,
+			ArcacheConfigurationGetInterface config, RandomSource random) {
+		this.config = config;
+		this.relaxOperationTimeoutInHeavyLoadSystem = config.getRelaxOperationTimeoutInHeavyLoadSystem();
+		this.tasks = new LinkedHashMap<String, CacheGetterTask>();
+		this.invalidationKeysFutureGets = new HashMap<String, Future<Object>>();
+
+		// All the main objects are requested in a single backend operation
+		LinkedHashMap<String, String> backendKeys = new LinkedHashMap<String, String>();
+		for (String key : keys) {
+			if (key != null && !key.equals("") && !backendKeys.containsKey(key)) {
+				backendKeys.put(key, keyBuilder.createBackendKey(key));
+			}
+		}
+		if (!backendKeys.isEmpty()) {
+			mainFutureGets = MultiKeyBackendOperations.asyncMultiGet(backendClient, backendKeys.values());
+		}
+
+		for (String key : keys) {
+			if (!tasks.containsKey(key)) {
+				Future<Object> mainFutureGet = null;
+				if (backendKeys.containsKey(key)) {
+					mainFutureGet = new MultiKeyEntryFuture<Object>(mainFutureGets, backendKeys.get(key));
+				}
+				CacheGetterTask task = buildCacheGetterTask(key, backendClient, invalidationBackendClient, keyBuilder,
+						random, mainFutureGet);
+				if (task != null) {
+					// The timeout is relaxed by the bulk, not once per key
+					task.relaxOperationTimeoutInHeavyLoadSystem = false;
+				}
+				tasks.put(key, task);
+			}
+		}
+	}
+
+	protected CacheGetterTask buildCacheGetterTask(String key, ArcacheBackendClient backendClient,
+			ArcacheBackendClient invalidationBackendClient, BackendKeyBuilder keyBuilder, RandomSource random,
+			Future<Object> mainFutureGet) {
+		if (key == null || key.equals("")) {
+			return null;
+		}
+		return new CacheGetterTask(key, backendClient, invalidationBackendClient, keyBuilder, config, random,
+				invalidationKeysFutureGets, mainFutureGet);
+	}
+
+	@Override
+	public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+		if (cancelled || done) {
+			return false;
+		}
+		for (CacheGetterTask task : tasks.values()) {
+			if (task != null) {
+				task.cancel(mayInterruptIfRunning);
+			}
+		}
+		if (mainFutureGets != null) {
+			mainFutureGets.cancel(mayInterruptIfRunning);
+		}
+		cancelled = true;
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done;
+	}
+
+	@Override
+	public Map<String, CacheGetResult> get() throws InterruptedException, ExecutionException {
+		try {
+			return get(config.getDefaultOperationTimeoutMillis(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException toe) {
+			throw new ExecutionException(toe);
+		}
+	}
+
+	@Override
+	public Map<String, CacheGetResult> get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		final long timeoutMillis = unit.toMillis(timeout);
+		final long startTimeMillis = System.currentTimeMillis();
+		return doTask(startTimeMillis, timeoutMillis);
+	}
+
+	protected synchronized Map<String, CacheGetResult> doTask(final long startTimeMillis, final long timeoutMillis)
+			throws InterruptedException {
+
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (done) {
+			return valueToReturn;
+		}
+
+		// First pass, request all the invalidation keys of the retrieved objects
+		LinkedHashSet<String> invalidationKeys = new LinkedHashSet<String>();
+		CacheGetterTask anyTask = null;
+		for (CacheGetterTask task : tasks.values()) {
+			if (task != null) {
+				collectInvalidationKeys(task, startTimeMillis, timeoutMillis, invalidationKeys);
+				anyTask = task;
+			}
+		}
+		if (!invalidationKeys.isEmpty()) {
+			// The futures map is shared, so any task can request the keys for all
+			anyTask.requestInvalidationKeys(invalidationKeys.toArray(new String[invalidationKeys.size()]));
+		}
+
+		// Second pass, every task completes with its own evaluation
+		LinkedHashMap<String, CacheGetResult> results = new LinkedHashMap<String, CacheGetResult>();
+		for (Map.Entry<String, CacheGetterTask> entry : tasks.entrySet()) {
+			results.put(entry.getKey(), completeTask(entry.getValue(), startTimeMillis, timeoutMillis));
+		}
+
+		done = true;
+		valueToReturn = results;
+		return valueToReturn;
+	}
+
+	/**
+	 * In relaxed mode, the first time the timeout elapses a new time window starts
+	 * for all the keys that are not completed
+	 * 
+	 * @return the start of the current time window
+	 */
+	protected long windowStartTimeMillis(final long startTimeMillis, final long timeoutMillis) {
+		if (relaxedStartTimeMillis >= 0) {
+			return relaxedStartTimeMillis;
+		}
+		final long currentTimeMillis = System.currentTimeMillis();
+		if (relaxOperationTimeoutInHeavyLoadSystem && (currentTimeMillis - startTimeMillis >= timeoutMillis)) {
+			relaxedStartTimeMillis = currentTimeMillis;
+			return relaxedStartTimeMillis;
+		}
+		return startTimeMillis;
+	}
+
+	/**
+	 * Waits the main object of the task and collects its invalidation keys. The
+	 * failures are ignored here because the task will find them again when it is
+	 * completed
+	 */
+	protected void collectInvalidationKeys(final CacheGetterTask task, final long startTimeMillis,
+			final long timeoutMillis, final Collection<String> invalidationKeysCollector)
+			throws InterruptedException {
+		final long windowStartTimeMillis = windowStartTimeMillis(startTimeMillis, timeoutMillis);
+		final long remainingTimeMillis = timeoutMillis - (System.currentTimeMillis() - windowStartTimeMillis);
+		if (remainingTimeMillis <= 0) {
+			return;
+		}
+		try {
+			Object rawCachedObject = task.mainFutureGet.get(remainingTimeMillis, TimeUnit.MILLISECONDS);
+			if (rawCachedObject instanceof ExpirableCacheObject) {
+				String[] invalidationKeys = ((ExpirableCacheObject) rawCachedObject).invalidationKeys;
+				if (invalidationKeys != null) {
+					invalidationKeysCollector.addAll(Arrays.asList(invalidationKeys));
+				}
+			}
+		} catch (InterruptedException ie) {
+			throw ie;
+		} catch (Exception e) {
+		}
+	}
+
+	protected CacheGetResult completeTask(final CacheGetterTask task, final long startTimeMillis,
+			final long timeoutMillis) throws InterruptedException {
+		if (task == null) {
+			return CacheGetResult.createFromException(new IllegalArgumentException());
+		}
+		try {
+			final long windowStartTimeMillis = windowStartTimeMillis(startTimeMillis, timeoutMillis);
+			if (windowStartTimeMillis != startTimeMillis) {
+				task.relaxedTimeoutApplied = true;
+			}
+			CacheGetResult r = task.doTask(windowStartTimeMillis, timeoutMillis);
+			if (r == null) {
+				throw new NullPointerException();
+			}
+			return r;
+		} catch (InterruptedException ie) {
+			throw ie;
+		} catch (Exception e) {
+			return CacheGetResult.createFromException(e);
+		}
+	}
+
+}
@@ -0,0 +1,363 @@
+package ar.com.siripo.arcache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.MultiKeyBackendOperations;
+
+/**
+ * Invalidates many keys at once. It does the same read modify write of
+ * InvalidateKeyTask, but all the previous invalidation objects are requested in
+ * one multi get and all the new ones are stored in one multi set, so the batch
+ * costs two backend operations instead of two round trips per key.
+ * 
+ * The result has one entry per distinct key, false when that key could not be
+ * stored. A previous invalidation object that can not be read is treated as a
+ * miss, like InvalidateKeyTask does, except for the buckets. The keys of a
+ * bucket that can not be read are not stored, writing the bucket without its
+ * previous entries erases the invalidations of the other keys.
+ * 
+ * When the invalidation keys are bucketed the keys of the same bucket are
+ * merged in one copy of the bucket record, so the batch still costs one multi
+ * get and one multi set, plus the read again of the buckets to detect the
+ * entries overwritten by concurrent invalidations. Like InvalidateKeyTask the
+ * buckets are read and written on the remote backend.
+ * 
+ * The stored backend keys are published in the invalidation bus in one batch.
+ * 
+ * @author Mariano Santamarina
+ *
+ */
+public class BulkInvalidateKeysTask implements Future<Map<String, Boolean>> {
+
+	protected final LinkedHashMap<String, String> backendKeys; // By user key, in the keys order
+	protected final boolean bucketed; // Then many keys can have the same bucket record backend key
+	protected final boolean hardInvalidation;
+	protected final long invalidationWindowMillis;
+	protected final ArcacheBackendClient backendClient;
+	protected final ArcacheBackendClient recordBackendClient; // The remote backend when bucketed
+	protected final ArcacheConfigurationGetInterface config;
+	protected final ArcacheClientTracker tracker;
+	protected final long startNanos; // Only measured when there is a tracker
+
+	protected boolean cancelled = false;
+	protected boolean done = false;
+	protected Map<String, Boolean> valueToReturn;
+
+	protected Future<Map<String, Object>> prevVersionsGetFuture;
+	protected Future<Map<String, Boolean>> setFuture;
+
+	protected BulkInvalidateKeysTask(Collection<String> keys, boolean hardInvalidation, long invalidationWindowMillis,
+			ArcacheBackendClient backendClient, BackendKeyBuilder keyBuilder, ArcacheConfigurationGetInterface config) {
+		this.backendKeys = new LinkedHashMap<String, String>();
+		this.bucketed = config.getInvalidationKeyBuckets() > 0;
+		for (String key : keys) {
+			if (!backendKeys.containsKey(key)) {
+				backendKeys.put(key,
+						bucketed ? keyBuilder.createInvalidationBucketBackendKey(
+								CacheInvalidationBucket.bucketOf(key, config.getInvalidationKeyBuckets()))
+								: keyBuilder.createInvalidationBackendKey(key));
+			}
+		}
+		this.hardInvalidation = hardInvalidation;
+		this.invalidationWindowMillis = invalidationWindowMillis;
+		this.backendClient = backendClient;
+		this.recordBackendClient = bucketed ? InvalidateKeyTask.remoteBackendClient(backendClient) : backendClient;
+		this.config = config;
+		this.tracker = config.getTracker();
+		this.startNanos = (tracker != null) ? System.nanoTime() : 0;
+		start();
+	}
+
+	private void start() {
+		prevVersionsGetFuture = MultiKeyBackendOperations.asyncMultiGet(recordBackendClient,
+				new LinkedHashSet<String>(backendKeys.values()));
+	}
+
+	@Override
+	public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+		if (cancelled || done) {
+			return false;
+		}
+		if (prevVersionsGetFuture != null) {
+			prevVersionsGetFuture.cancel(mayInterruptIfRunning);
+		}
+		if (setFuture != null) {
+			setFuture.cancel(mayInterruptIfRunning);
+		}
+		cancelled = true;
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done;
+	}
+
+	@Override
+	public Map<String, Boolean> get() throws InterruptedException, ExecutionException {
+		try {
+			return get(config.getDefaultOperationTimeoutMillis(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException toe) {
+			throw new ExecutionException(toe);
+		}
+	}
+
+	@Override
+	public Map<String, Boolean> get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		final long timeoutMillis = unit.toMillis(timeout);
+		final long startTimeMillis = System.currentTimeMillis();
+		return doTask(startTimeMillis, timeoutMillis);
+	}
+
+	protected synchronized Map<String, Boolean> doTask(final long startTimeMillis, final long timeoutMillis)
+			throws InterruptedException, ExecutionException, TimeoutException {
+
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (done) {
+			return valueToReturn;
+		}
+		if (tracker == null) {
+			return invalidate(startTimeMillis, timeoutMillis);
+		}
+
+		Map<String, Boolean> stored = null;
+		try {
+			stored = invalidate(startTimeMillis, timeoutMillis);
+		} finally {
+			final long elapsedNanos = System.nanoTime() - startNanos;
+			for (String key : backendKeys.keySet()) {
+				tracker.trackInvalidation(key, hardInvalidation, elapsedNanos,
+						(stored != null) && Boolean.TRUE.equals(stored.get(key)));
+			}
+		}
+		return stored;
+	}
+
+	/** Stores the new invalidation objects, the result is stored when it is done */
+	protected Map<String, Boolean> invalidate(final long startTimeMillis, final long timeoutMillis)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		Map<String, Object> previousInvalidationObjects = getPreviousInvalidationObjects(startTimeMillis,
+				timeoutMillis);
+
+		Map<String, Boolean> storedBackendKeys;
+		if (bucketed) {
+			LinkedHashMap<String, Map<String, CacheInvalidationObject>> bucketEntries = createBucketEntries(
+					startTimeMillis, previousInvalidationObjects);
+			LinkedHashMap<String, Object> buckets = new LinkedHashMap<String, Object>();
+			for (Map.Entry<String, Map<String, CacheInvalidationObject>> entry : bucketEntries.entrySet()) {
+				buckets.put(entry.getKey(), mergeIntoBucket(previousInvalidationObjects.get(entry.getKey()),
+						startTimeMillis, entry.getValue()));
+			}
+			storedBackendKeys = new LinkedHashMap<String, Boolean>();
+			if (!buckets.isEmpty()) {
+				try {
+					storedBackendKeys.putAll(setInvalidationObjects(startTimeMillis, timeoutMillis, buckets));
+					mergeLostBucketEntries(startTimeMillis, timeoutMillis, bucketEntries, storedBackendKeys);
+				} finally {
+					for (String backendKey : buckets.keySet()) {
+						InvalidateKeyTask.evictLocalCopies(backendClient, backendKey);
+					}
+				}
+			}
+		} else {
+			LinkedHashMap<String, Object> invalidationObjects = new LinkedHashMap<String, Object>();
+			for (String backendKey : backendKeys.values()) {
+				Object previous = previousInvalidationObjects.get(backendKey);
+				invalidationObjects.put(backendKey,
+						InvalidateKeyTask.createInvalidationObject(startTimeMillis, hardInvalidation,
+								invalidationWindowMillis,
+								(previous instanceof CacheInvalidationObject) ? (CacheInvalidationObject) previous
+										: null));
+			}
+			storedBackendKeys = setInvalidationObjects(startTimeMillis, timeoutMillis, invalidationObjects);
+		}
+
+		LinkedHashMap<String, Boolean> result = new LinkedHashMap<String, Boolean>();
+		for (Map.Entry<String, String> entry : backendKeys.entrySet()) {
+			result.put(entry.getKey(), Boolean.TRUE.equals(storedBackendKeys.get(entry.getValue())));
+		}
+		ArrayList<String> publishedBackendKeys = new ArrayList<String>(storedBackendKeys.size());
+		for (Map.Entry<String, Boolean> entry : storedBackendKeys.entrySet()) {
+			if (Boolean.TRUE.equals(entry.getValue())) {
+				publishedBackendKeys.add(entry.getKey());
+			}
+		}
+		InvalidateKeyTask.publishInvalidations(config.getInvalidationBus(), publishedBackendKeys, tracker);
+
+		valueToReturn = result;
+		done = true;
+
+		return valueToReturn;
+	}
+
+	/**
+	 * @return the new invalidation objects grouped by bucket backend key, without
+	 *         the buckets that could not be read
+	 */
+	protected LinkedHashMap<String, Map<String, CacheInvalidationObject>> createBucketEntries(
+			final long startTimeMillis, final Map<String, Object> previousBuckets) {
+		LinkedHashMap<String, Map<String, CacheInvalidationObject>> bucketEntries =
+				new LinkedHashMap<String, Map<String, CacheInvalidationObject>>();
+		if (previousBuckets == null) {
+			return bucketEntries;
+		}
+		for (Map.Entry<String, String> entry : backendKeys.entrySet()) {
+			Object rawBucket = previousBuckets.get(entry.getValue());
+			CacheInvalidationBucket previousBucket = CacheInvalidationBucket.toBucket(rawBucket);
+			if ((previousBucket == null) && (rawBucket != null)) {
+				continue;
+			}
+			Map<String, CacheInvalidationObject> entries = bucketEntries.get(entry.getValue());
+			if (entries == null) {
+				entries = new LinkedHashMap<String, CacheInvalidationObject>();
+				bucketEntries.put(entry.getValue(), entries);
+			}
+			entries.put(entry.getKey(), InvalidateKeyTask.createInvalidationObject(startTimeMillis, hardInvalidation,
+					invalidationWindowMillis, (previousBucket == null) ? null : previousBucket.get(entry.getKey())));
+		}
+		return bucketEntries;
+	}
+
+	protected CacheInvalidationBucket mergeIntoBucket(final Object previousBucket, final long startTimeMillis,
+			final Map<String, CacheInvalidationObject> entries) {
+		return CacheInvalidationBucket.merge(CacheInvalidationBucket.toBucket(previousBucket), entries,
+				startTimeMillis - config.getDefaultStoredObjectRemovalTimeMillis());
+	}
+
+	/**
+	 * Reads the stored buckets again and merges once more the entries overwritten
+	 * by concurrent invalidations, like InvalidateKeyTask does. The stored flags
+	 * are updated with the result of the second write, a failure reading the
+	 * buckets again keeps them, and a bucket of an unexpected type is not
+	 * overwritten.
+	 */
+	protected void mergeLostBucketEntries(final long startTimeMillis, final long timeoutMillis,
+			final Map<String, Map<String, CacheInvalidationObject>> bucketEntries,
+			final Map<String, Boolean> storedBackendKeys) throws InterruptedException {
+		try {
+			LinkedHashSet<String> storedBuckets = new LinkedHashSet<String>();
+			for (String backendKey : bucketEntries.keySet()) {
+				if (Boolean.TRUE.equals(storedBackendKeys.get(backendKey))) {
+					storedBuckets.add(backendKey);
+				}
+			}
+			long remainingTimeMillis = timeoutMillis - (System.currentTimeMillis() - startTimeMillis);
+			if (storedBuckets.isEmpty() || (remainingTimeMillis <= 0)) {
+				return;
+			}
+			Map<String, Object> currentBuckets = MultiKeyBackendOperations
+					.asyncMultiGet(recordBackendClient, storedBuckets).get(remainingTimeMillis, TimeUnit.MILLISECONDS);
+			if (currentBuckets == null) {
+				return;
+			}
+
+			LinkedHashMap<String, Object> buckets = new LinkedHashMap<String, Object>();
+			for (String backendKey : storedBuckets) {
+				Map<String, CacheInvalidationObject> entries = bucketEntries.get(backendKey);
+				Object rawBucket = currentBuckets.get(backendKey);
+				CacheInvalidationBucket bucket = CacheInvalidationBucket.toBucket(rawBucket);
+				if ((bucket == null) && (rawBucket != null)) {
+					continue;
+				}
+				if (hasLostEntries(bucket, entries)) {
+					buckets.put(backendKey, mergeIntoBucket(currentBuckets.get(backendKey), startTimeMillis, entries));
+				}
+			}
+			if (buckets.isEmpty()) {
+				return;
+			}
+			Map<String, Boolean> stored = setInvalidationObjects(startTimeMillis, timeoutMillis, buckets);
+			for (String backendKey : buckets.keySet()) {
+				storedBackendKeys.put(backendKey, Boolean.TRUE.equals(stored.get(backendKey)));
+			}
+		} catch (InterruptedException ie) {
+			throw ie;
+		} catch (Exception e) {
+			// The first write was already stored
+		}
+	}
+
+	protected static boolean hasLostEntries(final CacheInvalidationBucket bucket,
+			final Map<String, CacheInvalidationObject> entries) {
+		for (Map.Entry<String, CacheInvalidationObject> entry : entries.entrySet()) {
+			CacheInvalidationObject current = (bucket == null) ? null : bucket.get(entry.getKey());
+			if ((current == null)
+					|| (current.invalidationTimestampMillis < entry.getValue().invalidationTimestampMillis)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the previous objects by backend key, empty when they can not be read,
+	 *         or null when they are buckets
+	 */
+	protected Map<String, Object> getPreviousInvalidationObjects(final long startTimeMillis,
+			final long timeoutMillis) throws InterruptedException, TimeoutException {
+		try {
+			long remainingTimeMillis = timeoutMillis - (System.currentTimeMillis() - startTimeMillis);
+			if (remainingTimeMillis <= 0) {
+				throw new TimeoutException();
+			}
+			Map<String, Object> previous = prevVersionsGetFuture.get(remainingTimeMillis, TimeUnit.MILLISECONDS);
+			if (previous == null) {
+				return new LinkedHashMap<String, Object>();
+			}
+			return previous;
+		} catch (TimeoutException te) {
+			throw te;
+		} catch (InterruptedException ie) {
+			throw ie;
+		} catch (Exception e) {
+			if (bucketed) {
+				return null;
+			}
+			// treat all as miss
+			return new LinkedHashMap<String, Object>();
+		}
+	}
+
+	/**
+	 * @return the stored flag by backend key, when the whole multi set fails every
+	 *         key is reported as not stored
+	 */
+	protected Map<String, Boolean> setInvalidationObjects(final long startTimeMillis, final long timeoutMillis,
+			final Map<String, Object> invalidationObjects) throws InterruptedException, TimeoutException {
+
+		setFuture = MultiKeyBackendOperations.asyncMultiSet(recordBackendClient, invalidationObjects,
+				config.getDefaultStoredObjectRemovalTimeMillis());
+
+		long remainingTimeMillis = timeoutMillis - (System.currentTimeMillis() - startTimeMillis);
+		if (remainingTimeMillis <= 0) {
+			throw new TimeoutException();
+		}
+		try {
+			Map<String, Boolean> stored = setFuture.get(remainingTimeMillis, TimeUnit.MILLISECONDS);
+			if (stored != null) {
+				return stored;
+			}
+		} catch (ExecutionException ee) {
+		}
+		return new LinkedHashMap<String, Boolean>();
+	}
+
+}
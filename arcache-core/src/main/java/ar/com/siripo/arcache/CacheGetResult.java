@@ -1,5 +1,8 @@
 package ar.com.siripo.arcache;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
 /**
  * Representa el resultado de una operacion de Get
  * 
@@ -30,31 +33,57 @@ public class CacheGetResult {
 
 	protected long storeTimestampMillis; // Timestamp in milliseconds where the value was stored
 
+	/*
+	 * Diagnostics of the get, only measured when the client has a tracker. The
+	 * shared MISS does not carry them
+	 */
+	protected long mainFetchNanos; // Until the main future completed, not until the caller picked it up
+
+	protected long invalidationFetchNanos; // Since the invalidation keys were requested until the last one was read
+
+	protected int invalidationKeysFetched; // The invalidation keys requested to evaluate the object
+
+	protected int invalidationKeysServedLocally; // The invalidation keys served without accessing the remote backend
+
+	protected boolean relaxedTimeoutApplied; // If the relaxed timeout extended any wait
+
+	protected boolean servedLocally; // If the main object was served without accessing the remote backend
+
+	/**
+	 * Shared by the untracked misses to avoid an allocation per get. It is
+	 * unmodifiable, its getters return constants. The tracked gets build their own
+	 * MISS to carry diagnostics
+	 */
+	protected static final CacheGetResult MISS = new SharedMiss();
+
 	public boolean isHit() {
-		return type == Type.HIT;
+		return getType() == Type.HIT;
 	}
 
 	public boolean isMiss() {
-		return type == Type.MISS;
+		return getType() == Type.MISS;
 	}
 
 	public boolean isExpired() {
-		return type == Type.EXPIRED;
+		return getType() == Type.EXPIRED;
 	}
 
 	public boolean isInvalidated() {
-		return type == Type.INVALIDATED;
+		return getType() == Type.INVALIDATED;
 	}
 
 	public boolean isHitOrExpired() {
+		final Type type = getType();
 		return type == Type.HIT || type == Type.EXPIRED;
 	}
 
 	public boolean isHitExpiredOrInvalidated() {
+		final Type type = getType();
 		return type == Type.HIT || type == Type.EXPIRED || type == Type.INVALIDATED;
 	}
 
 	public boolean isAnyTypeOfError() {
+		final Type type = getType();
 		return type == Type.TIMEOUT || type == Type.ERROR;
 	}
 
@@ -67,6 +96,20 @@ public class CacheGetResult {
 		this.errorCause = cause;
 	}
 
+	/**
+	 * Build the result that represents an exception thrown while getting a value.
+	 * TimeoutException is a TIMEOUT, any other exception is an ERROR
+	 */
+	static CacheGetResult createFromException(final Exception e) {
+		if (e instanceof TimeoutException) {
+			return new CacheGetResult(Type.TIMEOUT, e);
+		}
+		if ((e instanceof ExecutionException) && (e.getCause() instanceof Exception)) {
+			return new CacheGetResult(Type.ERROR, (Exception) e.getCause());
+		}
+		return new CacheGetResult(Type.ERROR, e);
+	}
+
 	public Object getValue() {
 		return value;
 	}
@@ -91,6 +134,136 @@ public class CacheGetResult {
 		return storeTimestampMillis;
 	}
 
+	/**
+	 * Requires an ArcacheClientTracker, without it this is always 0.
+	 * 
+	 * @return the nanoseconds since the get started until the main future
+	 *         completed, excluding the delay of the caller to pick it up. When the
+	 *         backend future can not notify its completion, until it was picked up
+	 */
+	public long getMainFetchNanos() {
+		return mainFetchNanos;
+	}
+
+	/**
+	 * Requires an ArcacheClientTracker, without it this is always 0.
+	 * 
+	 * @return the nanoseconds since the invalidation keys were requested until the
+	 *         last evaluated one was read, 0 when they were not needed
+	 */
+	public long getInvalidationFetchNanos() {
+		return invalidationFetchNanos;
+	}
+
+	/**
+	 * Requires an ArcacheClientTracker, without it this is always 0.
+	 * 
+	 * @return how many invalidation keys were requested to evaluate the object
+	 */
+	public int getInvalidationKeysFetched() {
+		return invalidationKeysFetched;
+	}
+
+	/**
+	 * Requires an ArcacheClientTracker, without it this is always 0.
+	 * 
+	 * @return how many of the fetched invalidation keys were served locally
+	 */
+	public int getInvalidationKeysServedLocally() {
+		return invalidationKeysServedLocally;
+	}
+
+	/**
+	 * Requires an ArcacheClientTracker, without it this is always false.
+	 * 
+	 * @return true when relaxOperationTimeoutInHeavyLoadSystem allowed to wait
+	 *         longer than the remaining time, the caller thread was delayed
+	 */
+	public boolean isRelaxedTimeoutApplied() {
+		return relaxedTimeoutApplied;
+	}
+
+	/**
+	 * Requires an ArcacheClientTracker, without it this is always false.
+	 * 
+	 * @return true when the main object was served by a local layer like the
+	 *         speedup caches, false when it came from the remote backend
+	 */
+	public boolean isServedLocally() {
+		return servedLocally;
+	}
+
+	/**
+	 * The shared MISS, the fields inherited are never read, so writing them does
+	 * not change it. The builders copy it through the getters
+	 */
+	private static final class SharedMiss extends CacheGetResult {
+
+		private SharedMiss() {
+			super(Type.MISS);
+		}
+
+		@Override
+		public Object getValue() {
+			return null;
+		}
+
+		@Override
+		public Exception getErrorCause() {
+			return null;
+		}
+
+		@Override
+		public Type getType() {
+			return Type.MISS;
+		}
+
+		@Override
+		public String[] getInvalidationKeys() {
+			return null;
+		}
+
+		@Override
+		public String getInvalidatedKey() {
+			return null;
+		}
+
+		@Override
+		public long getStoreTimestampMillis() {
+			return 0;
+		}
+
+		@Override
+		public long getMainFetchNanos() {
+			return 0;
+		}
+
+		@Override
+		public long getInvalidationFetchNanos() {
+			return 0;
+		}
+
+		@Override
+		public int getInvalidationKeysFetched() {
+			return 0;
+		}
+
+		@Override
+		public int getInvalidationKeysServedLocally() {
+			return 0;
+		}
+
+		@Override
+		public boolean isRelaxedTimeoutApplied() {
+			return false;
+		}
+
+		@Override
+		public boolean isServedLocally() {
+			return false;
+		}
+	}
+
 	public static class Builder {
 		private CacheGetResult build;
 
@@ -99,12 +272,18 @@ public class CacheGetResult {
 		}
 
 		public Builder(CacheGetResult ref) {
-			this(ref.type);
-			build.errorCause = ref.errorCause;
-			build.invalidatedKey = ref.invalidatedKey;
-			build.invalidationKeys = ref.invalidationKeys;
-			build.storeTimestampMillis = ref.storeTimestampMillis;
-			build.value = ref.value;
+			this(ref.getType());
+			build.errorCause = ref.getErrorCause();
+			build.invalidatedKey = ref.getInvalidatedKey();
+			build.invalidationKeys = ref.getInvalidationKeys();
+			build.storeTimestampMillis = ref.getStoreTimestampMillis();
+			build.value = ref.getValue();
+			build.mainFetchNanos = ref.getMainFetchNanos();
+			build.invalidationFetchNanos = ref.getInvalidationFetchNanos();
+			build.invalidationKeysFetched = ref.getInvalidationKeysFetched();
+			build.invalidationKeysServedLocally = ref.getInvalidationKeysServedLocally();
+			build.relaxedTimeoutApplied = ref.isRelaxedTimeoutApplied();
+			build.servedLocally = ref.isServedLocally();
 		}
 
 		public Builder withType(Type type) {
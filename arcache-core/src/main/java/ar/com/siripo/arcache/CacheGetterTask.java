@@ -1,7 +1,12 @@
 package ar.com.siripo.arcache;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Random;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -10,6 +15,12 @@ import java.util.concurrent.TimeoutException;
 
 import ar.com.siripo.arcache.CacheGetResult.Type;
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.MultiKeyBackendOperations;
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.ListenableFutures;
+import ar.com.siripo.arcache.util.MultiKeyEntryFuture;
+import ar.com.siripo.arcache.util.RandomSource;
 
 public class CacheGetterTask implements Future<CacheGetResult> {
 
@@ -18,7 +29,18 @@ public class CacheGetterTask implements Future<CacheGetResult> {
 	protected final ArcacheBackendClient invalidationBackendClient;
 	protected final BackendKeyBuilder keyBuilder;
 	protected final ArcacheConfigurationGetInterface config;
-	protected final Random random;
+	protected final RandomSource random;
+	protected final NamespaceInvalidation namespaceInvalidation;
+	protected final int invalidationKeyBuckets;
+	protected final ArcacheClientTracker tracker;
+	protected final long startNanos; // Only measured when there is a tracker
+	protected int invalidationKeysFetched;
+	protected long mainFetchNanos; // The diagnostics, only measured when there is a tracker
+	protected volatile long mainCompletedNanos; // When a listenable main future completed
+	protected volatile boolean mainCompleted = false;
+	protected long invalidationRequestNanos;
+	protected long invalidationFetchNanos;
+	protected boolean relaxedTimeoutApplied;
 	protected boolean cancelled = false;
 	protected boolean done = false;
 	protected CacheGetResult valueToReturn;
@@ -26,23 +48,62 @@ public class CacheGetterTask implements Future<CacheGetResult> {
 
 	protected Future<Object> mainFutureGet;
 	protected HashMap<String, Future<Object>> invalidationKeysFutureGets;
+	protected Future<Object>[] invalidationFutureGets; // Indexed by the position of the invalidation key
+	/** The multi gets sent by this task, cancelling their entries does not cancel them */
+	protected ArrayList<Future<Map<String, Object>>> invalidationMultiFutureGets;
 
+	protected static final int NOT_INVALIDATED = 0;
+	protected static final int SOFT_INVALIDATED = 1;
+	protected static final int HARD_INVALIDATED = 2;
+
+	protected CacheGetterTask(String key, ArcacheBackendClient backendClient,
+			ArcacheBackendClient invalidationBackendClient, BackendKeyBuilder keyBuilder,
+			ArcacheConfigurationGetInterface config, RandomSource random) {
+		this(key, backendClient, invalidationBackendClient, keyBuilder, config, random, null, null);
+	}
+
+	/**
+	 * Allows many tasks to share the invalidation keys futures, so when the same
+	 * invalidation key is requested by several tasks it is fetched only once.
+	 * 
+	 * When mainFutureGet is not null it is used instead of requesting the object
+	 * to the backend, this allows to retrieve many objects in one operation
+	 */
 	protected CacheGetterTask(String key, ArcacheBackendClient backendClient,
 			ArcacheBackendClient invalidationBackendClient, BackendKeyBuilder keyBuilder,
-			ArcacheConfigurationGetInterface config, Random random) {
+			ArcacheConfigurationGetInterface config, RandomSource random,
+			HashMap<String, Future<Object>> sharedInvalidationKeysFutureGets, Future<Object> mainFutureGet) {
 		this.key = key;
 		this.backendClient = backendClient;
 		this.invalidationBackendClient = invalidationBackendClient;
 		this.keyBuilder = keyBuilder;
 		this.config = config;
 		this.random = random;
+		this.namespaceInvalidation = config.getNamespaceInvalidation();
+		this.invalidationKeyBuckets = config.getInvalidationKeyBuckets();
+		this.tracker = config.getTracker();
+		this.startNanos = (tracker != null) ? System.nanoTime() : 0;
 		this.relaxOperationTimeoutInHeavyLoadSystem = config.getRelaxOperationTimeoutInHeavyLoadSystem();
+		this.invalidationKeysFutureGets = sharedInvalidationKeysFutureGets;
+		this.mainFutureGet = mainFutureGet;
 
 		start();
 	}
 
 	private void start() {
-		mainFutureGet = backendClient.asyncGet(keyBuilder.createBackendKey(key));
+		if (mainFutureGet == null) {
+			mainFutureGet = backendClient.asyncGet(keyBuilder.createBackendKey(key));
+		}
+		// The caller can pick up the main object later than it arrived
+		if ((tracker != null) && (mainFutureGet instanceof ListenableFuture)) {
+			((ListenableFuture<Object>) mainFutureGet).addListener(new FutureListener<Object>() {
+				@Override
+				public void onComplete(ListenableFuture<Object> future) {
+					mainCompletedNanos = System.nanoTime();
+					mainCompleted = true;
+				}
+			});
+		}
 	}
 
 	@Override
@@ -58,6 +119,16 @@ public class CacheGetterTask implements Future<CacheGetResult> {
 				f.cancel(mayInterruptIfRunning);
 			}
 		}
+		if (invalidationFutureGets != null) {
+			for (Future<Object> f : invalidationFutureGets) {
+				f.cancel(mayInterruptIfRunning);
+			}
+		}
+		if (invalidationMultiFutureGets != null) {
+			for (Future<Map<String, Object>> f : invalidationMultiFutureGets) {
+				f.cancel(mayInterruptIfRunning);
+			}
+		}
 		cancelled = true;
 
 		return true;
@@ -99,12 +170,37 @@ public class CacheGetterTask implements Future<CacheGetResult> {
 		if (done) {
 			return valueToReturn;
 		}
+		if (tracker == null) {
+			return evaluate(startTimeMillis, timeoutMillis);
+		}
+
+		CacheGetResult result = null;
+		try {
+			result = evaluate(startTimeMillis, timeoutMillis);
+		} catch (TimeoutException te) {
+			result = CacheGetResult.createFromException(te);
+			throw te;
+		} finally {
+			if (result == null) {
+				result = new CacheGetResult(Type.ERROR);
+			}
+			describeResult(result);
+			trackGet(result);
+		}
+		return result;
+	}
 
+	/** Waits the main object and evaluates it, the result is stored when it is done */
+	protected CacheGetResult evaluate(final long startTimeMillis, final long timeoutMillis)
+			throws InterruptedException, ExecutionException, TimeoutException {
 		long remainingTimeMillis;
 
 		// In relaxed mode uses the timeout parameter else compute the remaining time
 		if (relaxOperationTimeoutInHeavyLoadSystem) {
 			remainingTimeMillis = timeoutMillis;
+			if ((tracker != null) && (System.currentTimeMillis() - startTimeMillis >= timeoutMillis)) {
+				relaxedTimeoutApplied = true;
+			}
 		} else {
 			remainingTimeMillis = timeoutMillis - (System.currentTimeMillis() - startTimeMillis);
 			if (remainingTimeMillis <= 0) {
@@ -113,56 +209,185 @@ public class CacheGetterTask implements Future<CacheGetResult> {
 		}
 
 		Object rawCachedObject = mainFutureGet.get(remainingTimeMillis, TimeUnit.MILLISECONDS);
+		measureMainFetch();
 
-		// In case of a MISS, returns now and stores the result
-		if (rawCachedObject == null) {
+		// In case of a MISS or invalid type, returns now and stores the result
+		CacheGetResult earlyResult = evaluateRawCachedObject(rawCachedObject);
+		if (earlyResult != null) {
 			done = true;
-			valueToReturn = new CacheGetResult(Type.MISS);
+			valueToReturn = earlyResult;
 			return valueToReturn;
 		}
 
-		// Invalid type
+		ExpirableCacheObject cachedObject = (ExpirableCacheObject) rawCachedObject;
+
+		// Load and evaluate the invalidation Objects
+		CacheGetResult result = evaluateCachedObject(cachedObject, startTimeMillis, timeoutMillis);
+
+		done = true;
+		valueToReturn = result;
+
+		return valueToReturn;
+	}
+
+	/**
+	 * The main fetch lasts until the main future completed. When the future can
+	 * not notify its completion it lasts until it was picked up
+	 */
+	protected void measureMainFetch() {
+		if (tracker == null) {
+			return;
+		}
+		mainFetchNanos = (mainCompleted ? mainCompletedNanos : System.nanoTime()) - startNanos;
+	}
+
+	/**
+	 * Copies the diagnostics of this get to the result. Only when there is a
+	 * tracker, and never to the shared MISS
+	 */
+	protected void describeResult(final CacheGetResult result) {
+		if ((tracker == null) || (result == CacheGetResult.MISS)) {
+			return;
+		}
+		result.mainFetchNanos = mainFetchNanos;
+		result.invalidationFetchNanos = invalidationFetchNanos;
+		result.invalidationKeysFetched = invalidationKeysFetched;
+		result.relaxedTimeoutApplied = relaxedTimeoutApplied;
+		result.servedLocally = ListenableFutures.isServedLocally(mainFutureGet);
+		int servedLocally = 0;
+		if (invalidationFutureGets != null) {
+			for (Future<Object> f : invalidationFutureGets) {
+				if (ListenableFutures.isServedLocally(f)) {
+					servedLocally++;
+				}
+			}
+		}
+		result.invalidationKeysServedLocally = servedLocally;
+	}
+
+	/** The shared MISS is returned unless the diagnostics are needed */
+	protected CacheGetResult createMissResult() {
+		return (tracker == null) ? CacheGetResult.MISS : new CacheGetResult(Type.MISS);
+	}
+
+	protected void trackGet(final CacheGetResult result) {
+		tracker.trackGet(key, result, System.nanoTime() - startNanos, invalidationKeysFetched);
+	}
+
+	/**
+	 * @param rawCachedObject the object retrieved from the backend
+	 * @return the result when it is a MISS or an invalid type, null when it is an
+	 *         ExpirableCacheObject that must be evaluated
+	 */
+	protected CacheGetResult evaluateRawCachedObject(final Object rawCachedObject) {
+		if (rawCachedObject == null) {
+			return createMissResult();
+		}
+
 		if (!(rawCachedObject instanceof ExpirableCacheObject)) {
-			done = true;
-			valueToReturn = new CacheGetResult(Type.ERROR,
+			return new CacheGetResult(Type.ERROR,
 					new UnexpectedObjectType(ExpirableCacheObject.class, rawCachedObject.getClass()));
-			return valueToReturn;
 		}
 
-		ExpirableCacheObject cachedObject = (ExpirableCacheObject) rawCachedObject;
+		return null;
+	}
+
+	/**
+	 * Loads the invalidation objects in the order of the invalidation keys and
+	 * evaluates every one as soon as it arrives, so the evaluation stops at the
+	 * first key that invalidates the object. The invalidation objects are not
+	 * loaded when the object was stored inside the time measurement error, because
+	 * they can not change the result.
+	 * 
+	 * The namespace invalidation is evaluated first, it is in memory.
+	 */
+	protected CacheGetResult evaluateCachedObject(final ExpirableCacheObject cachedObject, final long startTimeMillis,
+			final long timeoutMillis) throws TimeoutException, InterruptedException, ExecutionException {
+
+		final String[] invalidationKeys = cachedObject.invalidationKeys;
+		final boolean hasInvalidationKeys = (invalidationKeys != null) && (invalidationKeys.length > 0);
+		if ((!hasInvalidationKeys && (namespaceInvalidation == null))
+				|| isStoredInsideTimeMeasurementError(cachedObject, startTimeMillis)) {
+			return createResult(cachedObject, null, NOT_INVALIDATED, startTimeMillis);
+		}
+
+		final boolean systemUnderLoad = isSystemUnderLoad(startTimeMillis, timeoutMillis);
+
+		if (namespaceInvalidation != null) {
+			final int namespaceInvalidationStatus = getInvalidationStatus(cachedObject, namespaceInvalidation
+					.get(computeInvalidationTimeoutMillis(startTimeMillis, timeoutMillis, systemUnderLoad)));
+			if (namespaceInvalidationStatus != NOT_INVALIDATED) {
+				return createResult(cachedObject, NamespaceInvalidation.INVALIDATION_KEY, namespaceInvalidationStatus,
+						startTimeMillis);
+			}
+			if (!hasInvalidationKeys) {
+				return createResult(cachedObject, null, NOT_INVALIDATED, startTimeMillis);
+			}
+		}
 
-		// Load all the invalidation Objects
-		HashMap<String, CacheInvalidationObject> invalidationMap = loadInvalidationKeys(cachedObject, startTimeMillis,
-				timeoutMillis);
+		requestInvalidationObjects(invalidationKeys);
+
+		for (int i = 0; i < invalidationKeys.length; i++) {
+
+			// if it is Cancelled, exits
+			if (cancelled) {
+				throw new CancellationException();
+			}
+
+			final CacheInvalidationObject invObj = getsCacheInvalidationObjectFromFuture(invalidationFutureGets[i],
+					computeInvalidationTimeoutMillis(startTimeMillis, timeoutMillis, systemUnderLoad));
+			if (tracker != null) {
+				invalidationFetchNanos = System.nanoTime() - invalidationRequestNanos;
+			}
+
+			final int invalidationStatus = getInvalidationStatus(cachedObject, invObj);
+			if (invalidationStatus != NOT_INVALIDATED) {
+				return createResult(cachedObject, invalidationKeys[i], invalidationStatus, startTimeMillis);
+			}
+		}
+
+		return createResult(cachedObject, null, NOT_INVALIDATED, startTimeMillis);
+	}
+
+	/**
+	 * Builds the result once the invalidation objects are loaded in a map. The
+	 * read path uses the invalidation futures indexed by position, this is kept for
+	 * the subclasses that load the invalidation objects by key.
+	 */
+	protected CacheGetResult evaluateCachedObject(final ExpirableCacheObject cachedObject,
+			final HashMap<String, CacheInvalidationObject> invalidationMap, final long startTimeMillis) {
+		InvalidatedKey inv = isCachedObjectInvalidated(cachedObject, invalidationMap, startTimeMillis);
+		if (inv == null) {
+			return createResult(cachedObject, null, NOT_INVALIDATED, startTimeMillis);
+		}
+		return createResult(cachedObject, inv.key, inv.hardInvalidation ? HARD_INVALIDATED : SOFT_INVALIDATED,
+				startTimeMillis);
+	}
+
+	/**
+	 * The expiration is only evaluated when the object is not invalidated, a hard
+	 * invalidation returns a MISS result
+	 */
+	protected CacheGetResult createResult(final ExpirableCacheObject cachedObject, final String invalidatedKey,
+			final int invalidationStatus, final long startTimeMillis) {
+		// if its hard invalidated, the result must be a MISS
+		if (invalidationStatus == HARD_INVALIDATED) {
+			return createMissResult();
+		}
 
-		// Build the result
 		CacheGetResult result = new CacheGetResult(Type.HIT);
 		result.value = cachedObject.value;
 		result.storeTimestampMillis = cachedObject.timestampMillis;
 		result.invalidationKeys = cachedObject.invalidationKeys;
 
-		// is Expired?
-		if (isCachedObjectExpired(cachedObject, startTimeMillis)) {
-			result.type = Type.EXPIRED;
-		}
-
-		// is invalidated?
-		InvalidatedKey inv = isCachedObjectInvalidated(cachedObject, invalidationMap, startTimeMillis);
-		if (inv != null) {
-			// if its hard invalidated, the result must be a MISS
-			if (inv.hardInvalidation) {
-				done = true;
-				valueToReturn = new CacheGetResult(Type.MISS);
-				return valueToReturn;
-			}
+		if (invalidationStatus == SOFT_INVALIDATED) {
 			result.type = Type.INVALIDATED;
-			result.invalidatedKey = inv.key;
+			result.invalidatedKey = invalidatedKey;
+		} else if (isCachedObjectExpired(cachedObject, startTimeMillis)) {
+			result.type = Type.EXPIRED;
 		}
 
-		done = true;
-		valueToReturn = result;
-
-		return valueToReturn;
+		return result;
 	}
 
 	protected boolean isCachedObjectExpired(final ExpirableCacheObject cachedObject, final long currentTimeMillis) {
@@ -192,29 +417,17 @@ public class CacheGetterTask implements Future<CacheGetResult> {
 			final long startTimeMillis, final long timeoutMillis)
 			throws TimeoutException, InterruptedException, ExecutionException {
 
-		boolean systemUnderLoad = false;
-		if (relaxOperationTimeoutInHeavyLoadSystem) {
-			if ((System.currentTimeMillis() - startTimeMillis) > timeoutMillis) {
-				systemUnderLoad = true;
-			}
-		}
+		final boolean systemUnderLoad = isSystemUnderLoad(startTimeMillis, timeoutMillis);
 
 		if ((cachedObject.invalidationKeys == null) || (cachedObject.invalidationKeys.length <= 0)) {
 			return (null);
 		}
 
-		if (invalidationKeysFutureGets == null) {
-			invalidationKeysFutureGets = new HashMap<String, Future<Object>>();
-		}
-
-		// Build the missing futures
-		for (final String invkey : cachedObject.invalidationKeys) {
-			if (!invalidationKeysFutureGets.containsKey(invkey)) {
-				Future<Object> fut = invalidationBackendClient
-						.asyncGet(keyBuilder.createInvalidationBackendKey(invkey));
-				invalidationKeysFutureGets.put(invkey, fut);
-			}
+		if (tracker != null) {
+			invalidationRequestNanos = System.nanoTime();
 		}
+		requestInvalidationKeys(cachedObject.invalidationKeys);
+		invalidationKeysFetched = countInvalidationRecords(cachedObject.invalidationKeys);
 
 		HashMap<String, CacheInvalidationObject> invMap = new HashMap<String, CacheInvalidationObject>();
 
@@ -226,29 +439,181 @@ public class CacheGetterTask implements Future<CacheGetResult> {
 				throw new CancellationException();
 			}
 
-			long remainingTimeMillis = timeoutMillis - (System.currentTimeMillis() - startTimeMillis);
+			// Load the key
+			CacheInvalidationObject invObj = getsCacheInvalidationObjectFromFuture(
+					invalidationKeysFutureGets.get(invkey),
+					computeInvalidationTimeoutMillis(startTimeMillis, timeoutMillis, systemUnderLoad));
+			invMap.put(invkey, invObj);
+			if (tracker != null) {
+				invalidationFetchNanos = System.nanoTime() - invalidationRequestNanos;
+			}
+		}
 
-			if (!relaxOperationTimeoutInHeavyLoadSystem) {
-				if (remainingTimeMillis <= 0) {
-					throw new TimeoutException();
-				}
-			} else {
-				if (systemUnderLoad) {
-					remainingTimeMillis = timeoutMillis;
-				} else {
-					// as minimum 1 millisecond or 20% of timeout or the remaining time
-					remainingTimeMillis = Math.max(1L, Math.max(remainingTimeMillis, timeoutMillis / 5));
+		return invMap;
+	}
+
+	/** In relaxed mode, when the timeout already elapsed the system is under load */
+	protected boolean isSystemUnderLoad(final long startTimeMillis, final long timeoutMillis) {
+		return relaxOperationTimeoutInHeavyLoadSystem && ((System.currentTimeMillis() - startTimeMillis) > timeoutMillis);
+	}
+
+	/** @return the time to wait the next invalidation object */
+	protected long computeInvalidationTimeoutMillis(final long startTimeMillis, final long timeoutMillis,
+			final boolean systemUnderLoad) throws TimeoutException {
+		long remainingTimeMillis = timeoutMillis - (System.currentTimeMillis() - startTimeMillis);
+
+		if (!relaxOperationTimeoutInHeavyLoadSystem) {
+			if (remainingTimeMillis <= 0) {
+				throw new TimeoutException();
+			}
+			return remainingTimeMillis;
+		}
+		if (remainingTimeMillis <= 0) {
+			relaxedTimeoutApplied = true;
+		}
+		if (systemUnderLoad) {
+			return timeoutMillis;
+		}
+		// as minimum 1 millisecond or 20% of timeout or the remaining time
+		return Math.max(1L, Math.max(remainingTimeMillis, timeoutMillis / 5));
+	}
+
+	/**
+	 * Builds the futures of the invalidation keys indexed by its position. Only the
+	 * first call requests them, so a get retried after a timeout waits the same
+	 * futures. A single key is requested with a plain get, many keys in a single
+	 * multi get, and the shared futures are taken from the shared map. When the
+	 * invalidation keys are bucketed the bucket records are requested instead.
+	 */
+	protected void requestInvalidationObjects(final String[] invalidationKeys) {
+		if (invalidationFutureGets != null) {
+			return;
+		}
+
+		if (tracker != null) {
+			invalidationRequestNanos = System.nanoTime();
+		}
+		final Future<Object>[] futures = newFutureArray(invalidationKeys.length);
+		if (invalidationKeysFutureGets != null) {
+			requestInvalidationKeys(invalidationKeys);
+			for (int i = 0; i < invalidationKeys.length; i++) {
+				futures[i] = invalidationKeysFutureGets.get(invalidationKeys[i]);
+			}
+		} else if (invalidationKeyBuckets > 0) {
+			requestInvalidationBuckets(invalidationKeys, futures);
+		} else if (invalidationKeys.length == 1) {
+			futures[0] = invalidationBackendClient
+					.asyncGet(keyBuilder.createInvalidationBackendKey(invalidationKeys[0]));
+		} else {
+			final String[] backendKeys = new String[invalidationKeys.length];
+			for (int i = 0; i < invalidationKeys.length; i++) {
+				backendKeys[i] = keyBuilder.createInvalidationBackendKey(invalidationKeys[i]);
+			}
+			Future<Map<String, Object>> multiFut = requestInvalidationMultiGet(Arrays.asList(backendKeys));
+			for (int i = 0; i < invalidationKeys.length; i++) {
+				futures[i] = new MultiKeyEntryFuture<Object>(multiFut, backendKeys[i]);
+			}
+		}
+		invalidationFutureGets = futures;
+		invalidationKeysFetched = countInvalidationRecords(invalidationKeys);
+	}
+
+	/** The multi get is kept, so it is cancelled with the task */
+	protected Future<Map<String, Object>> requestInvalidationMultiGet(final Collection<String> backendKeys) {
+		Future<Map<String, Object>> multiFut = MultiKeyBackendOperations.asyncMultiGet(invalidationBackendClient,
+				backendKeys);
+		if (invalidationMultiFutureGets == null) {
+			invalidationMultiFutureGets = new ArrayList<Future<Map<String, Object>>>(1);
+		}
+		invalidationMultiFutureGets.add(multiFut);
+		return multiFut;
+	}
+
+	/** A generic array can not be created, the wildcard one holds the same futures */
+	@SuppressWarnings("unchecked")
+	protected static Future<Object>[] newFutureArray(final int length) {
+		return (Future<Object>[]) new Future<?>[length];
+	}
+
+	/** Build the missing futures, the keys already requested are not fetched again */
+	protected void requestInvalidationKeys(final String[] invalidationKeys) {
+		if (invalidationKeysFutureGets == null) {
+			invalidationKeysFutureGets = new HashMap<String, Future<Object>>();
+		}
+
+		LinkedHashMap<String, String> missingBackendKeys = null;
+		for (final String invkey : invalidationKeys) {
+			if (!invalidationKeysFutureGets.containsKey(invkey)) {
+				if (missingBackendKeys == null) {
+					missingBackendKeys = new LinkedHashMap<String, String>();
 				}
+				missingBackendKeys.put(invkey, keyBuilder.createInvalidationBackendKey(invkey));
+			}
+		}
+		if (missingBackendKeys == null) {
+			return;
+		}
 
+		if (invalidationKeyBuckets > 0) {
+			final String[] missingKeys = missingBackendKeys.keySet().toArray(new String[missingBackendKeys.size()]);
+			final Future<Object>[] futures = newFutureArray(missingKeys.length);
+			requestInvalidationBuckets(missingKeys, futures);
+			for (int i = 0; i < missingKeys.length; i++) {
+				invalidationKeysFutureGets.put(missingKeys[i], futures[i]);
 			}
+			return;
+		}
 
-			// Load the key
-			CacheInvalidationObject invObj = getsCacheInvalidationObjectFromFuture(
-					invalidationKeysFutureGets.get(invkey), remainingTimeMillis);
-			invMap.put(invkey, invObj);
+		// All the invalidation keys are requested in a single backend operation
+		Future<Map<String, Object>> multiFut = requestInvalidationMultiGet(missingBackendKeys.values());
+		for (Map.Entry<String, String> entry : missingBackendKeys.entrySet()) {
+			invalidationKeysFutureGets.put(entry.getKey(), new MultiKeyEntryFuture<Object>(multiFut, entry.getValue()));
+		}
+	}
+
+	/**
+	 * Requests the bucket records of the invalidation keys, every distinct bucket
+	 * once. A single bucket is requested with a plain get, many in a single multi
+	 * get.
+	 * 
+	 * @param invalidationKeys
+	 * @param futures          filled with the futures of the invalidation objects,
+	 *                         in the order of the keys
+	 */
+	protected void requestInvalidationBuckets(final String[] invalidationKeys, final Future<Object>[] futures) {
+		final String[] bucketBackendKeys = new String[invalidationKeys.length];
+		final LinkedHashMap<String, Future<Object>> bucketFutures = new LinkedHashMap<String, Future<Object>>();
+		for (int i = 0; i < invalidationKeys.length; i++) {
+			bucketBackendKeys[i] = keyBuilder.createInvalidationBucketBackendKey(
+					CacheInvalidationBucket.bucketOf(invalidationKeys[i], invalidationKeyBuckets));
+			bucketFutures.put(bucketBackendKeys[i], null);
 		}
 
-		return invMap;
+		if (bucketFutures.size() == 1) {
+			bucketFutures.put(bucketBackendKeys[0], invalidationBackendClient.asyncGet(bucketBackendKeys[0]));
+		} else {
+			Future<Map<String, Object>> multiFut = requestInvalidationMultiGet(bucketFutures.keySet());
+			for (Map.Entry<String, Future<Object>> entry : bucketFutures.entrySet()) {
+				entry.setValue(new MultiKeyEntryFuture<Object>(multiFut, entry.getKey()));
+			}
+		}
+
+		for (int i = 0; i < invalidationKeys.length; i++) {
+			futures[i] = new CacheInvalidationBucketEntryFuture(bucketFutures.get(bucketBackendKeys[i]),
+					invalidationKeys[i]);
+		}
+	}
+
+	/** @return the backend records fetched for the keys, one per distinct bucket when they are bucketed */
+	protected int countInvalidationRecords(final String[] invalidationKeys) {
+		if (invalidationKeyBuckets <= 0) {
+			return invalidationKeys.length;
+		}
+		HashSet<Integer> buckets = new HashSet<Integer>();
+		for (String invkey : invalidationKeys) {
+			buckets.add(CacheInvalidationBucket.bucketOf(invkey, invalidationKeyBuckets));
+		}
+		return buckets.size();
 	}
 
 	protected CacheInvalidationObject getsCacheInvalidationObjectFromFuture(Future<Object> future, long timeoutMillis)
@@ -269,52 +634,75 @@ public class CacheGetterTask implements Future<CacheGetResult> {
 		return (CacheInvalidationObject) rawCachedObject;
 	}
 
-	protected InvalidatedKey isCachedObjectInvalidated(final ExpirableCacheObject cachedObject,
-			final HashMap<String, CacheInvalidationObject> invalidationMap, final long currentTimeMillis) {
-		if (invalidationMap == null) {
-			return null;
-		}
+	/** If the key was set more recently than timeMeasurementError assume its valid */
+	protected boolean isStoredInsideTimeMeasurementError(final ExpirableCacheObject cachedObject,
+			final long currentTimeMillis) {
+		return currentTimeMillis - config.getTimeMeasurementErrorMillis() < cachedObject.timestampMillis;
+	}
 
-		// If the key was set more recently than timeMeasurementError assume its valid
-		if (currentTimeMillis - config.getTimeMeasurementErrorMillis() < cachedObject.timestampMillis) {
-			return null;
+	/**
+	 * Evaluates one invalidation object without allocating
+	 * 
+	 * @return NOT_INVALIDATED, SOFT_INVALIDATED or HARD_INVALIDATED
+	 */
+	protected int getInvalidationStatus(final ExpirableCacheObject cachedObject,
+			final CacheInvalidationObject invObj) {
+		if (invObj == null) {
+			return NOT_INVALIDATED;
 		}
 
 		// Effective time used to test validation. The correction applied is to see the
 		// key older than read value and gain more consistency
-		long effectiveStoreTimestampMillis = cachedObject.timestampMillis - config.getTimeMeasurementErrorMillis();
+		final long effectiveStoreTimestampMillis = cachedObject.timestampMillis
+				- config.getTimeMeasurementErrorMillis();
 
-		for (final String invkey : invalidationMap.keySet()) {
-			final CacheInvalidationObject invObj = invalidationMap.get(invkey);
-			if (invObj == null) {
-				continue;
+		// If its older than previous hard invalidation. Its hard invalidated
+		if (effectiveStoreTimestampMillis <= invObj.lastHardInvalidationTimestampMillis) {
+			return HARD_INVALIDATED;
+		}
+
+		final int lastInvalidationStatus = invObj.isHardInvalidation ? HARD_INVALIDATED : SOFT_INVALIDATED;
+
+		// Test validity against store time of invalidation
+		if (effectiveStoreTimestampMillis <= invObj.invalidationTimestampMillis) {
+			// if no window is configured, it is invalidated right now
+			if (invObj.invalidationWindowMillis <= 0) {
+				return lastInvalidationStatus;
 			}
+			double invalidTimeMS = invObj.invalidationTimestampMillis - effectiveStoreTimestampMillis;
+			double normalizedTimeInsideWindow = invalidTimeMS / invObj.invalidationWindowMillis;
+			double invalidationProbability = config.getInvalidationProbabilityFunction()
+					.getProbability(normalizedTimeInsideWindow);
 
-			// If its older than previous hard invalidation. Its hard invalidated
-			if (effectiveStoreTimestampMillis <= invObj.lastHardInvalidationTimestampMillis) {
-				return new InvalidatedKey(invObj, invkey, true);
+			if ((invalidationProbability >= 1) || (invalidationProbability > random.nextDouble())) {
+				return lastInvalidationStatus;
 			}
 
-			// Test validity against store time of invalidation
-			if (effectiveStoreTimestampMillis <= invObj.invalidationTimestampMillis) {
-				// if no window is configured, it is invalidated right now
-				if (invObj.invalidationWindowMillis <= 0) {
-					return new InvalidatedKey(invObj, invkey, invObj.isHardInvalidation);
-				}
-				double invalidTimeMS = invObj.invalidationTimestampMillis - effectiveStoreTimestampMillis;
-				double normalizedTimeInsideWindow = invalidTimeMS / invObj.invalidationWindowMillis;
-				double invalidationProbability = config.getInvalidationProbabilityFunction()
-						.getProbability(normalizedTimeInsideWindow);
+		}
 
-				if ((invalidationProbability >= 1) || (invalidationProbability > random.nextDouble())) {
-					return new InvalidatedKey(invObj, invkey, invObj.isHardInvalidation);
-				}
+		// If its older than previous soft invalidation. Its soft invalidated
+		if (effectiveStoreTimestampMillis <= invObj.lastSoftInvalidationTimestampMillis) {
+			return SOFT_INVALIDATED;
+		}
 
-			}
+		return NOT_INVALIDATED;
+	}
 
-			// If its older than previous soft invalidation. Its soft invalidated
-			if (effectiveStoreTimestampMillis <= invObj.lastSoftInvalidationTimestampMillis) {
-				return new InvalidatedKey(invObj, invkey, false);
+	protected InvalidatedKey isCachedObjectInvalidated(final ExpirableCacheObject cachedObject,
+			final HashMap<String, CacheInvalidationObject> invalidationMap, final long currentTimeMillis) {
+		if (invalidationMap == null) {
+			return null;
+		}
+
+		if (isStoredInsideTimeMeasurementError(cachedObject, currentTimeMillis)) {
+			return null;
+		}
+
+		for (final String invkey : invalidationMap.keySet()) {
+			final CacheInvalidationObject invObj = invalidationMap.get(invkey);
+			final int invalidationStatus = getInvalidationStatus(cachedObject, invObj);
+			if (invalidationStatus != NOT_INVALIDATED) {
+				return new InvalidatedKey(invObj, invkey, invalidationStatus == HARD_INVALIDATED);
 			}
 		}
 
@@ -0,0 +1,144 @@
+package ar.com.siripo.arcache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The record stored in the backend when the invalidation keys are bucketed. It
+ * holds the invalidation objects of all the invalidation keys that hash to the
+ * bucket, so a get fetches one record per distinct bucket instead of one per
+ * invalidation key.
+ *
+ * The records are never modified, every invalidation stores a new copy. The
+ * entries older than the stored object removal time are dropped on the copy,
+ * like the plain invalidation objects are removed by the backend.
+ *
+ * A bucket keeps at most MAX_ENTRIES entries, so its record stays far under
+ * the item size limit of memcached. When there are more, the oldest ones are
+ * folded into a single invalidation object that applies to every key of the
+ * bucket without an entry. That keeps every invalidation, at the cost of
+ * invalidating the other keys of an overflowed bucket too.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class CacheInvalidationBucket implements CacheInvalidationObjectType, Serializable {
+
+	private static final long serialVersionUID = 20261018001L;
+
+	/** The maximum number of entries, about 150KB serialized */
+	public static final int MAX_ENTRIES = 1000;
+
+	/** The invalidation objects of the bucket, by invalidation key */
+	public HashMap<String, CacheInvalidationObject> invalidationObjects = new HashMap<String, CacheInvalidationObject>();
+
+	/** The entries dropped by the MAX_ENTRIES limit folded in one, null when none was dropped */
+	public CacheInvalidationObject droppedEntries;
+
+	/**
+	 * @return the invalidation object of the key, the dropped entries when it has
+	 *         none, null when it was not invalidated
+	 */
+	public CacheInvalidationObject get(final String invalidationKey) {
+		CacheInvalidationObject invalidationObject = invalidationObjects.get(invalidationKey);
+		if (invalidationObject == null) {
+			return droppedEntries;
+		}
+		return invalidationObject;
+	}
+
+	/** @return the bucket of the invalidation key, String.hashCode is the same in every process */
+	public static int bucketOf(final String invalidationKey, final int buckets) {
+		return (invalidationKey.hashCode() & 0x7fffffff) % buckets;
+	}
+
+	/**
+	 * @param previousBucket               the stored bucket, null when it is missing
+	 * @param invalidationObjects          the new invalidation objects by key
+	 * @param expiredBeforeTimestampMillis the entries invalidated before this are
+	 *                                     dropped
+	 * @return a new bucket with the entries of the previous one and the new objects
+	 */
+	public static CacheInvalidationBucket merge(final CacheInvalidationBucket previousBucket,
+			final Map<String, CacheInvalidationObject> invalidationObjects, final long expiredBeforeTimestampMillis) {
+		CacheInvalidationBucket bucket = new CacheInvalidationBucket();
+		if (previousBucket != null) {
+			for (Map.Entry<String, CacheInvalidationObject> entry : previousBucket.invalidationObjects.entrySet()) {
+				if ((entry.getValue() != null)
+						&& (entry.getValue().invalidationTimestampMillis >= expiredBeforeTimestampMillis)) {
+					bucket.invalidationObjects.put(entry.getKey(), entry.getValue());
+				}
+			}
+			if ((previousBucket.droppedEntries != null)
+					&& (previousBucket.droppedEntries.invalidationTimestampMillis >= expiredBeforeTimestampMillis)) {
+				bucket.droppedEntries = previousBucket.droppedEntries;
+			}
+		}
+		bucket.invalidationObjects.putAll(invalidationObjects);
+		if (bucket.invalidationObjects.size() > MAX_ENTRIES) {
+			bucket.dropOldestEntries();
+		}
+		return bucket;
+	}
+
+	/** Folds the oldest entries into droppedEntries until MAX_ENTRIES are left */
+	protected void dropOldestEntries() {
+		ArrayList<Map.Entry<String, CacheInvalidationObject>> entries =
+				new ArrayList<Map.Entry<String, CacheInvalidationObject>>(invalidationObjects.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, CacheInvalidationObject>>() {
+			@Override
+			public int compare(Map.Entry<String, CacheInvalidationObject> a,
+					Map.Entry<String, CacheInvalidationObject> b) {
+				long ta = a.getValue().invalidationTimestampMillis;
+				long tb = b.getValue().invalidationTimestampMillis;
+				return (ta < tb) ? -1 : ((ta == tb) ? 0 : 1);
+			}
+		});
+		HashMap<String, CacheInvalidationObject> kept = new HashMap<String, CacheInvalidationObject>();
+		int dropped = entries.size() - MAX_ENTRIES;
+		for (int i = 0; i < entries.size(); i++) {
+			if (i < dropped) {
+				droppedEntries = fold(droppedEntries, entries.get(i).getValue());
+			} else {
+				kept.put(entries.get(i).getKey(), entries.get(i).getValue());
+			}
+		}
+		invalidationObjects = kept;
+	}
+
+	/**
+	 * @return an invalidation object that invalidates at least everything that
+	 *         any of both invalidates
+	 */
+	protected static CacheInvalidationObject fold(final CacheInvalidationObject a, final CacheInvalidationObject b) {
+		if (a == null) {
+			return b;
+		}
+		CacheInvalidationObject newest = (a.invalidationTimestampMillis >= b.invalidationTimestampMillis) ? a : b;
+		CacheInvalidationObject other = (newest == a) ? b : a;
+		CacheInvalidationObject folded = new CacheInvalidationObject();
+		folded.invalidationTimestampMillis = newest.invalidationTimestampMillis;
+		folded.isHardInvalidation = newest.isHardInvalidation;
+		folded.invalidationWindowMillis = Math.max(a.invalidationWindowMillis, b.invalidationWindowMillis);
+		folded.lastHardInvalidationTimestampMillis = Math.max(
+				Math.max(a.lastHardInvalidationTimestampMillis, b.lastHardInvalidationTimestampMillis),
+				other.isHardInvalidation ? other.invalidationTimestampMillis : 0);
+		folded.lastSoftInvalidationTimestampMillis = Math.max(
+				Math.max(a.lastSoftInvalidationTimestampMillis, b.lastSoftInvalidationTimestampMillis),
+				other.isHardInvalidation ? 0 : other.invalidationTimestampMillis);
+		return folded;
+	}
+
+	/** An invalid type is treated as a missing bucket, like the invalidation keys */
+	public static CacheInvalidationBucket toBucket(final Object rawObject) {
+		if (rawObject instanceof CacheInvalidationBucket) {
+			return (CacheInvalidationBucket) rawObject;
+		}
+		return null;
+	}
+
+}
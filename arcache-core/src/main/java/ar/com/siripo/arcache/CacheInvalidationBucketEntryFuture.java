@@ -0,0 +1,79 @@
+package ar.com.siripo.arcache;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.ListenableFutures;
+import ar.com.siripo.arcache.util.ProvenanceAware;
+
+/**
+ * A view of a single invalidation key of a bucket record Future. All the keys
+ * of the bucket share the same Future, it returns the invalidation object of
+ * the key or null when the bucket is missing or has no entry for it.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class CacheInvalidationBucketEntryFuture implements ListenableFuture<Object>, ProvenanceAware {
+
+	protected final Future<Object> bucketFuture;
+	protected final String invalidationKey;
+
+	public CacheInvalidationBucketEntryFuture(Future<Object> bucketFuture, String invalidationKey) {
+		this.bucketFuture = bucketFuture;
+		this.invalidationKey = invalidationKey;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return bucketFuture.cancel(mayInterruptIfRunning);
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return bucketFuture.isCancelled();
+	}
+
+	@Override
+	public boolean isDone() {
+		return bucketFuture.isDone();
+	}
+
+	@Override
+	public boolean isServedLocally() {
+		return ListenableFutures.isServedLocally(bucketFuture);
+	}
+
+	@Override
+	public void addListener(final FutureListener<Object> listener) {
+		ListenableFutures.listen(bucketFuture).addListener(new FutureListener<Object>() {
+			@Override
+			public void onComplete(ListenableFuture<Object> future) {
+				listener.onComplete(CacheInvalidationBucketEntryFuture.this);
+			}
+		});
+	}
+
+	@Override
+	public Object get() throws InterruptedException, ExecutionException {
+		return extract(bucketFuture.get());
+	}
+
+	@Override
+	public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		return extract(bucketFuture.get(timeout, unit));
+	}
+
+	protected Object extract(Object rawBucket) {
+		CacheInvalidationBucket bucket = CacheInvalidationBucket.toBucket(rawBucket);
+		if (bucket == null) {
+			return null;
+		}
+		return bucket.get(invalidationKey);
+	}
+
+}
@@ -1,5 +1,7 @@
 package ar.com.siripo.arcache;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -7,6 +9,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBus;
+import ar.com.siripo.arcache.backend.ArcacheTieredBackendClient;
 
 /**
  * This task is needed because to set a Invalidation Key is needed some previous
@@ -18,6 +22,17 @@ import ar.com.siripo.arcache.backend.ArcacheBackendClient;
  * time shift is supposed to be very short, and the type of invalidation in this
  * condition has a high probability to be of the same type
  * 
+ * When the invalidation keys are bucketed the same read modify write is done
+ * over the bucket record of the key, see setInvalidationKeyBuckets. The bucket
+ * is shared with other keys, so it is read and written on the remote backend,
+ * bypassing the local copies of a tiered backend like the speedup client.
+ * Otherwise writing back a stale local copy erases the invalidations of the
+ * other keys stored by other processes. For the same reason a bucket that can
+ * not be read fails the invalidation instead of being treated as a miss, only a
+ * missing bucket is treated as empty.
+ * 
+ * Once it is stored, the backend key is published in the invalidation bus. A
+ * failure to publish it is reported to the tracker.
  * 
  * @author Mariano Santamarina
  *
@@ -28,8 +43,13 @@ public class InvalidateKeyTask implements Future<Boolean> {
 	protected final boolean hardInvalidation;
 	protected final long invalidationWindowMillis;
 	protected final ArcacheBackendClient backendClient;
+	protected final ArcacheBackendClient recordBackendClient; // The remote backend when bucketed
 	protected final BackendKeyBuilder keyBuilder;
 	protected final ArcacheConfigurationGetInterface config;
+	protected final ArcacheClientTracker tracker;
+	protected final long startNanos; // Only measured when there is a tracker
+	protected final boolean bucketed;
+	protected final String recordBackendKey; // The bucket record or the invalidation object
 
 	protected boolean cancelled = false;
 	protected boolean done = false;
@@ -37,6 +57,7 @@ public class InvalidateKeyTask implements Future<Boolean> {
 
 	protected Future<Object> prevVersionGetFuture;
 	protected Future<Boolean> setFuture;
+	protected CacheInvalidationBucket previousBucket;
 
 	protected InvalidateKeyTask(String key, boolean hardInvalidation, long invalidationWindowMillis,
 			ArcacheBackendClient backendClient, BackendKeyBuilder keyBuilder, ArcacheConfigurationGetInterface config) {
@@ -47,11 +68,36 @@ public class InvalidateKeyTask implements Future<Boolean> {
 		this.backendClient = backendClient;
 		this.keyBuilder = keyBuilder;
 		this.config = config;
+		this.tracker = config.getTracker();
+		this.startNanos = (tracker != null) ? System.nanoTime() : 0;
+		this.bucketed = (config.getInvalidationKeyBuckets() > 0)
+				&& !NamespaceInvalidation.INVALIDATION_KEY.equals(key);
+		this.recordBackendClient = bucketed ? remoteBackendClient(backendClient) : backendClient;
+		this.recordBackendKey = bucketed
+				? keyBuilder.createInvalidationBucketBackendKey(
+						CacheInvalidationBucket.bucketOf(key, config.getInvalidationKeyBuckets()))
+				: keyBuilder.createInvalidationBackendKey(key);
 		start();
 	}
 
 	private void start() {
-		prevVersionGetFuture = backendClient.asyncGet(keyBuilder.createInvalidationBackendKey(key));
+		prevVersionGetFuture = recordBackendClient.asyncGet(recordBackendKey);
+	}
+
+	/** @return the backend client under the local copies of the tiered backends */
+	protected static ArcacheBackendClient remoteBackendClient(ArcacheBackendClient backendClient) {
+		while (backendClient instanceof ArcacheTieredBackendClient) {
+			backendClient = ((ArcacheTieredBackendClient) backendClient).getRemoteBackendClient();
+		}
+		return backendClient;
+	}
+
+	/** The local copies of the record are stale once it is written on the remote backend */
+	protected static void evictLocalCopies(ArcacheBackendClient backendClient, final String backendKey) {
+		while (backendClient instanceof ArcacheTieredBackendClient) {
+			((ArcacheTieredBackendClient) backendClient).evictLocalCopy(backendKey);
+			backendClient = ((ArcacheTieredBackendClient) backendClient).getRemoteBackendClient();
+		}
 	}
 
 	@Override
@@ -104,22 +150,95 @@ public class InvalidateKeyTask implements Future<Boolean> {
 		if (done) {
 			return valueToReturn;
 		}
+		if (tracker == null) {
+			return invalidate(startTimeMillis, timeoutMillis);
+		}
+
+		Boolean stored = null;
+		try {
+			stored = invalidate(startTimeMillis, timeoutMillis);
+		} finally {
+			tracker.trackInvalidation(key, hardInvalidation, System.nanoTime() - startNanos,
+					Boolean.TRUE.equals(stored));
+		}
+		return stored;
+	}
 
+	/** Stores the new invalidation object, the result is stored when it is done */
+	protected Boolean invalidate(final long startTimeMillis, final long timeoutMillis)
+			throws InterruptedException, ExecutionException, TimeoutException {
 		CacheInvalidationObject previousInvalidationObject = getPreviousInvalidationObject(startTimeMillis,
 				timeoutMillis);
 
 		CacheInvalidationObject invalidationObject = createInvalidationObject(startTimeMillis,
 				previousInvalidationObject);
 
-		valueToReturn = setInvalidationObject(startTimeMillis, timeoutMillis, invalidationObject);
+		if (!bucketed) {
+			valueToReturn = setInvalidationObject(startTimeMillis, timeoutMillis, invalidationObject);
+		} else {
+			try {
+				valueToReturn = setInvalidationObject(startTimeMillis, timeoutMillis, invalidationObject);
+				if (valueToReturn) {
+					valueToReturn = mergeLostBucketEntry(startTimeMillis, timeoutMillis, invalidationObject);
+				}
+			} finally {
+				evictLocalCopies(backendClient, recordBackendKey);
+			}
+		}
+		if (valueToReturn) {
+			publishInvalidations(config.getInvalidationBus(), Collections.singletonList(recordBackendKey), tracker);
+			updateNamespaceInvalidation(invalidationObject);
+		}
 
 		done = true;
 
 		return valueToReturn;
 	}
 
+	/** When the namespace is invalidated this process sees it right away */
+	protected void updateNamespaceInvalidation(final CacheInvalidationObject invalidationObject) {
+		if (!NamespaceInvalidation.INVALIDATION_KEY.equals(key)) {
+			return;
+		}
+		NamespaceInvalidation namespaceInvalidation = config.getNamespaceInvalidation();
+		if (namespaceInvalidation != null) {
+			namespaceInvalidation.update(invalidationObject);
+		}
+	}
+
+	/**
+	 * The invalidations are already stored, a failure publishing them does not
+	 * fail them, it is reported to the tracker. The subscribers evict them when
+	 * they expire
+	 */
+	protected static void publishInvalidations(final ArcacheInvalidationBus invalidationBus,
+			final Collection<String> backendKeys, final ArcacheClientTracker tracker) {
+		if ((invalidationBus == null) || backendKeys.isEmpty()) {
+			return;
+		}
+		try {
+			if (backendKeys.size() == 1) {
+				invalidationBus.publish(backendKeys.iterator().next());
+			} else {
+				invalidationBus.publish(backendKeys);
+			}
+		} catch (RuntimeException e) {
+			if (tracker != null) {
+				tracker.trackInvalidationPublishFailure(backendKeys, e);
+			}
+		}
+	}
+
 	protected CacheInvalidationObject createInvalidationObject(final long startTimeMillis,
 			final CacheInvalidationObject previousInvalidationObject) {
+		return createInvalidationObject(startTimeMillis, hardInvalidation, invalidationWindowMillis,
+				previousInvalidationObject);
+	}
+
+	/** Builds the new invalidation object keeping the history of the previous one */
+	protected static CacheInvalidationObject createInvalidationObject(final long startTimeMillis,
+			final boolean hardInvalidation, final long invalidationWindowMillis,
+			final CacheInvalidationObject previousInvalidationObject) {
 		CacheInvalidationObject invalidationObject = new CacheInvalidationObject();
 
 		invalidationObject.invalidationTimestampMillis = startTimeMillis;
@@ -150,6 +269,14 @@ public class InvalidateKeyTask implements Future<Boolean> {
 				throw new TimeoutException();
 			}
 			Object rawCachedObject = prevVersionGetFuture.get(remainingTimeMillis, TimeUnit.MILLISECONDS);
+			if (bucketed) {
+				previousBucket = CacheInvalidationBucket.toBucket(rawCachedObject);
+				if ((previousBucket == null) && (rawCachedObject != null)) {
+					throw new ExecutionException(
+							new UnexpectedObjectType(CacheInvalidationBucket.class, rawCachedObject.getClass()));
+				}
+				return (previousBucket == null) ? null : previousBucket.get(key);
+			}
 			if (!(rawCachedObject instanceof CacheInvalidationObject)) {
 				// In case of invalid type, treat as miss
 				return null;
@@ -160,6 +287,10 @@ public class InvalidateKeyTask implements Future<Boolean> {
 		} catch (InterruptedException ie) {
 			throw ie;
 		} catch (Exception e) {
+			if (bucketed) {
+				// Writing a bucket without its previous entries erases them
+				throw (e instanceof ExecutionException) ? (ExecutionException) e : new ExecutionException(e);
+			}
 			// treat as miss
 			return null;
 		}
@@ -169,8 +300,12 @@ public class InvalidateKeyTask implements Future<Boolean> {
 			CacheInvalidationObject invalidationObject)
 			throws InterruptedException, ExecutionException, TimeoutException {
 
-		setFuture = backendClient.asyncSet(keyBuilder.createInvalidationBackendKey(key),
-				config.getDefaultStoredObjectRemovalTimeMillis(), invalidationObject);
+		Object value = invalidationObject;
+		if (bucketed) {
+			value = mergeIntoBucket(previousBucket, startTimeMillis, invalidationObject);
+		}
+		setFuture = recordBackendClient.asyncSet(recordBackendKey, config.getDefaultStoredObjectRemovalTimeMillis(),
+				value);
 
 		long remainingTimeMillis = timeoutMillis - (System.currentTimeMillis() - startTimeMillis);
 		if (remainingTimeMillis <= 0) {
@@ -179,4 +314,55 @@ public class InvalidateKeyTask implements Future<Boolean> {
 		return setFuture.get(remainingTimeMillis, TimeUnit.MILLISECONDS);
 	}
 
+	/** The entries that would have been removed from the backend as plain invalidation objects are dropped */
+	protected CacheInvalidationBucket mergeIntoBucket(final CacheInvalidationBucket bucket,
+			final long startTimeMillis, final CacheInvalidationObject invalidationObject) {
+		return CacheInvalidationBucket.merge(bucket, Collections.singletonMap(key, invalidationObject),
+				startTimeMillis - config.getDefaultStoredObjectRemovalTimeMillis());
+	}
+
+	/**
+	 * The bucket is shared with other keys, a concurrent invalidation of another
+	 * key that read the bucket before this write overwrites it. The bucket is read
+	 * again and when the entry was lost it is merged once more. The invalidation
+	 * was already stored, so a failure here does not fail it, and a bucket of an
+	 * unexpected type is not overwritten.
+	 * 
+	 * @return false when the entry was lost and the backend refused to store it
+	 *         again
+	 */
+	protected boolean mergeLostBucketEntry(final long startTimeMillis, final long timeoutMillis,
+			final CacheInvalidationObject invalidationObject) throws InterruptedException {
+		try {
+			long remainingTimeMillis = timeoutMillis - (System.currentTimeMillis() - startTimeMillis);
+			if (remainingTimeMillis <= 0) {
+				return true;
+			}
+			Object rawBucket = recordBackendClient.asyncGet(recordBackendKey).get(remainingTimeMillis,
+					TimeUnit.MILLISECONDS);
+			CacheInvalidationBucket bucket = CacheInvalidationBucket.toBucket(rawBucket);
+			if ((bucket == null) && (rawBucket != null)) {
+				return true;
+			}
+			CacheInvalidationObject current = (bucket == null) ? null : bucket.get(key);
+			if ((current != null)
+					&& (current.invalidationTimestampMillis >= invalidationObject.invalidationTimestampMillis)) {
+				return true;
+			}
+
+			setFuture = recordBackendClient.asyncSet(recordBackendKey,
+					config.getDefaultStoredObjectRemovalTimeMillis(),
+					mergeIntoBucket(bucket, startTimeMillis, invalidationObject));
+			remainingTimeMillis = timeoutMillis - (System.currentTimeMillis() - startTimeMillis);
+			if (remainingTimeMillis <= 0) {
+				return true;
+			}
+			return setFuture.get(remainingTimeMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ie) {
+			throw ie;
+		} catch (Exception e) {
+			return true;
+		}
+	}
+
 }
\ No newline at end of file
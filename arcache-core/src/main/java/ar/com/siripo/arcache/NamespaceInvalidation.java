@@ -0,0 +1,175 @@
+package ar.com.siripo.arcache;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ar.com.siripo.arcache.backend.ArcacheAsyncBackendClientAdapter;
+import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.ListenableFutures;
+
+/**
+ * The in process view of the namespace invalidation object. Invalidating the
+ * namespace invalidates everything stored before it, like an invalidation key
+ * that every object has, but it does not cost a fetch per get.
+ *
+ * The object is stored as the empty invalidation key, the users can not
+ * invalidate it directly. It is kept in memory and refreshed in background when
+ * it is older than the refresh interval, so the other processes see a new
+ * namespace invalidation within that interval. Only the first get waits for it.
+ * The process that invalidates the namespace installs the stored object, so its
+ * gets see the invalidation right away.
+ * A load that does not complete within the refresh interval is cancelled, so
+ * the next get starts another one.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class NamespaceInvalidation {
+
+	/** The invalidation key that stores the namespace invalidation object */
+	public static final String INVALIDATION_KEY = "";
+
+	protected final ArcacheBackendClient backendClient;
+	protected final String backendKey;
+	protected final long refreshMillis;
+
+	protected volatile CacheInvalidationObject invalidationObject;
+	protected volatile boolean loaded = false;
+	protected volatile long refreshedTimeMillis;
+	protected ListenableFuture<Object> loadFuture; // The load in flight, guarded by this
+
+	public NamespaceInvalidation(ArcacheBackendClient backendClient, String backendKey, long refreshMillis) {
+		if ((backendClient == null) || (backendKey == null) || (refreshMillis <= 0)) {
+			throw new IllegalArgumentException();
+		}
+		this.backendClient = backendClient;
+		this.backendKey = backendKey;
+		this.refreshMillis = refreshMillis;
+	}
+
+	/**
+	 * @param timeoutMillis the time to wait the first load
+	 * @return the namespace invalidation object, null when the namespace was never
+	 *         invalidated
+	 * @throws TimeoutException   when the first load does not arrive in time
+	 * @throws ExecutionException when the first load fails
+	 */
+	public CacheInvalidationObject get(final long timeoutMillis)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		if (loaded) {
+			if (System.currentTimeMillis() - refreshedTimeMillis >= refreshMillis) {
+				load();
+			}
+			return invalidationObject;
+		}
+		final ListenableFuture<Object> future = load();
+		onLoaded(future, future.get(timeoutMillis, TimeUnit.MILLISECONDS));
+		return invalidationObject;
+	}
+
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Starts a load, unless there is one in flight. It is abandoned when it does
+	 * not complete within the refresh interval
+	 *
+	 * @return the load in flight
+	 */
+	public synchronized ListenableFuture<Object> load() {
+		if (loadFuture != null) {
+			return loadFuture;
+		}
+		final ListenableFuture<Object> future = ArcacheAsyncBackendClientAdapter.lift(backendClient)
+				.listenableGet(backendKey);
+		loadFuture = future;
+		future.addListener(new FutureListener<Object>() {
+			@Override
+			public void onComplete(ListenableFuture<Object> f) {
+				try {
+					onLoaded(f, f.get());
+				} catch (Exception e) {
+					onFailed(f);
+				}
+			}
+		});
+		if (!future.isDone()) {
+			ListenableFutures.schedule(new Runnable() {
+				@Override
+				public void run() {
+					onExpired(future);
+				}
+			}, refreshMillis);
+		}
+		return future;
+	}
+
+	/** The next get starts a refresh */
+	public void expire() {
+		refreshedTimeMillis = 0;
+	}
+
+	/**
+	 * Installs the namespace invalidation object just stored by this process,
+	 * unless a newer one is already loaded. A load in flight may return the
+	 * previous object, so it is discarded.
+	 */
+	public synchronized void update(final CacheInvalidationObject storedObject) {
+		if ((invalidationObject != null)
+				&& (invalidationObject.invalidationTimestampMillis > storedObject.invalidationTimestampMillis)) {
+			return;
+		}
+		invalidationObject = storedObject;
+		refreshedTimeMillis = System.currentTimeMillis();
+		loaded = true;
+		loadFuture = null;
+	}
+
+	protected synchronized void onLoaded(final ListenableFuture<Object> future, final Object rawObject) {
+		if (loadFuture != future) {
+			return;
+		}
+		invalidationObject = toInvalidationObject(rawObject);
+		refreshedTimeMillis = System.currentTimeMillis();
+		loaded = true;
+		loadFuture = null;
+	}
+
+	/** The previous object is kept, it is retried after the refresh interval */
+	protected synchronized void onFailed(final ListenableFuture<Object> future) {
+		if (loadFuture != future) {
+			return;
+		}
+		refreshedTimeMillis = System.currentTimeMillis();
+		loadFuture = null;
+	}
+
+	/** Like a failure, but the load is cancelled because it will not be waited */
+	protected void onExpired(final ListenableFuture<Object> future) {
+		synchronized (this) {
+			if (loadFuture != future) {
+				return;
+			}
+			refreshedTimeMillis = System.currentTimeMillis();
+			loadFuture = null;
+		}
+		future.cancel(false);
+	}
+
+	/** An invalid type is treated as a miss, like the invalidation keys */
+	protected static CacheInvalidationObject toInvalidationObject(final Object rawObject) {
+		if (rawObject instanceof CacheInvalidationObject) {
+			return (CacheInvalidationObject) rawObject;
+		}
+		return null;
+	}
+
+	public long getRefreshMillis() {
+		return refreshMillis;
+	}
+
+}
@@ -4,18 +4,22 @@ public class AdjustedExponentialProbabilityFunction extends AbstractProbabilityF
 
 	protected double shapeFactor = 11;
 
+	/** exp(shapeFactor) - 1 computed once */
+	protected final double scale;
+
 	public AdjustedExponentialProbabilityFunction(final double graceZone, final double shapeFactor) {
 		this.setGraceZone(graceZone);
 		if (shapeFactor == 0) {
 			throw new IllegalArgumentException("shapeFactor must be != 0");
 		}
 		this.shapeFactor = shapeFactor;
+		this.scale = Math.exp(shapeFactor) - 1;
 	}
 
 	@Override
 	public double getProbability(final double x) {
 		final double xx = (x - graceZone) / (1 - graceZone);
-		final double y = (Math.exp(xx * shapeFactor) - 1) / (Math.exp(shapeFactor) - 1);
+		final double y = (Math.exp(xx * shapeFactor) - 1) / scale;
 		if (y <= 0) {
 			return (0);
 		}
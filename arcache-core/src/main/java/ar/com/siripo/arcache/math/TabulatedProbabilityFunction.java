@@ -0,0 +1,137 @@
+package ar.com.siripo.arcache.math;
+
+/**
+ * Precomputes a probability function into a table of equally spaced samples
+ * between 0 and 1 and interpolates linearly between them. The evaluation is a
+ * multiplication and a table lookup instead of the calls to Math.exp of the
+ * exponential function, and it does not allocate.
+ *
+ * The table is doubled until the interpolation error, measured against the
+ * original function, is below the requested bound. The linear interpolation of
+ * a monotonically increasing function is monotonically increasing, so the
+ * constraints of ProbabilityFunction are preserved.
+ *
+ * @author Mariano Santamarina
+ *
+ */
+public class TabulatedProbabilityFunction implements ProbabilityFunction {
+
+	public static final double DEFAULT_MAX_ERROR = 0.0001;
+
+	/** By default the table never grows beyond this number of segments */
+	public static final int DEFAULT_MAX_SEGMENTS = 1 << 16;
+
+	protected static final int MIN_SEGMENTS = 16;
+
+	/** Points measured inside each segment to compute the interpolation error */
+	protected static final int ERROR_SAMPLES_PER_SEGMENT = 8;
+
+	protected final ProbabilityFunction function;
+
+	protected final double[] table;
+
+	/** The number of segments, always a power of two */
+	protected final int segments;
+
+	protected final double maxError;
+
+	public TabulatedProbabilityFunction(final ProbabilityFunction function) {
+		this(function, DEFAULT_MAX_ERROR);
+	}
+
+	/**
+	 * @param function the function to tabulate
+	 * @param maxError the maximum absolute difference allowed between the
+	 *                 tabulated and the original probability
+	 */
+	public TabulatedProbabilityFunction(final ProbabilityFunction function, final double maxError) {
+		this(function, maxError, DEFAULT_MAX_SEGMENTS);
+	}
+
+	/**
+	 * @param function    the function to tabulate
+	 * @param maxError    the maximum absolute difference allowed between the
+	 *                    tabulated and the original probability
+	 * @param maxSegments the limit of the table size, when it is reached the error
+	 *                    may be above maxError (the function is not smooth), it is
+	 *                    rounded down to a power of two
+	 */
+	public TabulatedProbabilityFunction(final ProbabilityFunction function, final double maxError,
+			final int maxSegments) {
+		if (function == null) {
+			throw new IllegalArgumentException("Invalid function");
+		}
+		if (!(maxError > 0)) {
+			throw new IllegalArgumentException("Invalid max error, must be > 0");
+		}
+		if (maxSegments < MIN_SEGMENTS) {
+			throw new IllegalArgumentException("Invalid max segments, must be >= " + MIN_SEGMENTS);
+		}
+		this.function = function;
+
+		int n = MIN_SEGMENTS;
+		double[] t = createTable(function, n);
+		double error = measureError(function, t, n);
+		while ((error > maxError) && (n <= maxSegments / 2)) {
+			n = n * 2;
+			t = createTable(function, n);
+			error = measureError(function, t, n);
+		}
+		this.segments = n;
+		this.table = t;
+		this.maxError = error;
+	}
+
+	protected static double[] createTable(final ProbabilityFunction function, final int segments) {
+		double[] t = new double[segments + 1];
+		for (int i = 0; i <= segments; i++) {
+			t[i] = function.getProbability((double) i / segments);
+		}
+		return t;
+	}
+
+	protected static double measureError(final ProbabilityFunction function, final double[] table,
+			final int segments) {
+		double error = 0;
+		for (int i = 0; i < segments; i++) {
+			for (int j = 1; j < ERROR_SAMPLES_PER_SEGMENT; j++) {
+				double frac = (double) j / ERROR_SAMPLES_PER_SEGMENT;
+				double x = (i + frac) / segments;
+				double y = table[i] + (table[i + 1] - table[i]) * frac;
+				error = Math.max(error, Math.abs(function.getProbability(x) - y));
+			}
+		}
+		return error;
+	}
+
+	@Override
+	public double getProbability(final double x) {
+		if (x <= 0) {
+			return 0;
+		}
+		if (x >= 1) {
+			return 1;
+		}
+		// segments is a power of two, x * segments is exact and below segments
+		final double position = x * segments;
+		final int i = (int) position;
+		final double y0 = table[i];
+		return y0 + (table[i + 1] - y0) * (position - i);
+	}
+
+	/** @return the tabulated function */
+	public ProbabilityFunction getFunction() {
+		return function;
+	}
+
+	/** @return the number of interpolated segments between 0 and 1 */
+	public int getSegments() {
+		return segments;
+	}
+
+	/** @return the maximum interpolation error measured when the table was built */
+	public double getMaxError() {
+		return maxError;
+	}
+
+}
@@ -1,13 +1,18 @@
 package ar.com.siripo.arcache.spring;
 
+import java.util.concurrent.Executor;
+
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 
 import ar.com.siripo.arcache.ArcacheClient;
+import ar.com.siripo.arcache.ArcacheClientTracker;
 import ar.com.siripo.arcache.ArcacheConfigurationSetInterface;
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBus;
 import ar.com.siripo.arcache.math.ProbabilityFunction;
+import ar.com.siripo.arcache.util.RandomSource;
 
 public class ArcacheClientFactoryBean
 		implements FactoryBean<ArcacheClient>, InitializingBean, DisposableBean, ArcacheConfigurationSetInterface {
@@ -109,4 +114,49 @@ public class ArcacheClientFactoryBean
 		client.setRelaxOperationTimeoutInHeavyLoadSystem(relaxOperationTimeoutInHeavyLoadSystem);
 	}
 
+	@Override
+	public void setBackendRequestCoalescing(boolean backendRequestCoalescing) {
+		client.setBackendRequestCoalescing(backendRequestCoalescing);
+	}
+
+	@Override
+	public void setStaleWhileRevalidate(boolean staleWhileRevalidate) {
+		client.setStaleWhileRevalidate(staleWhileRevalidate);
+	}
+
+	@Override
+	public void setRefreshExecutor(Executor refreshExecutor) {
+		client.setRefreshExecutor(refreshExecutor);
+	}
+
+	@Override
+	public void setLoadWaitTimeoutMillis(long loadWaitTimeoutMillis) {
+		client.setLoadWaitTimeoutMillis(loadWaitTimeoutMillis);
+	}
+
+	@Override
+	public void setRandomSource(RandomSource randomSource) {
+		client.setRandomSource(randomSource);
+	}
+
+	@Override
+	public void setTracker(ArcacheClientTracker tracker) {
+		client.setTracker(tracker);
+	}
+
+	@Override
+	public void setNamespaceInvalidationRefreshMillis(long refreshMillis) {
+		client.setNamespaceInvalidationRefreshMillis(refreshMillis);
+	}
+
+	@Override
+	public void setInvalidationKeyBuckets(int buckets) {
+		client.setInvalidationKeyBuckets(buckets);
+	}
+
+	@Override
+	public void setInvalidationBus(ArcacheInvalidationBus invalidationBus) {
+		client.setInvalidationBus(invalidationBus);
+	}
+
 }
@@ -0,0 +1,300 @@
+package ar.com.siripo.arcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ar.com.siripo.arcache.CacheGetResult.Type;
+import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.ProvenanceAware;
+import ar.com.siripo.arcache.util.SettableFuture;
+
+public class ArcacheClientMetricsTrackerTest {
+
+	ArcacheInMemoryClient backendClient;
+	ArcacheClient arcache;
+	ArcacheClientMetricsTracker tracker;
+
+	@Before
+	public void setUp() throws Exception {
+		backendClient = new ArcacheInMemoryClient();
+		arcache = new ArcacheClient(backendClient);
+		arcache.setTimeMeasurementErrorMillis(0);
+		tracker = new ArcacheClientMetricsTracker();
+		arcache.setTracker(tracker);
+	}
+
+	@Test
+	public void testTrackDirectly() {
+		tracker.trackGet("k", new CacheGetResult(Type.HIT), 1000, 3);
+		tracker.trackGet("k", new CacheGetResult(Type.TIMEOUT), 500000, 0);
+		tracker.trackSet("k", 2000, true);
+		tracker.trackSet("k", 3000, false);
+		tracker.trackInvalidation("k", true, 4000, true);
+		tracker.trackInvalidation("k", false, 5000, false);
+
+		assertEquals(1, tracker.getGetCount(Type.HIT));
+		assertEquals(1, tracker.getGetCount(Type.TIMEOUT));
+		assertEquals(0, tracker.getGetCount(Type.MISS));
+		assertEquals(2, tracker.getGetCount());
+		assertEquals(500000, tracker.getGetLatencyNanos().getMax());
+		assertEquals(3, tracker.getInvalidationKeysFanOut().getMax());
+		assertEquals(2, tracker.getSetCount());
+		assertEquals(1, tracker.getSetFailureCount());
+		assertEquals(2, tracker.getSetLatencyNanos().getCount());
+		assertEquals(1, tracker.getHardInvalidationCount());
+		assertEquals(1, tracker.getSoftInvalidationCount());
+		assertEquals(1, tracker.getInvalidationFailureCount());
+		assertEquals(2, tracker.getInvalidationLatencyNanos().getCount());
+		tracker.trackInvalidationPublishFailure(Arrays.asList("a", "b"), new IllegalStateException());
+		assertEquals(2, tracker.getInvalidationPublishFailureCount());
+
+		tracker.reset();
+		assertEquals(0, tracker.getGetCount());
+		assertEquals(0, tracker.getGetLatencyNanos().getCount());
+		assertEquals(0, tracker.getInvalidationKeysFanOut().getCount());
+		assertEquals(0, tracker.getSetCount());
+		assertEquals(0, tracker.getSetFailureCount());
+		assertEquals(0, tracker.getSetLatencyNanos().getCount());
+		assertEquals(0, tracker.getHardInvalidationCount());
+		assertEquals(0, tracker.getSoftInvalidationCount());
+		assertEquals(0, tracker.getInvalidationFailureCount());
+		assertEquals(0, tracker.getInvalidationLatencyNanos().getCount());
+		assertEquals(0, tracker.getInvalidationPublishFailureCount());
+	}
+
+	@Test
+	public void testTrackedGets() throws Exception {
+		arcache.set("key", "value", new String[] { "a", "b" });
+		assertEquals(1, tracker.getSetCount());
+		assertEquals(0, tracker.getSetFailureCount());
+		Thread.sleep(2);
+
+		assertTrue(arcache.getCacheObject("key").isHit());
+		assertTrue(arcache.getCacheObject("missing").isMiss());
+		assertEquals(1, tracker.getGetCount(Type.HIT));
+		assertEquals(1, tracker.getGetCount(Type.MISS));
+		assertEquals(2, tracker.getInvalidationKeysFanOut().getMax());
+		assertEquals(0, tracker.getInvalidationKeysFanOut().getValueAtPercentile(50));
+		assertEquals(2, tracker.getGetLatencyNanos().getCount());
+		assertTrue(tracker.getGetLatencyNanos().getMax() > 0);
+
+		// A get of a done task is not tracked again
+		Future<CacheGetResult> f = arcache.asyncGetCacheObject("key");
+		f.get();
+		f.get();
+		assertEquals(2, tracker.getGetCount(Type.HIT));
+
+		// The async and the bulk gets are tracked too
+		assertTrue(arcache.getCacheObjectAsync("key").get().isHit());
+		arcache.getCacheObjects(Arrays.asList("key", "missing"));
+		assertEquals(4, tracker.getGetCount(Type.HIT));
+		assertEquals(2, tracker.getGetCount(Type.MISS));
+
+		arcache.invalidateKey("a", true, 0);
+		arcache.invalidateKey("b", false, 0);
+		assertEquals(1, tracker.getHardInvalidationCount());
+		assertEquals(1, tracker.getSoftInvalidationCount());
+		assertEquals(0, tracker.getInvalidationFailureCount());
+		assertEquals(2, tracker.getInvalidationLatencyNanos().getCount());
+		Thread.sleep(2);
+		assertTrue(arcache.getCacheObject("key").isMiss());
+		assertEquals(3, tracker.getGetCount(Type.MISS));
+
+		arcache.setDefaultExpirationTimeMillis(1);
+		arcache.set("expired", "value");
+		Thread.sleep(5);
+		assertTrue(arcache.getCacheObject("expired").isExpired());
+		assertEquals(1, tracker.getGetCount(Type.EXPIRED));
+
+		backendClient.set("invalid", 1000, new Vector<Object>());
+		assertTrue(arcache.getCacheObject("invalid").isAnyTypeOfError());
+		assertEquals(1, tracker.getGetCount(Type.ERROR));
+	}
+
+	@Test
+	public void testTrackedFailures() throws Exception {
+		FailingBackendClient failing = new FailingBackendClient();
+		arcache.setBackendClient(failing);
+
+		// The main get never completes
+		assertEquals(Type.TIMEOUT, arcache.getCacheObject("key", 1).getType());
+		assertEquals(1, tracker.getGetCount(Type.TIMEOUT));
+
+		assertEquals(Type.TIMEOUT, arcache.getCacheObjectAsync("key", 1).get().getType());
+		assertEquals(2, tracker.getGetCount(Type.TIMEOUT));
+		failing.pendingGet.set(null);
+
+		failing.failGets = true;
+		assertEquals(Type.ERROR, arcache.getCacheObject("key").getType());
+		assertEquals(1, tracker.getGetCount(Type.ERROR));
+
+		assertFalse(arcache.asyncSet("key", "value").get());
+		assertEquals(1, tracker.getSetCount());
+		assertEquals(1, tracker.getSetFailureCount());
+
+		try {
+			arcache.invalidateKey("key");
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(1, tracker.getInvalidationFailureCount());
+	}
+
+	@Test
+	public void testDiagnostics() throws Exception {
+		arcache.set("key", "value", new String[] { "a", "b" });
+		Thread.sleep(2);
+
+		CacheGetResult r = arcache.getCacheObject("key");
+		assertTrue(r.isHit());
+		assertTrue(r.getMainFetchNanos() > 0);
+		assertTrue(r.getInvalidationFetchNanos() > 0);
+		assertEquals(2, r.getInvalidationKeysFetched());
+		assertEquals(0, r.getInvalidationKeysServedLocally());
+		assertFalse(r.isRelaxedTimeoutApplied());
+		assertFalse(r.isServedLocally());
+
+		r = arcache.getCacheObjectAsync("key").get();
+		assertTrue(r.getMainFetchNanos() > 0);
+		assertTrue(r.getInvalidationFetchNanos() > 0);
+		assertEquals(2, r.getInvalidationKeysFetched());
+
+		// The misses are not shared, so they carry the diagnostics
+		r = arcache.getCacheObject("missing");
+		assertNotSame(CacheGetResult.MISS, r);
+		assertTrue(r.getMainFetchNanos() > 0);
+		assertEquals(0, r.getInvalidationKeysFetched());
+		arcache.invalidateKey("a", true, 0);
+		Thread.sleep(2);
+		r = arcache.getCacheObject("key");
+		assertTrue(r.isMiss());
+		assertNotSame(CacheGetResult.MISS, r);
+		assertEquals(2, r.getInvalidationKeysFetched());
+
+		assertEquals(4, tracker.getMainFetchNanos().getCount());
+		assertEquals(3, tracker.getInvalidationFetchNanos().getCount());
+		assertEquals(0, tracker.getRelaxedTimeoutCount());
+		assertEquals(0, tracker.getServedLocallyCount());
+
+		// Served by a local layer
+		arcache.setBackendClient(new LocalBackendClient(backendClient));
+		arcache.set("local", "value", new String[] { "c" });
+		Thread.sleep(2);
+		r = arcache.getCacheObject("local");
+		assertTrue(r.isHit());
+		assertTrue(r.isServedLocally());
+		assertEquals(1, r.getInvalidationKeysServedLocally());
+		assertTrue(arcache.getCacheObjectAsync("local").get().isServedLocally());
+		assertEquals(2, tracker.getServedLocallyCount());
+
+		tracker.reset();
+		assertEquals(0, tracker.getMainFetchNanos().getCount());
+		assertEquals(0, tracker.getInvalidationFetchNanos().getCount());
+		assertEquals(0, tracker.getServedLocallyCount());
+	}
+
+	@Test
+	public void testRelaxedTimeoutDiagnostics() throws Exception {
+		arcache.setRelaxOperationTimeoutInHeavyLoadSystem(true);
+		arcache.set("key", "value", new String[] { "a" });
+		Thread.sleep(2);
+
+		CacheGetterTask cgt = new CacheGetterTask("key", backendClient, backendClient, arcache, arcache,
+				arcache.getRandomSource());
+		CacheGetResult r = cgt.doTask(System.currentTimeMillis() - 5000, 1000);
+		assertTrue(r.isHit());
+		assertTrue(r.isRelaxedTimeoutApplied());
+		assertEquals(1, tracker.getRelaxedTimeoutCount());
+
+		// Only the invalidation key wait exceeds the remaining time
+		cgt = new CacheGetterTask("key", backendClient, backendClient, arcache, arcache, arcache.getRandomSource());
+		cgt.relaxOperationTimeoutInHeavyLoadSystem = false;
+		assertFalse(cgt.evaluate(System.currentTimeMillis(), 1000).isRelaxedTimeoutApplied());
+		cgt = new CacheGetterTask("key", backendClient, backendClient, arcache, arcache, arcache.getRandomSource());
+		assertEquals(200, cgt.computeInvalidationTimeoutMillis(System.currentTimeMillis() - 1000, 1000, false));
+		assertTrue(cgt.relaxedTimeoutApplied);
+	}
+
+	@Test
+	public void testNotTrackedWithoutTracker() throws Exception {
+		arcache.setTracker(null);
+		arcache.set("key", "value");
+		arcache.getCacheObject("key");
+		arcache.invalidateKey("key");
+		assertEquals(0, tracker.getGetCount());
+		assertEquals(0, tracker.getSetCount());
+		assertEquals(0, tracker.getInvalidationLatencyNanos().getCount());
+
+		// Without tracker the diagnostics are not measured
+		CacheGetResult r = arcache.getCacheObject("key");
+		assertEquals(0, r.getMainFetchNanos());
+		assertSame(CacheGetResult.MISS, arcache.getCacheObject("missing"));
+	}
+
+	/** Serves the values of the wrapped backend as if they were local */
+	static class LocalBackendClient implements ArcacheBackendClient {
+		final ArcacheBackendClient backend;
+
+		LocalBackendClient(ArcacheBackendClient backend) {
+			this.backend = backend;
+		}
+
+		@Override
+		public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+			return backend.asyncSet(key, ttlMillis, value);
+		}
+
+		@Override
+		public Future<Object> asyncGet(String key) {
+			try {
+				return new LocalFuture(backend.asyncGet(key).get());
+			} catch (Exception e) {
+				return DummyFuture.createWithException(e);
+			}
+		}
+	}
+
+	static class LocalFuture extends DummyFuture<Object> implements ProvenanceAware {
+		LocalFuture(Object result) {
+			super(result);
+		}
+
+		@Override
+		public boolean isServedLocally() {
+			return true;
+		}
+	}
+
+	static class FailingBackendClient implements ArcacheBackendClient {
+		boolean failGets = false;
+		SettableFuture<Object> pendingGet = new SettableFuture<Object>();
+
+		@Override
+		public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+			if (key.contains("InvKey")) {
+				return DummyFuture.createWithException(new IllegalStateException());
+			}
+			return new DummyFuture<Boolean>(false);
+		}
+
+		@Override
+		public Future<Object> asyncGet(String key) {
+			if (failGets) {
+				return DummyFuture.createWithException(new IllegalStateException());
+			}
+			return pendingGet;
+		}
+	}
+
+}
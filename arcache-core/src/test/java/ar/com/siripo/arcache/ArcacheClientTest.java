@@ -5,6 +5,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -12,6 +13,7 @@ import java.util.Random;
 import java.util.Vector;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.Before;
@@ -19,8 +21,12 @@ import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import ar.com.siripo.arcache.backend.CoalescingBackendClient;
 import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
 import ar.com.siripo.arcache.math.LinearProbabilityFunction;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.RandomSource;
+import ar.com.siripo.arcache.util.SettableFuture;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class ArcacheClientTest {
@@ -512,6 +518,138 @@ public class ArcacheClientTest {
 
 	}
 
+	@Test
+	public void testBackendRequestCoalescingClients() throws Exception {
+		assertSame(backendClient, arcache.readBackendClient);
+		assertSame(backendClient, arcache.readInvalidationBackendClient);
+
+		arcache.setBackendRequestCoalescing(true);
+		assertTrue(arcache.getBackendRequestCoalescing());
+		assertThat(arcache.readBackendClient, instanceOf(CoalescingBackendClient.class));
+		assertSame(backendClient, ((CoalescingBackendClient) arcache.readBackendClient).getBackendClient());
+		// The same backend shares the in flight table
+		assertSame(arcache.readBackendClient, arcache.readInvalidationBackendClient);
+
+		ArcacheInMemoryClient invClient = new ArcacheInMemoryClient();
+		arcache.setInvalidationBackendClient(invClient);
+		assertSame(invClient, ((CoalescingBackendClient) arcache.readInvalidationBackendClient).getBackendClient());
+		assertSame(invClient, arcache.effectiveInvalidationBackendClient);
+
+		arcache.setBackendClient(null);
+		assertNull(arcache.readBackendClient);
+
+		arcache.setBackendRequestCoalescing(false);
+		assertSame(invClient, arcache.readInvalidationBackendClient);
+	}
+
+	@Test
+	public void testBackendRequestCoalescing() throws Exception {
+		final SettableFuture<Object> mainFuture = new SettableFuture<Object>();
+		final SettableFuture<Object> invFuture = new SettableFuture<Object>();
+		final AtomicInteger gets = new AtomicInteger();
+		arcache.setBackendClient(new AsyncCacheGetterTaskTest.FutureBackendClient(mainFuture, invFuture) {
+			@Override
+			public Future<Object> asyncGet(String key) {
+				gets.incrementAndGet();
+				return super.asyncGet(key);
+			}
+		});
+		arcache.setBackendRequestCoalescing(true);
+
+		ListenableFuture<CacheGetResult> r1 = arcache.getCacheObjectAsync("key", 10000);
+		ListenableFuture<CacheGetResult> r2 = arcache.getCacheObjectAsync("key", 10000);
+		assertEquals(1, gets.get());
+
+		ExpirableCacheObject eco = new ExpirableCacheObject();
+		eco.value = "v";
+		// Stored before the time measurement error, so the invalidation key is loaded
+		eco.timestampMillis = System.currentTimeMillis() - 10000;
+		eco.expirationTTLMillis = 100000;
+		eco.invalidationKeys = new String[] { "global-config" };
+		mainFuture.set(eco);
+		// Both getters share the fetch of the invalidation key
+		assertEquals(2, gets.get());
+
+		invFuture.set(null);
+		assertEquals("v", r1.get(1, TimeUnit.SECONDS).value);
+		assertEquals("v", r2.get(1, TimeUnit.SECONDS).value);
+
+		// The synchronous getter works through the coalescing client
+		arcache.setBackendClient(backendClient);
+		arcache.set("sync", "s", new String[] { "inv" });
+		assertEquals("s", arcache.get("sync"));
+	}
+
+	@Test
+	public void testBackendRequestCoalescingSetAfterGet() throws Exception {
+		HoldingBackendClient holdingClient = new HoldingBackendClient();
+		arcache.setBackendClient(holdingClient);
+		arcache.setBackendRequestCoalescing(true);
+		arcache.set("k", "old");
+
+		holdingClient.heldKey = arcache.createBackendKey("k");
+		ListenableFuture<CacheGetResult> r1 = arcache.getCacheObjectAsync("k", 10000);
+		arcache.set("k", "new");
+		// Issued after the set, it does not share the read of the old value
+		ListenableFuture<CacheGetResult> r2 = arcache.getCacheObjectAsync("k", 10000);
+		holdingClient.release();
+
+		assertEquals("old", r1.get(1, TimeUnit.SECONDS).value);
+		assertEquals("new", r2.get(1, TimeUnit.SECONDS).value);
+	}
+
+	@Test
+	public void testBackendRequestCoalescingInvalidateAfterGet() throws Exception {
+		final HoldingBackendClient holdingClient = new HoldingBackendClient();
+		arcache.setBackendClient(holdingClient);
+		arcache.setBackendRequestCoalescing(true);
+		arcache.setTimeMeasurementErrorMillis(0);
+		arcache.set("k", "v", new String[] { "inv" });
+		ExpirableCacheObject expobj = (ExpirableCacheObject) holdingClient.get(arcache.createBackendKey("k"));
+		expobj.timestampMillis = expobj.timestampMillis - 1000;
+		holdingClient.set(arcache.createBackendKey("k"), 1000000, expobj);
+
+		holdingClient.heldKey = arcache.createInvalidationBackendKey("inv");
+		ListenableFuture<CacheGetResult> r1 = arcache.getCacheObjectAsync("k", 10000);
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				holdingClient.release();
+			}
+		}.start();
+		// The invalidation reads the previous object through the read in flight
+		arcache.invalidateKey("inv", true, 0);
+		ListenableFuture<CacheGetResult> r2 = arcache.getCacheObjectAsync("k", 10000);
+
+		assertEquals(CacheGetResult.Type.HIT, r1.get(1, TimeUnit.SECONDS).type);
+		assertEquals(CacheGetResult.Type.MISS, r2.get(1, TimeUnit.SECONDS).type);
+	}
+
+	/** Holds the next get of a key, it returns the value stored when it was issued */
+	static class HoldingBackendClient extends ArcacheInMemoryClient {
+		final SettableFuture<Object> heldGet = new SettableFuture<Object>();
+		volatile String heldKey;
+		volatile Object heldValue;
+
+		@Override
+		public ListenableFuture<Object> listenableGet(String key) {
+			if (key.equals(heldKey)) {
+				heldKey = null;
+				heldValue = get(key);
+				return heldGet;
+			}
+			return super.listenableGet(key);
+		}
+
+		void release() {
+			heldGet.set(heldValue);
+		}
+	}
+
 	@Test
 	public void testInvalidationBackendClientUssage() throws Exception {
 
@@ -567,7 +705,7 @@ public class ArcacheClientTest {
 	}
 
 	@SuppressWarnings("serial")
-	private static class StaticDoubleRandom extends Random {
+	private static class StaticDoubleRandom extends Random implements RandomSource {
 		double rv;
 
 		StaticDoubleRandom(double v) {
@@ -2,14 +2,23 @@ package ar.com.siripo.arcache;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.InProcessInvalidationBus;
 import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+import ar.com.siripo.arcache.util.RandomSource;
+import ar.com.siripo.arcache.util.SeededRandomSource;
+import ar.com.siripo.arcache.util.ThreadLocalRandomSource;
 
 public class ArcacheConfigurationInterfaceTest {
 
@@ -133,4 +142,125 @@ public class ArcacheConfigurationInterfaceTest {
 		assertEquals(config.getBackendClient(), backendClient);
 	}
 
+	@Test
+	public void testSetBackendRequestCoalescing() {
+		assertFalse(config.getBackendRequestCoalescing());
+		config.setBackendRequestCoalescing(true);
+		assertTrue(config.getBackendRequestCoalescing());
+		config.setBackendRequestCoalescing(false);
+		assertFalse(config.getBackendRequestCoalescing());
+	}
+
+	@Test
+	public void testSetStaleWhileRevalidate() {
+		assertFalse(config.getStaleWhileRevalidate());
+		config.setStaleWhileRevalidate(true);
+		assertTrue(config.getStaleWhileRevalidate());
+		config.setStaleWhileRevalidate(false);
+		assertFalse(config.getStaleWhileRevalidate());
+	}
+
+	@Test
+	public void testSetLoadWaitTimeoutMillis() {
+		assertEquals(30000, config.getLoadWaitTimeoutMillis());
+		config.setLoadWaitTimeoutMillis(120000);
+		assertEquals(120000, config.getLoadWaitTimeoutMillis());
+
+		try {
+			config.setLoadWaitTimeoutMillis(0);
+			fail("Exception expected");
+		} catch (IllegalArgumentException iae) {
+		}
+	}
+
+	@Test
+	public void testSetRefreshExecutor() {
+		assertTrue(config.getRefreshExecutor() instanceof ThreadPoolExecutor);
+		Executor executor = Executors.newSingleThreadExecutor();
+		config.setRefreshExecutor(executor);
+		assertEquals(executor, config.getRefreshExecutor());
+
+		try {
+			config.setRefreshExecutor(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testSetRandomSource() {
+		assertTrue(config.getRandomSource() instanceof ThreadLocalRandomSource);
+		RandomSource randomSource = new SeededRandomSource(1);
+		config.setRandomSource(randomSource);
+		assertEquals(randomSource, config.getRandomSource());
+
+		try {
+			config.setRandomSource(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testSetTracker() {
+		assertNull(config.getTracker());
+		ArcacheClientTracker tracker = new ArcacheClientMetricsTracker();
+		config.setTracker(tracker);
+		assertEquals(tracker, config.getTracker());
+		config.setTracker(null);
+		assertNull(config.getTracker());
+	}
+
+	@Test
+	public void testSetNamespaceInvalidationRefreshMillis() {
+		assertEquals(0, config.getNamespaceInvalidationRefreshMillis());
+		assertNull(config.getNamespaceInvalidation());
+
+		// It needs a backend
+		config.setNamespaceInvalidationRefreshMillis(1000);
+		assertEquals(1000, config.getNamespaceInvalidationRefreshMillis());
+		assertNull(config.getNamespaceInvalidation());
+		config.setBackendClient(new ArcacheInMemoryClient());
+		NamespaceInvalidation ni = config.getNamespaceInvalidation();
+		assertEquals(1000, ni.getRefreshMillis());
+		assertEquals("InvKey|", ni.backendKey);
+
+		// It is rebuilt when the keys change
+		config.setKeyNamespace("ns");
+		assertEquals("ns|InvKey|", config.getNamespaceInvalidation().backendKey);
+
+		config.setNamespaceInvalidationRefreshMillis(0);
+		assertNull(config.getNamespaceInvalidation());
+
+		try {
+			config.setNamespaceInvalidationRefreshMillis(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testSetInvalidationKeyBuckets() {
+		assertEquals(0, config.getInvalidationKeyBuckets());
+		config.setInvalidationKeyBuckets(64);
+		assertEquals(64, config.getInvalidationKeyBuckets());
+		config.setInvalidationKeyBuckets(0);
+		assertEquals(0, config.getInvalidationKeyBuckets());
+
+		try {
+			config.setInvalidationKeyBuckets(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testSetInvalidationBus() {
+		assertNull(config.getInvalidationBus());
+		InProcessInvalidationBus bus = new InProcessInvalidationBus();
+		config.setInvalidationBus(bus);
+		assertTrue(bus == config.getInvalidationBus());
+		config.setInvalidationBus(null);
+		assertNull(config.getInvalidationBus());
+	}
 }
@@ -1,9 +1,14 @@
 package ar.com.siripo.arcache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -15,6 +20,8 @@ import org.junit.Test;
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
 import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
 import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.SettableFuture;
 
 public class ArcacheInvalidationInterfaceTest {
 
@@ -192,6 +199,205 @@ public class ArcacheInvalidationInterfaceTest {
 
 	}
 
+	@Test
+	public void testInvalidateKeys() throws Exception {
+		Map<String, Boolean> r = invalidationInterface.invalidateKeys(Arrays.asList("juan", "pili", "juan"), true,
+				33);
+		assertEquals(2, r.size());
+		assertTrue(r.get("juan"));
+		assertTrue(r.get("pili"));
+		assertTrue(invalidationInterface.invalidateKeys(new ArrayList<String>(), false, 0).isEmpty());
+
+		// IllegalArgumentException
+		for (Collection<String> keys : Arrays.asList(null, Arrays.asList("juan", ""),
+				Arrays.asList("juan", null))) {
+			try {
+				invalidationInterface.invalidateKeys(keys, true, 33);
+				fail();
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		try {
+			invalidationInterface.invalidateKeys(Arrays.asList("juan"), true, -1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		Future<Map<String, Boolean>> future = invalidationInterface.asyncInvalidateKeys(Arrays.asList("juan"), false,
+				0);
+		assertTrue(future.get().get("juan"));
+
+		// ExecutionException
+		try {
+			invalidationInterface.invalidateKeys(Arrays.asList("ExecutionException"), true, 22);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e instanceof ExecutionException);
+		}
+	}
+
+	@Test
+	public void testInvalidateNamespaceSeenRightAway() throws Exception {
+		final String namespaceBackendKey = interceptor
+				.createInvalidationBackendKey(NamespaceInvalidation.INVALIDATION_KEY);
+		final SettableFuture<Object> pendingRefresh = new SettableFuture<Object>();
+		// The refreshes of the namespace invalidation do not complete
+		ArcacheInMemoryClient slowBackendClient = new ArcacheInMemoryClient() {
+			int namespaceLoads = 0;
+
+			@Override
+			public ListenableFuture<Object> listenableGet(String key) {
+				if (key.equals(namespaceBackendKey) && (++namespaceLoads > 1)) {
+					return pendingRefresh;
+				}
+				return super.listenableGet(key);
+			}
+		};
+		ArcacheClient client = new ArcacheClient(slowBackendClient);
+		client.setTimeMeasurementErrorMillis(0);
+		client.setNamespaceInvalidationRefreshMillis(60000);
+		client.set("a", "A");
+		Thread.sleep(2);
+		assertTrue(client.getCacheObject("a").isHit());
+
+		client.invalidateNamespace(false, 0);
+		assertTrue(client.getCacheObject("a").isInvalidated());
+		assertTrue(client.getCacheObjectAsync("a").get().isInvalidated());
+		assertFalse(pendingRefresh.isDone());
+	}
+
+	@Test
+	public void testInvalidateNamespace() throws Exception {
+		ArcacheClient client = interceptor;
+		client.setTimeMeasurementErrorMillis(0);
+		client.setNamespaceInvalidationRefreshMillis(60000);
+		client.set("a", "A");
+		client.set("b", "B", new String[] { "k" });
+		Thread.sleep(2);
+		assertTrue(client.getCacheObject("a").isHit());
+		assertTrue(client.getCacheObjectAsync("a").get().isHit());
+
+		// Another process with a long refresh interval does not see it yet
+		ArcacheClient other = new ArcacheClient(backendClient);
+		other.setTimeMeasurementErrorMillis(0);
+		other.setNamespaceInvalidationRefreshMillis(60000);
+		assertTrue(other.getCacheObject("a").isHit());
+
+		interceptor.resetInterceptor();
+		invalidationInterface.invalidateNamespace(false, 0);
+		interceptor.assertIntercepted(NamespaceInvalidation.INVALIDATION_KEY, false, 0);
+		Thread.sleep(2);
+		CacheGetResult r = client.getCacheObject("a");
+		assertTrue(r.isInvalidated());
+		assertEquals(NamespaceInvalidation.INVALIDATION_KEY, r.getInvalidatedKey());
+		assertTrue(client.getCacheObject("b").isInvalidated());
+		assertTrue(client.getCacheObjectAsync("a").get().isInvalidated());
+		assertTrue(client.getCacheObjectAsync("b").get().isInvalidated());
+		assertTrue(client.getCacheObjects(Arrays.asList("a", "b")).get("b").isInvalidated());
+		assertTrue(other.getCacheObject("a").isHit());
+		other.getNamespaceInvalidation().expire();
+		other.getNamespaceInvalidation().get(1000);
+		assertTrue(other.getCacheObject("a").isInvalidated());
+
+		// A client without namespace invalidation ignores it
+		ArcacheClient disabled = new ArcacheClient(backendClient);
+		disabled.setTimeMeasurementErrorMillis(0);
+		assertTrue(disabled.getCacheObject("a").isHit());
+
+		// The values stored later are valid
+		client.set("c", "C");
+		client.set("d", "D", new String[] { "k" });
+		Thread.sleep(2);
+		assertTrue(client.getCacheObject("c").isHit());
+		assertTrue(client.getCacheObject("d").isHit());
+		assertTrue(client.getCacheObjectAsync("c").get().isHit());
+		assertTrue(client.getCacheObjectAsync("d").get().isHit());
+
+		// The async invalidation is seen right away too
+		assertTrue(invalidationInterface.asyncInvalidateNamespace(false, 0).get());
+		Thread.sleep(2);
+		assertTrue(client.getCacheObject("c").isInvalidated());
+
+		invalidationInterface.invalidateNamespace(true, 0);
+		Thread.sleep(2);
+		assertTrue(client.getCacheObject("c").isMiss());
+		assertTrue(client.getCacheObjectAsync("d").get().isMiss());
+
+		// The object stored inside the time measurement error is valid
+		client.setTimeMeasurementErrorMillis(10000);
+		assertTrue(client.getCacheObjectAsync("c").get().isHit());
+
+		Future<Boolean> future = invalidationInterface.asyncInvalidateNamespace(true, -1);
+		try {
+			future.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		try {
+			invalidationInterface.invalidateNamespace(true, -1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		client.setNamespaceInvalidationRefreshMillis(0);
+		invalidationInterface.invalidateNamespace(true, 0);
+	}
+
+	@Test
+	public void testAsyncGetWaitsTheNamespaceInvalidation() throws Exception {
+		final SettableFuture<Object> pending = new SettableFuture<Object>();
+		ArcacheBackendClient pendingNamespace = new ArcacheBackendClient() {
+			@Override
+			public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+				return backendClient.asyncSet(key, ttlMillis, value);
+			}
+
+			@Override
+			public Future<Object> asyncGet(String key) {
+				if (key.equals("InvKey|")) {
+					return pending;
+				}
+				return backendClient.asyncGet(key);
+			}
+		};
+		ArcacheClient client = new ArcacheClient(pendingNamespace);
+		client.setTimeMeasurementErrorMillis(0);
+		client.setNamespaceInvalidationRefreshMillis(60000);
+		client.set("a", "A");
+		Thread.sleep(2);
+
+		Future<CacheGetResult> f = client.getCacheObjectAsync("a");
+		Thread.sleep(5);
+		assertFalse(f.isDone());
+		CacheInvalidationObject invObj = new CacheInvalidationObject();
+		invObj.invalidationTimestampMillis = System.currentTimeMillis();
+		invObj.isHardInvalidation = true;
+		pending.set(invObj);
+		assertTrue(f.get().isMiss());
+
+		// A failed load is an error
+		final SettableFuture<Object> failing = new SettableFuture<Object>();
+		ArcacheClient failingClient = new ArcacheClient(new ArcacheBackendClient() {
+			@Override
+			public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+				return backendClient.asyncSet(key, ttlMillis, value);
+			}
+
+			@Override
+			public Future<Object> asyncGet(String key) {
+				if (key.equals("InvKey|")) {
+					return failing;
+				}
+				return backendClient.asyncGet(key);
+			}
+		});
+		failingClient.setTimeMeasurementErrorMillis(0);
+		failingClient.setNamespaceInvalidationRefreshMillis(60000);
+		f = failingClient.getCacheObjectAsync("a");
+		failing.setException(new IllegalStateException());
+		assertEquals(CacheGetResult.Type.ERROR, f.get().getType());
+	}
+
 	static class BuildInvalidateKeyTaskInterceptor extends ArcacheClient {
 
 		String key;
@@ -228,6 +434,15 @@ public class ArcacheInvalidationInterfaceTest {
 			return super.buildInvalidateKeyTask(key, hardInvalidation, invalidationWindowSecs);
 		}
 
+		@Override
+		protected Future<Map<String, Boolean>> buildBulkInvalidateKeysTask(final Collection<String> keys,
+				final boolean hardInvalidation, final long invalidationWindowMillis) {
+			if (keys.contains("ExecutionException")) {
+				return DummyFuture.createWithException(new ExecutionException(new Error()));
+			}
+			return super.buildBulkInvalidateKeysTask(keys, hardInvalidation, invalidationWindowMillis);
+		}
+
 		public void resetInterceptor() {
 			this.key = null;
 			this.hardInvalidation = false;
@@ -6,17 +6,30 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
 import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+import ar.com.siripo.arcache.math.LinearProbabilityFunction;
 import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.SettableFuture;
 
 public class ArcacheReadWriteInterfaceTest {
 
@@ -265,6 +278,441 @@ public class ArcacheReadWriteInterfaceTest {
 		}
 	}
 
+	@Test
+	public void testGetCacheObjectAsync() throws Exception {
+		rInterface.set("juan", "algo", new String[] { "inv" });
+		ListenableFuture<CacheGetResult> future = rInterface.getCacheObjectAsync("juan");
+		assertTrue(future instanceof AsyncCacheGetterTask);
+		assertEquals("algo", future.get().value);
+		assertTrue(rInterface.getCacheObjectAsync("nobody", 100).get().isMiss());
+
+		// Invalid keys are errors inside the result
+		CacheGetResult r = rInterface.getCacheObjectAsync("").get();
+		assertEquals(CacheGetResult.Type.ERROR, r.type);
+		assertTrue(r.errorCause instanceof IllegalArgumentException);
+		r = rInterface.getCacheObjectAsync(null).get();
+		assertTrue(r.errorCause instanceof IllegalArgumentException);
+
+		// Test timeout propagation
+		ArcacheClient clix = new ArcacheClient(backendClient) {
+			@Override
+			protected ListenableFuture<CacheGetResult> buildAsyncCacheGetterTask(final String key,
+					final long timeoutMillis) {
+				assertEquals(337, timeoutMillis);
+				return null;
+			}
+		};
+		clix.setDefaultOperationTimeoutMillis(337);
+		assertNull(clix.getCacheObjectAsync("key"));
+	}
+
+	@Test
+	public void testGetCacheObjects() throws Exception {
+		Map<String, CacheGetResult> results;
+
+		rInterface.set("juan", "algo");
+		rInterface.set("pedro", "otro");
+		results = rInterface.getCacheObjects(Arrays.asList("juan", "pedro", "nobody", "juan"));
+		assertEquals(3, results.size());
+		assertArrayEquals(new String[] { "juan", "pedro", "nobody" }, results.keySet().toArray());
+		assertTrue(results.get("juan").isHit());
+		assertEquals("algo", results.get("juan").value);
+		assertEquals("otro", results.get("pedro").value);
+		assertTrue(results.get("nobody").isMiss());
+
+		// Invalid keys are reported as errors
+		results = rInterface.getCacheObjects(Arrays.asList("juan", ""), 100);
+		assertTrue(results.get("juan").isHit());
+		assertEquals(CacheGetResult.Type.ERROR, results.get("").type);
+		assertTrue(results.get("").errorCause instanceof IllegalArgumentException);
+
+		results = rInterface.getCacheObjects(new ArrayList<String>());
+		assertEquals(0, results.size());
+
+		// Like getCacheObject, a null is reported as an error
+		results = rInterface.getCacheObjects(null);
+		assertEquals(1, results.size());
+		assertEquals(CacheGetResult.Type.ERROR, results.get(null).type);
+		assertTrue(results.get(null).errorCause instanceof IllegalArgumentException);
+
+		// Test timeout propagation
+		ArcacheClient clix = new ArcacheClient(backendClient) {
+			@Override
+			public Map<String, CacheGetResult> getCacheObjects(final Collection<String> keys,
+					final long timeoutMillis) {
+				assertEquals(335, timeoutMillis);
+				return null;
+			}
+		};
+		clix.setDefaultOperationTimeoutMillis(335);
+		assertNull(clix.getCacheObjects(new ArrayList<String>()));
+
+		// When the whole batch fails, every key reports the failure
+		ArcacheClient clit = new ArcacheClient(backendClient) {
+			@Override
+			public Future<Map<String, CacheGetResult>> asyncGetCacheObjects(final Collection<String> keys) {
+				return DummyFuture.createWithException(new TimeoutException());
+			}
+		};
+		results = clit.getCacheObjects(Arrays.asList("a", "b"), 10);
+		assertEquals(2, results.size());
+		assertEquals(CacheGetResult.Type.TIMEOUT, results.get("a").type);
+		assertEquals(CacheGetResult.Type.TIMEOUT, results.get("b").type);
+
+		ArcacheClient clin = new ArcacheClient(backendClient) {
+			@Override
+			public Future<Map<String, CacheGetResult>> asyncGetCacheObjects(final Collection<String> keys) {
+				return new DummyFuture<Map<String, CacheGetResult>>(null);
+			}
+		};
+		results = clin.getCacheObjects(Arrays.asList("a"), 10);
+		assertEquals(CacheGetResult.Type.ERROR, results.get("a").type);
+		assertTrue(results.get("a").errorCause instanceof NullPointerException);
+	}
+
+	@Test
+	public void testAsyncGetCacheObjects() throws Exception {
+		rInterface.set("juan", "algo");
+		Future<Map<String, CacheGetResult>> future = rInterface.asyncGetCacheObjects(Arrays.asList("juan"));
+		assertEquals("algo", future.get().get("juan").value);
+
+		future = rInterface.asyncGetCacheObjects(null);
+		try {
+			future.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+	@Test
+	public void testGetOrLoad() throws Exception {
+		final AtomicInteger loads = new AtomicInteger();
+		Callable<Object> loader = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				loads.incrementAndGet();
+				return "loaded";
+			}
+		};
+
+		// Loaded on MISS and stored
+		assertEquals("loaded", rInterface.getOrLoad("juan", loader, new String[] { "inv" }));
+		assertEquals(1, loads.get());
+		assertEquals("loaded", rInterface.get("juan"));
+
+		// Served from the cache
+		assertEquals("loaded", rInterface.getOrLoad("juan", loader));
+		assertEquals(1, loads.get());
+
+		// Loaded again after a hard invalidation
+		Thread.sleep(2);
+		rconfig.setTimeMeasurementErrorMillis(0);
+		rinterceptor.invalidateKey("inv", true, 0);
+		assertEquals("loaded", rInterface.getOrLoad("juan", loader));
+		assertEquals(2, loads.get());
+		assertTrue(rinterceptor.inFlightLoads.isEmpty());
+
+		// The cache failures are thrown
+		try {
+			rInterface.getOrLoad("TimeoutException", loader);
+			fail();
+		} catch (TimeoutException e) {
+		}
+		try {
+			rInterface.getOrLoad("IllegalStateException", loader);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		try {
+			rInterface.getOrLoad("juan", null);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(2, loads.get());
+
+		// The loader failures are thrown and nothing is stored
+		try {
+			rInterface.getOrLoad("pedro", new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					throw new IOException();
+				}
+			});
+			fail();
+		} catch (IOException e) {
+		}
+		try {
+			rInterface.getOrLoad("pedro", new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					throw new AssertionError();
+				}
+			});
+			fail();
+		} catch (AssertionError e) {
+		}
+		assertTrue(rInterface.getCacheObject("pedro").isMiss());
+		assertTrue(rinterceptor.inFlightLoads.isEmpty());
+	}
+
+	@Test
+	public void testGetOrLoadSingleFlight() throws Exception {
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<Object> loader = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				loads.incrementAndGet();
+				release.await();
+				return "loaded";
+			}
+		};
+
+		final int nthreads = 20;
+		final ArrayList<Object> results = new ArrayList<Object>();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < nthreads; i++) {
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Object r = rInterface.getOrLoad("hot", loader);
+						synchronized (results) {
+							results.add(r);
+						}
+					} catch (Exception e) {
+					}
+				}
+			};
+			threads.add(t);
+			t.start();
+		}
+
+		// Wait until the load starts and let the others reach it
+		long start = System.currentTimeMillis();
+		while ((loads.get() == 0) && (System.currentTimeMillis() - start < 5000)) {
+			Thread.sleep(1);
+		}
+		Thread.sleep(50);
+		release.countDown();
+		for (Thread t : threads) {
+			t.join(5000);
+		}
+
+		assertEquals(1, loads.get());
+		assertEquals(nthreads, results.size());
+		for (Object r : results) {
+			assertEquals("loaded", r);
+		}
+
+		// The waiters receive the loader exception
+		final SettableFuture<Object> failedLoad = new SettableFuture<Object>();
+		failedLoad.setException(new IOException());
+		rinterceptor.inFlightLoads.put("failed", failedLoad);
+		try {
+			rInterface.getOrLoad("failed", loader);
+			fail();
+		} catch (IOException e) {
+		}
+		final SettableFuture<Object> errorLoad = new SettableFuture<Object>();
+		errorLoad.setException(new AssertionError());
+		rinterceptor.inFlightLoads.put("error", errorLoad);
+		try {
+			rInterface.getOrLoad("error", loader);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof AssertionError);
+		}
+
+		// A cancelled load is discarded and the caller loads
+		final SettableFuture<Object> cancelledLoad = new SettableFuture<Object>();
+		cancelledLoad.cancel(false);
+		rinterceptor.inFlightLoads.put("cancelled", cancelledLoad);
+		assertEquals("loaded", rInterface.getOrLoad("cancelled", loader));
+		assertEquals(2, loads.get());
+
+		// The waiters do not wait more than the load wait timeout
+		rconfig.setLoadWaitTimeoutMillis(20);
+		rinterceptor.inFlightLoads.put("pending", new SettableFuture<Object>());
+		try {
+			rInterface.getOrLoad("pending", loader);
+			fail();
+		} catch (TimeoutException e) {
+		}
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testGetOrLoadSlowerThanTheOperationTimeout() throws Exception {
+		rconfig.setDefaultOperationTimeoutMillis(20);
+		final AtomicInteger loads = new AtomicInteger();
+		final Callable<Object> loader = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				loads.incrementAndGet();
+				Thread.sleep(200);
+				return "loaded";
+			}
+		};
+
+		final int nthreads = 5;
+		final ArrayList<Object> results = new ArrayList<Object>();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < nthreads; i++) {
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Object r = rInterface.getOrLoad("slow", loader);
+						synchronized (results) {
+							results.add(r);
+						}
+					} catch (Exception e) {
+						synchronized (results) {
+							results.add(e);
+						}
+					}
+				}
+			};
+			threads.add(t);
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join(5000);
+		}
+
+		// The waiters wait for the loader beyond the operation timeout
+		assertEquals(1, loads.get());
+		assertEquals(nthreads, results.size());
+		for (Object r : results) {
+			assertEquals("loaded", r);
+		}
+	}
+
+	@Test
+	public void testGetOrLoadUntilStored() throws Exception {
+		final SettableFuture<Boolean> setFuture = new SettableFuture<Boolean>();
+		rinterceptor = new BuildCacheGetterTaskInterceptor(new ArcacheInMemoryClient() {
+			@Override
+			public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+				return setFuture;
+			}
+		});
+		final AtomicInteger loads = new AtomicInteger();
+		Callable<Object> loader = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return "loaded" + loads.incrementAndGet();
+			}
+		};
+
+		// Until the value is stored the gets receive the loaded value
+		assertEquals("loaded1", rinterceptor.getOrLoad("juan", loader));
+		assertEquals("loaded1", rinterceptor.getOrLoad("juan", loader));
+		assertEquals(1, loads.get());
+		setFuture.set(true);
+		assertTrue(rinterceptor.inFlightLoads.isEmpty());
+
+		// A set that does not complete keeps it up to the operation timeout
+		final SettableFuture<Boolean> pendingSet = new SettableFuture<Boolean>();
+		rinterceptor = new BuildCacheGetterTaskInterceptor(new ArcacheInMemoryClient() {
+			@Override
+			public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+				return pendingSet;
+			}
+		});
+		rinterceptor.setDefaultOperationTimeoutMillis(20);
+		assertEquals("loaded2", rinterceptor.getOrLoad("juan", loader));
+		assertEquals(1, rinterceptor.inFlightLoads.size());
+		long start = System.currentTimeMillis();
+		while (!rinterceptor.inFlightLoads.isEmpty() && (System.currentTimeMillis() - start < 5000)) {
+			Thread.sleep(1);
+		}
+		assertTrue(rinterceptor.inFlightLoads.isEmpty());
+	}
+
+	@Test
+	public void testGetOrLoadStaleWhileRevalidate() throws Exception {
+		final ArrayList<Runnable> refreshes = new ArrayList<Runnable>();
+		final AtomicInteger loads = new AtomicInteger();
+		Callable<Object> loader = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return "new" + loads.incrementAndGet();
+			}
+		};
+		rconfig.setRefreshExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				refreshes.add(command);
+			}
+		});
+		rconfig.setInvalidationProbabilityFunction(new LinearProbabilityFunction(0));
+		rconfig.setTimeMeasurementErrorMillis(0);
+		rInterface.set("juan", "old", new String[] { "inv" });
+		Thread.sleep(2);
+		rinterceptor.invalidateKey("inv", false, 0);
+		// The new values must be stored after the invalidation
+		Thread.sleep(2);
+
+		// Disabled, the INVALIDATED value is loaded in the caller thread
+		assertEquals("new1", rInterface.getOrLoad("juan", loader, new String[] { "inv" }));
+		assertEquals(0, refreshes.size());
+
+		// Enabled, the stale value is returned and a single refresh is scheduled
+		rconfig.setStaleWhileRevalidate(true);
+		Thread.sleep(2);
+		rinterceptor.invalidateKey("inv", false, 0);
+		assertEquals("new1", rInterface.getOrLoad("juan", loader, new String[] { "inv" }));
+		assertEquals("new1", rInterface.getOrLoad("juan", loader, new String[] { "inv" }));
+		assertEquals(1, loads.get());
+		assertEquals(1, refreshes.size());
+
+		Thread.sleep(2);
+		refreshes.remove(0).run();
+		assertEquals(2, loads.get());
+		assertEquals("new2", rInterface.get("juan"));
+		assertTrue(rinterceptor.inFlightLoads.isEmpty());
+
+		// A failed refresh keeps the stale value
+		Thread.sleep(2);
+		rinterceptor.invalidateKey("inv", false, 0);
+		assertEquals("new2", rInterface.getOrLoad("juan", new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				throw new IOException();
+			}
+		}));
+		refreshes.remove(0).run();
+		assertTrue(rinterceptor.inFlightLoads.isEmpty());
+		assertEquals(CacheGetResult.Type.INVALIDATED, rInterface.getCacheObject("juan").type);
+
+		// A full executor discards the refresh
+		rconfig.setRefreshExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException();
+			}
+		});
+		assertEquals("new2", rInterface.getOrLoad("juan", loader));
+		assertEquals(2, loads.get());
+		assertTrue(rinterceptor.inFlightLoads.isEmpty());
+
+		// The callers waiting for a rejected refresh load by themselves
+		final SettableFuture<Object> rejectedLoad = new SettableFuture<Object>();
+		rconfig.setRefreshExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				assertTrue(rinterceptor.inFlightLoads.containsKey("juan"));
+				rejectedLoad.set(rinterceptor.inFlightLoads.get("juan"));
+				throw new RejectedExecutionException();
+			}
+		});
+		assertEquals("new2", rInterface.getOrLoad("juan", loader));
+		assertTrue(((SettableFuture<?>) rejectedLoad.get()).isCancelled());
+	}
+
 	@Test
 	public void testSetStringObject() throws Exception {
 		final ArcacheClient cli = new ArcacheClient(backendClient) {
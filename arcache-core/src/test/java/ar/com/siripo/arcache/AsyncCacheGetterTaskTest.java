@@ -0,0 +1,213 @@
+package ar.com.siripo.arcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+import ar.com.siripo.arcache.math.LinearProbabilityFunction;
+import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.RandomSource;
+import ar.com.siripo.arcache.util.SettableFuture;
+import ar.com.siripo.arcache.util.ThreadLocalRandomSource;
+
+public class AsyncCacheGetterTaskTest {
+	ArcacheInMemoryClient backendClient;
+	ArcacheClient arcache;
+	RandomSource random;
+
+	@Before
+	public void setUp() throws Exception {
+		backendClient = new ArcacheInMemoryClient();
+		arcache = new ArcacheClient(backendClient);
+		random = new ThreadLocalRandomSource();
+		arcache.setExpirationProbabilityFunction(new LinearProbabilityFunction(0.5));
+		arcache.setInvalidationProbabilityFunction(new LinearProbabilityFunction(0));
+		arcache.setDefaultHardInvalidation(false);
+		arcache.setTimeMeasurementErrorMillis(0);
+	}
+
+	private AsyncCacheGetterTask createTask(String key, ArcacheBackendClient client, long timeoutMillis) {
+		return new AsyncCacheGetterTask(key, client, client, arcache, arcache, random, timeoutMillis);
+	}
+
+	@Test
+	public void testSameResultsThanSyncGet() throws Exception {
+		arcache.set("plain", "v");
+		arcache.set("withinv", "v2", new String[] { "i1", "i2" });
+		backendClient.set(arcache.createBackendKey("bad"), 1000, "not an ExpirableCacheObject");
+
+		assertEquals("v", createTask("plain", backendClient, 1000).get().value);
+		assertTrue(createTask("plain", backendClient, 1000).get().isHit());
+		assertEquals("v2", createTask("withinv", backendClient, 1000).get().value);
+		assertTrue(createTask("miss", backendClient, 1000).get().isMiss());
+		CacheGetResult r = createTask("bad", backendClient, 1000).get();
+		assertEquals(CacheGetResult.Type.ERROR, r.type);
+		assertTrue(r.errorCause instanceof UnexpectedObjectType);
+
+		Thread.sleep(2);
+		arcache.invalidateKey("i2", false, 0);
+		r = createTask("withinv", backendClient, 1000).get();
+		assertEquals(CacheGetResult.Type.INVALIDATED, r.type);
+		assertEquals("i2", r.invalidatedKey);
+
+		arcache.invalidateKey("i1", true, 0);
+		assertTrue(createTask("withinv", backendClient, 1000).get().isMiss());
+	}
+
+	@Test
+	public void testCallbacksDriveTheResult() throws Exception {
+		final SettableFuture<Object> mainFuture = new SettableFuture<Object>();
+		final SettableFuture<Object> invFuture = new SettableFuture<Object>();
+		ArcacheBackendClient client = new FutureBackendClient(mainFuture, invFuture);
+
+		AsyncCacheGetterTask task = createTask("key", client, 10000);
+		final AtomicReference<CacheGetResult> notified = new AtomicReference<CacheGetResult>();
+		task.addListener(new FutureListener<CacheGetResult>() {
+			@Override
+			public void onComplete(ListenableFuture<CacheGetResult> future) {
+				try {
+					notified.set(future.get());
+				} catch (Exception e) {
+				}
+			}
+		});
+		assertFalse(task.isDone());
+
+		ExpirableCacheObject eco = new ExpirableCacheObject();
+		eco.value = "v";
+		// Stored before the task started, so the invalidation key is loaded
+		eco.timestampMillis = System.currentTimeMillis() - 1000;
+		eco.expirationTTLMillis = 100000;
+		eco.invalidationKeys = new String[] { "i1" };
+		mainFuture.set(eco);
+		assertFalse(task.isDone());
+
+		invFuture.set(null);
+		assertTrue(task.isDone());
+		assertEquals("v", notified.get().value);
+		assertSame(notified.get(), task.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testNotListenableFutures() throws Exception {
+		final FutureTask<Object> mainFuture = new FutureTask<Object>(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return null;
+			}
+		});
+		AsyncCacheGetterTask task = createTask("key", new FutureBackendClient(mainFuture, null), 10000);
+		assertFalse(task.isDone());
+		mainFuture.run();
+		assertTrue(task.get(1, TimeUnit.SECONDS).isMiss());
+	}
+
+	@Test
+	public void testFailures() throws Exception {
+		CacheGetResult r = createTask("key",
+				new FutureBackendClient(DummyFuture.createWithException(new IllegalStateException()), null), 1000)
+						.get();
+		assertEquals(CacheGetResult.Type.ERROR, r.type);
+		assertTrue(r.errorCause instanceof IllegalStateException);
+
+		r = createTask("key", new FutureBackendClient(DummyFuture.createWithException(new TimeoutException()), null),
+				1000).get();
+		assertEquals(CacheGetResult.Type.TIMEOUT, r.type);
+
+		// Failure in an invalidation key
+		ExpirableCacheObject eco = new ExpirableCacheObject();
+		eco.invalidationKeys = new String[] { "i1" };
+		r = createTask("key", new FutureBackendClient(new DummyFuture<Object>(eco),
+				DummyFuture.createWithException(new IllegalStateException())), 1000).get();
+		assertEquals(CacheGetResult.Type.ERROR, r.type);
+		assertTrue(r.errorCause instanceof IllegalStateException);
+
+		// Failure while requesting the invalidation keys
+		r = createTask("key", new FutureBackendClient(new DummyFuture<Object>(eco), null) {
+			@Override
+			public Future<Object> asyncGet(String key) {
+				if (key.equals(arcache.createBackendKey("key"))) {
+					return super.asyncGet(key);
+				}
+				throw new IllegalStateException();
+			}
+		}, 1000).get();
+		assertTrue(r.errorCause instanceof IllegalStateException);
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		AsyncCacheGetterTask task = createTask("key",
+				new FutureBackendClient(new SettableFuture<Object>(), null), 20);
+		CacheGetResult r = task.get(1, TimeUnit.SECONDS);
+		assertEquals(CacheGetResult.Type.TIMEOUT, r.type);
+		assertTrue(r.errorCause instanceof TimeoutException);
+		assertTrue(task.isDone());
+		assertFalse(task.cancel(true));
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		SettableFuture<Object> mainFuture = new SettableFuture<Object>();
+		AsyncCacheGetterTask task = createTask("key", new FutureBackendClient(mainFuture, null), 10000);
+		assertFalse(task.isCancelled());
+		assertTrue(task.cancel(false));
+		assertTrue(task.isCancelled());
+		assertTrue(mainFuture.isCancelled());
+		assertFalse(task.cancel(false));
+		try {
+			task.get();
+			fail();
+		} catch (CancellationException e) {
+		}
+	}
+
+	@Test
+	public void testGetWithoutTimeout() throws InterruptedException, ExecutionException {
+		assertTrue(createTask("key", backendClient, 1000).get().isMiss());
+	}
+
+	static class FutureBackendClient implements ArcacheBackendClient {
+		final Future<Object> mainFuture;
+		final Future<Object> invalidationFuture;
+		final HashMap<String, Object> sets = new HashMap<String, Object>();
+
+		FutureBackendClient(Future<Object> mainFuture, Future<Object> invalidationFuture) {
+			this.mainFuture = mainFuture;
+			this.invalidationFuture = invalidationFuture;
+		}
+
+		@Override
+		public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+			sets.put(key, value);
+			return new DummyFuture<Boolean>(true);
+		}
+
+		@Override
+		public Future<Object> asyncGet(String key) {
+			if (key.startsWith("InvKey|")) {
+				return invalidationFuture;
+			}
+			return mainFuture;
+		}
+	}
+}
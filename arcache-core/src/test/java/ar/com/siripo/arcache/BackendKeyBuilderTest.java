@@ -1,6 +1,7 @@
 package ar.com.siripo.arcache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -44,4 +45,19 @@ public class BackendKeyBuilderTest {
 		assertEquals(keyBuilder.createInvalidationBackendKey("juan"), "nnn//" + invalidationKeyPrefix + "//juan");
 	}
 
+	@Test
+	public void testKeyEncoder() {
+		config.setKeyNamespace("nnn");
+		config.setKeyDelimiter("//");
+
+		BackendKeyEncoder encoder = ((ArcacheClient) config).getKeyEncoder();
+		assertEquals(encoder.createBackendKey("pili"), keyBuilder.createBackendKey("pili"));
+		assertEquals(encoder.createInvalidationBackendKey("juan"), keyBuilder.createInvalidationBackendKey("juan"));
+
+		// The encoder is rebuilt when the configuration changes
+		config.setKeyNamespace(null);
+		assertNotSame(encoder, ((ArcacheClient) config).getKeyEncoder());
+		assertEquals(keyBuilder.createBackendKey("pili"), "pili");
+	}
+
 }
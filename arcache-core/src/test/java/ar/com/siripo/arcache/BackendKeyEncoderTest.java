@@ -0,0 +1,81 @@
+package ar.com.siripo.arcache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class BackendKeyEncoderTest {
+
+	@Test
+	public void testConstructor() {
+		BackendKeyEncoder encoder = new BackendKeyEncoder(null, "|", "Inv", 10);
+		assertEquals(10, encoder.getMaxCachedInvalidationKeys());
+		try {
+			new BackendKeyEncoder(null, null, "Inv", 10);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new BackendKeyEncoder(null, "|", null, 10);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new BackendKeyEncoder(null, "|", "Inv", -1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testCreateBackendKey() throws Exception {
+		BackendKeyEncoder encoder = new BackendKeyEncoder(null, "|", "Inv", 10);
+		String key = "key";
+		assertSame(key, encoder.createBackendKey(key));
+		assertEquals("Inv|i", encoder.createInvalidationBackendKey("i"));
+		assertEquals("InvBucket|3", encoder.createInvalidationBucketBackendKey(3));
+		assertArrayEquals("key".getBytes("UTF-8"), encoder.createBackendKeyBytes("key"));
+
+		encoder = new BackendKeyEncoder("ns", "//", "Inv", 10);
+		assertEquals("ns//key", encoder.createBackendKey("key"));
+		assertEquals("ns//Inv//i", encoder.createInvalidationBackendKey("i"));
+		assertEquals("ns//InvBucket//0", encoder.createInvalidationBucketBackendKey(0));
+		assertArrayEquals("ns//key".getBytes("UTF-8"), encoder.createBackendKeyBytes("key"));
+		assertArrayEquals("ns//Inv//i".getBytes("UTF-8"), encoder.createInvalidationBackendKeyBytes("i"));
+
+		// The keys that are not ASCII are encoded in UTF-8
+		assertArrayEquals("ns//cañón€".getBytes("UTF-8"), encoder.createBackendKeyBytes("cañón€"));
+
+		// A null key is appended as a concatenation does
+		assertEquals("ns//null", encoder.createBackendKey(null));
+		assertEquals("ns//Inv//null", encoder.createInvalidationBackendKey(null));
+		assertArrayEquals("ns//null".getBytes("UTF-8"), encoder.createBackendKeyBytes(null));
+		assertArrayEquals("ns//Inv//null".getBytes("UTF-8"), encoder.createInvalidationBackendKeyBytes(null));
+		assertNull(new BackendKeyEncoder(null, "|", "Inv", 10).createBackendKey(null));
+	}
+
+	@Test
+	public void testInvalidationBackendKeysCache() {
+		BackendKeyEncoder encoder = new BackendKeyEncoder("ns", "|", "Inv", 2);
+		String k1 = encoder.createInvalidationBackendKey("i1");
+		assertSame(k1, encoder.createInvalidationBackendKey("i1"));
+		encoder.createInvalidationBackendKey("i2");
+		assertEquals(2, encoder.invalidationBackendKeys.size());
+
+		// When the cache is full it is cleared
+		encoder.createInvalidationBackendKey("i3");
+		assertEquals(1, encoder.invalidationBackendKeys.size());
+		assertTrue(encoder.invalidationBackendKeys.containsKey("i3"));
+
+		// 0 disables the cache
+		encoder = new BackendKeyEncoder("ns", "|", "Inv", 0);
+		assertEquals("ns|Inv|i1", encoder.createInvalidationBackendKey("i1"));
+		assertTrue(encoder.invalidationBackendKeys.isEmpty());
+	}
+
+}
@@ -0,0 +1,366 @@
+package ar.com.siripo.arcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+import ar.com.siripo.arcache.math.LinearProbabilityFunction;
+import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.RandomSource;
+import ar.com.siripo.arcache.util.SettableFuture;
+import ar.com.siripo.arcache.util.ThreadLocalRandomSource;
+
+public class BulkCacheGetterTaskTest {
+	CountingInMemoryClient backendClient;
+	ArcacheClient arcache;
+	RandomSource random;
+
+	@Before
+	public void setUp() throws Exception {
+		backendClient = new CountingInMemoryClient();
+		arcache = new ArcacheClient(backendClient);
+		random = new ThreadLocalRandomSource();
+		arcache.setExpirationProbabilityFunction(new LinearProbabilityFunction(0.5));
+		arcache.setInvalidationProbabilityFunction(new LinearProbabilityFunction(0));
+		arcache.setDefaultHardInvalidation(false);
+		arcache.setTimeMeasurementErrorMillis(0);
+	}
+
+	private BulkCacheGetterTask createTask(String... keys) {
+		return new BulkCacheGetterTask(Arrays.asList(keys), backendClient, backendClient, arcache, arcache, random);
+	}
+
+	@Test
+	public void testSharedInvalidationKeys() throws Exception {
+		arcache.set("k1", "v1", new String[] { "global", "i1" });
+		arcache.set("k2", "v2", new String[] { "global", "i2" });
+		arcache.set("k3", "v3", new String[] { "global" });
+		arcache.set("k4", "v4");
+
+		backendClient.gets.clear();
+		Map<String, CacheGetResult> results = createTask("k1", "k2", "k3", "k4", "k5").get();
+
+		assertEquals(5, results.size());
+		assertEquals("v1", results.get("k1").value);
+		assertEquals("v2", results.get("k2").value);
+		assertEquals("v3", results.get("k3").value);
+		assertEquals("v4", results.get("k4").value);
+		assertTrue(results.get("k5").isMiss());
+
+		// Every distinct invalidation key is fetched only once
+		assertEquals(Integer.valueOf(1), backendClient.gets.get(arcache.createInvalidationBackendKey("global")));
+		assertEquals(Integer.valueOf(1), backendClient.gets.get(arcache.createInvalidationBackendKey("i1")));
+		assertEquals(Integer.valueOf(1), backendClient.gets.get(arcache.createInvalidationBackendKey("i2")));
+		assertEquals(Integer.valueOf(1), backendClient.gets.get(arcache.createBackendKey("k1")));
+		assertEquals(8, backendClient.totalGets());
+
+		// One backend operation for the objects and another for the invalidation keys
+		assertEquals(2, backendClient.multiGets);
+
+		// Without invalidation keys only the objects are requested
+		backendClient.multiGets = 0;
+		createTask("k4", "k5").get();
+		assertEquals(1, backendClient.multiGets);
+
+		// Without valid keys nothing is requested
+		backendClient.multiGets = 0;
+		assertEquals(1, createTask("").get().size());
+		assertEquals(0, backendClient.multiGets);
+	}
+
+	@Test
+	public void testBucketedInvalidationKeys() throws Exception {
+		arcache.setInvalidationKeyBuckets(2);
+		String[] tags = new String[15];
+		for (int i = 0; i < tags.length; i++) {
+			tags[i] = "tag" + i;
+		}
+		arcache.set("k1", "v1", tags);
+		arcache.set("k2", "v2", new String[] { "tag0", "other" });
+		Thread.sleep(2);
+
+		// One record per distinct bucket instead of one per invalidation key
+		backendClient.gets.clear();
+		assertEquals(CacheGetResult.Type.HIT, arcache.getCacheObject("k1").type);
+		assertEquals(3, backendClient.totalGets());
+		assertNull(backendClient.gets.get(arcache.createInvalidationBackendKey("tag0")));
+
+		backendClient.gets.clear();
+		backendClient.multiGets = 0;
+		Map<String, CacheGetResult> results = createTask("k1", "k2").get();
+		assertEquals(CacheGetResult.Type.HIT, results.get("k1").type);
+		assertEquals(CacheGetResult.Type.HIT, results.get("k2").type);
+		assertEquals(4, backendClient.totalGets());
+		assertEquals(2, backendClient.multiGets);
+
+		arcache.invalidateKey("tag7", false, 0);
+		Thread.sleep(2);
+		CacheGetResult r = arcache.getCacheObject("k1");
+		assertEquals(CacheGetResult.Type.INVALIDATED, r.type);
+		assertEquals("tag7", r.invalidatedKey);
+		assertEquals(CacheGetResult.Type.HIT, arcache.getCacheObject("k2").type);
+		r = arcache.getCacheObjectAsync("k1").get();
+		assertEquals(CacheGetResult.Type.INVALIDATED, r.type);
+		assertEquals("tag7", r.invalidatedKey);
+		results = createTask("k1", "k2").get();
+		assertEquals("tag7", results.get("k1").invalidatedKey);
+		assertEquals(CacheGetResult.Type.HIT, results.get("k2").type);
+
+		// The bulk invalidation is stored in the same buckets
+		arcache.invalidateKeys(Arrays.asList("tag0", "other"), true, 0);
+		Thread.sleep(2);
+		assertTrue(arcache.getCacheObject("k1").isMiss());
+		assertTrue(createTask("k2").get().get("k2").isMiss());
+
+		// A single bucket is requested with a plain get
+		arcache.setInvalidationKeyBuckets(1);
+		arcache.set("k3", "v3", new String[] { "a", "b" });
+		Thread.sleep(2);
+		backendClient.gets.clear();
+		backendClient.multiGets = 0;
+		assertEquals(CacheGetResult.Type.HIT, arcache.getCacheObject("k3").type);
+		assertEquals(Integer.valueOf(1), backendClient.gets.get(arcache.createInvalidationBucketBackendKey(0)));
+		assertEquals(0, backendClient.multiGets);
+	}
+
+	@Test
+	public void testSameResultsThanSingleGet() throws Exception {
+		arcache.set("k1", "v1", new String[] { "global" });
+		arcache.set("k2", "v2", new String[] { "other" });
+		Thread.sleep(2);
+		arcache.invalidateKey("global", false, 0);
+
+		Map<String, CacheGetResult> results = createTask("k1", "k2").get();
+		assertEquals(CacheGetResult.Type.INVALIDATED, results.get("k1").type);
+		assertEquals("global", results.get("k1").invalidatedKey);
+		assertEquals(arcache.getCacheObject("k1").type, results.get("k1").type);
+		assertEquals(CacheGetResult.Type.HIT, results.get("k2").type);
+
+		arcache.invalidateKey("other", true, 0);
+		results = createTask("k1", "k2").get();
+		assertTrue(results.get("k2").isMiss());
+	}
+
+	@Test
+	public void testErrorsArePerKey() throws Exception {
+		backendClient.set(arcache.createBackendKey("bad"), 1000, "not an ExpirableCacheObject");
+		arcache.set("good", "v");
+
+		Map<String, CacheGetResult> results = createTask("good", "bad", "").get(100, TimeUnit.MILLISECONDS);
+		assertTrue(results.get("good").isHit());
+		assertEquals(CacheGetResult.Type.ERROR, results.get("bad").type);
+		assertTrue(results.get("bad").errorCause instanceof UnexpectedObjectType);
+		assertEquals(CacheGetResult.Type.ERROR, results.get("").type);
+		assertTrue(results.get("").errorCause instanceof IllegalArgumentException);
+
+		// A timeout in the main get is a TIMEOUT result
+		BulkCacheGetterTask task = createTask("good", "slow");
+		task.tasks.get("slow").mainFutureGet = DummyFuture.createWithException(new TimeoutException());
+		results = task.get();
+		assertTrue(results.get("good").isHit());
+		assertEquals(CacheGetResult.Type.TIMEOUT, results.get("slow").type);
+
+		// A null result is an error
+		task = createTask("good");
+		task.tasks.put("good", new CacheGetterTask("good", backendClient, backendClient, arcache, arcache, random) {
+			@Override
+			protected synchronized CacheGetResult doTask(long startTimeMillis, long timeoutMillis) {
+				return null;
+			}
+		});
+		results = task.get();
+		assertTrue(results.get("good").errorCause instanceof NullPointerException);
+	}
+
+	@Test
+	public void testInterruptedIsPropagated() throws Exception {
+		BulkCacheGetterTask task = createTask("k1");
+		task.tasks.get("k1").mainFutureGet = DummyFuture.createWithException(new InterruptedException());
+		try {
+			task.get();
+			fail();
+		} catch (InterruptedException e) {
+		}
+
+		task = createTask("k1");
+		task.tasks.put("k1", new CacheGetterTask("k1", backendClient, backendClient, arcache, arcache, random) {
+			@Override
+			protected synchronized CacheGetResult doTask(long startTimeMillis, long timeoutMillis)
+					throws InterruptedException {
+				throw new InterruptedException();
+			}
+		});
+		try {
+			task.get();
+			fail();
+		} catch (InterruptedException e) {
+		}
+	}
+
+	@Test
+	public void testRequestInvalidationKeysTimeouts() throws Exception {
+		arcache.set("k1", "v1", new String[] { "i1" });
+		BulkCacheGetterTask task = createTask("k1");
+		CacheGetterTask cgt = task.tasks.get("k1");
+
+		ArrayList<String> collected = new ArrayList<String>();
+
+		// Without time and not relaxed, nothing is collected
+		assertFalse(cgt.relaxOperationTimeoutInHeavyLoadSystem);
+		task.relaxOperationTimeoutInHeavyLoadSystem = false;
+		task.collectInvalidationKeys(cgt, System.currentTimeMillis() - 2000, 1000, collected);
+		assertTrue(collected.isEmpty());
+
+		// Without time but relaxed, a new time window starts and the keys are collected
+		task.relaxOperationTimeoutInHeavyLoadSystem = true;
+		task.collectInvalidationKeys(cgt, System.currentTimeMillis() - 2000, 1000, collected);
+		assertEquals(Arrays.asList("i1"), collected);
+		assertTrue(task.relaxedStartTimeMillis > 0);
+
+		// The window is extended only once
+		long relaxedStartTimeMillis = task.relaxedStartTimeMillis;
+		task.collectInvalidationKeys(cgt, System.currentTimeMillis() - 2000, 1000, collected);
+		assertEquals(relaxedStartTimeMillis, task.windowStartTimeMillis(0, 1000));
+		task.relaxedStartTimeMillis -= 2000;
+		task.collectInvalidationKeys(cgt, System.currentTimeMillis() - 4000, 1000, collected);
+		assertEquals(2, collected.size());
+		task.relaxedStartTimeMillis = -1;
+
+		// Failures are ignored
+		cgt.mainFutureGet = DummyFuture.createWithException(new ExecutionException(new Exception()));
+		task.collectInvalidationKeys(cgt, System.currentTimeMillis(), 1000, collected);
+		assertEquals(2, collected.size());
+	}
+
+	@Test
+	public void testSharedDeadline() throws Exception {
+		arcache.setRelaxOperationTimeoutInHeavyLoadSystem(true);
+		ArrayList<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 5; i++) {
+			keys.add("slow" + i);
+		}
+		BulkCacheGetterTask task = new BulkCacheGetterTask(keys, backendClient, backendClient, arcache, arcache,
+				random);
+		for (String key : keys) {
+			task.tasks.get(key).mainFutureGet = new SlowFuture();
+		}
+
+		// Every main get never completes, but the bulk waits at most two timeouts
+		long start = System.currentTimeMillis();
+		Map<String, CacheGetResult> results = task.get(50, TimeUnit.MILLISECONDS);
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("elapsed " + elapsed, elapsed < 5 * 50);
+		for (String key : keys) {
+			assertEquals(CacheGetResult.Type.TIMEOUT, results.get(key).type);
+		}
+		assertTrue(task.relaxedStartTimeMillis > 0);
+		assertTrue(task.tasks.get("slow4").relaxedTimeoutApplied);
+	}
+
+	/** Sleeps the whole timeout and then times out */
+	static class SlowFuture extends DummyFuture<Object> {
+		SlowFuture() {
+			super(null);
+		}
+
+		@Override
+		public Object get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+			Thread.sleep(unit.toMillis(timeout));
+			throw new TimeoutException();
+		}
+	}
+
+	@Test
+	public void testCancelAndDone() throws Exception {
+		arcache.set("k1", "v1", new String[] { "i1" });
+		BulkCacheGetterTask task = createTask("k1", "");
+		assertFalse(task.isCancelled());
+		assertFalse(task.isDone());
+		SettableFuture<Map<String, Object>> mainFutureGets = new SettableFuture<Map<String, Object>>();
+		task.mainFutureGets = mainFutureGets;
+		assertTrue(task.cancel(true));
+		assertTrue(task.isCancelled());
+		assertTrue(task.tasks.get("k1").isCancelled());
+		// The shared multi get is cancelled by the bulk, not by the entries of the tasks
+		assertTrue(mainFutureGets.isCancelled());
+		assertNull(task.tasks.get(""));
+		assertFalse(task.cancel(true));
+		try {
+			task.get();
+			fail();
+		} catch (CancellationException e) {
+		}
+
+		task = createTask("k1");
+		Map<String, CacheGetResult> results = task.get();
+		assertTrue(task.isDone());
+		assertSame(results, task.get());
+		assertFalse(task.cancel(false));
+	}
+
+	@Test
+	public void testGetWithDefaultTimeout() throws Exception {
+		final long startTime = System.currentTimeMillis();
+		BulkCacheGetterTask task = new BulkCacheGetterTask(Arrays.asList("k1"), backendClient, backendClient,
+				arcache, arcache, random) {
+			@Override
+			protected synchronized Map<String, CacheGetResult> doTask(long startTimeMillis, long timeoutMillis) {
+				assertEquals(arcache.getDefaultOperationTimeoutMillis(), timeoutMillis);
+				assertTrue(startTimeMillis >= startTime);
+				return null;
+			}
+		};
+		assertNull(task.get());
+	}
+
+	static class CountingInMemoryClient extends ArcacheInMemoryClient {
+		final HashMap<String, Integer> gets = new HashMap<String, Integer>();
+		int multiGets = 0;
+
+		@Override
+		public synchronized Future<Object> asyncGet(String key) {
+			count(key);
+			return super.asyncGet(key);
+		}
+
+		@Override
+		public synchronized Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+			multiGets++;
+			for (String key : keys) {
+				count(key);
+			}
+			return super.asyncMultiGet(keys);
+		}
+
+		private void count(String key) {
+			Integer c = gets.get(key);
+			gets.put(key, c == null ? 1 : c + 1);
+		}
+
+		synchronized int totalGets() {
+			int total = 0;
+			for (Integer c : gets.values()) {
+				total += c;
+			}
+			return total;
+		}
+	}
+}
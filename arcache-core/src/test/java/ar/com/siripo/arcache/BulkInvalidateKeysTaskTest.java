@@ -0,0 +1,500 @@
+package ar.com.siripo.arcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheMultiKeyBackendClient;
+import ar.com.siripo.arcache.backend.InProcessInvalidationBus;
+import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.SettableFuture;
+
+public class BulkInvalidateKeysTaskTest {
+
+	ArcacheInMemoryClient backendClient;
+	ArcacheClient arcache;
+
+	@Before
+	public void setUp() throws Exception {
+		backendClient = new ArcacheInMemoryClient();
+		arcache = new ArcacheClient(backendClient);
+		arcache.setTimeMeasurementErrorMillis(0);
+	}
+
+	private BulkInvalidateKeysTask createTask(boolean hardInvalidation, ArcacheBackendClient client,
+			String... keys) {
+		return new BulkInvalidateKeysTask(Arrays.asList(keys), hardInvalidation, 10, client, arcache, arcache);
+	}
+
+	@Test
+	public void testInvalidateKeys() throws Exception {
+		BulkInvalidateKeysTask bikt = createTask(false, backendClient, "a", "b", "a", "c");
+		Map<String, Boolean> r = bikt.get();
+		assertEquals(Arrays.asList("a", "b", "c"), Arrays.asList(r.keySet().toArray()));
+		assertEquals(Arrays.asList(true, true, true), Arrays.asList(r.values().toArray()));
+		assertTrue(bikt.isDone());
+
+		CacheInvalidationObject soft = (CacheInvalidationObject) backendClient
+				.get(arcache.createInvalidationBackendKey("b"));
+		assertFalse(soft.isHardInvalidation);
+		assertEquals(10, soft.invalidationWindowMillis);
+		assertEquals(0, soft.lastSoftInvalidationTimestampMillis);
+
+		// The history of the previous invalidation objects is kept
+		Thread.sleep(2);
+		createTask(true, backendClient, "b", "d").get();
+		CacheInvalidationObject hard = (CacheInvalidationObject) backendClient
+				.get(arcache.createInvalidationBackendKey("b"));
+		assertTrue(hard.isHardInvalidation);
+		assertEquals(soft.invalidationTimestampMillis, hard.lastSoftInvalidationTimestampMillis);
+		assertEquals(0, ((CacheInvalidationObject) backendClient.get(arcache.createInvalidationBackendKey("d")))
+				.lastSoftInvalidationTimestampMillis);
+
+		// The objects are invalidated like a single invalidation does
+		Thread.sleep(2);
+		arcache.set("obj", "value", new String[] { "c" });
+		Thread.sleep(2);
+		new BulkInvalidateKeysTask(Arrays.asList("c"), true, 0, backendClient, arcache, arcache).get();
+		Thread.sleep(2);
+		assertTrue(arcache.getCacheObject("obj").isMiss());
+
+		// Nothing to invalidate
+		assertTrue(createTask(true, backendClient).get().isEmpty());
+	}
+
+	@Test
+	public void testPreviousInvalidationObjects() throws Exception {
+		long currentTimeMillis = System.currentTimeMillis();
+		backendClient.set(arcache.createInvalidationBackendKey("invalid"), 1000, "not an invalidation object");
+		assertTrue(createTask(false, backendClient, "invalid").get().get("invalid"));
+
+		// A failed read is treated as a miss
+		BulkInvalidateKeysTask bikt = createTask(false, backendClient, "a");
+		bikt.prevVersionsGetFuture = DummyFuture.createWithException(new IllegalStateException());
+		assertTrue(bikt.getPreviousInvalidationObjects(currentTimeMillis, 1000).isEmpty());
+		bikt.prevVersionsGetFuture = new DummyFuture<Map<String, Object>>(null);
+		assertTrue(bikt.getPreviousInvalidationObjects(currentTimeMillis, 1000).isEmpty());
+		assertTrue(bikt.get().get("a"));
+
+		bikt = createTask(false, backendClient, "a");
+		try {
+			bikt.getPreviousInvalidationObjects(currentTimeMillis - 2, 1);
+			fail();
+		} catch (TimeoutException e) {
+		}
+
+		bikt.prevVersionsGetFuture = DummyFuture.createWithException(new TimeoutException());
+		try {
+			bikt.getPreviousInvalidationObjects(currentTimeMillis, 1000);
+			fail();
+		} catch (TimeoutException e) {
+		}
+
+		bikt.prevVersionsGetFuture = DummyFuture.createWithException(new InterruptedException());
+		try {
+			bikt.getPreviousInvalidationObjects(currentTimeMillis, 1000);
+			fail();
+		} catch (InterruptedException e) {
+		}
+	}
+
+	@Test
+	public void testSetFailures() throws Exception {
+		// The failed keys are reported as not stored
+		ArcacheBackendClient failingClient = new ArcacheBackendClient() {
+			@Override
+			public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+				if (key.endsWith("fail")) {
+					return DummyFuture.createWithException(new IllegalStateException());
+				}
+				return new DummyFuture<Boolean>(true);
+			}
+
+			@Override
+			public Future<Object> asyncGet(String key) {
+				return new DummyFuture<Object>(null);
+			}
+		};
+		Map<String, Boolean> r = createTask(true, failingClient, "ok", "fail").get();
+		assertTrue(r.get("ok"));
+		assertFalse(r.get("fail"));
+
+		// When the whole multi set fails every key is not stored
+		FailingMultiSetClient multiKeyClient = new FailingMultiSetClient(backendClient);
+		multiKeyClient.multiSetResult = DummyFuture.createWithException(new IllegalStateException());
+		assertFalse(createTask(true, multiKeyClient, "a").get().get("a"));
+		multiKeyClient.multiSetResult = new DummyFuture<Map<String, Boolean>>(null);
+		assertFalse(createTask(true, multiKeyClient, "a").get().get("a"));
+
+		BulkInvalidateKeysTask bikt = createTask(true, backendClient, "a");
+		try {
+			bikt.setInvalidationObjects(System.currentTimeMillis() - 2, 1, new HashMap<String, Object>());
+			fail();
+		} catch (TimeoutException e) {
+		}
+	}
+
+	@Test
+	public void testPublishInvalidations() throws Exception {
+		InProcessInvalidationBus bus = new InProcessInvalidationBus();
+		InvalidateKeyTaskTest.RecordingListener listener = new InvalidateKeyTaskTest.RecordingListener();
+		bus.subscribe(listener);
+		arcache.setInvalidationBus(bus);
+
+		createTask(false, backendClient, "a", "b").get();
+		assertEquals(new HashSet<String>(Arrays.asList(arcache.createInvalidationBackendKey("a"),
+				arcache.createInvalidationBackendKey("b"))), new HashSet<String>(listener.invalidations));
+
+		// Every stored bucket is published once
+		listener.invalidations.clear();
+		arcache.setInvalidationKeyBuckets(1);
+		createTask(false, backendClient, "a", "b", "c").get();
+		assertEquals(Collections.singletonList(arcache.createInvalidationBucketBackendKey(0)),
+				listener.invalidations);
+
+		// The keys that are not stored are not published
+		listener.invalidations.clear();
+		arcache.setInvalidationKeyBuckets(0);
+		FailingMultiSetClient multiKeyClient = new FailingMultiSetClient(backendClient);
+		multiKeyClient.multiSetResult = DummyFuture.createWithException(new IllegalStateException());
+		createTask(false, multiKeyClient, "a").get();
+		assertTrue(listener.invalidations.isEmpty());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		final SettableFuture<Object> pending = new SettableFuture<Object>();
+		ArcacheBackendClient pendingClient = new ArcacheBackendClient() {
+			@Override
+			public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+				return new DummyFuture<Boolean>(true);
+			}
+
+			@Override
+			public Future<Object> asyncGet(String key) {
+				return pending;
+			}
+		};
+		BulkInvalidateKeysTask bikt = createTask(true, pendingClient, "a");
+		try {
+			bikt.get(1, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (TimeoutException e) {
+		}
+		arcache.setDefaultOperationTimeoutMillis(1);
+		try {
+			bikt.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertFalse(bikt.isDone());
+		arcache.setDefaultOperationTimeoutMillis(1000);
+		pending.set(null);
+		assertTrue(bikt.get().get("a"));
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		BulkInvalidateKeysTask bikt = createTask(false, backendClient, "a");
+		assertFalse(bikt.isCancelled());
+		assertTrue(bikt.cancel(false));
+		assertTrue(bikt.isCancelled());
+		assertFalse(bikt.cancel(false));
+		try {
+			bikt.get();
+			fail();
+		} catch (CancellationException e) {
+		}
+
+		// When done, it is not cancellable
+		bikt = createTask(false, backendClient, "a");
+		bikt.get();
+		assertFalse(bikt.cancel(false));
+
+		// The pending operations are cancelled
+		final SettableFuture<Map<String, Object>> pendingGet = new SettableFuture<Map<String, Object>>();
+		final SettableFuture<Map<String, Boolean>> pendingSet = new SettableFuture<Map<String, Boolean>>();
+		bikt = createTask(false, backendClient, "a");
+		bikt.prevVersionsGetFuture = pendingGet;
+		bikt.setFuture = pendingSet;
+		assertTrue(bikt.cancel(true));
+		assertTrue(pendingGet.isCancelled());
+		assertTrue(pendingSet.isCancelled());
+
+		bikt = createTask(false, backendClient, "a");
+		bikt.prevVersionsGetFuture = null;
+		assertTrue(bikt.cancel(false));
+	}
+
+	@Test
+	public void testGetValueToReturn() throws Exception {
+		BulkInvalidateKeysTask bikt = createTask(false, backendClient, "a");
+		Map<String, Boolean> r = bikt.get();
+		assertTrue(r == bikt.get());
+		bikt.valueToReturn = null;
+		assertNull(bikt.get());
+	}
+
+	@Test
+	public void testTracked() throws Exception {
+		ArcacheClientMetricsTracker tracker = new ArcacheClientMetricsTracker();
+		arcache.setTracker(tracker);
+		createTask(true, backendClient, "a", "b").get();
+		assertEquals(2, tracker.getHardInvalidationCount());
+		assertEquals(0, tracker.getInvalidationFailureCount());
+
+		BulkInvalidateKeysTask bikt = createTask(false, backendClient, "c");
+		try {
+			bikt.doTask(System.currentTimeMillis() - 2, 1);
+			fail();
+		} catch (TimeoutException e) {
+		}
+		assertEquals(1, tracker.getSoftInvalidationCount());
+		assertEquals(1, tracker.getInvalidationFailureCount());
+	}
+
+	@Test
+	public void testBucketedInvalidation() throws Exception {
+		arcache.setInvalidationKeyBuckets(2);
+		Map<String, Boolean> r = createTask(false, backendClient, "a", "b", "c", "d").get();
+		assertEquals(Arrays.asList(true, true, true, true), Arrays.asList(r.values().toArray()));
+		assertNull(backendClient.get(arcache.createInvalidationBackendKey("a")));
+
+		CacheInvalidationBucket bucket = (CacheInvalidationBucket) backendClient
+				.get(arcache.createInvalidationBucketBackendKey(CacheInvalidationBucket.bucketOf("b", 2)));
+		CacheInvalidationObject soft = bucket.get("b");
+		assertFalse(soft.isHardInvalidation);
+		int stored = 0;
+		for (int i = 0; i < 2; i++) {
+			stored += ((CacheInvalidationBucket) backendClient.get(arcache.createInvalidationBucketBackendKey(i)))
+					.invalidationObjects.size();
+		}
+		assertEquals(4, stored);
+
+		// The history is kept and the single invalidation sees the same entries
+		Thread.sleep(2);
+		assertTrue(createTask(true, backendClient, "b").get().get("b"));
+		CacheInvalidationObject hard = ((CacheInvalidationBucket) backendClient
+				.get(arcache.createInvalidationBucketBackendKey(CacheInvalidationBucket.bucketOf("b", 2)))).get("b");
+		assertTrue(hard.isHardInvalidation);
+		assertEquals(soft.invalidationTimestampMillis, hard.lastSoftInvalidationTimestampMillis);
+		Thread.sleep(2);
+		assertTrue(new InvalidateKeyTask("b", false, 0, backendClient, arcache, arcache).get());
+		assertEquals(hard.invalidationTimestampMillis, ((CacheInvalidationBucket) backendClient
+				.get(arcache.createInvalidationBucketBackendKey(CacheInvalidationBucket.bucketOf("b", 2)))).get("b")
+				.lastHardInvalidationTimestampMillis);
+
+		// When the whole multi set fails nothing is read again
+		FailingMultiSetClient multiKeyClient = new FailingMultiSetClient(backendClient);
+		multiKeyClient.multiSetResult = new DummyFuture<Map<String, Boolean>>(null);
+		assertFalse(createTask(true, multiKeyClient, "a").get().get("a"));
+	}
+
+	@Test
+	public void testBucketedInvalidationOverTieredBackend() throws Exception {
+		arcache.setInvalidationKeyBuckets(2);
+		InvalidateKeyTaskTest.TieredClient tieredClient = new InvalidateKeyTaskTest.TieredClient(backendClient);
+		HashSet<String> bucketKeys = new HashSet<String>();
+		for (int i = 0; i < 2; i++) {
+			bucketKeys.add(arcache.createInvalidationBucketBackendKey(i));
+			tieredClient.set(arcache.createInvalidationBucketBackendKey(i), 1000, "stale");
+		}
+		Map<String, Boolean> r = createTask(false, tieredClient, "a", "b", "c", "d").get();
+		assertEquals(Arrays.asList(true, true, true, true), Arrays.asList(r.values().toArray()));
+
+		// The buckets are written on the remote backend and the local copies evicted
+		for (String key : Arrays.asList("a", "b", "c", "d")) {
+			assertTrue(((CacheInvalidationBucket) backendClient.get(arcache
+					.createInvalidationBucketBackendKey(CacheInvalidationBucket.bucketOf(key, 2)))).get(key) != null);
+		}
+		for (String bucketKey : bucketKeys) {
+			assertNull(tieredClient.get(bucketKey));
+		}
+		assertEquals(bucketKeys, new HashSet<String>(tieredClient.evicted));
+	}
+
+	@Test
+	public void testBucketReadFailure() throws Exception {
+		arcache.setInvalidationKeyBuckets(2);
+		int i = 0;
+		while (CacheInvalidationBucket.bucketOf("other" + i, 2) == CacheInvalidationBucket.bucketOf("a", 2)) {
+			i++;
+		}
+		String other = "other" + i;
+		String bucketKey = arcache.createInvalidationBucketBackendKey(CacheInvalidationBucket.bucketOf("a", 2));
+		assertTrue(createTask(true, backendClient, "previous").get().get("previous"));
+		CacheInvalidationBucket previous = (CacheInvalidationBucket) backendClient
+				.get(arcache.createInvalidationBucketBackendKey(CacheInvalidationBucket.bucketOf("previous", 2)));
+
+		// A failed multi get stores none of the keys
+		ArcacheInMemoryClient failingClient = new ArcacheInMemoryClient() {
+			@Override
+			public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+				return DummyFuture.createWithException(new IllegalStateException());
+			}
+		};
+		failingClient.set(arcache.createInvalidationBucketBackendKey(CacheInvalidationBucket.bucketOf("previous", 2)),
+				1000, previous);
+		Map<String, Boolean> r = createTask(true, failingClient, "a", other).get();
+		assertFalse(r.get("a"));
+		assertFalse(r.get(other));
+		assertEquals(previous, failingClient.get(
+				arcache.createInvalidationBucketBackendKey(CacheInvalidationBucket.bucketOf("previous", 2))));
+		assertEquals(1, failingClient.size());
+
+		// The keys of a bucket of an unexpected type are not stored, the others are
+		backendClient.set(bucketKey, 1000, "invalid");
+		r = createTask(true, backendClient, "a", other).get();
+		assertFalse(r.get("a"));
+		assertTrue(r.get(other));
+		assertEquals("invalid", backendClient.get(bucketKey));
+
+		// Without buckets a failed multi get is treated as a miss
+		arcache.setInvalidationKeyBuckets(0);
+		assertTrue(createTask(true, failingClient, "a").get().get("a"));
+	}
+
+	@Test
+	public void testMergeLostBucketEntries() throws Exception {
+		arcache.setInvalidationKeyBuckets(1);
+		final String bucketKey = arcache.createInvalidationBucketBackendKey(0);
+
+		// A concurrent invalidation that read the bucket before overwrites the first write
+		OverwritingMultiSetClient client = new OverwritingMultiSetClient(bucketKey);
+		Map<String, Boolean> r = createTask(false, client, "a", "b").get();
+		assertTrue(r.get("a"));
+		assertTrue(r.get("b"));
+		CacheInvalidationBucket bucket = (CacheInvalidationBucket) client.get(bucketKey);
+		assertEquals(3, bucket.invalidationObjects.size());
+		assertEquals(2, client.multiSets);
+
+		// When no entry was lost it is not stored again
+		client.multiSets = 0;
+		client.concurrent = null;
+		assertTrue(createTask(false, client, "a").get().get("a"));
+		assertEquals(1, client.multiSets);
+
+		// The entries are lost and the backend refuses the second write
+		client = new OverwritingMultiSetClient(bucketKey);
+		client.acceptSecondWrite = false;
+		assertFalse(createTask(false, client, "a").get().get("a"));
+
+		// A failure reading the buckets again does not fail the stored invalidations
+		client = new OverwritingMultiSetClient(bucketKey);
+		client.secondMultiGet = DummyFuture.createWithException(new IllegalStateException());
+		assertTrue(createTask(false, client, "a").get().get("a"));
+		client = new OverwritingMultiSetClient(bucketKey);
+		client.secondMultiGet = new DummyFuture<Map<String, Object>>(null);
+		assertTrue(createTask(false, client, "a").get().get("a"));
+
+		// A bucket of an unexpected type read again is not overwritten
+		client = new OverwritingMultiSetClient(bucketKey);
+		client.secondMultiGet = new DummyFuture<Map<String, Object>>(
+				Collections.<String, Object>singletonMap(bucketKey, "invalid"));
+		assertTrue(createTask(false, client, "a").get().get("a"));
+		assertEquals(1, client.multiSets);
+
+		BulkInvalidateKeysTask bikt = createTask(false, backendClient, "a");
+		HashMap<String, Boolean> storedBackendKeys = new HashMap<String, Boolean>();
+		storedBackendKeys.put(bucketKey, true);
+		bikt.mergeLostBucketEntries(System.currentTimeMillis() - 10, 5,
+				new HashMap<String, Map<String, CacheInvalidationObject>>(), storedBackendKeys);
+		assertTrue(storedBackendKeys.get(bucketKey));
+	}
+
+	static CacheInvalidationObject createConcurrentInvalidationObject() {
+		CacheInvalidationObject invObj = new CacheInvalidationObject();
+		invObj.invalidationTimestampMillis = System.currentTimeMillis();
+		return invObj;
+	}
+
+	/**
+	 * Overwrites the first multi set with the bucket of a concurrent invalidation,
+	 * the second multi get and multi set can be configured
+	 */
+	static class OverwritingMultiSetClient extends ArcacheInMemoryClient {
+		final String bucketKey;
+		CacheInvalidationBucket concurrent;
+		boolean acceptSecondWrite = true;
+		Future<Map<String, Object>> secondMultiGet;
+		int multiSets = 0;
+		int multiGets = 0;
+
+		OverwritingMultiSetClient(String bucketKey) {
+			this.bucketKey = bucketKey;
+			this.concurrent = CacheInvalidationBucket.merge(null,
+					Collections.singletonMap("concurrent", createConcurrentInvalidationObject()), 0);
+		}
+
+		@Override
+		public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+			if ((++multiGets == 2) && (secondMultiGet != null)) {
+				return secondMultiGet;
+			}
+			return super.asyncMultiGet(keys);
+		}
+
+		@Override
+		public Future<Map<String, Boolean>> asyncMultiSet(Map<String, Object> values, long ttlMillis) {
+			if ((++multiSets == 2) && !acceptSecondWrite) {
+				return new DummyFuture<Map<String, Boolean>>(Collections.singletonMap(bucketKey, false));
+			}
+			Future<Map<String, Boolean>> stored = super.asyncMultiSet(values, ttlMillis);
+			if ((multiSets == 1) && (concurrent != null)) {
+				set(bucketKey, ttlMillis, concurrent);
+			}
+			return stored;
+		}
+	}
+
+	/** A multi key backend whose multi set returns the configured result */
+	static class FailingMultiSetClient implements ArcacheMultiKeyBackendClient {
+		final ArcacheInMemoryClient backend;
+		Future<Map<String, Boolean>> multiSetResult;
+
+		FailingMultiSetClient(ArcacheInMemoryClient backend) {
+			this.backend = backend;
+		}
+
+		@Override
+		public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+			return backend.asyncSet(key, ttlMillis, value);
+		}
+
+		@Override
+		public Future<Object> asyncGet(String key) {
+			return backend.asyncGet(key);
+		}
+
+		@Override
+		public Future<Map<String, Object>> asyncMultiGet(Collection<String> keys) {
+			return backend.asyncMultiGet(keys);
+		}
+
+		@Override
+		public Future<Map<String, Boolean>> asyncMultiSet(Map<String, Object> values, long ttlMillis) {
+			return multiSetResult;
+		}
+	}
+
+}
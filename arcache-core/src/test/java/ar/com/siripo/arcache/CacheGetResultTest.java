@@ -4,6 +4,8 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.HashSet;
@@ -105,6 +107,91 @@ public class CacheGetResultTest {
 		assertEquals(cgr.getValue(), value);
 	}
 
+	@Test
+	public void testDiagnostics() {
+		CacheGetResult cgr = new CacheGetResult(Type.HIT);
+		assertEquals(0, cgr.getMainFetchNanos());
+		assertEquals(0, cgr.getInvalidationFetchNanos());
+		assertEquals(0, cgr.getInvalidationKeysFetched());
+		assertEquals(0, cgr.getInvalidationKeysServedLocally());
+		assertFalse(cgr.isRelaxedTimeoutApplied());
+		assertFalse(cgr.isServedLocally());
+
+		cgr.mainFetchNanos = 10;
+		cgr.invalidationFetchNanos = 20;
+		cgr.invalidationKeysFetched = 3;
+		cgr.invalidationKeysServedLocally = 2;
+		cgr.relaxedTimeoutApplied = true;
+		cgr.servedLocally = true;
+
+		// The builder keeps them
+		cgr = new CacheGetResult.Builder(cgr).withType(Type.EXPIRED).build();
+		assertEquals(10, cgr.getMainFetchNanos());
+		assertEquals(20, cgr.getInvalidationFetchNanos());
+		assertEquals(3, cgr.getInvalidationKeysFetched());
+		assertEquals(2, cgr.getInvalidationKeysServedLocally());
+		assertTrue(cgr.isRelaxedTimeoutApplied());
+		assertTrue(cgr.isServedLocally());
+	}
+
+	@Test
+	public void testSharedMiss() {
+		CacheGetResult miss = CacheGetResult.MISS;
+		try {
+			// Writing the fields does not change it
+			miss.type = Type.HIT;
+			miss.value = "value";
+			miss.errorCause = new Exception();
+			miss.invalidationKeys = new String[] { "k" };
+			miss.invalidatedKey = "k";
+			miss.storeTimestampMillis = 1;
+			miss.mainFetchNanos = 10;
+			miss.invalidationFetchNanos = 20;
+			miss.invalidationKeysFetched = 3;
+			miss.invalidationKeysServedLocally = 2;
+			miss.relaxedTimeoutApplied = true;
+			miss.servedLocally = true;
+			assertSharedMiss(miss);
+
+			// The builder copies it
+			CacheGetResult built = new CacheGetResult.Builder(miss).withValue("built").build();
+			assertNotSame(miss, built);
+			assertEquals("built", built.getValue());
+			built.value = null;
+			assertSharedMiss(built);
+		} finally {
+			miss.type = Type.MISS;
+			miss.value = null;
+			miss.errorCause = null;
+			miss.invalidationKeys = null;
+			miss.invalidatedKey = null;
+			miss.storeTimestampMillis = 0;
+			miss.mainFetchNanos = 0;
+			miss.invalidationFetchNanos = 0;
+			miss.invalidationKeysFetched = 0;
+			miss.invalidationKeysServedLocally = 0;
+			miss.relaxedTimeoutApplied = false;
+			miss.servedLocally = false;
+		}
+	}
+
+	private static void assertSharedMiss(CacheGetResult miss) {
+		assertEquals(Type.MISS, miss.getType());
+		assertTrue(miss.isMiss());
+		assertFalse(miss.isHit());
+		assertNull(miss.getValue());
+		assertNull(miss.getErrorCause());
+		assertNull(miss.getInvalidationKeys());
+		assertNull(miss.getInvalidatedKey());
+		assertEquals(0, miss.getStoreTimestampMillis());
+		assertEquals(0, miss.getMainFetchNanos());
+		assertEquals(0, miss.getInvalidationFetchNanos());
+		assertEquals(0, miss.getInvalidationKeysFetched());
+		assertEquals(0, miss.getInvalidationKeysServedLocally());
+		assertFalse(miss.isRelaxedTimeoutApplied());
+		assertFalse(miss.isServedLocally());
+	}
+
 	@Test
 	public void testErrorBuilder() {
 		Exception errorCause = new Exception();
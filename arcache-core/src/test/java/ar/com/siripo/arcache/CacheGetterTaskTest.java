@@ -1,8 +1,10 @@
 package ar.com.siripo.arcache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -11,22 +13,27 @@ import java.util.Random;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import ar.com.siripo.arcache.CacheGetResult.Type;
 import ar.com.siripo.arcache.CacheGetterTask.InvalidatedKey;
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
 import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
 import ar.com.siripo.arcache.math.LinearProbabilityFunction;
 import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.RandomSource;
+import ar.com.siripo.arcache.util.SettableFuture;
+import ar.com.siripo.arcache.util.ThreadLocalRandomSource;
 
 public class CacheGetterTaskTest {
 	ArcacheInMemoryClient backendClient;
 	ArcacheClient arcache;
-	Random random;
+	RandomSource random;
 
 	volatile boolean expectedFlow;
 	volatile Object flowValue;
@@ -35,7 +42,7 @@ public class CacheGetterTaskTest {
 	public void setUp() throws Exception {
 		backendClient = new ArcacheInMemoryClient();
 		arcache = new ArcacheClient(backendClient);
-		random = new Random();
+		random = new ThreadLocalRandomSource();
 		arcache.setExpirationProbabilityFunction(new LinearProbabilityFunction(0.5));
 		arcache.setInvalidationProbabilityFunction(new LinearProbabilityFunction(0));
 	}
@@ -58,7 +65,7 @@ public class CacheGetterTaskTest {
 
 		// When Done, its not cancellable
 		cgt = new CacheGetterTask("thekey", backendClient, backendClient, arcache, arcache, random);
-		assertEquals(cgt.get().getClass(), CacheGetResult.class);
+		assertSame(CacheGetResult.MISS, cgt.get());
 		assertEquals(cgt.isDone(), true);
 		assertEquals(cgt.cancel(false), false);
 		assertEquals(cgt.isCancelled(), false);
@@ -165,10 +172,10 @@ public class CacheGetterTaskTest {
 			assertEquals(e.getCause().getMessage(), "thisTimeout");
 		}
 
-		assertNotNull(cgt.invalidationKeysFutureGets);
-		assertEquals(cgt.invalidationKeysFutureGets.size(), 2);
-		assertEquals(cgt.invalidationKeysFutureGets.get("i1").isCancelled(), Boolean.FALSE);
-		assertEquals(cgt.invalidationKeysFutureGets.get("i2").isCancelled(), Boolean.FALSE);
+		assertNotNull(cgt.invalidationFutureGets);
+		assertEquals(cgt.invalidationFutureGets.length, 2);
+		assertEquals(cgt.invalidationFutureGets[0].isCancelled(), Boolean.FALSE);
+		assertEquals(cgt.invalidationFutureGets[1].isCancelled(), Boolean.FALSE);
 
 		expectedFlow = false;
 		flowValue = null;
@@ -177,8 +184,8 @@ public class CacheGetterTaskTest {
 		assertEquals(flowValue, Boolean.TRUE);
 
 		// Do verification.
-		assertEquals(cgt.invalidationKeysFutureGets.get("i1").isCancelled(), Boolean.TRUE);
-		assertEquals(cgt.invalidationKeysFutureGets.get("i2").isCancelled(), Boolean.TRUE);
+		assertEquals(cgt.invalidationFutureGets[0].isCancelled(), Boolean.TRUE);
+		assertEquals(cgt.invalidationFutureGets[1].isCancelled(), Boolean.TRUE);
 	}
 
 	@Test
@@ -188,7 +195,7 @@ public class CacheGetterTaskTest {
 		assertEquals(cgt.valueToReturn, null);
 		assertEquals(cgt.done, false);
 		cgt.get();
-		assertEquals(cgt.valueToReturn.getClass(), CacheGetResult.class);
+		assertSame(CacheGetResult.MISS, cgt.valueToReturn);
 		assertEquals(cgt.done, true);
 		assertEquals(cgt.isDone(), true);
 		flowValue = new CacheGetResult(CacheGetResult.Type.ERROR);
@@ -440,8 +447,8 @@ public class CacheGetterTaskTest {
 		// Assert that the inner exception is propagated to CacheGetterTask get
 		arcache.set("magickey", "hola", new String[] { "theinvkey" });
 		cgt = new CacheGetterTask("magickey", backendClient, backendClient, arcache, arcache, random) {
-			protected HashMap<String, CacheInvalidationObject> loadInvalidationKeys(
-					final ExpirableCacheObject cachedObject, final long startTimeMillis, final long timeoutMillis)
+			protected CacheGetResult evaluateCachedObject(final ExpirableCacheObject cachedObject,
+					final long startTimeMillis, final long timeoutMillis)
 					throws TimeoutException, InterruptedException, ExecutionException {
 				expectedFlow = true;
 				flowValue = new ExecutionException(new Exception());
@@ -790,8 +797,118 @@ public class CacheGetterTaskTest {
 
 	}
 
+	@Test
+	public void testEvaluateCachedObject() throws Exception {
+		CacheGetterTask cgt;
+		long currentTimeMillis = System.currentTimeMillis();
+		arcache.setTimeMeasurementErrorMillis(0);
+
+		// The misses share the same result
+		cgt = new CacheGetterTask("thekey", backendClient, backendClient, arcache, arcache, random);
+		assertSame(cgt.evaluateRawCachedObject(null), CacheGetResult.MISS);
+		assertSame(cgt.get(), CacheGetResult.MISS);
+
+		ExpirableCacheObject cachedObject = new ExpirableCacheObject();
+		cachedObject.value = "V";
+		cachedObject.timestampMillis = currentTimeMillis - 5000;
+		cachedObject.expirationTTLMillis = 100000;
+		cachedObject.invalidationKeys = new String[] { "i1", "i2", "i3" };
+
+		CacheInvalidationObject soft = new CacheInvalidationObject();
+		soft.invalidationTimestampMillis = currentTimeMillis;
+		CacheInvalidationObject hard = new CacheInvalidationObject();
+		hard.invalidationTimestampMillis = currentTimeMillis;
+		hard.isHardInvalidation = true;
+
+		// The map version
+		HashMap<String, CacheInvalidationObject> invalidationMap = new HashMap<String, CacheInvalidationObject>();
+		assertEquals(cgt.evaluateCachedObject(cachedObject, null, currentTimeMillis).getType(), Type.HIT);
+		invalidationMap.put("i2", soft);
+		CacheGetResult r = cgt.evaluateCachedObject(cachedObject, invalidationMap, currentTimeMillis);
+		assertEquals(r.getType(), Type.INVALIDATED);
+		assertEquals(r.getInvalidatedKey(), "i2");
+		invalidationMap.put("i2", hard);
+		assertSame(cgt.evaluateCachedObject(cachedObject, invalidationMap, currentTimeMillis), CacheGetResult.MISS);
+
+		// The invalidation keys are evaluated in order, the first one wins
+		backendClient.set(arcache.createInvalidationBackendKey("i2"), 100000, soft);
+		backendClient.set(arcache.createInvalidationBackendKey("i3"), 100000, hard);
+		cgt = new CacheGetterTask("thekey", backendClient, backendClient, arcache, arcache, random);
+		cgt.mainFutureGet = new DummyFuture<Object>(cachedObject);
+		r = cgt.get();
+		assertEquals(r.getType(), Type.INVALIDATED);
+		assertEquals(r.getInvalidatedKey(), "i2");
+		assertEquals(r.getValue(), "V");
+		assertEquals(cgt.invalidationFutureGets.length, 3);
+
+		// A hard invalidation returns the shared MISS
+		cachedObject.invalidationKeys = new String[] { "i3" };
+		cgt = new CacheGetterTask("thekey", backendClient, backendClient, arcache, arcache, random);
+		cgt.mainFutureGet = new DummyFuture<Object>(cachedObject);
+		assertSame(cgt.get(), CacheGetResult.MISS);
+		assertEquals(cgt.invalidationFutureGets.length, 1);
+
+		// An object stored inside the time measurement error does not load the keys
+		arcache.setTimeMeasurementErrorMillis(10000);
+		cgt = new CacheGetterTask("thekey", backendClient, backendClient, arcache, arcache, random);
+		cgt.mainFutureGet = new DummyFuture<Object>(cachedObject);
+		assertEquals(cgt.get().getType(), Type.HIT);
+		assertNull(cgt.invalidationFutureGets);
+		arcache.setTimeMeasurementErrorMillis(0);
+
+		// The shared futures are taken from the shared map
+		HashMap<String, Future<Object>> shared = new HashMap<String, Future<Object>>();
+		shared.put("i3", new DummyFuture<Object>(null));
+		cgt = new CacheGetterTask("thekey", backendClient, backendClient, arcache, arcache, random, shared,
+				new DummyFuture<Object>(cachedObject));
+		assertEquals(cgt.get().getType(), Type.HIT);
+		assertSame(cgt.invalidationFutureGets[0], shared.get("i3"));
+
+		// The futures are requested once
+		Future<Object>[] futures = cgt.invalidationFutureGets;
+		cgt.requestInvalidationObjects(new String[] { "i1" });
+		assertSame(cgt.invalidationFutureGets, futures);
+	}
+
+	@Test
+	public void testMainFetchMeasuredAtCompletion() throws Exception {
+		arcache.setTracker(new ArcacheClientMetricsTracker());
+
+		// A listenable main future is measured when it completes
+		SettableFuture<Object> mainFuture = new SettableFuture<Object>();
+		CacheGetterTask cgt = new CacheGetterTask("thekey", backendClient, backendClient, arcache, arcache, random,
+				null, mainFuture);
+		mainFuture.set(null);
+		long completedNanos = System.nanoTime() - cgt.startNanos;
+		Thread.sleep(50);
+		CacheGetResult result = cgt.get();
+		assertTrue(result.isMiss());
+		assertTrue(result.getMainFetchNanos() <= completedNanos);
+
+		// A plain future is measured when it is picked up
+		FutureTask<Object> plainFuture = new FutureTask<Object>(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, null);
+		plainFuture.run();
+		cgt = new CacheGetterTask("thekey", backendClient, backendClient, arcache, arcache, random, null,
+				plainFuture);
+		Thread.sleep(50);
+		assertTrue(cgt.get().getMainFetchNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+
+		// Without a tracker it is not measured
+		arcache.setTracker(null);
+		mainFuture = new SettableFuture<Object>();
+		cgt = new CacheGetterTask("thekey", backendClient, backendClient, arcache, arcache, random, null,
+				mainFuture);
+		mainFuture.set(null);
+		assertFalse(cgt.mainCompleted);
+		assertEquals(0, cgt.get().getMainFetchNanos());
+	}
+
 	@SuppressWarnings("serial")
-	private static class StaticDoubleRandom extends Random {
+	private static class StaticDoubleRandom extends Random implements RandomSource {
 		double rv;
 
 		StaticDoubleRandom(double v) {
@@ -0,0 +1,176 @@
+package ar.com.siripo.arcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.FutureListener;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.SettableFuture;
+
+public class CacheInvalidationBucketTest {
+
+	private static CacheInvalidationObject createInvalidationObject(long invalidationTimestampMillis) {
+		CacheInvalidationObject invObj = new CacheInvalidationObject();
+		invObj.invalidationTimestampMillis = invalidationTimestampMillis;
+		return invObj;
+	}
+
+	@Test
+	public void testBucketOf() {
+		HashSet<Integer> used = new HashSet<Integer>();
+		for (int i = 0; i < 1000; i++) {
+			int bucket = CacheInvalidationBucket.bucketOf("key" + i, 16);
+			assertTrue((bucket >= 0) && (bucket < 16));
+			assertEquals(bucket, CacheInvalidationBucket.bucketOf("key" + i, 16));
+			used.add(bucket);
+		}
+		assertEquals(16, used.size());
+		assertEquals(0, CacheInvalidationBucket.bucketOf("any", 1));
+
+		// The negative hash codes are also in range
+		assertTrue("polygenelubricants".hashCode() < 0);
+		assertTrue(CacheInvalidationBucket.bucketOf("polygenelubricants", 7) >= 0);
+	}
+
+	@Test
+	public void testMerge() {
+		CacheInvalidationObject a = createInvalidationObject(1000);
+		CacheInvalidationObject b = createInvalidationObject(2000);
+		CacheInvalidationObject c = createInvalidationObject(3000);
+
+		CacheInvalidationBucket first = CacheInvalidationBucket.merge(null, Collections.singletonMap("a", a), 0);
+		assertSame(a, first.get("a"));
+		assertNull(first.get("b"));
+
+		CacheInvalidationBucket second = CacheInvalidationBucket.merge(first, Collections.singletonMap("b", b), 0);
+		assertNotSame(first, second);
+		assertSame(a, second.get("a"));
+		assertSame(b, second.get("b"));
+		assertEquals(1, first.invalidationObjects.size());
+
+		// The new object of a key replaces the previous one
+		CacheInvalidationObject a2 = createInvalidationObject(4000);
+		assertSame(a2, CacheInvalidationBucket.merge(second, Collections.singletonMap("a", a2), 0).get("a"));
+
+		// The entries invalidated before the removal time are dropped
+		CacheInvalidationBucket third = CacheInvalidationBucket.merge(second, Collections.singletonMap("c", c), 2000);
+		assertNull(third.get("a"));
+		assertSame(b, third.get("b"));
+		assertSame(c, third.get("c"));
+
+		second.invalidationObjects.put("null", null);
+		assertFalse(CacheInvalidationBucket.merge(second, Collections.singletonMap("c", c), 0).invalidationObjects
+				.containsKey("null"));
+	}
+
+	@Test
+	public void testMaxEntries() {
+		HashMap<String, CacheInvalidationObject> objects = new HashMap<String, CacheInvalidationObject>();
+		for (int i = 0; i < CacheInvalidationBucket.MAX_ENTRIES + 10; i++) {
+			CacheInvalidationObject invObj = createInvalidationObject(1000 + i);
+			invObj.isHardInvalidation = (i == 3);
+			invObj.invalidationWindowMillis = (i == 5) ? 50 : 0;
+			objects.put("key" + i, invObj);
+		}
+		CacheInvalidationBucket bucket = CacheInvalidationBucket.merge(null, objects, 0);
+		assertEquals(CacheInvalidationBucket.MAX_ENTRIES, bucket.invalidationObjects.size());
+
+		// The oldest entries are folded into one that applies to the keys without an entry
+		assertNull(bucket.invalidationObjects.get("key9"));
+		assertSame(objects.get("key10"), bucket.get("key10"));
+		CacheInvalidationObject dropped = bucket.get("key0");
+		assertSame(dropped, bucket.get("never invalidated"));
+		assertEquals(1009, dropped.invalidationTimestampMillis);
+		assertFalse(dropped.isHardInvalidation);
+		assertEquals(50, dropped.invalidationWindowMillis);
+		assertEquals(1003, dropped.lastHardInvalidationTimestampMillis);
+		assertEquals(1008, dropped.lastSoftInvalidationTimestampMillis);
+
+		// The dropped entries are kept by the next merges until they expire
+		CacheInvalidationObject a = createInvalidationObject(5000);
+		assertSame(dropped,
+				CacheInvalidationBucket.merge(bucket, Collections.singletonMap("key10", a), 1009).droppedEntries);
+		assertNull(CacheInvalidationBucket.merge(bucket, Collections.singletonMap("key10", a), 1010).droppedEntries);
+	}
+
+	@Test
+	public void testFold() {
+		CacheInvalidationObject hard = createInvalidationObject(2000);
+		hard.isHardInvalidation = true;
+		hard.lastSoftInvalidationTimestampMillis = 1500;
+		CacheInvalidationObject soft = createInvalidationObject(1000);
+		soft.lastHardInvalidationTimestampMillis = 500;
+		soft.invalidationWindowMillis = 10;
+
+		assertSame(soft, CacheInvalidationBucket.fold(null, soft));
+		CacheInvalidationObject folded = CacheInvalidationBucket.fold(soft, hard);
+		assertEquals(2000, folded.invalidationTimestampMillis);
+		assertTrue(folded.isHardInvalidation);
+		assertEquals(10, folded.invalidationWindowMillis);
+		assertEquals(500, folded.lastHardInvalidationTimestampMillis);
+		assertEquals(1500, folded.lastSoftInvalidationTimestampMillis);
+		assertEquals(2000, CacheInvalidationBucket.fold(hard, soft).invalidationTimestampMillis);
+	}
+
+	@Test
+	public void testToBucket() {
+		CacheInvalidationBucket bucket = new CacheInvalidationBucket();
+		assertSame(bucket, CacheInvalidationBucket.toBucket(bucket));
+		assertNull(CacheInvalidationBucket.toBucket(null));
+		assertNull(CacheInvalidationBucket.toBucket(new CacheInvalidationObject()));
+		assertTrue(bucket instanceof CacheInvalidationObjectType);
+	}
+
+	@Test
+	public void testEntryFuture() throws Exception {
+		CacheInvalidationObject a = createInvalidationObject(1000);
+		CacheInvalidationBucket bucket = CacheInvalidationBucket.merge(null, Collections.singletonMap("a", a), 0);
+		SettableFuture<Object> bucketFuture = new SettableFuture<Object>();
+
+		CacheInvalidationBucketEntryFuture entryA = new CacheInvalidationBucketEntryFuture(bucketFuture, "a");
+		CacheInvalidationBucketEntryFuture entryB = new CacheInvalidationBucketEntryFuture(bucketFuture, "b");
+		final AtomicInteger notified = new AtomicInteger();
+		entryA.addListener(new FutureListener<Object>() {
+			@Override
+			public void onComplete(ListenableFuture<Object> future) {
+				assertTrue(future.isDone());
+				notified.incrementAndGet();
+			}
+		});
+		assertFalse(entryA.isDone());
+		assertEquals(0, notified.get());
+
+		bucketFuture.set(bucket);
+		assertEquals(1, notified.get());
+		assertTrue(entryA.isDone());
+		assertSame(a, entryA.get());
+		assertSame(a, entryA.get(1, TimeUnit.SECONDS));
+		assertNull(entryB.get());
+		assertFalse(entryA.isServedLocally());
+
+		// A missing bucket or an invalid type is a miss
+		assertNull(new CacheInvalidationBucketEntryFuture(new DummyFuture<Object>(null), "a").get());
+		assertNull(new CacheInvalidationBucketEntryFuture(new DummyFuture<Object>("invalid"), "a").get());
+
+		SettableFuture<Object> pending = new SettableFuture<Object>();
+		CacheInvalidationBucketEntryFuture entry = new CacheInvalidationBucketEntryFuture(pending, "a");
+		assertFalse(entry.isCancelled());
+		assertTrue(entry.cancel(false));
+		assertTrue(entry.isCancelled());
+		assertTrue(pending.isCancelled());
+	}
+
+}
@@ -1,8 +1,18 @@
 package ar.com.siripo.arcache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -13,6 +23,10 @@ import org.junit.Before;
 import org.junit.Test;
 
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBus;
+import ar.com.siripo.arcache.backend.ArcacheInvalidationBusListener;
+import ar.com.siripo.arcache.backend.ArcacheTieredBackendClient;
+import ar.com.siripo.arcache.backend.InProcessInvalidationBus;
 import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
 import ar.com.siripo.arcache.util.DummyFuture;
 
@@ -394,4 +408,296 @@ public class InvalidateKeyTaskTest {
 
 	}
 
+	@Test
+	public void testBucketedInvalidation() throws Exception {
+		arcache.setInvalidationKeyBuckets(4);
+		String bucketKey = arcache
+				.createInvalidationBucketBackendKey(CacheInvalidationBucket.bucketOf("firstkey", 4));
+
+		assertTrue(new InvalidateKeyTask("firstkey", false, 10, backendClient, arcache, arcache).get());
+		assertNull(backendClient.get(arcache.createInvalidationBackendKey("firstkey")));
+		CacheInvalidationBucket bucket = (CacheInvalidationBucket) backendClient.get(bucketKey);
+		CacheInvalidationObject soft = bucket.get("firstkey");
+		assertFalse(soft.isHardInvalidation);
+		assertEquals(10, soft.invalidationWindowMillis);
+
+		// The history of the key is kept inside the bucket
+		Thread.sleep(2);
+		assertTrue(new InvalidateKeyTask("firstkey", true, 0, backendClient, arcache, arcache).get());
+		CacheInvalidationObject hard = ((CacheInvalidationBucket) backendClient.get(bucketKey)).get("firstkey");
+		assertTrue(hard.isHardInvalidation);
+		assertEquals(soft.invalidationTimestampMillis, hard.lastSoftInvalidationTimestampMillis);
+
+		// The other keys of the bucket are kept
+		int i = 0;
+		while (CacheInvalidationBucket.bucketOf("other" + i, 4) != CacheInvalidationBucket.bucketOf("firstkey", 4)) {
+			i++;
+		}
+		String other = "other" + i;
+		assertTrue(new InvalidateKeyTask(other, true, 0, backendClient, arcache, arcache).get());
+		bucket = (CacheInvalidationBucket) backendClient.get(bucketKey);
+		assertNotNull(bucket.get(other));
+		assertEquals(hard.invalidationTimestampMillis, bucket.get("firstkey").invalidationTimestampMillis);
+
+		// An invalid type fails the invalidation and it is not overwritten
+		backendClient.set(bucketKey, 1000, "invalid");
+		try {
+			new InvalidateKeyTask("firstkey", false, 0, backendClient, arcache, arcache).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof UnexpectedObjectType);
+		}
+		assertEquals("invalid", backendClient.get(bucketKey));
+
+		// The namespace invalidation is never bucketed
+		assertTrue(new InvalidateKeyTask(NamespaceInvalidation.INVALIDATION_KEY, true, 0, backendClient, arcache,
+				arcache).get());
+		assertTrue(backendClient.get(arcache.createInvalidationBackendKey(
+				NamespaceInvalidation.INVALIDATION_KEY)) instanceof CacheInvalidationObject);
+	}
+
+	@Test
+	public void testBucketReadFailure() throws Exception {
+		arcache.setInvalidationKeyBuckets(1);
+		String bucketKey = arcache.createInvalidationBucketBackendKey(0);
+		assertTrue(new InvalidateKeyTask("other", true, 0, backendClient, arcache, arcache).get());
+
+		final Exception readFailure = new Exception("read failure");
+		ArcacheInMemoryClient failingClient = new ArcacheInMemoryClient() {
+			@Override
+			public Future<Object> asyncGet(String key) {
+				return DummyFuture.createWithException(readFailure);
+			}
+		};
+		failingClient.set(bucketKey, 1000, backendClient.get(bucketKey));
+		try {
+			new InvalidateKeyTask("key", true, 0, failingClient, arcache, arcache).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertEquals(readFailure, e.getCause());
+		}
+		// The bucket is not replaced by one without the other keys
+		CacheInvalidationBucket bucket = (CacheInvalidationBucket) failingClient.get(bucketKey);
+		assertNotNull(bucket.get("other"));
+		assertNull(bucket.get("key"));
+
+		// Without buckets a failed read is treated as a miss
+		arcache.setInvalidationKeyBuckets(0);
+		assertTrue(new InvalidateKeyTask("key", true, 0, failingClient, arcache, arcache).get());
+	}
+
+	@Test
+	public void testMergeLostBucketEntry() throws Exception {
+		arcache.setInvalidationKeyBuckets(1);
+		final String bucketKey = arcache.createInvalidationBucketBackendKey(0);
+		final CacheInvalidationBucket concurrent = CacheInvalidationBucket.merge(null,
+				Collections.singletonMap("concurrent", createConcurrentInvalidationObject()), 0);
+
+		// A concurrent invalidation that read the bucket before overwrites the first write
+		OverwritingClient overwritingClient = new OverwritingClient(bucketKey, concurrent, true);
+		assertTrue(new InvalidateKeyTask("key", false, 0, overwritingClient, arcache, arcache).get());
+		CacheInvalidationBucket bucket = (CacheInvalidationBucket) overwritingClient.get(bucketKey);
+		assertNotNull(bucket.get("key"));
+		assertNotNull(bucket.get("concurrent"));
+		assertEquals(2, overwritingClient.sets);
+
+		// When the entry was not lost it is not stored again
+		overwritingClient.sets = 0;
+		assertTrue(new InvalidateKeyTask("key", false, 0, overwritingClient, arcache, arcache).get());
+		assertEquals(1, overwritingClient.sets);
+
+		// The entry is lost and the backend refuses the second write
+		OverwritingClient refusingClient = new OverwritingClient(bucketKey, concurrent, false);
+		assertFalse(new InvalidateKeyTask("key", false, 0, refusingClient, arcache, arcache).get());
+
+		// A failure reading the bucket again does not fail the stored invalidation
+		ArcacheInMemoryClient failingReadClient = new ArcacheInMemoryClient() {
+			int gets = 0;
+
+			@Override
+			public Future<Object> asyncGet(String key) {
+				if (++gets > 1) {
+					return DummyFuture.createWithException(new Exception("read failure"));
+				}
+				return super.asyncGet(key);
+			}
+		};
+		assertTrue(new InvalidateKeyTask("key", false, 0, failingReadClient, arcache, arcache).get());
+
+		// A bucket of an unexpected type read again is not overwritten
+		ArcacheInMemoryClient invalidReadClient = new ArcacheInMemoryClient() {
+			int gets = 0;
+
+			@Override
+			public Future<Object> asyncGet(String key) {
+				if (++gets > 1) {
+					return new DummyFuture<Object>("invalid");
+				}
+				return super.asyncGet(key);
+			}
+		};
+		assertTrue(new InvalidateKeyTask("key", false, 0, invalidReadClient, arcache, arcache).get());
+		assertNotNull(((CacheInvalidationBucket) invalidReadClient.get(bucketKey)).get("key"));
+		InvalidateKeyTask ikt = new InvalidateKeyTask("key", false, 0, backendClient, arcache, arcache);
+		ikt.get();
+		assertTrue(ikt.mergeLostBucketEntry(System.currentTimeMillis() - 10, 5, new CacheInvalidationObject()));
+	}
+
+	@Test
+	public void testBucketedInvalidationOverTieredBackend() throws Exception {
+		arcache.setInvalidationKeyBuckets(1);
+		String bucketKey = arcache.createInvalidationBucketBackendKey(0);
+		TieredClient tieredClient = new TieredClient(new TieredClient(backendClient));
+
+		// The stale local copy is neither read nor written back
+		CacheInvalidationObject other = createConcurrentInvalidationObject();
+		backendClient.set(bucketKey, 1000,
+				CacheInvalidationBucket.merge(null, Collections.singletonMap("other", other), 0));
+		tieredClient.set(bucketKey, 1000, new CacheInvalidationBucket());
+		assertTrue(new InvalidateKeyTask("key", false, 0, tieredClient, arcache, arcache).get());
+		CacheInvalidationBucket bucket = (CacheInvalidationBucket) backendClient.get(bucketKey);
+		assertNotNull(bucket.get("key"));
+		assertNotNull(bucket.get("other"));
+
+		// The local copies of every tier are evicted
+		assertNull(tieredClient.get(bucketKey));
+		assertEquals(Collections.singletonList(bucketKey), tieredClient.evicted);
+		assertEquals(Collections.singletonList(bucketKey), ((TieredClient) tieredClient.remote).evicted);
+
+		// The plain invalidation keys are not owned by other keys and use the tiered backend
+		arcache.setInvalidationKeyBuckets(0);
+		assertTrue(new InvalidateKeyTask("key", false, 0, tieredClient, arcache, arcache).get());
+		assertNotNull(tieredClient.get(arcache.createInvalidationBackendKey("key")));
+		assertEquals(1, tieredClient.evicted.size());
+	}
+
+	@Test
+	public void testPublishInvalidation() throws Exception {
+		InProcessInvalidationBus bus = new InProcessInvalidationBus();
+		RecordingListener listener = new RecordingListener();
+		bus.subscribe(listener);
+		arcache.setInvalidationBus(bus);
+
+		assertTrue(new InvalidateKeyTask("firstkey", false, 0, backendClient, arcache, arcache).get());
+		assertEquals(Collections.singletonList(arcache.createInvalidationBackendKey("firstkey")),
+				listener.invalidations);
+
+		// The bucket record is what changed
+		listener.invalidations.clear();
+		arcache.setInvalidationKeyBuckets(4);
+		assertTrue(new InvalidateKeyTask("firstkey", false, 0, backendClient, arcache, arcache).get());
+		assertEquals(Collections.singletonList(arcache.createInvalidationBucketBackendKey(
+				CacheInvalidationBucket.bucketOf("firstkey", 4))), listener.invalidations);
+
+		// Nothing is published when the invalidation is not stored
+		listener.invalidations.clear();
+		ArcacheInMemoryClient refusingClient = new ArcacheInMemoryClient() {
+			@Override
+			public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+				return new DummyFuture<Boolean>(false);
+			}
+		};
+		assertFalse(new InvalidateKeyTask("firstkey", false, 0, refusingClient, arcache, arcache).get());
+		assertTrue(listener.invalidations.isEmpty());
+
+		// A failing bus does not fail the stored invalidation, it is reported to the tracker
+		ArcacheClientMetricsTracker tracker = new ArcacheClientMetricsTracker();
+		arcache.setTracker(tracker);
+		arcache.setInvalidationBus(new ArcacheInvalidationBus() {
+			@Override
+			public void publish(String backendKey) {
+				throw new IllegalStateException();
+			}
+
+			@Override
+			public void publish(Collection<String> backendKeys) {
+				throw new IllegalStateException();
+			}
+
+			@Override
+			public void subscribe(ArcacheInvalidationBusListener listener) {
+			}
+
+			@Override
+			public void unsubscribe(ArcacheInvalidationBusListener listener) {
+			}
+		});
+		assertTrue(new InvalidateKeyTask("firstkey", false, 0, backendClient, arcache, arcache).get());
+		assertEquals(1, tracker.getInvalidationPublishFailureCount());
+		assertTrue(new BulkInvalidateKeysTask(Arrays.asList("a", "b"), false, 0, backendClient, arcache, arcache)
+				.get().get("a"));
+		assertEquals(3, tracker.getInvalidationPublishFailureCount());
+	}
+
+	/** Records the backend keys published in the bus */
+	static class RecordingListener implements ArcacheInvalidationBusListener {
+		final List<String> invalidations = Collections.synchronizedList(new ArrayList<String>());
+		volatile int lost = 0;
+
+		@Override
+		public void onInvalidation(String backendKey) {
+			invalidations.add(backendKey);
+		}
+
+		@Override
+		public void onInvalidationsLost() {
+			lost++;
+		}
+	}
+
+	static CacheInvalidationObject createConcurrentInvalidationObject() {
+		CacheInvalidationObject invObj = new CacheInvalidationObject();
+		invObj.invalidationTimestampMillis = System.currentTimeMillis();
+		return invObj;
+	}
+
+	/** A local copy over a remote backend, like the speedup client */
+	static class TieredClient extends ArcacheInMemoryClient implements ArcacheTieredBackendClient {
+		final ArcacheInMemoryClient remote;
+		final List<String> evicted = new ArrayList<String>();
+
+		TieredClient(ArcacheInMemoryClient remote) {
+			this.remote = remote;
+		}
+
+		@Override
+		public ArcacheBackendClient getRemoteBackendClient() {
+			return remote;
+		}
+
+		@Override
+		public void evictLocalCopy(String backendKey) {
+			evicted.add(backendKey);
+			remove(backendKey);
+		}
+	}
+
+	/** Overwrites the first write of the bucket with the bucket of a concurrent invalidation */
+	static class OverwritingClient extends ArcacheInMemoryClient {
+		final String bucketKey;
+		final CacheInvalidationBucket concurrent;
+		final boolean acceptSecondWrite;
+		int sets = 0;
+
+		OverwritingClient(String bucketKey, CacheInvalidationBucket concurrent, boolean acceptSecondWrite) {
+			this.bucketKey = bucketKey;
+			this.concurrent = concurrent;
+			this.acceptSecondWrite = acceptSecondWrite;
+		}
+
+		@Override
+		public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+			sets++;
+			if (sets == 2 && !acceptSecondWrite) {
+				return new DummyFuture<Boolean>(false);
+			}
+			Future<Boolean> stored = super.asyncSet(key, ttlMillis, value);
+			if (sets == 1 && key.equals(bucketKey) && (get(bucketKey) instanceof CacheInvalidationBucket)
+					&& ((CacheInvalidationBucket) get(bucketKey)).get("concurrent") == null) {
+				set(bucketKey, ttlMillis, concurrent);
+			}
+			return stored;
+		}
+	}
+
 }
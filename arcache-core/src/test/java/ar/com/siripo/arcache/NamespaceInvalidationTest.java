@@ -0,0 +1,190 @@
+package ar.com.siripo.arcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
+import ar.com.siripo.arcache.util.DummyFuture;
+import ar.com.siripo.arcache.util.ListenableFuture;
+import ar.com.siripo.arcache.util.SettableFuture;
+
+public class NamespaceInvalidationTest {
+
+	ArcacheInMemoryClient backendClient;
+
+	@Before
+	public void setUp() throws Exception {
+		backendClient = new ArcacheInMemoryClient();
+	}
+
+	@Test
+	public void testConstructor() {
+		assertEquals(1000, new NamespaceInvalidation(backendClient, "ns", 1000).getRefreshMillis());
+		try {
+			new NamespaceInvalidation(null, "ns", 1000);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new NamespaceInvalidation(backendClient, null, 1000);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new NamespaceInvalidation(backendClient, "ns", 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testGetAndRefresh() throws Exception {
+		NamespaceInvalidation ni = new NamespaceInvalidation(backendClient, "ns", 50);
+		assertFalse(ni.isLoaded());
+		assertNull(ni.get(1000));
+		assertTrue(ni.isLoaded());
+
+		// It is not read again until the refresh interval
+		CacheInvalidationObject invObj = new CacheInvalidationObject();
+		backendClient.set("ns", 1000, invObj);
+		assertNull(ni.get(1000));
+
+		ni.expire();
+		ni.get(1000);
+		assertSame(invObj, ni.get(1000));
+
+		CacheInvalidationObject invObj2 = new CacheInvalidationObject();
+		backendClient.set("ns", 1000, invObj2);
+		Thread.sleep(60);
+		ni.get(1000);
+		assertSame(invObj2, ni.get(1000));
+
+		// An invalid type is treated as a miss
+		backendClient.set("ns", 1000, "invalid");
+		ni.expire();
+		ni.get(1000);
+		assertNull(ni.get(1000));
+	}
+
+	@Test
+	public void testLoadFailures() throws Exception {
+		final SettableFuture<Object> pending = new SettableFuture<Object>();
+		StubBackendClient stub = new StubBackendClient();
+		stub.getResult = pending;
+		NamespaceInvalidation ni = new NamespaceInvalidation(stub, "ns", 1000);
+
+		// The first load is waited
+		try {
+			ni.get(1);
+			fail();
+		} catch (TimeoutException e) {
+		}
+		ListenableFuture<Object> load = ni.load();
+		assertSame(load, ni.load());
+		assertEquals(1, stub.gets);
+
+		pending.setException(new IllegalStateException());
+		assertFalse(ni.isLoaded());
+		stub.getResult = DummyFuture.createWithException(new IllegalStateException());
+		try {
+			ni.get(1000);
+			fail();
+		} catch (ExecutionException e) {
+		}
+
+		// A failed refresh keeps the previous object
+		CacheInvalidationObject invObj = new CacheInvalidationObject();
+		stub.getResult = new DummyFuture<Object>(invObj);
+		assertSame(invObj, ni.get(1000));
+		stub.getResult = DummyFuture.createWithException(new IllegalStateException());
+		ni.expire();
+		assertSame(invObj, ni.get(1000));
+		assertTrue(ni.refreshedTimeMillis > 0);
+
+		// The completions of old loads are ignored
+		ni.onLoaded(pending, null);
+		ni.onFailed(pending);
+		assertSame(invObj, ni.get(1000));
+	}
+
+	@Test
+	public void testLoadDeadline() throws Exception {
+		final SettableFuture<Object> pending = new SettableFuture<Object>();
+		StubBackendClient stub = new StubBackendClient();
+		stub.getResult = pending;
+		NamespaceInvalidation ni = new NamespaceInvalidation(stub, "ns", 20);
+		assertSame(pending, ni.load());
+
+		// A load that never completes is cancelled after the refresh interval
+		long start = System.currentTimeMillis();
+		while ((!pending.isCancelled()) && (System.currentTimeMillis() - start < 5000)) {
+			Thread.sleep(1);
+		}
+		assertTrue(pending.isCancelled());
+		assertNull(ni.loadFuture);
+		assertFalse(ni.isLoaded());
+
+		// The next get starts another load
+		CacheInvalidationObject invObj = new CacheInvalidationObject();
+		stub.getResult = new DummyFuture<Object>(invObj);
+		assertSame(invObj, ni.get(1000));
+		assertEquals(2, stub.gets);
+		ni.onExpired(pending);
+		assertSame(invObj, ni.get(1000));
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		final SettableFuture<Object> pending = new SettableFuture<Object>();
+		StubBackendClient stub = new StubBackendClient();
+		stub.getResult = pending;
+		NamespaceInvalidation ni = new NamespaceInvalidation(stub, "ns", 60000);
+		ni.load();
+
+		// The stored object is installed and the load in flight is discarded
+		CacheInvalidationObject stored = new CacheInvalidationObject();
+		stored.invalidationTimestampMillis = 2000;
+		ni.update(stored);
+		assertTrue(ni.isLoaded());
+		assertNull(ni.loadFuture);
+		assertSame(stored, ni.get(1000));
+		pending.set(new CacheInvalidationObject());
+		assertSame(stored, ni.get(1000));
+		assertEquals(1, stub.gets);
+
+		// An older object does not replace a newer one
+		CacheInvalidationObject older = new CacheInvalidationObject();
+		older.invalidationTimestampMillis = 1000;
+		ni.update(older);
+		assertSame(stored, ni.get(1000));
+	}
+
+	static class StubBackendClient implements ArcacheBackendClient {
+		Future<Object> getResult;
+		int gets = 0;
+
+		@Override
+		public Future<Boolean> asyncSet(String key, long ttlMillis, Object value) {
+			return new DummyFuture<Boolean>(true);
+		}
+
+		@Override
+		public Future<Object> asyncGet(String key) {
+			gets++;
+			return getResult;
+		}
+	}
+
+}
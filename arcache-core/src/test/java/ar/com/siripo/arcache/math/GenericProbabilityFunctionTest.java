@@ -25,6 +25,13 @@ public class GenericProbabilityFunctionTest {
 		testProbabilityFunctionConstraints(new AdjustedExponentialProbabilityFunction(0.0, 11));
 		testProbabilityFunctionConstraints(new AdjustedExponentialProbabilityFunction(0.2, 11));
 		testProbabilityFunctionConstraints(new AdjustedExponentialProbabilityFunction(0.5, 11));
+
+		// Test Tabulated
+		testProbabilityFunctionConstraints(new TabulatedProbabilityFunction(new LinearProbabilityFunction(0.2)));
+		testProbabilityFunctionConstraints(
+				new TabulatedProbabilityFunction(new AdjustedExponentialProbabilityFunction(0.0, 11)));
+		testProbabilityFunctionConstraints(
+				new TabulatedProbabilityFunction(new AdjustedExponentialProbabilityFunction(0.5, 11), 0.01));
 	}
 
 	private void testProbabilityFunctionConstraints(ProbabilityFunction probabilityFunction) {
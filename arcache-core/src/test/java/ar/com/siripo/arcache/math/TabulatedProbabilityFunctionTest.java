@@ -0,0 +1,96 @@
+package ar.com.siripo.arcache.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class TabulatedProbabilityFunctionTest {
+
+	@Test
+	public void testConstructor() {
+		ProbabilityFunction function = new AdjustedExponentialProbabilityFunction(0.5, 11);
+		TabulatedProbabilityFunction tf = new TabulatedProbabilityFunction(function);
+		assertSame(function, tf.getFunction());
+		assertTrue(tf.getMaxError() <= TabulatedProbabilityFunction.DEFAULT_MAX_ERROR);
+		assertEquals(0, Integer.bitCount(tf.getSegments()) - 1);
+
+		try {
+			new TabulatedProbabilityFunction(null);
+			fail("Expected IllegalArgumentException, the function is required");
+		} catch (IllegalArgumentException ia) {
+		}
+
+		try {
+			new TabulatedProbabilityFunction(function, 0);
+			fail("Expected IllegalArgumentException, max error zero is invalid");
+		} catch (IllegalArgumentException ia) {
+		}
+
+		try {
+			new TabulatedProbabilityFunction(function, Double.NaN);
+			fail("Expected IllegalArgumentException, max error NaN is invalid");
+		} catch (IllegalArgumentException ia) {
+		}
+
+		try {
+			new TabulatedProbabilityFunction(function, 0.1, 8);
+			fail("Expected IllegalArgumentException, max segments 8 is invalid");
+		} catch (IllegalArgumentException ia) {
+		}
+	}
+
+	@Test
+	public void testErrorBound() {
+		double[] maxErrors = { 0.01, 0.001, 0.0001, 0.00001 };
+		ProbabilityFunction[] functions = { new LinearProbabilityFunction(0.2),
+				new AdjustedExponentialProbabilityFunction(0, 11), new AdjustedExponentialProbabilityFunction(0.5, 25),
+				new AdjustedExponentialProbabilityFunction(0.25, -3) };
+
+		for (ProbabilityFunction function : functions) {
+			int lastSegments = 0;
+			for (double maxError : maxErrors) {
+				TabulatedProbabilityFunction tf = new TabulatedProbabilityFunction(function, maxError);
+				assertTrue(tf.getMaxError() <= maxError);
+				assertTrue(tf.getSegments() >= lastSegments);
+				lastSegments = tf.getSegments();
+
+				for (double x = -0.5; x <= 1.5; x += 0.0001) {
+					assertEquals(function.getProbability(x), tf.getProbability(x), maxError);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testGetProbability() {
+		TabulatedProbabilityFunction tf = new TabulatedProbabilityFunction(new LinearProbabilityFunction(0));
+		assertEquals(TabulatedProbabilityFunction.MIN_SEGMENTS, tf.getSegments());
+		assertEquals(0, tf.getMaxError(), 1e-15);
+
+		assertEquals(0, tf.getProbability(-1), 0);
+		assertEquals(0, tf.getProbability(0), 0);
+		assertEquals(0.3, tf.getProbability(0.3), 1e-15);
+		assertEquals(0.75, tf.getProbability(0.75), 0);
+		assertEquals(Math.nextAfter(1.0, 0), tf.getProbability(Math.nextAfter(1.0, 0)), 1e-15);
+		assertEquals(1, tf.getProbability(1), 0);
+		assertEquals(1, tf.getProbability(2), 0);
+	}
+
+	@Test
+	public void testMaxSegments() {
+		// A step can not be interpolated, the table stops growing at the limit
+		ProbabilityFunction step = new ProbabilityFunction() {
+			@Override
+			public double getProbability(double x) {
+				return (x < 0.3) ? 0 : 1;
+			}
+		};
+		TabulatedProbabilityFunction tf = new TabulatedProbabilityFunction(step, 0.001, 100);
+		assertEquals(64, tf.getSegments());
+		assertTrue(tf.getMaxError() > 0.001);
+	}
+
+}
@@ -3,15 +3,22 @@ package ar.com.siripo.arcache.spring;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import ar.com.siripo.arcache.ArcacheClient;
+import ar.com.siripo.arcache.ArcacheClientMetricsTracker;
+import ar.com.siripo.arcache.ArcacheClientTracker;
 import ar.com.siripo.arcache.backend.ArcacheBackendClient;
+import ar.com.siripo.arcache.backend.InProcessInvalidationBus;
 import ar.com.siripo.arcache.backend.inmemory.ArcacheInMemoryClient;
 import ar.com.siripo.arcache.math.ProbabilityFunction;
+import ar.com.siripo.arcache.util.RandomSource;
+import ar.com.siripo.arcache.util.SeededRandomSource;
 
 public class ArcacheClientFactoryBeanTest {
 
@@ -155,4 +162,66 @@ public class ArcacheClientFactoryBeanTest {
 		assertEquals(true, factoryBean.getObject().getRelaxOperationTimeoutInHeavyLoadSystem());
 	}
 
+	@Test
+	public void testSetBackendRequestCoalescing() throws Exception {
+		factoryBean.setBackendRequestCoalescing(true);
+		assertEquals(true, factoryBean.getObject().getBackendRequestCoalescing());
+		factoryBean.setBackendRequestCoalescing(false);
+		assertEquals(false, factoryBean.getObject().getBackendRequestCoalescing());
+	}
+
+	@Test
+	public void testSetStaleWhileRevalidate() throws Exception {
+		factoryBean.setStaleWhileRevalidate(true);
+		assertEquals(true, factoryBean.getObject().getStaleWhileRevalidate());
+		factoryBean.setStaleWhileRevalidate(false);
+		assertEquals(false, factoryBean.getObject().getStaleWhileRevalidate());
+	}
+
+	@Test
+	public void testSetLoadWaitTimeoutMillis() throws Exception {
+		factoryBean.setLoadWaitTimeoutMillis(120000);
+		assertEquals(120000, factoryBean.getObject().getLoadWaitTimeoutMillis());
+	}
+
+	@Test
+	public void testSetRefreshExecutor() throws Exception {
+		Executor executor = Executors.newSingleThreadExecutor();
+		factoryBean.setRefreshExecutor(executor);
+		assertEquals(executor, factoryBean.getObject().getRefreshExecutor());
+	}
+
+	@Test
+	public void testSetRandomSource() throws Exception {
+		RandomSource randomSource = new SeededRandomSource(1);
+		factoryBean.setRandomSource(randomSource);
+		assertEquals(randomSource, factoryBean.getObject().getRandomSource());
+	}
+
+	@Test
+	public void testSetTracker() throws Exception {
+		ArcacheClientTracker tracker = new ArcacheClientMetricsTracker();
+		factoryBean.setTracker(tracker);
+		assertEquals(tracker, factoryBean.getObject().getTracker());
+	}
+
+	@Test
+	public void testSetNamespaceInvalidationRefreshMillis() throws Exception {
+		factoryBean.setNamespaceInvalidationRefreshMillis(1234);
+		assertEquals(1234, factoryBean.getObject().getNamespaceInvalidationRefreshMillis());
+	}
+
+	@Test
+	public void testSetInvalidationKeyBuckets() throws Exception {
+		factoryBean.setInvalidationKeyBuckets(16);
+		assertEquals(16, factoryBean.getObject().getInvalidationKeyBuckets());
+	}
+
+	@Test
+	public void testSetInvalidationBus() throws Exception {
+		InProcessInvalidationBus bus = new InProcessInvalidationBus();
+		factoryBean.setInvalidationBus(bus);
+		assertTrue(bus == factoryBean.getObject().getInvalidationBus());
+	}
+
 }